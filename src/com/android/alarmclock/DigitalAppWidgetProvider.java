@@ -65,6 +65,14 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         startAlarmOnQuarterHour(context);
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        super.onDeleted(context, appWidgetIds);
+        for (int appWidgetId : appWidgetIds) {
+            DigitalWidgetState.remove(appWidgetId);
+        }
+    }
+
     @Override
     public void onDisabled(Context context) {
         super.onDisabled(context);
@@ -84,20 +92,21 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
                 || Intent.ACTION_TIMEZONE_CHANGED.equals(action)
                 || Intent.ACTION_TIME_CHANGED.equals(action)
                 || Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+            if (!ACTION_ON_QUARTER_HOUR.equals(action)) {
+                // Push everything again, formats, offsets and days may all be different.
+                DigitalWidgetState.clear();
+            }
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             if (appWidgetManager != null) {
                 int[] appWidgetIds = appWidgetManager.getAppWidgetIds(getComponentName(context));
-                for (int appWidgetId : appWidgetIds) {
-                    appWidgetManager.
-                            notifyAppWidgetViewDataChanged(appWidgetId,
-                                    R.id.digital_appwidget_listview);
-                    RemoteViews widget = new RemoteViews(context.getPackageName(),
-                            R.layout.digital_appwidget);
-                    float ratio = WidgetUtils.getScaleRatio(context, null, appWidgetId);
-                    WidgetUtils.setTimeFormat(widget, 0/*no am/pm*/, R.id.the_clock);
-                    WidgetUtils.setClockSize(context, widget, ratio);
-                    refreshAlarm(context, widget);
-                    appWidgetManager.partiallyUpdateAppWidget(appWidgetId, widget);
+                if (appWidgetIds.length > 0) {
+                    final int listHash = DigitalWidgetState.getListHash(context,
+                            System.currentTimeMillis());
+                    final String nextAlarm = getNextAlarm(context);
+                    for (int appWidgetId : appWidgetIds) {
+                        updateChanged(context, appWidgetManager, appWidgetId, listHash,
+                                nextAlarm);
+                    }
                 }
             }
             if(!ACTION_ON_QUARTER_HOUR.equals(action)) {
@@ -110,11 +119,14 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             if (appWidgetManager != null) {
                 int[] appWidgetIds = appWidgetManager.getAppWidgetIds(getComponentName(context));
+                final String nextAlarm = getNextAlarm(context);
                 for (int appWidgetId : appWidgetIds) {
-                    RemoteViews widget = new RemoteViews(context.getPackageName(),
-                            R.layout.digital_appwidget);
-                    refreshAlarm(context, widget);
-                    appWidgetManager.partiallyUpdateAppWidget(appWidgetId, widget);
+                    if (DigitalWidgetState.get(appWidgetId).updateNextAlarm(nextAlarm)) {
+                        RemoteViews widget = new RemoteViews(context.getPackageName(),
+                                R.layout.digital_appwidget);
+                        refreshAlarm(context, widget, nextAlarm);
+                        appWidgetManager.partiallyUpdateAppWidget(appWidgetId, widget);
+                    }
                 }
             }
         } else if (Cities.WORLDCLOCK_UPDATE_INTENT.equals(action)) {
@@ -122,15 +134,52 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             if (appWidgetManager != null) {
                 int[] appWidgetIds = appWidgetManager.getAppWidgetIds(getComponentName(context));
-                for (int appWidgetId : appWidgetIds) {
-                    appWidgetManager.
-                            notifyAppWidgetViewDataChanged(appWidgetId,
+                if (appWidgetIds.length > 0) {
+                    final int listHash = DigitalWidgetState.getListHash(context,
+                            System.currentTimeMillis());
+                    for (int appWidgetId : appWidgetIds) {
+                        if (DigitalWidgetState.get(appWidgetId).updateList(listHash)) {
+                            appWidgetManager.notifyAppWidgetViewDataChanged(appWidgetId,
                                     R.id.digital_appwidget_listview);
+                        }
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Push only the parts of a widget that changed since they were last pushed: the world
+     * clock list, the clock format and size, and the next alarm.
+     */
+    private void updateChanged(Context context, AppWidgetManager appWidgetManager,
+            int appWidgetId, int listHash, String nextAlarm) {
+        final DigitalWidgetState state = DigitalWidgetState.get(appWidgetId);
+        if (state.updateList(listHash)) {
+            appWidgetManager.notifyAppWidgetViewDataChanged(appWidgetId,
+                    R.id.digital_appwidget_listview);
+        }
+
+        RemoteViews widget = null;
+        final float ratio = state.getRatio(context, appWidgetId);
+        if (state.updateClock(ratio)) {
+            widget = new RemoteViews(context.getPackageName(), R.layout.digital_appwidget);
+            WidgetUtils.setTimeFormat(widget, 0/*no am/pm*/, R.id.the_clock);
+            WidgetUtils.setClockSize(context, widget, ratio);
+        }
+        if (state.updateNextAlarm(nextAlarm)) {
+            if (widget == null) {
+                widget = new RemoteViews(context.getPackageName(), R.layout.digital_appwidget);
+            }
+            refreshAlarm(context, widget, nextAlarm);
+        }
+        if (widget != null) {
+            appWidgetManager.partiallyUpdateAppWidget(appWidgetId, widget);
+        } else if (DigitalAppWidgetService.LOGGING) {
+            Log.v(TAG, "DigitalWidget " + appWidgetId + " unchanged");
+        }
+    }
+
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         if (DigitalAppWidgetService.LOGGING) {
@@ -138,6 +187,7 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         }
         for (int appWidgetId : appWidgetIds) {
             float ratio = WidgetUtils.getScaleRatio(context, null, appWidgetId);
+            DigitalWidgetState.get(appWidgetId).setRatio(ratio);
             updateClock(context, appWidgetManager, appWidgetId, ratio);
         }
         startAlarmOnQuarterHour(context);
@@ -149,6 +199,7 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
             int appWidgetId, Bundle newOptions) {
         // scale the fonts of the clock to fit inside the new size
         float ratio = WidgetUtils.getScaleRatio(context, newOptions, appWidgetId);
+        DigitalWidgetState.get(appWidgetId).setRatio(ratio);
         AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
         updateClock(context, widgetManager, appWidgetId, ratio);
     }
@@ -167,7 +218,11 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         }
 
         // Setup alarm text clock's format and font sizes
-        refreshAlarm(context, widget);
+        final DigitalWidgetState state = DigitalWidgetState.get(appWidgetId);
+        final String nextAlarm = getNextAlarm(context);
+        state.updateNextAlarm(nextAlarm);
+        refreshAlarm(context, widget, nextAlarm);
+        state.updateClock(ratio);
         WidgetUtils.setTimeFormat(widget, 0/*no am/pm*/, R.id.the_clock);
         WidgetUtils.setClockSize(context, widget, ratio);
 
@@ -191,14 +246,18 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
                         getActivity(context, 0, new Intent(context, CitiesActivity.class), 0));
 
         // Refresh the widget
+        state.updateList(DigitalWidgetState.getListHash(context, System.currentTimeMillis()));
         appWidgetManager.notifyAppWidgetViewDataChanged(
                 appWidgetId, R.id.digital_appwidget_listview);
         appWidgetManager.updateAppWidget(appWidgetId, widget);
     }
 
-    protected void refreshAlarm(Context context, RemoteViews widget) {
-        String nextAlarm = Settings.System.getString(context.getContentResolver(),
+    private static String getNextAlarm(Context context) {
+        return Settings.System.getString(context.getContentResolver(),
                 Settings.System.NEXT_ALARM_FORMATTED);
+    }
+
+    protected void refreshAlarm(Context context, RemoteViews widget, String nextAlarm) {
         if (!TextUtils.isEmpty(nextAlarm)) {
             widget.setTextViewText(R.id.nextAlarm,
                     context.getString(R.string.control_set_alarm_with_existing, nextAlarm));
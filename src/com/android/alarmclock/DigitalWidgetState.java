@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.alarmclock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.SparseArray;
+
+import com.android.deskclock.SettingsActivity;
+import com.android.deskclock.worldclock.Cities;
+import com.android.deskclock.worldclock.CityObj;
+import com.android.deskclock.worldclock.TimeZoneOffsets;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Process wide cache of what was last pushed to each digital widget: the scale ratio of its
+ * size, the next alarm text and a hash of the content of its world clock list. Periodic
+ * updates compare against it and only push what changed. The cache is cleared when the time,
+ * time zone or locale changes, so the next update pushes everything again.
+ */
+final class DigitalWidgetState {
+    // Guarded by DigitalWidgetState.class
+    private static final SparseArray<DigitalWidgetState> sStates =
+            new SparseArray<DigitalWidgetState>();
+
+    // Guarded by DigitalWidgetState.class
+    private boolean mHasRatio;
+    private float mRatio;
+    private boolean mClockPushed;
+    private float mPushedRatio;
+    private boolean mNextAlarmPushed;
+    private String mPushedNextAlarm;
+    private boolean mListPushed;
+    private int mPushedListHash;
+
+    private DigitalWidgetState() {
+    }
+
+    static synchronized DigitalWidgetState get(int appWidgetId) {
+        DigitalWidgetState state = sStates.get(appWidgetId);
+        if (state == null) {
+            state = new DigitalWidgetState();
+            sStates.put(appWidgetId, state);
+        }
+        return state;
+    }
+
+    static synchronized void remove(int appWidgetId) {
+        sStates.remove(appWidgetId);
+    }
+
+    static synchronized void clear() {
+        sStates.clear();
+    }
+
+    /**
+     * @return scale ratio of the widget, worked out from its options only the first time
+     */
+    float getRatio(Context context, int appWidgetId) {
+        synchronized (DigitalWidgetState.class) {
+            if (mHasRatio) {
+                return mRatio;
+            }
+        }
+        final float ratio = WidgetUtils.getScaleRatio(context, null, appWidgetId);
+        setRatio(ratio);
+        return ratio;
+    }
+
+    /**
+     * Remember the scale ratio of the widget after its size changed.
+     */
+    void setRatio(float ratio) {
+        synchronized (DigitalWidgetState.class) {
+            mRatio = ratio;
+            mHasRatio = true;
+        }
+    }
+
+    /**
+     * Record the clock format and size pushed for a ratio.
+     *
+     * @return whether they have to be pushed, because they were not pushed for this ratio
+     */
+    boolean updateClock(float ratio) {
+        synchronized (DigitalWidgetState.class) {
+            if (mClockPushed && mPushedRatio == ratio) {
+                return false;
+            }
+            mClockPushed = true;
+            mPushedRatio = ratio;
+            return true;
+        }
+    }
+
+    /**
+     * Record the next alarm text pushed.
+     *
+     * @return whether it has to be pushed, because it is different from the last one
+     */
+    boolean updateNextAlarm(String nextAlarm) {
+        synchronized (DigitalWidgetState.class) {
+            if (mNextAlarmPushed && TextUtils.equals(mPushedNextAlarm, nextAlarm)) {
+                return false;
+            }
+            mNextAlarmPushed = true;
+            mPushedNextAlarm = nextAlarm;
+            return true;
+        }
+    }
+
+    /**
+     * Record the content of the world clock list pushed, see {@link #getListHash}.
+     *
+     * @return whether the list has to be refreshed, because its content changed
+     */
+    boolean updateList(int listHash) {
+        synchronized (DigitalWidgetState.class) {
+            if (mListPushed && mPushedListHash == listHash) {
+                return false;
+            }
+            mListPushed = true;
+            mPushedListHash = listHash;
+            return true;
+        }
+    }
+
+    /**
+     * @return hash of what the world clock list is built from: the selected cities, their
+     *         offsets, the home clock settings, the time zone and the locale. Cities only have
+     *         to be loaded and sorted again when it changes.
+     */
+    static int getCitiesHash(Context context, long now) {
+        return getHash(context, now, false);
+    }
+
+    /**
+     * @return {@link #getCitiesHash} including the day of the week shown for each city, which
+     *         changes as local time or a city crosses midnight.
+     */
+    static int getListHash(Context context, long now) {
+        return getHash(context, now, true);
+    }
+
+    private static int getHash(Context context, long now, boolean withDays) {
+        final String localTimeZone = TimeZone.getDefault().getID();
+        final long localDay = getDay(localTimeZone, now);
+        int hash = localTimeZone.hashCode() * 31 + Locale.getDefault().hashCode();
+
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.getBoolean(SettingsActivity.KEY_AUTO_HOME_CLOCK, false)) {
+            final String homeTimeZone = prefs.getString(SettingsActivity.KEY_HOME_TZ,
+                    localTimeZone);
+            hash = hash * 31 + getTimeZoneHash(homeTimeZone, now, withDays, localDay);
+        }
+
+        // The order of the cities does not matter, the list is sorted.
+        int citiesHash = 0;
+        for (CityObj city : Cities.getInstance(context).getSelectedCities()) {
+            citiesHash += city.mCityId.hashCode() * 31
+                    + getTimeZoneHash(city.mTimeZone, now, withDays, localDay);
+        }
+        return hash * 31 + citiesHash;
+    }
+
+    private static int getTimeZoneHash(String timeZone, long now, boolean withDay,
+            long localDay) {
+        int hash = timeZone.hashCode() * 31 + TimeZoneOffsets.getOffset(timeZone, now);
+        if (withDay) {
+            hash = hash * 31 + (int) (getDay(timeZone, now) - localDay);
+        }
+        return hash;
+    }
+
+    // Days since the epoch in a time zone
+    private static long getDay(String timeZone, long now) {
+        final long local = now + TimeZoneOffsets.getOffset(timeZone, now);
+        return local >= 0 ? local / DateUtils.DAY_IN_MILLIS
+                : (local + 1) / DateUtils.DAY_IN_MILLIS - 1;
+    }
+}
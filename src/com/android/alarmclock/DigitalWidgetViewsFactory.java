@@ -44,6 +44,8 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
     private int mId = AppWidgetManager.INVALID_APPWIDGET_ID;
     private RemoteWorldClockAdapter mAdapter;
     private float mFontScale = 1;
+    // Hash of the cities the adapter was loaded with, see DigitalWidgetState.getCitiesHash()
+    private int mCitiesHash;
 
     // An adapter to provide the view for the list of cities in the world clock.
     private class RemoteWorldClockAdapter extends WorldClockAdapter {
@@ -138,6 +140,7 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
         mId = intent.getIntExtra(
                 AppWidgetManager.EXTRA_APPWIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID);
         mAdapter = new RemoteWorldClockAdapter(context);
+        mCitiesHash = DigitalWidgetState.getCitiesHash(context, System.currentTimeMillis());
     }
 
     @SuppressWarnings("unused")
@@ -191,11 +194,18 @@ public class DigitalWidgetViewsFactory implements RemoteViewsFactory {
 
     @Override
     public void onDataSetChanged() {
-        mAdapter.loadData(mContext);
-        mAdapter.loadCitiesDb(mContext);
+        // The list is also refreshed when only the day of a city changed, the cities are
+        // reloaded and sorted only when they or their offsets changed.
+        final int citiesHash = DigitalWidgetState.getCitiesHash(mContext,
+                System.currentTimeMillis());
+        if (citiesHash != mCitiesHash) {
+            mAdapter.loadData(mContext);
+            mAdapter.loadCitiesDb(mContext);
+            mCitiesHash = citiesHash;
+        }
         mAdapter.updateHomeLabel(mContext);
 
-        mFontScale = WidgetUtils.getScaleRatio(mContext, null, mId);
+        mFontScale = DigitalWidgetState.get(mId).getRatio(mContext, mId);
     }
 
     @Override
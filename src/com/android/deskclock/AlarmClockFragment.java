@@ -30,11 +30,9 @@ import android.content.Intent;
 import android.content.Loader;
 import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.database.DataSetObserver;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -51,9 +49,9 @@ import android.view.ViewGroup.LayoutParams;
 import android.view.ViewTreeObserver;
 import android.view.animation.DecelerateInterpolator;
 import android.view.animation.Interpolator;
+import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
-import android.widget.CursorAdapter;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.ImageView;
@@ -63,7 +61,6 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
-import android.provider.OpenableColumns;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Audio;
 import android.provider.MediaStore.Audio.Media;
@@ -80,26 +77,23 @@ import com.android.deskclock.widget.TextTime;
 import java.text.DateFormatSymbols;
 import java.util.Calendar;
 import java.util.HashSet;
-import java.util.List;
-import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
-import java.io.File;
 
 /**
  * AlarmClock application.
  */
 public class AlarmClockFragment extends DeskClockFragment implements
-        LoaderManager.LoaderCallbacks<Cursor>,
+        LoaderManager.LoaderCallbacks<AlarmListModel>,
         TimePickerDialog.OnTimeSetListener,
         View.OnTouchListener,
-        AlarmRingtoneDialog.AlarmRingtoneDialogListener
+        AlarmRingtoneDialog.AlarmRingtoneDialogListener,
+        RingtoneCatalog.Listener
         {
     private static final float EXPAND_DECELERATION = 1f;
     private static final float COLLAPSE_DECELERATION = 0.7f;
     private static final int ANIMATION_DURATION = 300;
     private static final String KEY_EXPANDED_IDS = "expandedIds";
     private static final String KEY_REPEAT_CHECKED_IDS = "repeatCheckedIds";
-    private static final String KEY_RINGTONE_TITLE_CACHE = "ringtoneTitleCache";
     private static final String KEY_SELECTED_ALARMS = "selectedAlarms";
     private static final String KEY_DELETED_ALARM = "deletedAlarm";
     private static final String KEY_UNDO_SHOWING = "undoShowing";
@@ -124,14 +118,14 @@ public class AlarmClockFragment extends DeskClockFragment implements
     private AlarmTimelineView mTimelineView;
     private View mFooterView;
 
-    private Bundle mRingtoneTitleCache; // Key: ringtone uri, value: ringtone title
+    private RingtoneCatalog mRingtoneCatalog;
     private ActionableToastBar mUndoBar;
     private View mUndoFrame;
 
     private Alarm mSelectedAlarm;
     private long mScrollToAlarmId = -1;
 
-    private Loader mCursorLoader = null;
+    private Loader<AlarmListModel> mAlarmsLoader = null;
 
     // Saved states for undo
     private Alarm mDeletedAlarm;
@@ -150,8 +144,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
     // Cached layout positions of items in listview prior to add/removal of alarm item
     private ConcurrentHashMap<Long, Integer> mItemIdTopMap = new ConcurrentHashMap<Long, Integer>();
 
-    private List<Uri> mAlarms;
-
     public AlarmClockFragment() {
         // Basic provider required by Fragment.java
     }
@@ -159,7 +151,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
     @Override
     public void onCreate(Bundle savedState) {
         super.onCreate(savedState);
-        mCursorLoader = getLoaderManager().initLoader(0, null, this);
+        mAlarmsLoader = getLoaderManager().initLoader(0, null, this);
     }
 
     @Override
@@ -168,7 +160,8 @@ public class AlarmClockFragment extends DeskClockFragment implements
         // Inflate the layout for this fragment
         final View v = inflater.inflate(R.layout.alarm_clock, container, false);
 
-        cacheSystemTones();
+        mRingtoneCatalog = RingtoneCatalog.getInstance(getActivity());
+        mRingtoneCatalog.addListener(this);
 
         long[] expandedIds = null;
         long[] repeatCheckedIds = null;
@@ -177,7 +170,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
         if (savedState != null) {
             expandedIds = savedState.getLongArray(KEY_EXPANDED_IDS);
             repeatCheckedIds = savedState.getLongArray(KEY_REPEAT_CHECKED_IDS);
-            mRingtoneTitleCache = savedState.getBundle(KEY_RINGTONE_TITLE_CACHE);
             mDeletedAlarm = savedState.getParcelable(KEY_DELETED_ALARM);
             mUndoShowing = savedState.getBoolean(KEY_UNDO_SHOWING);
             selectedAlarms = savedState.getLongArray(KEY_SELECTED_ALARMS);
@@ -433,10 +425,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
             }
         });
 
-        if (mRingtoneTitleCache == null) {
-            mRingtoneTitleCache = new Bundle();
-        }
-
         mAlarmsList.setAdapter(mAdapter);
         mAlarmsList.setVerticalScrollBarEnabled(true);
         mAlarmsList.setOnCreateContextMenuListener(this);
@@ -472,10 +460,10 @@ public class AlarmClockFragment extends DeskClockFragment implements
             long alarmId = intent.getLongExtra(SCROLL_TO_ALARM_INTENT_EXTRA, Alarm.INVALID_ID);
             if (alarmId != Alarm.INVALID_ID) {
                 mScrollToAlarmId = alarmId;
-                if (mCursorLoader != null && mCursorLoader.isStarted()) {
+                if (mAlarmsLoader != null && mAlarmsLoader.isStarted()) {
                     // We need to force a reload here to make sure we have the latest view
                     // of the data to scroll to.
-                    mCursorLoader.forceLoad();
+                    mAlarmsLoader.forceLoad();
                 }
             }
 
@@ -526,13 +514,23 @@ public class AlarmClockFragment extends DeskClockFragment implements
         outState.putLongArray(KEY_EXPANDED_IDS, mAdapter.getExpandedArray());
         outState.putLongArray(KEY_REPEAT_CHECKED_IDS, mAdapter.getRepeatArray());
         outState.putLongArray(KEY_SELECTED_ALARMS, mAdapter.getSelectedAlarmsArray());
-        outState.putBundle(KEY_RINGTONE_TITLE_CACHE, mRingtoneTitleCache);
         outState.putParcelable(KEY_DELETED_ALARM, mDeletedAlarm);
         outState.putBoolean(KEY_UNDO_SHOWING, mUndoShowing);
         outState.putBundle(KEY_PREVIOUS_DAY_MAP, mAdapter.getPreviousDaysOfWeekMap());
         outState.putParcelable(KEY_SELECTED_ALARM, mSelectedAlarm);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mRingtoneCatalog.removeListener(this);
+    }
+
+    @Override
+    public void onRingtoneCatalogChanged() {
+        mAdapter.updateRingtoneTitles();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -590,13 +588,13 @@ public class AlarmClockFragment extends DeskClockFragment implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        return Alarm.getAlarmsCursorLoader(getActivity());
+    public Loader<AlarmListModel> onCreateLoader(int id, Bundle args) {
+        return new AlarmListLoader(getActivity());
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, final Cursor data) {
-        mAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<AlarmListModel> loader, AlarmListModel data) {
+        mAdapter.setModel(data);
         if (mScrollToAlarmId != -1) {
             scrollToAlarm(mScrollToAlarmId);
             mScrollToAlarmId = -1;
@@ -633,11 +631,11 @@ public class AlarmClockFragment extends DeskClockFragment implements
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> cursorLoader) {
-        mAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<AlarmListModel> loader) {
+        mAdapter.setModel(AlarmListModel.EMPTY);
     }
 
-    public class AlarmItemAdapter extends CursorAdapter {
+    public class AlarmItemAdapter extends BaseAdapter {
         private static final int EXPAND_DURATION = 300;
         private static final int COLLAPSE_DURATION = 250;
 
@@ -653,6 +651,9 @@ public class AlarmClockFragment extends DeskClockFragment implements
         private final Typeface mRobotoBold;
         private final ListView mList;
 
+        // Null until the alarms are first loaded
+        private AlarmListModel mModel;
+
         private final HashSet<Long> mExpanded = new HashSet<Long>();
         private final HashSet<Long> mRepeatChecked = new HashSet<Long>();
         private final HashSet<Long> mSelectedAlarms = new HashSet<Long>();
@@ -730,7 +731,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
 
         public AlarmItemAdapter(Context context, long[] expandedIds, long[] repeatCheckedIds,
                 long[] selectedAlarms, Bundle previousDaysOfWeekMap, ListView list) {
-            super(context, null, 0);
             mContext = context;
             mFactory = LayoutInflater.from(context);
             mList = list;
@@ -771,17 +771,32 @@ public class AlarmClockFragment extends DeskClockFragment implements
             mSelectedAlarms.remove(id);
         }
 
+        @Override
+        public int getCount() {
+            return mModel == null ? 0 : mModel.size();
+        }
+
+        @Override
+        public Alarm getItem(int position) {
+            return mModel.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mModel.getId(position);
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
-            if (!getCursor().moveToPosition(position)) {
-                // May happen if the last alarm was deleted and the cursor refreshed while the
-                // list is updated.
-                Log.v("couldn't move cursor to position " + position);
-                return null;
-            }
+            final Alarm alarm = mModel.get(position);
             View v;
             if (convertView == null) {
-                v = newView(mContext, getCursor(), parent);
+                v = newView(parent);
             } else {
                 // TODO temporary hack to prevent the convertView from not having stuff we need.
                 boolean badConvertView = convertView.findViewById(R.id.digital_clock) == null;
@@ -790,13 +805,18 @@ public class AlarmClockFragment extends DeskClockFragment implements
                 if (convertView.getTranslationX() != 0 || convertView.getTranslationY() != 0 ||
                         badConvertView) {
                     // view was animated, reset
-                    v = newView(mContext, getCursor(), parent);
+                    v = newView(parent);
                 } else {
                     v = convertView;
                 }
             }
-            bindView(v, mContext, getCursor());
             ItemHolder holder = (ItemHolder) v.getTag();
+            // A row still showing the same alarm is up to date: rows edit their alarm in place,
+            // and alarms changed in the database are replaced, see setModel().
+            if (holder == null || holder.alarm != alarm) {
+                bindView(v, alarm);
+                holder = (ItemHolder) v.getTag();
+            }
 
             // We need the footer for the last element of the array to allow the user to scroll
             // the item beyond the bottom button bar, which obscures the view.
@@ -804,24 +824,36 @@ public class AlarmClockFragment extends DeskClockFragment implements
             return v;
         }
 
-        @Override
-        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        private View newView(ViewGroup parent) {
             final View view = mFactory.inflate(R.layout.alarm_time, parent, false);
             setNewHolder(view);
             return view;
         }
 
         /**
-         * In addition to changing the data set for the alarm list, swapCursor is now also
-         * responsible for preparing the list view's pre-draw operation for any animations that
-         * need to occur if an alarm was removed or added.
+         * Show a newly loaded snapshot of the alarms. Only the rows of alarms that changed are
+         * bound again. The list is only rebuilt when alarms were added, removed or reordered,
+         * and then this also prepares the list view's pre-draw operation for any animations
+         * that need to occur if an alarm was removed or added.
          */
-        @Override
-        public synchronized Cursor swapCursor(Cursor cursor) {
-            Cursor c = super.swapCursor(cursor);
+        public void setModel(AlarmListModel model) {
+            final AlarmListModel.Diff diff = AlarmListModel.diff(mModel, model);
+            final boolean firstLoad = mModel == null;
+            mModel = diff.model;
+
+            if (!firstLoad && !diff.isStructural()) {
+                for (long id : diff.changedIds) {
+                    final View v = getViewById(id);
+                    if (v != null) {
+                        bindView(v, mModel.get(mModel.indexOf(id)));
+                    }
+                }
+                return;
+            }
 
+            notifyDataSetChanged();
             if (mItemIdTopMap.isEmpty() && mAddedAlarm == null) {
-                return c;
+                return;
             }
 
             final ListView list = mAlarmsList;
@@ -948,7 +980,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
                     return true;
                 }
             });
-            return c;
         }
 
         private void setNewHolder(View view) {
@@ -1005,15 +1036,12 @@ public class AlarmClockFragment extends DeskClockFragment implements
             view.setTag(holder);
         }
 
-        @Override
-        public void bindView(final View view, Context context, final Cursor cursor) {
-            final Alarm alarm = new Alarm(cursor);
-            Object tag = view.getTag();
-            if (tag == null) {
+        private void bindView(final View view, final Alarm alarm) {
+            if (view.getTag() == null) {
                 // The view was converted but somehow lost its tag.
                 setNewHolder(view);
             }
-            final ItemHolder itemHolder = (ItemHolder) tag;
+            final ItemHolder itemHolder = (ItemHolder) view.getTag();
             itemHolder.alarm = alarm;
 
             // We must unset the listener first because this maybe a recycled view so changing the
@@ -1196,6 +1224,8 @@ public class AlarmClockFragment extends DeskClockFragment implements
                         // Remove all repeat days
                         alarm.daysOfWeek.clearAllDays();
                     }
+                    // Days of the week chosen here replace any recurrence rule.
+                    alarm.recurrence = null;
                     asyncUpdateAlarm(alarm, false);
                 }
             });
@@ -1228,6 +1258,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
                                         DaysOfWeek.NO_DAYS_SET);
                             }
                         }
+                        alarm.recurrence = null;
                         asyncUpdateAlarm(alarm, false);
                     }
                 });
@@ -1256,38 +1287,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
                 }
             });
 
-            String ringtone = mContext.getResources().getString(R.string.ringtone_disabled);
-
-            boolean mediaAlertEnabled = false;
-            if (alarm.alert != null) {
-                if (!Alarm.NO_RINGTONE_URI.equals(alarm.alert)) {
-                    if (!mAlarms.contains(alarm.alert)) {
-                        mediaAlertEnabled = true;
-                    }
-                }
-            }
-
-            if (mediaAlertEnabled){
-                ringtone = getMediaTitle(alarm.alert);
-                // file no longer found
-                if (ringtone == null) {
-                    ringtone = getResources().getString(R.string.fallback_ringtone);
-                }
-            } else {
-                if (Alarm.NO_RINGTONE_URI.equals(alarm.alert)) {
-                    ringtone = mContext.getResources().getString(R.string.silent_alarm_summary);
-                } else {
-                    ringtone = getRingToneTitle(alarm.alert);
-                    if (ringtone == null || alarm.isFallbackRingtone(mContext, false)) {
-                        ringtone = getResources().getString(R.string.fallback_ringtone);
-                    }
-                }
-            }
-
-            itemHolder.ringtone.setText(ringtone);
-            itemHolder.ringtone.setContentDescription(
-                    mContext.getResources().getString(R.string.ringtone_description) + " "
-                            + ringtone);
+            bindRingtone(itemHolder.ringtone, alarm.alert);
 
             itemHolder.ringtone.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -1349,37 +1349,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
                 }
             });
 
-            ringtone = mContext.getResources().getString(R.string.ringtone_disabled);
-
-            mediaAlertEnabled = false;
-            if (alarm.preAlarmAlert != null) {
-                if (!Alarm.NO_RINGTONE_URI.equals(alarm.preAlarmAlert)) {
-                    if (!mAlarms.contains(alarm.preAlarmAlert)) {
-                        mediaAlertEnabled = true;
-                    }
-                }
-            }
-            if (mediaAlertEnabled){
-                ringtone = getMediaTitle(alarm.preAlarmAlert);
-                // file no longer found
-                if (ringtone == null) {
-                    ringtone = getResources().getString(R.string.fallback_ringtone);
-                }
-            } else {
-                if (Alarm.NO_RINGTONE_URI.equals(alarm.preAlarmAlert)) {
-                    ringtone = mContext.getResources().getString(R.string.silent_alarm_summary);
-                } else {
-                    ringtone = getRingToneTitle(alarm.preAlarmAlert);
-                    if (ringtone == null || alarm.isFallbackRingtone(mContext, true)) {
-                        ringtone = getResources().getString(R.string.fallback_ringtone);
-                    }
-                }
-            }
-
-            itemHolder.prealarmRingtone.setText(ringtone);
-            itemHolder.prealarmRingtone.setContentDescription(
-                    mContext.getResources().getString(R.string.ringtone_description) + " "
-                            + ringtone);
+            bindRingtone(itemHolder.prealarmRingtone, alarm.preAlarmAlert);
 
             itemHolder.prealarmRingtone.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -1414,9 +1384,8 @@ public class AlarmClockFragment extends DeskClockFragment implements
         }
 
         private void updateDaysOfWeekButtons(ItemHolder holder, DaysOfWeek daysOfWeek) {
-            HashSet<Integer> setDays = daysOfWeek.getSetDays();
             for (int i = 0; i < 7; i++) {
-                if (setDays.contains(DAY_ORDER[i])) {
+                if (daysOfWeek.isDaySet(DAY_ORDER[i])) {
                     turnOnDayOfWeek(holder, i);
                 } else {
                     turnOffDayOfWeek(holder, i);
@@ -1462,52 +1431,53 @@ public class AlarmClockFragment extends DeskClockFragment implements
 
 
         /**
-         * Does a read-through cache for ringtone titles.
-         *
-         * @param uri The uri of the ringtone.
-         * @return The ringtone title. {@literal null} if no matching ringtone found.
+         * Show the title of a ringtone. Titles that are not cached yet are resolved in the
+         * background, and the view is updated by {@link #updateRingtoneTitles}.
          */
-        private String getRingToneTitle(Uri uri) {
-            if (uri == null) {
-                uri = getDefaultAlarmUri();
+        private void bindRingtone(TextView view, Uri uri) {
+            final String title;
+            if (Alarm.NO_RINGTONE_URI.equals(uri)) {
+                title = mContext.getResources().getString(R.string.silent_alarm_summary);
+            } else {
+                title = mRingtoneCatalog.getTitle(uri);
             }
-            // Try the cache first
-            String title = mRingtoneTitleCache.getString(uri.toString());
             if (title == null) {
-                // This is slow because a media player is created during Ringtone object creation.
-                Ringtone ringTone = RingtoneManager.getRingtone(mContext, uri);
-                if (ringTone != null) {
-                    title = ringTone.getTitle(mContext);
-                    if (title != null) {
-                        mRingtoneTitleCache.putString(uri.toString(), title);
-                    }
-                }
+                view.setText(null);
+                view.setContentDescription(null);
+                return;
             }
-            return title;
+            view.setText(title);
+            view.setContentDescription(
+                    mContext.getResources().getString(R.string.ringtone_description) + " "
+                            + title);
         }
 
-        private String getMediaTitle(Uri uri) {
-            File f = new File(uri.getPath());
-            if (f.exists() && f.isDirectory()) {
-                return uri.getPath();
-            }
-            Cursor cursor = null;
-            try {
-                cursor = mContext.getContentResolver().query(uri,  null, null, null, null);
-                int nameIndex = cursor.getColumnIndexOrThrow(OpenableColumns.DISPLAY_NAME);
-                cursor.moveToFirst();
-                return cursor.getString(nameIndex);
-            } catch(Exception e) {
-                return null;
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
+        /**
+         * Update the ringtone titles of the expanded rows, once titles were resolved.
+         */
+        private void updateRingtoneTitles() {
+            for (int i = 0; i < mList.getChildCount(); i++) {
+                final Object tag = mList.getChildAt(i).getTag();
+                if (!(tag instanceof ItemHolder)) {
+                    continue;
+                }
+                final ItemHolder holder = (ItemHolder) tag;
+                if (holder.alarm == null || !isAlarmExpanded(holder.alarm)) {
+                    continue;
                 }
+                bindRingtone(holder.ringtone, holder.alarm.alert);
+                bindRingtone(holder.prealarmRingtone, holder.alarm.preAlarmAlert);
             }
         }
 
         public void setNewAlarm(long alarmId) {
             mExpanded.add(alarmId);
+            // Rows are not bound again when their alarm did not change, so expand it here if
+            // it is already shown.
+            final View v = getViewById(alarmId);
+            if (v != null) {
+                expandAlarm((ItemHolder) v.getTag(), false);
+            }
         }
 
         /**
@@ -1756,7 +1726,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
         }
 
         private View getViewById(long id) {
-            for (int i = 0; i < mList.getCount(); i++) {
+            for (int i = 0; i < mList.getChildCount(); i++) {
                 View v = mList.getChildAt(i);
                 if (v != null) {
                     ItemHolder h = (ItemHolder)(v.getTag());
@@ -1952,27 +1922,6 @@ public class AlarmClockFragment extends DeskClockFragment implements
         return false;
     }
 
-    private void cacheSystemTones() {
-        mAlarms = new ArrayList<Uri>();
-
-        RingtoneManager ringtoneMgr = new RingtoneManager(getActivity().getApplicationContext());
-        ringtoneMgr.setType(RingtoneManager.TYPE_ALL);
-
-        Cursor alarmsCursor = ringtoneMgr.getCursor();
-        int alarmsCount = alarmsCursor.getCount();
-        if (alarmsCount == 0 && !alarmsCursor.moveToFirst()) {
-            return;
-        }
-
-        while(!alarmsCursor.isAfterLast() && alarmsCursor.moveToNext()) {
-            int currentPosition = alarmsCursor.getPosition();
-            mAlarms.add(ringtoneMgr.getRingtoneUri(currentPosition));
-        }
-        mAlarms.add(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM));
-        mAlarms.add(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE));
-        alarmsCursor.close();
-    }
-
     private void showPreAlarmTimeDialog(Alarm alarm) {
         final FragmentTransaction ft = getFragmentManager().beginTransaction();
         final Fragment prev = getFragmentManager().findFragmentByTag("prealarm_time_edit");
@@ -28,7 +28,9 @@ import com.android.deskclock.alarms.AlarmStateManager;
 import com.android.deskclock.provider.Alarm;
 
 import com.android.deskclock.provider.AlarmInstance;
-import com.android.deskclock.timer.TimerObj;
+import com.android.deskclock.stopwatch.LapLog;
+import com.android.deskclock.timer.TimerStore;
+import com.android.deskclock.worldclock.TimeZoneOffsets;
 
 public class AlarmInitReceiver extends BroadcastReceiver {
 
@@ -44,6 +46,11 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         final String action = intent.getAction();
         Log.v("AlarmInitReceiver " + action);
 
+        if (Intent.ACTION_TIME_SET.equals(action)
+                || Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+            TimeZoneOffsets.clear();
+        }
+
         final PendingResult result = goAsync();
         final WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(context);
         wl.acquire();
@@ -51,7 +58,7 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         // We need to increment the global id out of the async task to prevent
         // race conditions
         AlarmStateManager.updateGloablIntentId(context);
-        AsyncHandler.post(new Runnable() {
+        AsyncHandler.post(AsyncHandler.PRIORITY_NORMAL, new Runnable() {
             @Override public void run() {
                 // Remove the snooze alarm after a boot.
                 if (action.equals(Intent.ACTION_BOOT_COMPLETED)) {
@@ -59,8 +66,11 @@ public class AlarmInitReceiver extends BroadcastReceiver {
                     SharedPreferences prefs =
                             PreferenceManager.getDefaultSharedPreferences(context);
                     Log.v("AlarmInitReceiver - Reset timers and clear stopwatch data");
-                    TimerObj.resetTimersInSharedPrefs(prefs);
+                    final TimerStore timerStore = TimerStore.getInstance(context);
+                    timerStore.resetAll();
+                    timerStore.flush();
                     Utils.clearSwSharedPref(prefs);
+                    LapLog.getInstance(context).clear();
 
                     if (!prefs.getBoolean(PREF_VOLUME_DEF_DONE, false)) {
                         // Fix the default
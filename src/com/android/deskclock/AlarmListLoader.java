@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import com.android.deskclock.provider.ClockContract;
+
+/**
+ * Loads {@link AlarmListModel} snapshots in the background, and again whenever the alarms
+ * change. Unlike a CursorLoader, the alarms are parsed once per load instead of on every
+ * bind, and no cursor stays open while the list is shown.
+ */
+class AlarmListLoader extends AsyncTaskLoader<AlarmListModel> {
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserverRegistered;
+    private AlarmListModel mModel;
+
+    AlarmListLoader(Context context) {
+        super(context);
+    }
+
+    @Override
+    public AlarmListModel loadInBackground() {
+        return AlarmListModel.load(getContext().getContentResolver());
+    }
+
+    @Override
+    public void deliverResult(AlarmListModel model) {
+        if (isReset()) {
+            return;
+        }
+        mModel = model;
+        if (isStarted()) {
+            super.deliverResult(model);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    ClockContract.AlarmsColumns.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mModel != null) {
+            deliverResult(mModel);
+        }
+        if (takeContentChanged() || mModel == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mModel = null;
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+    }
+}
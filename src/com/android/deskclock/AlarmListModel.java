@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.android.deskclock.provider.Alarm;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the alarms shown in the alarm list, in display order.
+ *
+ * The rows of the list edit their {@link Alarm} in place before the change is written to the
+ * database, so every alarm is read twice: the copy handed to the list, and a private copy of
+ * what was stored, which is what snapshots are compared with. {@link #diff} keeps the alarms
+ * of rows that did not change, so views bound to them stay valid without being bound again.
+ */
+final class AlarmListModel {
+    static final AlarmListModel EMPTY = new AlarmListModel(new Alarm[0], new Alarm[0]);
+
+    private final Alarm[] mAlarms;
+    private final Alarm[] mStored;
+
+    // Alarm ids in ascending order, with the position of each in the list
+    private final long[] mSortedIds;
+    private final int[] mSortedPositions;
+
+    /**
+     * Read all alarms, must not be called from the main thread.
+     */
+    static AlarmListModel load(ContentResolver contentResolver) {
+        final Cursor cursor = Alarm.getAlarmsCursor(contentResolver);
+        if (cursor == null) {
+            return EMPTY;
+        }
+        try {
+            final int count = cursor.getCount();
+            final Alarm[] alarms = new Alarm[count];
+            final Alarm[] stored = new Alarm[count];
+            int i = 0;
+            while (i < count && cursor.moveToNext()) {
+                alarms[i] = new Alarm(cursor);
+                stored[i] = new Alarm(cursor);
+                i++;
+            }
+            return new AlarmListModel(alarms, stored);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Visible for tests
+    AlarmListModel(Alarm[] alarms, Alarm[] stored) {
+        mAlarms = alarms;
+        mStored = stored;
+
+        final int count = alarms.length;
+        final long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            // The position fits in the low bits, ids are far from using the high ones.
+            keys[i] = stored[i].id << 20 | i;
+        }
+        Arrays.sort(keys);
+        mSortedIds = new long[count];
+        mSortedPositions = new int[count];
+        for (int i = 0; i < count; i++) {
+            mSortedIds[i] = keys[i] >> 20;
+            mSortedPositions[i] = (int) (keys[i] & 0xfffff);
+        }
+    }
+
+    int size() {
+        return mAlarms.length;
+    }
+
+    /**
+     * @return the alarm bound to the row at a position
+     */
+    Alarm get(int position) {
+        return mAlarms[position];
+    }
+
+    long getId(int position) {
+        return mStored[position].id;
+    }
+
+    /**
+     * @return position of the alarm with the id, or -1 if it is not in the list
+     */
+    int indexOf(long id) {
+        final int index = Arrays.binarySearch(mSortedIds, id);
+        return index < 0 ? -1 : mSortedPositions[index];
+    }
+
+    /**
+     * Compare a newly loaded snapshot with the one currently shown.
+     *
+     * @param oldModel snapshot currently shown, null before the first load
+     * @param newModel newly loaded snapshot
+     * @return the changes, with the snapshot to show from now on
+     */
+    static Diff diff(AlarmListModel oldModel, AlarmListModel newModel) {
+        if (oldModel == null) {
+            return new Diff(newModel, newModel.size(), 0, false, new long[0]);
+        }
+        final int count = newModel.size();
+        final Alarm[] alarms = new Alarm[count];
+        final Alarm[] stored = new Alarm[count];
+        final long[] changed = new long[count];
+        int changedCount = 0;
+        int inserted = 0;
+        int lastOldPosition = -1;
+        boolean moved = false;
+        for (int i = 0; i < count; i++) {
+            final int oldPosition = oldModel.indexOf(newModel.getId(i));
+            if (oldPosition < 0) {
+                inserted++;
+            } else {
+                if (oldPosition < lastOldPosition) {
+                    moved = true;
+                }
+                lastOldPosition = oldPosition;
+                if (oldModel.mStored[oldPosition].contentEquals(newModel.mStored[i])) {
+                    alarms[i] = oldModel.mAlarms[oldPosition];
+                    stored[i] = oldModel.mStored[oldPosition];
+                    continue;
+                }
+                changed[changedCount++] = newModel.getId(i);
+            }
+            alarms[i] = newModel.mAlarms[i];
+            stored[i] = newModel.mStored[i];
+        }
+        final int removed = oldModel.size() - (count - inserted);
+        return new Diff(new AlarmListModel(alarms, stored), inserted, removed, moved,
+                Arrays.copyOf(changed, changedCount));
+    }
+
+    /**
+     * Changes between two snapshots. Rows of alarms that were changed need to be bound again.
+     * Inserting, removing or moving alarms changes the structure of the list.
+     */
+    static final class Diff {
+        final AlarmListModel model;
+        final int inserted;
+        final int removed;
+        final boolean moved;
+        final long[] changedIds;
+
+        Diff(AlarmListModel model, int inserted, int removed, boolean moved,
+                long[] changedIds) {
+            this.model = model;
+            this.inserted = inserted;
+            this.removed = removed;
+            this.moved = moved;
+            this.changedIds = changedIds;
+        }
+
+        boolean isStructural() {
+            return inserted > 0 || removed > 0 || moved;
+        }
+    }
+}
@@ -19,8 +19,6 @@
 package com.android.deskclock;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -31,13 +29,10 @@ import android.app.FragmentTransaction;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
 import android.media.AudioManager;
-import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.AdapterView;
@@ -53,7 +48,8 @@ import com.android.deskclock.provider.Alarm;
 public class AlarmRingtoneDialog extends DialogFragment implements
         DialogInterface.OnClickListener,
         SeekBar.OnSeekBarChangeListener,
-        DirectoryChooserDialog.ChosenDirectoryListener {
+        DirectoryChooserDialog.ChosenDirectoryListener,
+        RingtoneCatalog.Listener {
 
     private static final int REQUEST_CODE_RINGTONE = 1;
     private static final int REQUEST_CODE_MEDIA = 2;
@@ -79,8 +75,9 @@ public class AlarmRingtoneDialog extends DialogFragment implements
     private TextView ringtone;
     private Spinner mMediaTypeSelect;
     private int mCurrentMediaType;
-    private List<Uri> mAlarms;
-    private List<Uri> mRingtones;
+    private RingtoneCatalog mRingtoneCatalog;
+    // The media type is guessed again once the catalog is loaded
+    private boolean mMediaTypeGuessed;
     private Uri mRingtone;
     private int mVolume = -1;
     private boolean mIncreasingVolumeValue;
@@ -294,8 +291,8 @@ public class AlarmRingtoneDialog extends DialogFragment implements
             }
         });
 
-        cacheAlarmTones();
-        cacheRingtones();
+        mRingtoneCatalog = RingtoneCatalog.getInstance(activity);
+        mRingtoneCatalog.addListener(this);
         updateValues();
         return view;
     }
@@ -379,105 +376,18 @@ public class AlarmRingtoneDialog extends DialogFragment implements
         }
     }
 
-    private String getRingToneTitle(Uri uri) {
-        Ringtone ringTone = RingtoneManager.getRingtone(getActivity()
-                .getApplicationContext(), uri);
-        if (ringTone != null) {
-            return ringTone.getTitle(getActivity().getApplicationContext());
-        }
-        return getResources().getString(R.string.fallback_ringtone);
-    }
-
-    private String getMediaTitle(Uri uri) {
-        if (uri == null) {
-            uri = getDefaultAlarmUri();
-        }
-        Cursor cursor = null;
-        try {
-            cursor = getActivity().getApplicationContext().getContentResolver()
-                    .query(uri, null, null, null, null);
-            int nameIndex = cursor
-                    .getColumnIndexOrThrow(OpenableColumns.DISPLAY_NAME);
-            cursor.moveToFirst();
-            return cursor.getString(nameIndex);
-        } catch(Exception e) {
-            return null;
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-    }
-
-    private void cacheAlarmTones() {
-        mAlarms = new ArrayList<Uri>();
-
-        Cursor alarmsCursor = null;
-        try {
-            RingtoneManager ringtoneMgr = new RingtoneManager(getActivity()
-                    .getApplicationContext());
-            ringtoneMgr.setType(RingtoneManager.TYPE_ALARM);
-
-            alarmsCursor = ringtoneMgr.getCursor();
-            int alarmsCount = alarmsCursor.getCount();
-            if (alarmsCount == 0 && !alarmsCursor.moveToFirst()) {
-                return;
-            }
-
-            while (!alarmsCursor.isAfterLast() && alarmsCursor.moveToNext()) {
-                int currentPosition = alarmsCursor.getPosition();
-                mAlarms.add(ringtoneMgr.getRingtoneUri(currentPosition));
-            }
-            mAlarms.add(RingtoneManager
-                    .getDefaultUri(RingtoneManager.TYPE_ALARM));
-
-        } finally {
-            if (alarmsCursor != null) {
-                alarmsCursor.close();
-            }
-        }
-    }
-
-    private void cacheRingtones() {
-        mRingtones = new ArrayList<Uri>();
-
-        Cursor alarmsCursor = null;
-        try {
-            RingtoneManager ringtoneMgr = new RingtoneManager(getActivity()
-                    .getApplicationContext());
-            ringtoneMgr.setType(RingtoneManager.TYPE_RINGTONE);
-
-            alarmsCursor = ringtoneMgr.getCursor();
-            int alarmsCount = alarmsCursor.getCount();
-            if (alarmsCount == 0 && !alarmsCursor.moveToFirst()) {
-                return;
-            }
-
-            while (!alarmsCursor.isAfterLast() && alarmsCursor.moveToNext()) {
-                int currentPosition = alarmsCursor.getPosition();
-                mRingtones.add(ringtoneMgr.getRingtoneUri(currentPosition));
-            }
-            mRingtones.add(RingtoneManager
-                    .getDefaultUri(RingtoneManager.TYPE_RINGTONE));
-
-        } finally {
-            if (alarmsCursor != null) {
-                alarmsCursor.close();
-            }
-        }
-    }
-
     private void setRingtoneName() {
         Uri ringtoneUri = mRingtone;
         boolean mediaAlertEnabled = false;
         mCurrentMediaType = ALARM_TYPE_ALARM;
 
+        mMediaTypeGuessed = !mRingtoneCatalog.isLoaded();
         if (ringtoneUri != null) {
             if (!Alarm.NO_RINGTONE_URI.equals(ringtoneUri)) {
                 boolean found = false;
-                if (mAlarms.contains(ringtoneUri)){
+                if (mRingtoneCatalog.isAlarmTone(ringtoneUri)){
                     found = true;
-                } else if (mRingtones.contains(ringtoneUri)){
+                } else if (mRingtoneCatalog.isRingtone(ringtoneUri)){
                     found = true;
                     mCurrentMediaType = ALARM_TYPE_RINGTONE;
                 }
@@ -500,45 +410,32 @@ public class AlarmRingtoneDialog extends DialogFragment implements
 
     private void updateRingtoneName() {
         Uri ringtoneUri = mRingtone;
-        String ringtoneTitle = "";
+        final String ringtoneTitle;
 
         if (Alarm.NO_RINGTONE_URI.equals(ringtoneUri)) {
             ringtoneTitle = getResources().getString(R.string.silent_alarm_summary);
+        } else if (mCurrentMediaType == ALARM_TYPE_FOLDER) {
+            ringtoneTitle = ringtoneUri.getPath();
         } else {
-            if (mCurrentMediaType == ALARM_TYPE_MUSIC) {
-                ringtoneTitle = getMediaTitle(ringtoneUri);
+            // Null while the title is resolved, onRingtoneCatalogChanged() shows it then.
+            ringtoneTitle = mRingtoneCatalog.getTitle(ringtoneUri);
+            if (mCurrentMediaType == ALARM_TYPE_MUSIC
+                    && mRingtoneCatalog.getFallbackTitle().equals(ringtoneTitle)) {
                 // file no longer found - fallback to default alarm if ok pressed
-                if (ringtoneTitle == null) {
-                    mCurrentMediaType = ALARM_TYPE_ALARM;
-                    mRingtone = getDefaultAlarmUri();
-                    ringtoneUri = mRingtone;
-                    if (isFallbackRingtone()) {
-                        ringtoneTitle = getResources().getString(R.string.fallback_ringtone);
-                    } else {
-                        ringtoneTitle = getRingToneTitle(ringtoneUri);
-                    }
-                }
-            } else if (mCurrentMediaType == ALARM_TYPE_ALARM || mCurrentMediaType == ALARM_TYPE_RINGTONE) {
-                if (isFallbackRingtone()) {
-                    ringtoneTitle = getResources().getString(R.string.fallback_ringtone);
-                } else {
-                    ringtoneTitle = getRingToneTitle(ringtoneUri);
-                }
-            } else if (mCurrentMediaType == ALARM_TYPE_FOLDER) {
-                ringtoneTitle = ringtoneUri.getPath();
+                mCurrentMediaType = ALARM_TYPE_ALARM;
+                mRingtone = getDefaultAlarmUri();
+                ringtoneTitle = mRingtoneCatalog.getTitle(mRingtone);
             }
         }
 
         ringtone.setText(ringtoneTitle);
-        ringtone.setContentDescription(getResources().getString(
-                R.string.ringtone_description)
-                + " " + ringtone);
+        ringtone.setContentDescription(ringtoneTitle == null ? null
+                : getResources().getString(R.string.ringtone_description) + " "
+                        + ringtoneTitle);
         updateButtons(mRingtone != null && !mRingtone.equals(Alarm.NO_RINGTONE_URI));
     }
 
     private void updateValues() {
-        setRingtoneName();
-
         if (mVolume == -1) {
             mEnabledCheckbox.setChecked(true);
             mMaxVolumeSeekBar.setEnabled(false);
@@ -549,6 +446,11 @@ public class AlarmRingtoneDialog extends DialogFragment implements
         }
 
         mIncreasingVolume.setChecked(mIncreasingVolumeValue);
+        updateMediaType();
+    }
+
+    private void updateMediaType() {
+        setRingtoneName();
 
         if (mCurrentMediaType != ALARM_TYPE_FOLDER) {
             mRandomMode.setVisibility(View.GONE);
@@ -663,8 +565,18 @@ public class AlarmRingtoneDialog extends DialogFragment implements
         updateTestButtonState(value);
     }
 
-    private boolean isFallbackRingtone() {
-        String unknownRingToneStr = getResources().getString(com.android.internal.R.string.ringtone_unknown);
-        return getRingToneTitle(mRingtone).contains(unknownRingToneStr);
+    @Override
+    public void onRingtoneCatalogChanged() {
+        if (mMediaTypeGuessed && mRingtoneCatalog.isLoaded()) {
+            updateMediaType();
+        } else {
+            updateRingtoneName();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mRingtoneCatalog.removeListener(this);
     }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import java.util.Arrays;
+
+/**
+ * The nodes of {@link AlarmTimelineView}: the upcoming times of the enabled alarms, in
+ * epoch minutes, in chronological order. Alarms firing at the same minute share a node, which
+ * is repeating if any of those alarms repeats.
+ *
+ * The times each alarm contributes are remembered, so a changed alarm is updated without
+ * computing the other alarms again. Everything is kept in primitive sorted arrays, which the
+ * view reads while drawing without allocating.
+ */
+final class AlarmTimeline {
+    // Nodes, sorted by time
+    private long[] mTimes = new long[16];
+    private String[] mLabels = new String[16];
+    private int[] mAlarmCounts = new int[16];
+    private int[] mRepeatingCounts = new int[16];
+    private int mSize;
+
+    // Alarms, sorted by id, with the times each of them contributes
+    private long[] mAlarmIds = new long[8];
+    private long[][] mAlarmTimes = new long[8][];
+    private boolean[] mAlarmRepeating = new boolean[8];
+    private int mAlarmSize;
+
+    /**
+     * @return number of nodes
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return time of a node in epoch minutes
+     */
+    long getTime(int node) {
+        return mTimes[node];
+    }
+
+    /**
+     * @return text shown next to a node
+     */
+    String getLabel(int node) {
+        return mLabels[node];
+    }
+
+    boolean isRepeating(int node) {
+        return mRepeatingCounts[node] > 0;
+    }
+
+    /**
+     * Set the upcoming times of an alarm, replacing those it had.
+     *
+     * @param alarmId id of the alarm
+     * @param times distinct times in epoch minutes
+     * @param labels text shown for each time
+     * @param repeating whether the alarm repeats
+     */
+    void setAlarm(long alarmId, long[] times, String[] labels, boolean repeating) {
+        removeAlarm(alarmId);
+        if (times.length == 0) {
+            return;
+        }
+
+        int index = -Arrays.binarySearch(mAlarmIds, 0, mAlarmSize, alarmId) - 1;
+        if (mAlarmSize == mAlarmIds.length) {
+            final int capacity = mAlarmSize * 2;
+            mAlarmIds = Arrays.copyOf(mAlarmIds, capacity);
+            mAlarmTimes = Arrays.copyOf(mAlarmTimes, capacity);
+            mAlarmRepeating = Arrays.copyOf(mAlarmRepeating, capacity);
+        }
+        final int moved = mAlarmSize - index;
+        System.arraycopy(mAlarmIds, index, mAlarmIds, index + 1, moved);
+        System.arraycopy(mAlarmTimes, index, mAlarmTimes, index + 1, moved);
+        System.arraycopy(mAlarmRepeating, index, mAlarmRepeating, index + 1, moved);
+        mAlarmIds[index] = alarmId;
+        mAlarmTimes[index] = times.clone();
+        mAlarmRepeating[index] = repeating;
+        mAlarmSize++;
+
+        for (int i = 0; i < times.length; i++) {
+            addTime(times[i], labels[i], repeating);
+        }
+    }
+
+    /**
+     * Remove the times of an alarm, if it has any.
+     */
+    void removeAlarm(long alarmId) {
+        final int index = Arrays.binarySearch(mAlarmIds, 0, mAlarmSize, alarmId);
+        if (index < 0) {
+            return;
+        }
+        final boolean repeating = mAlarmRepeating[index];
+        for (long time : mAlarmTimes[index]) {
+            removeTime(time, repeating);
+        }
+
+        final int moved = mAlarmSize - index - 1;
+        System.arraycopy(mAlarmIds, index + 1, mAlarmIds, index, moved);
+        System.arraycopy(mAlarmTimes, index + 1, mAlarmTimes, index, moved);
+        System.arraycopy(mAlarmRepeating, index + 1, mAlarmRepeating, index, moved);
+        mAlarmSize--;
+        mAlarmTimes[mAlarmSize] = null;
+    }
+
+    void clear() {
+        Arrays.fill(mLabels, 0, mSize, null);
+        Arrays.fill(mAlarmTimes, 0, mAlarmSize, null);
+        mSize = 0;
+        mAlarmSize = 0;
+    }
+
+    private void addTime(long time, String label, boolean repeating) {
+        int index = Arrays.binarySearch(mTimes, 0, mSize, time);
+        if (index < 0) {
+            index = -index - 1;
+            if (mSize == mTimes.length) {
+                final int capacity = mSize * 2;
+                mTimes = Arrays.copyOf(mTimes, capacity);
+                mLabels = Arrays.copyOf(mLabels, capacity);
+                mAlarmCounts = Arrays.copyOf(mAlarmCounts, capacity);
+                mRepeatingCounts = Arrays.copyOf(mRepeatingCounts, capacity);
+            }
+            final int moved = mSize - index;
+            System.arraycopy(mTimes, index, mTimes, index + 1, moved);
+            System.arraycopy(mLabels, index, mLabels, index + 1, moved);
+            System.arraycopy(mAlarmCounts, index, mAlarmCounts, index + 1, moved);
+            System.arraycopy(mRepeatingCounts, index, mRepeatingCounts, index + 1, moved);
+            mTimes[index] = time;
+            mLabels[index] = label;
+            mAlarmCounts[index] = 0;
+            mRepeatingCounts[index] = 0;
+            mSize++;
+        }
+        mAlarmCounts[index]++;
+        if (repeating) {
+            mRepeatingCounts[index]++;
+        }
+    }
+
+    private void removeTime(long time, boolean repeating) {
+        final int index = Arrays.binarySearch(mTimes, 0, mSize, time);
+        if (index < 0) {
+            return;
+        }
+        if (repeating) {
+            mRepeatingCounts[index]--;
+        }
+        if (--mAlarmCounts[index] > 0) {
+            return;
+        }
+        final int moved = mSize - index - 1;
+        System.arraycopy(mTimes, index + 1, mTimes, index, moved);
+        System.arraycopy(mLabels, index + 1, mLabels, index, moved);
+        System.arraycopy(mAlarmCounts, index + 1, mAlarmCounts, index, moved);
+        System.arraycopy(mRepeatingCounts, index + 1, mRepeatingCounts, index, moved);
+        mSize--;
+        mLabels[mSize] = null;
+    }
+}
@@ -16,6 +16,7 @@
 package com.android.deskclock;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.res.Resources;
 import android.database.ContentObserver;
@@ -24,7 +25,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
@@ -32,15 +32,13 @@ import android.util.AttributeSet;
 import android.view.View;
 
 import com.android.deskclock.provider.Alarm;
+import com.android.deskclock.provider.DaysOfWeek;
+import com.android.deskclock.provider.Recurrence;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.TreeMap;
 
 /**
  * Renders a tree-like view of the next alarm times over the period of a week.
@@ -55,6 +53,8 @@ public class AlarmTimelineView extends View {
     private static final String FORMAT_24_HOUR = "E H mm";
 
     private static final int DAYS_IN_WEEK = 7;
+    private static final long WEEK_IN_MINUTES =
+            DateUtils.WEEK_IN_MILLIS / DateUtils.MINUTE_IN_MILLIS;
 
     private int mAlarmTimelineColor;
     private int mAlarmTimelineLength;
@@ -69,16 +69,20 @@ public class AlarmTimelineView extends View {
 
     private Paint mPaint;
     private ContentResolver mResolver;
+    private Handler mHandler;
+    private AlarmObserver mAlarmObserver;
+    // Only used on the main thread.
+    private final AlarmTimeline mTimeline = new AlarmTimeline();
+    // Only used on the background thread computing the alarm times.
     private SimpleDateFormat mDateFormat;
-    private TreeMap<Date, AlarmTimeNode> mAlarmTimes = new TreeMap<Date, AlarmTimeNode>();
     private Calendar mCalendar;
-    private AlarmObserver mAlarmObserver = new AlarmObserver(getHandler());
-    private GetAlarmsTask mAlarmsTask = new GetAlarmsTask();
+    private final int[] mDays = new int[DaysOfWeek.DAYS_IN_A_WEEK];
     private String mNoAlarmsScheduled;
     private boolean mIsAnimatingOut;
 
     /**
-     * Observer for any changes to the alarms in the content provider.
+     * Observer for any changes to the alarms in the content provider. A change to a single
+     * alarm only updates the nodes of that alarm.
      */
     private class AlarmObserver extends ContentObserver {
 
@@ -88,119 +92,37 @@ public class AlarmTimelineView extends View {
 
         @Override
         public void onChange(boolean changed) {
-            if (mAlarmsTask != null) {
-                mAlarmsTask.cancel(true);
-            }
-            mAlarmsTask = new GetAlarmsTask();
-            mAlarmsTask.execute();
+            reloadAlarms();
         }
 
         @Override
         public void onChange(boolean changed, Uri uri) {
-            onChange(changed);
+            final long alarmId = getAlarmId(uri);
+            if (alarmId == Alarm.INVALID_ID) {
+                reloadAlarms();
+            } else {
+                updateAlarm(alarmId);
+            }
         }
     }
 
     /**
-     * The data model for one node on the timeline.
+     * The upcoming times of one alarm, computed in the background.
      */
-    private class AlarmTimeNode {
-        public Date date;
-        public boolean isRepeating;
-
-        public AlarmTimeNode(Date date, boolean isRepeating) {
-            this.date = date;
+    private static class AlarmTimes {
+        public final long alarmId;
+        public final long[] times;
+        public final String[] labels;
+        public final boolean isRepeating;
+
+        public AlarmTimes(long alarmId, long[] times, String[] labels, boolean isRepeating) {
+            this.alarmId = alarmId;
+            this.times = times;
+            this.labels = labels;
             this.isRepeating = isRepeating;
         }
     }
 
-    /**
-     * Retrieves alarms from the content provider and generates an alarm node tree sorted by date.
-     */
-    private class GetAlarmsTask extends AsyncTask<Void, Void, Void> {
-
-        @Override
-        protected synchronized Void doInBackground(Void... params) {
-            List<Alarm> enabledAlarmList = Alarm.getAlarms(mResolver, Alarm.ENABLED + "=1");
-            final Date currentTime = mCalendar.getTime();
-            mAlarmTimes.clear();
-            for (Alarm alarm : enabledAlarmList) {
-                int hour = alarm.hour;
-                int minutes = alarm.minutes;
-                HashSet<Integer> repeatingDays = alarm.daysOfWeek.getSetDays();
-
-                // If the alarm is not repeating,
-                if (repeatingDays.isEmpty()) {
-                    mCalendar.add(Calendar.DATE, getDaysFromNow(hour, minutes));
-                    mCalendar.set(Calendar.HOUR_OF_DAY, alarm.hour);
-                    mCalendar.set(Calendar.MINUTE, alarm.minutes);
-                    Date date = mCalendar.getTime();
-
-                    if (!mAlarmTimes.containsKey(date)) {
-                        // Add alarm if there is no other alarm with this date.
-                        mAlarmTimes.put(date, new AlarmTimeNode(date, false));
-                    }
-                    mCalendar.setTime(currentTime);
-                    continue;
-                }
-
-                // If the alarm is repeating, iterate through each alarm date.
-                for (int day : alarm.daysOfWeek.getSetDays()) {
-                    mCalendar.add(Calendar.DATE, getDaysFromNow(day, hour, minutes));
-                    mCalendar.set(Calendar.HOUR_OF_DAY, alarm.hour);
-                    mCalendar.set(Calendar.MINUTE, alarm.minutes);
-                    Date date = mCalendar.getTime();
-
-                    if (!mAlarmTimes.containsKey(date)) {
-                        // Add alarm if there is no other alarm with this date.
-                        mAlarmTimes.put(date, new AlarmTimeNode(mCalendar.getTime(), true));
-                    } else {
-                        // If there is another alarm with this date, make it
-                        // repeating.
-                        mAlarmTimes.get(date).isRepeating = true;
-                    }
-                    mCalendar.setTime(currentTime);
-                }
-            }
-            return null;
-        }
-
-        @Override
-        protected void onPostExecute(Void result) {
-            requestLayout();
-            AlarmTimelineView.this.invalidate();
-        }
-
-        // Returns whether this non-repeating alarm is firing today or tomorrow.
-        private int getDaysFromNow(int hour, int minutes) {
-            final int currentHour = mCalendar.get(Calendar.HOUR_OF_DAY);
-            if (hour > currentHour ||
-                    (hour == currentHour && minutes >= mCalendar.get(Calendar.MINUTE)) ) {
-                return 0;
-            }
-            return 1;
-        }
-
-        // Returns the days from now of the next instance of this alarm, given the repeated day.
-        private int getDaysFromNow(int day, int hour, int minute) {
-            final int currentDay = mCalendar.get(Calendar.DAY_OF_WEEK);
-            if (day != currentDay) {
-                if (day < currentDay) {
-                    day += DAYS_IN_WEEK;
-                }
-                return day - currentDay;
-            }
-
-            final int currentHour = mCalendar.get(Calendar.HOUR_OF_DAY);
-            if (hour != currentHour) {
-                return (hour < currentHour) ? DAYS_IN_WEEK : 0;
-            }
-
-            final int currentMinute = mCalendar.get(Calendar.MINUTE);
-            return (minute < currentMinute) ? DAYS_IN_WEEK : 0;
-        }
-    }
-
     public AlarmTimelineView(Context context) {
         super(context);
         init(context);
@@ -241,13 +163,16 @@ public class AlarmTimelineView extends View {
         String format = DateFormat.getBestDateTimePattern(locale, formatString);
         mDateFormat = new SimpleDateFormat(format, locale);
 
-        mAlarmsTask.execute();
+        mHandler = new Handler();
+        mAlarmObserver = new AlarmObserver(mHandler);
     }
 
     @Override
     public void onAttachedToWindow() {
         super.onAttachedToWindow();
         mResolver.registerContentObserver(Alarm.CONTENT_URI, true, mAlarmObserver);
+        // Changes made while detached were not observed.
+        reloadAlarms();
     }
 
     @Override
@@ -259,13 +184,13 @@ public class AlarmTimelineView extends View {
     @Override
     public void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        int timelineHeight = !mAlarmTimes.isEmpty() ?  mAlarmTimelineLength : 0;
+        int timelineHeight = mTimeline.size() != 0 ? mAlarmTimelineLength : 0;
         setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec),
                 timelineHeight + mAlarmTimelineMarginTop + mAlarmTimelineMarginBottom);
     }
 
     @Override
-    public synchronized void onDraw(Canvas canvas) {
+    public void onDraw(Canvas canvas) {
 
         // If the view is in the process of animating out, do not change the text or the timeline.
         if (mIsAnimatingOut) {
@@ -280,7 +205,7 @@ public class AlarmTimelineView extends View {
         mPaint.setColor(mAlarmTimelineColor);
 
         // If there are no alarms, draw the no alarms text.
-        if (mAlarmTimes == null || mAlarmTimes.isEmpty()) {
+        if (mTimeline.size() == 0) {
             mPaint.setTextAlign(Align.CENTER);
             canvas.drawText(mNoAlarmsScheduled, x, y, mPaint);
             return;
@@ -293,31 +218,29 @@ public class AlarmTimelineView extends View {
         final int xRight = x + mAlarmNodeRadius + mAlarmTextPadding;
 
         // Iterate through each of the alarm times chronologically.
-        Iterator<AlarmTimeNode> iter = mAlarmTimes.values().iterator();
-        Date firstDate = null;
+        final long firstTime = mTimeline.getTime(0);
         int prevY = 0;
-        int i=0;
         final int maxY = mAlarmTimelineLength + mAlarmTimelineMarginTop;
-        while (iter.hasNext()) {
-            AlarmTimeNode node = iter.next();
-            Date date = node.date;
+        final int count = mTimeline.size();
+        for (int i = 0; i < count; i++) {
+            final long time = mTimeline.getTime(i);
+            final boolean isRepeating = mTimeline.isRepeating(i);
 
-            if (firstDate == null) {
+            if (i == 0) {
                 // If this is the first alarm, set the node to the top of the timeline.
                 y = mAlarmTimelineMarginTop;
-                firstDate = date;
             } else {
                 // If this is not the first alarm, set the distance based upon the time from the
                 // first alarm.  If a node already exists at that time, use the minimum distance
                 // required from the last drawn node.
-                y = Math.max(convertToDistance(date, firstDate), prevY + mAlarmMinDistance);
+                y = Math.max(convertToDistance(time, firstTime), prevY + mAlarmMinDistance);
             }
 
             if (y > maxY) {
                 // If the y value has somehow exceeded the timeline length, draw node on end of
                 // timeline.  We should never reach this state.
                 Log.wtf("Y-value exceeded timeline length.  Should never happen.");
-                Log.wtf("alarm date=" + node.date.getTime() + ", isRepeating=" + node.isRepeating
+                Log.wtf("alarm minutes=" + time + ", isRepeating=" + isRepeating
                         + ", y=" + y + ", maxY=" + maxY);
                 y = maxY;
             }
@@ -327,14 +250,14 @@ public class AlarmTimelineView extends View {
             canvas.drawCircle(x, y, mAlarmNodeRadius, mPaint);
 
             // If the node is not repeating, draw an inner circle to make the node "open".
-            if (!node.isRepeating) {
+            if (!isRepeating) {
                 mPaint.setColor(mAlarmNodeInnerRadiusColor);
                 canvas.drawCircle(x, y, mAlarmNodeInnerRadius, mPaint);
             }
             prevY = y;
 
             // Draw the alarm text.  Alternate left and right of the timeline.
-            final String timeString = mDateFormat.format(date).toUpperCase();
+            final String timeString = mTimeline.getLabel(i);
             mPaint.setColor(mAlarmTimelineColor);
             if (i % 2 == 0) {
                 mPaint.setTextAlign(Align.RIGHT);
@@ -343,7 +266,6 @@ public class AlarmTimelineView extends View {
                 mPaint.setTextAlign(Align.LEFT);
                 canvas.drawText(timeString, xRight, y + mAlarmTextSize / 3, mPaint);
             }
-            i++;
         }
     }
 
@@ -354,13 +276,177 @@ public class AlarmTimelineView extends View {
         mIsAnimatingOut = animatingOut;
     }
 
-    // Convert the time difference between the date and the first date to a distance along the
-    // timeline.
-    private int convertToDistance(final Date date, final Date firstDate) {
-        if (date == null || firstDate == null) {
+    // Convert the time difference between the time and the first time, both in epoch minutes, to
+    // a distance along the timeline.
+    private int convertToDistance(long time, long firstTime) {
+        return (int) ((time - firstTime) * mAlarmTimelineLength / WEEK_IN_MINUTES
+                + mAlarmTimelineMarginTop);
+    }
+
+    // Returns the id of the single alarm a change notification is about, or INVALID_ID if it is
+    // about all alarms.
+    private static long getAlarmId(Uri uri) {
+        if (uri == null || uri.getPathSegments().size() != 2) {
+            return Alarm.INVALID_ID;
+        }
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return Alarm.INVALID_ID;
+        }
+    }
+
+    /**
+     * Computes the times of all enabled alarms in the background, and replaces the timeline with
+     * them.
+     */
+    private void reloadAlarms() {
+        AsyncHandler.post(AsyncHandler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                final List<Alarm> alarms = Alarm.getAlarms(mResolver, Alarm.ENABLED + "=1");
+                final AlarmTimes[] alarmTimes = new AlarmTimes[alarms.size()];
+                final long now = System.currentTimeMillis();
+                for (int i = 0; i < alarmTimes.length; i++) {
+                    alarmTimes[i] = getAlarmTimes(alarms.get(i), now);
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTimeline.clear();
+                        for (AlarmTimes times : alarmTimes) {
+                            mTimeline.setAlarm(times.alarmId, times.times, times.labels,
+                                    times.isRepeating);
+                        }
+                        onTimelineChanged(false);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Computes the times of one alarm in the background, and replaces its nodes with them.
+     * The low priority thread runs both this and {@link #reloadAlarms} in order, so updates are
+     * applied in the order the changes happened.
+     */
+    private void updateAlarm(final long alarmId) {
+        AsyncHandler.post(AsyncHandler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                final Alarm alarm = Alarm.getAlarm(mResolver, alarmId);
+                final AlarmTimes times = alarm != null && alarm.enabled
+                        ? getAlarmTimes(alarm, System.currentTimeMillis()) : null;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (times == null) {
+                            mTimeline.removeAlarm(alarmId);
+                        } else {
+                            mTimeline.setAlarm(alarmId, times.times, times.labels,
+                                    times.isRepeating);
+                        }
+                        onTimelineChanged(true);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onTimelineChanged(boolean partial) {
+        // The other alarms were computed earlier, some of their times may have passed since.
+        if (partial && mTimeline.size() != 0 && mTimeline.getTime(0)
+                < System.currentTimeMillis() / DateUtils.MINUTE_IN_MILLIS) {
+            reloadAlarms();
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    // Returns the next time of a non-repeating alarm, the next time on each day of a weekly
+    // alarm, or the times of an alarm with a recurrence rule over the coming week. Must only be
+    // called on the low priority thread.
+    private AlarmTimes getAlarmTimes(Alarm alarm, long now) {
+        final int hour = alarm.hour;
+        final int minutes = alarm.minutes;
+        final Recurrence recurrence = alarm.recurrence;
+        final int dayCount = recurrence != null ? 0 : alarm.daysOfWeek.getSetDays(mDays);
+        final boolean isRepeating = recurrence != null || dayCount != 0;
+
+        int count;
+        if (recurrence != null) {
+            mCalendar.setTimeInMillis(now);
+            final int firstDay = getDaysFromNow(hour, minutes);
+            int day = firstDay;
+            for (count = 0; count < DAYS_IN_WEEK; count++) {
+                mCalendar.setTimeInMillis(now);
+                mCalendar.add(Calendar.DATE, day);
+                day += recurrence.getDaysToNextOccurrence(mCalendar);
+                if (day - firstDay >= DAYS_IN_WEEK) {
+                    break;
+                }
+                mDays[count] = day;
+                day++;
+            }
+        } else if (!isRepeating) {
+            mCalendar.setTimeInMillis(now);
+            mDays[0] = getDaysFromNow(hour, minutes);
+            count = 1;
+        } else {
+            for (int i = 0; i < dayCount; i++) {
+                mCalendar.setTimeInMillis(now);
+                mDays[i] = getDaysFromNow(mDays[i], hour, minutes);
+            }
+            count = dayCount;
+        }
+
+        // mDays now holds the days from now of each time.
+        final long[] times = new long[count];
+        final String[] labels = new String[count];
+        for (int i = 0; i < count; i++) {
+            mCalendar.setTimeInMillis(now);
+            mCalendar.add(Calendar.DATE, mDays[i]);
+            times[i] = getAlarmTime(hour, minutes);
+            labels[i] = mDateFormat.format(mCalendar.getTime()).toUpperCase();
+        }
+        return new AlarmTimes(alarm.id, times, labels, isRepeating);
+    }
+
+    // Sets the time of day of the calendar, and returns its time in epoch minutes.
+    private long getAlarmTime(int hour, int minutes) {
+        mCalendar.set(Calendar.HOUR_OF_DAY, hour);
+        mCalendar.set(Calendar.MINUTE, minutes);
+        mCalendar.set(Calendar.SECOND, 0);
+        mCalendar.set(Calendar.MILLISECOND, 0);
+        return mCalendar.getTimeInMillis() / DateUtils.MINUTE_IN_MILLIS;
+    }
+
+    // Returns whether this non-repeating alarm is firing today or tomorrow.
+    private int getDaysFromNow(int hour, int minutes) {
+        final int currentHour = mCalendar.get(Calendar.HOUR_OF_DAY);
+        if (hour > currentHour ||
+                (hour == currentHour && minutes >= mCalendar.get(Calendar.MINUTE)) ) {
             return 0;
         }
-        return (int) ((date.getTime() - firstDate.getTime())
-                * mAlarmTimelineLength / DateUtils.WEEK_IN_MILLIS + mAlarmTimelineMarginTop);
+        return 1;
+    }
+
+    // Returns the days from now of the next instance of this alarm, given the repeated day.
+    private int getDaysFromNow(int day, int hour, int minute) {
+        final int currentDay = mCalendar.get(Calendar.DAY_OF_WEEK);
+        if (day != currentDay) {
+            if (day < currentDay) {
+                day += DAYS_IN_WEEK;
+            }
+            return day - currentDay;
+        }
+
+        final int currentHour = mCalendar.get(Calendar.HOUR_OF_DAY);
+        if (hour != currentHour) {
+            return (hour < currentHour) ? DAYS_IN_WEEK : 0;
+        }
+
+        final int currentMinute = mCalendar.get(Calendar.MINUTE);
+        return (minute < currentMinute) ? DAYS_IN_WEEK : 0;
     }
 }
@@ -51,6 +51,7 @@ public class AnalogClock extends View {
     private final int mDialHeight;
 
     private boolean mAttached;
+    private boolean mTicking;
 
     private final Handler mHandler = new Handler();
     private float mSeconds;
@@ -124,8 +125,7 @@ public class AnalogClock extends View {
         onTimeChanged();
 
         // tick the seconds
-        post(mClockTick);
-
+        updateTicking();
     }
 
     @Override
@@ -133,8 +133,36 @@ public class AnalogClock extends View {
         super.onDetachedFromWindow();
         if (mAttached) {
             getContext().unregisterReceiver(mIntentReceiver);
-            removeCallbacks(mClockTick);
             mAttached = false;
+            updateTicking();
+        }
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateTicking();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateTicking();
+    }
+
+    /**
+     * Tick the hands only while the clock can be seen.
+     */
+    private void updateTicking() {
+        final boolean tick = mAttached && isShown() && getWindowVisibility() == VISIBLE;
+        if (tick == mTicking) {
+            return;
+        }
+        mTicking = tick;
+        if (tick) {
+            TickScheduler.getInstance().subscribe(mClockTick);
+        } else {
+            TickScheduler.getInstance().unsubscribe(mClockTick);
         }
     }
 
@@ -263,13 +291,16 @@ public class AnalogClock extends View {
         }
     };
 
-    private final Runnable mClockTick = new Runnable () {
-
+    private final TickScheduler.Listener mClockTick = new TickScheduler.Listener() {
         @Override
-        public void run() {
+        public long onTick(long now) {
             onTimeChanged();
             invalidate();
-            AnalogClock.this.postDelayed(mClockTick, 1000);
+            // The hands move on wall clock second or minute boundaries.
+            final long resolution = mNoSeconds
+                    ? TickScheduler.RESOLUTION_MINUTES : TickScheduler.RESOLUTION_SECONDS;
+            final long wallNow = System.currentTimeMillis();
+            return TickScheduler.nextBoundary(wallNow, 0, resolution) - wallNow + now;
         }
     };
 
@@ -287,6 +318,10 @@ public class AnalogClock extends View {
 
     public void enableSeconds(boolean enable) {
         mNoSeconds = !enable;
+        if (mTicking) {
+            // Tick at the new resolution
+            TickScheduler.getInstance().subscribe(mClockTick);
+        }
     }
 
 }
@@ -18,22 +18,235 @@ package com.android.deskclock;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 /**
- * Helper class for managing the background thread used to perform io operations
+ * Helper class for managing the background threads used to perform io operations
  * and handle async broadcasts.
+ *
+ * Work is posted with one of three priorities:
+ * <ul>
+ *     <li>{@link #PRIORITY_URGENT} alarm state changes the user is waiting on</li>
+ *     <li>{@link #PRIORITY_NORMAL} other alarm state changes and housekeeping, like fixing
+ *     instances after a time change</li>
+ *     <li>{@link #PRIORITY_LOW} refreshing widgets and other views</li>
+ * </ul>
+ * Urgent and normal work share one thread, so alarm state changes never run at the same
+ * time and never see each other half done. Urgent work runs ahead of normal work still
+ * queued, so firing or dismissing an alarm waits at most for the task already running. Low
+ * priority work has its own thread, and must not change alarm state. Tasks of one priority
+ * run in the order they were posted.
  */
 public final class AsyncHandler {
-    private static final HandlerThread sHandlerThread = new HandlerThread("AsyncHandler");
-    private static final Handler sHandler;
+    public static final int PRIORITY_URGENT = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
 
-    static {
-        sHandlerThread.start();
-        sHandler = new Handler(sHandlerThread.getLooper());
-    }
+    // Log a warning when urgent work has waited longer than this in its queue.
+    private static final long URGENT_WAIT_WARNING_MS = 100;
+
+    private static final Lane sAlarmLane =
+            new Lane("AsyncHandler", Process.THREAD_PRIORITY_DEFAULT);
+    private static final Lane sLowLane =
+            new Lane("AsyncHandler-low", Process.THREAD_PRIORITY_BACKGROUND);
 
+    // Indexed by priority
+    private static final TaskQueue[] sQueues = {
+            new TaskQueue("AsyncHandler-urgent", sAlarmLane),
+            new TaskQueue("AsyncHandler", sAlarmLane),
+            new TaskQueue("AsyncHandler-low", sLowLane)
+    };
+
+    /**
+     * Run work with normal priority.
+     */
     public static void post(Runnable r) {
-        sHandler.post(r);
+        post(PRIORITY_NORMAL, r);
+    }
+
+    /**
+     * Run work with the given priority.
+     *
+     * @param priority one of PRIORITY_URGENT, PRIORITY_NORMAL or PRIORITY_LOW
+     * @param r work to run
+     */
+    public static void post(int priority, Runnable r) {
+        sQueues[priority].post(r);
+    }
+
+    /**
+     * @return executor running work with the given priority, for use with
+     *         {@link android.os.AsyncTask#executeOnExecutor}
+     */
+    public static Executor getExecutor(int priority) {
+        return sQueues[priority];
+    }
+
+    /**
+     * @return snapshot of the metrics of the work of the given priority
+     */
+    public static Metrics getMetrics(int priority) {
+        return sQueues[priority].getMetrics();
+    }
+
+    /**
+     * Write the metrics of every priority, for dumpsys.
+     */
+    public static void dump(PrintWriter writer) {
+        for (TaskQueue queue : sQueues) {
+            writer.println(queue.getMetrics());
+        }
+    }
+
+    /**
+     * Metrics of the work of a single priority. Times are in milliseconds.
+     */
+    public static final class Metrics {
+        public final String name;
+        public final int queueDepth;
+        public final long completed;
+        public final long totalWaitTime;
+        public final long maxWaitTime;
+        public final long totalRunTime;
+        public final long maxRunTime;
+
+        private Metrics(String name, int queueDepth, long completed, long totalWaitTime,
+                long maxWaitTime, long totalRunTime, long maxRunTime) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.completed = completed;
+            this.totalWaitTime = totalWaitTime;
+            this.maxWaitTime = maxWaitTime;
+            this.totalRunTime = totalRunTime;
+            this.maxRunTime = maxRunTime;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{queueDepth=" + queueDepth
+                    + ", completed=" + completed
+                    + ", avgWait=" + (completed == 0 ? 0 : totalWaitTime / completed)
+                    + ", maxWait=" + maxWaitTime
+                    + ", avgRun=" + (completed == 0 ? 0 : totalRunTime / completed)
+                    + ", maxRun=" + maxRunTime + '}';
+        }
+    }
+
+    /**
+     * A thread running the tasks of its queues one at a time, taking the next task from the
+     * first queue that has one.
+     */
+    private static final class Lane {
+        private final Handler mHandler;
+        private final ArrayList<TaskQueue> mQueues = new ArrayList<TaskQueue>();
+
+        private final Runnable mRunNext = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < mQueues.size(); i++) {
+                    if (mQueues.get(i).runNext()) {
+                        return;
+                    }
+                }
+            }
+        };
+
+        Lane(String name, int threadPriority) {
+            final HandlerThread thread = new HandlerThread(name, threadPriority);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+
+        void add(TaskQueue queue) {
+            mQueues.add(queue);
+        }
+
+        // One run for every task posted, each runs the most important task queued.
+        void schedule() {
+            mHandler.post(mRunNext);
+        }
+    }
+
+    private static final class TaskQueue implements Executor {
+        private final String mName;
+        private final Lane mLane;
+
+        // Guarded by this
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+        private final ArrayDeque<Long> mPostTimes = new ArrayDeque<Long>();
+        private long mCompleted;
+        private long mTotalWaitTime;
+        private long mMaxWaitTime;
+        private long mTotalRunTime;
+        private long mMaxRunTime;
+
+        TaskQueue(String name, Lane lane) {
+            mName = name;
+            mLane = lane;
+            lane.add(this);
+        }
+
+        @Override
+        public void execute(Runnable r) {
+            post(r);
+        }
+
+        void post(Runnable r) {
+            synchronized (this) {
+                mTasks.add(r);
+                mPostTimes.add(SystemClock.uptimeMillis());
+            }
+            mLane.schedule();
+        }
+
+        /**
+         * @return whether there was a task to run
+         */
+        boolean runNext() {
+            final Runnable r;
+            final long postTime;
+            synchronized (this) {
+                r = mTasks.poll();
+                if (r == null) {
+                    return false;
+                }
+                postTime = mPostTimes.poll();
+            }
+            final long startTime = SystemClock.uptimeMillis();
+            try {
+                r.run();
+            } finally {
+                onTaskDone(startTime - postTime, SystemClock.uptimeMillis() - startTime);
+            }
+            return true;
+        }
+
+        private void onTaskDone(long waitTime, long runTime) {
+            synchronized (this) {
+                mCompleted++;
+                mTotalWaitTime += waitTime;
+                mMaxWaitTime = Math.max(mMaxWaitTime, waitTime);
+                mTotalRunTime += runTime;
+                mMaxRunTime = Math.max(mMaxRunTime, runTime);
+            }
+            if (this == sQueues[PRIORITY_URGENT] && waitTime > URGENT_WAIT_WARNING_MS) {
+                Log.w("Urgent work waited " + waitTime + "ms, " + getMetrics() + ", "
+                        + sQueues[PRIORITY_NORMAL].getMetrics());
+            } else if (Log.LOGV) {
+                Log.v(mName + " task waited " + waitTime + "ms, ran " + runTime + "ms");
+            }
+        }
+
+        synchronized Metrics getMetrics() {
+            return new Metrics(mName, mTasks.size(), mCompleted, mTotalWaitTime, mMaxWaitTime,
+                    mTotalRunTime, mMaxRunTime);
+        }
     }
 
     private AsyncHandler() {}
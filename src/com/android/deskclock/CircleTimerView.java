@@ -5,6 +5,7 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
@@ -16,6 +17,9 @@ import com.android.deskclock.stopwatch.Stopwatches;
  * These two usages require two different animation modes:
  * Timer counts down. In this mode the animation is counter-clockwise and stops at 0.
  * Stopwatch counts up. In this mode the animation is clockwise and will run until stopped.
+ *
+ * While animating, only the part of the circle swept since the last frame is invalidated,
+ * and nothing is invalidated until the arc has moved at least a pixel.
  */
 public class CircleTimerView extends View {
 
@@ -41,6 +45,27 @@ public class CircleTimerView extends View {
     // Stopwatch mode is the default.
     private boolean mTimerMode = false;
 
+    private boolean mAttached;
+    private boolean mTicking;
+
+    // Redraw only the swept part of the circle while animating.
+    private boolean mIncrementalDraw = true;
+    // Fraction of the interval drawn by the last onDraw(), or -1 before the first one.
+    private float mDrawnPercent = -1;
+    private final Rect mDirtyRect = new Rect();
+    private final Rect mClipBounds = new Rect();
+
+    private final TickScheduler.Listener mTickListener = new TickScheduler.Listener() {
+        @Override
+        public long onTick(long now) {
+            final long nextTick = updateDirtyRegion(now, mDirtyRect);
+            if (!mDirtyRect.isEmpty()) {
+                invalidate(mDirtyRect);
+            }
+            return nextTick;
+        }
+    };
+
     @SuppressWarnings("unused")
     public CircleTimerView(Context context) {
         this(context, null);
@@ -71,11 +96,13 @@ public class CircleTimerView extends View {
         mAnimate = true;
         invalidate();
         mPaused = false;
+        updateTicking();
     }
     public void stopIntervalAnimation() {
         mAnimate = false;
         mIntervalStartTime = -1;
         mAccumulatedTime = 0;
+        updateTicking();
     }
 
     public boolean isAnimating() {
@@ -86,10 +113,12 @@ public class CircleTimerView extends View {
         mAnimate = false;
         mAccumulatedTime += Utils.getTimeNow() - mIntervalStartTime;
         mPaused = true;
+        updateTicking();
     }
 
     public void abortIntervalAnimation() {
         mAnimate = false;
+        updateTicking();
     }
 
     public void setPassedTime(long time, boolean drawRed) {
@@ -133,8 +162,163 @@ public class CircleTimerView extends View {
         mTimerMode = mode;
     }
 
+    /**
+     * @param incremental true to only redraw the part of the circle that changed while
+     *        animating, false to redraw the whole view every frame
+     */
+    public void setIncrementalDraw(boolean incremental) {
+        mIncrementalDraw = incremental;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        updateTicking();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mAttached = false;
+        updateTicking();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateTicking();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateTicking();
+    }
+
+    /**
+     * Tick the animation only while it is running and can be seen.
+     */
+    private void updateTicking() {
+        final boolean tick = mAnimate && mAttached && isShown()
+                && getWindowVisibility() == VISIBLE;
+        if (tick == mTicking) {
+            return;
+        }
+        mTicking = tick;
+        if (tick) {
+            TickScheduler.getInstance().subscribe(mTickListener);
+        } else {
+            TickScheduler.getInstance().unsubscribe(mTickListener);
+        }
+    }
+
     @Override
     public void onDraw(Canvas canvas) {
+        drawAtTime(canvas, Utils.getTimeNow(), mDirtyRect);
+    }
+
+    /**
+     * Works out the region to redraw for the animation at the given time.
+     *
+     * @param now current time
+     * @param dirty set to the region to redraw, empty if nothing visibly changed
+     * @return time of the next frame that may need redrawing
+     */
+    long updateDirtyRegion(long now, Rect dirty) {
+        final int xCenter = getWidth() / 2 + 1;
+        final int yCenter = getHeight() / 2;
+        final float radius = Math.min(xCenter, yCenter) - mRadiusOffset;
+        if (!mIncrementalDraw || !mAnimate || mIntervalStartTime == -1 || mIntervalTime <= 0
+                || radius <= 0 || mDrawnPercent < 0) {
+            dirty.set(0, 0, getWidth(), getHeight());
+            return now + TickScheduler.RESOLUTION_HUNDREDTHS;
+        }
+
+        final float percent = getRedPercent(now - mIntervalStartTime + mAccumulatedTime);
+        final float sweep = (percent - mDrawnPercent) * 360;
+        if (Math.abs(sweep) >= 360) {
+            dirty.set(0, 0, getWidth(), getHeight());
+            return now + TickScheduler.RESOLUTION_HUNDREDTHS;
+        }
+
+        // The arc moves one pixel along the circumference in this many milliseconds.
+        final float millisPerPixel = (float) (mIntervalTime / (2 * Math.PI * radius));
+        final float movedPixels = (float) Math.toRadians(Math.abs(sweep)) * radius;
+        if (movedPixels < 1) {
+            dirty.setEmpty();
+            final long wait = (long) ((1 - movedPixels) * millisPerPixel);
+            return now + Math.max(TickScheduler.RESOLUTION_HUNDREDTHS, wait);
+        }
+
+        // Cover the stroke, the dot and however far the arc moves before onDraw() runs.
+        final float inset = Math.max(mStrokeSize / 2, mDotRadius) + 1
+                + TickScheduler.RESOLUTION_HUNDREDTHS * 2 / millisPerPixel;
+        final float from = getDotAngle(mDrawnPercent);
+        final float to = getDotAngle(percent);
+        setArcBounds(dirty, xCenter, yCenter, radius, Math.min(from, to), Math.max(from, to),
+                inset);
+        return now + Math.max(TickScheduler.RESOLUTION_HUNDREDTHS, (long) millisPerPixel);
+    }
+
+    private float getRedPercent(long intervalTime) {
+        final float redPercent = (float) intervalTime / (float) mIntervalTime;
+        // prevent timer from doing more than one full circle
+        return (redPercent > 1 && mTimerMode) ? 1 : redPercent;
+    }
+
+    private float getDotAngle(float redPercent) {
+        return mTimerMode ? 270 - redPercent * 360 : 270 + redPercent * 360;
+    }
+
+    /**
+     * Set a rect to the bounds of an arc of a circle, grown by inset on every side.
+     * Angles are in degrees, clockwise from the positive x axis, and from is before to.
+     */
+    private static void setArcBounds(Rect out, float xCenter, float yCenter, float radius,
+            float from, float to, float inset) {
+        final double fromRadians = Math.toRadians(from);
+        final double toRadians = Math.toRadians(to);
+        float left = (float) Math.min(Math.cos(fromRadians), Math.cos(toRadians));
+        float right = (float) Math.max(Math.cos(fromRadians), Math.cos(toRadians));
+        float top = (float) Math.min(Math.sin(fromRadians), Math.sin(toRadians));
+        float bottom = (float) Math.max(Math.sin(fromRadians), Math.sin(toRadians));
+        // The arc reaches the edge of the circle wherever it crosses an axis.
+        for (int axis = (int) Math.ceil(from / 90); axis * 90 <= to; axis++) {
+            switch (((axis % 4) + 4) % 4) {
+                case 0:
+                    right = 1;
+                    break;
+                case 1:
+                    bottom = 1;
+                    break;
+                case 2:
+                    left = -1;
+                    break;
+                default:
+                    top = -1;
+                    break;
+            }
+        }
+        out.set((int) Math.floor(xCenter + left * radius - inset),
+                (int) Math.floor(yCenter + top * radius - inset),
+                (int) Math.ceil(xCenter + right * radius + inset),
+                (int) Math.ceil(yCenter + bottom * radius + inset));
+    }
+
+    /**
+     * @return fraction of the interval drawn by the last draw covering the swept region, or -1
+     */
+    float getDrawnPercent() {
+        return mDrawnPercent;
+    }
+
+    /**
+     * Draw the circle as it looks at the given time.
+     *
+     * @param dirty region invalidated for this draw, from {@link #updateDirtyRegion}
+     */
+    void drawAtTime(Canvas canvas, long now, Rect dirty) {
         int xCenter = getWidth() / 2 + 1;
         int yCenter = getHeight() / 2;
 
@@ -148,18 +332,22 @@ public class CircleTimerView extends View {
             if (mTimerMode) {
                 drawRedDot(canvas, 0f, xCenter, yCenter, radius);
             }
+            mDrawnPercent = -1;
         } else {
             if (mAnimate) {
-                mCurrentIntervalTime = Utils.getTimeNow() - mIntervalStartTime + mAccumulatedTime;
+                mCurrentIntervalTime = now - mIntervalStartTime + mAccumulatedTime;
             }
             //draw a combination of red and white arcs to create a circle
             mArcRect.top = yCenter - radius;
             mArcRect.bottom = yCenter + radius;
             mArcRect.left =  xCenter - radius;
             mArcRect.right = xCenter + radius;
-            float redPercent = (float)mCurrentIntervalTime / (float)mIntervalTime;
-            // prevent timer from doing more than one full circle
-            redPercent = (redPercent > 1 && mTimerMode) ? 1 : redPercent;
+            float redPercent = getRedPercent(mCurrentIntervalTime);
+            // A draw clipped to some other region leaves part of the sweep stale, so keep
+            // sweeping from the last draw that covered it.
+            if (!canvas.getClipBounds(mClipBounds) || mClipBounds.contains(dirty)) {
+                mDrawnPercent = redPercent;
+            }
 
             float whitePercent = 1 - (redPercent > 1 ? 1 : redPercent);
             // draw red arc here
@@ -192,9 +380,6 @@ public class CircleTimerView extends View {
             }
             drawRedDot(canvas, redPercent, xCenter, yCenter, radius);
         }
-        if (mAnimate) {
-            invalidate();
-        }
    }
 
     protected void drawRedDot(
@@ -242,6 +427,7 @@ public class CircleTimerView extends View {
         mMarkerTime = prefs.getLong(key + PREF_CTV_MARKER_TIME, -1);
         mTimerMode = prefs.getBoolean(key + PREF_CTV_TIMER_MODE, false);
         mAnimate = (mIntervalStartTime != -1 && !mPaused);
+        updateTicking();
     }
 
     public void clearSharedPref(SharedPreferences prefs, String key) {
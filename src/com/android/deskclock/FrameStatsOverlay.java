@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.app.Activity;
+import android.graphics.Color;
+import android.os.Debug;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+/**
+ * Debug overlay showing the time between ticks of a view that updates every frame, and the
+ * number of objects the main thread allocated in that time. Ticks that allocate are what
+ * eventually makes the garbage collector pause the animation.
+ *
+ * Counting allocations slows the app down, so the overlay is only shown when enabled with
+ * "adb shell setprop log.tag.FrameStats DEBUG". Must only be used from the main thread.
+ */
+public final class FrameStatsOverlay {
+    private static final String TAG = "FrameStats";
+
+    private static final long REPORT_INTERVAL_NANOS = 1000000000L;
+    // A longer gap means ticking was paused, which is not a slow frame.
+    private static final long MAX_FRAME_NANOS = 500000000L;
+
+    private final Activity mActivity;
+    private final TextView mText;
+
+    private long mLastFrameTime;
+    private int mLastAllocCount;
+
+    // Stats since the last report
+    private long mReportTime;
+    private int mFrames;
+    private long mTotalFrameTime;
+    private long mMaxFrameTime;
+    private long mAllocations;
+
+    /**
+     * @return true when the overlay has been enabled for debugging
+     */
+    public static boolean isEnabled() {
+        return android.util.Log.isLoggable(TAG, android.util.Log.DEBUG);
+    }
+
+    public FrameStatsOverlay(Activity activity) {
+        mActivity = activity;
+        mText = new TextView(activity);
+        mText.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+        mText.setTextColor(Color.WHITE);
+        mText.setBackgroundColor(0x80000000);
+    }
+
+    /**
+     * Show the overlay on top of the activity and start counting allocations.
+     */
+    public void show() {
+        if (mText.getParent() == null) {
+            mActivity.addContentView(mText, new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                    Gravity.TOP | Gravity.START));
+        }
+        Debug.startAllocCounting();
+        reset();
+    }
+
+    public void hide() {
+        Debug.stopAllocCounting();
+        final ViewGroup parent = (ViewGroup) mText.getParent();
+        if (parent != null) {
+            parent.removeView(mText);
+        }
+    }
+
+    /**
+     * Forget the last frame, call when ticking starts again after a pause.
+     */
+    public void reset() {
+        mLastFrameTime = 0;
+        mFrames = 0;
+        mTotalFrameTime = mMaxFrameTime = mAllocations = 0;
+    }
+
+    /**
+     * Call at the start of every tick. Measures the time and allocations since the previous
+     * tick, which include drawing the previous frame.
+     */
+    public void onFrame() {
+        final long now = System.nanoTime();
+        final int allocCount = Debug.getThreadAllocCount();
+        final long frameTime = now - mLastFrameTime;
+        if (mLastFrameTime == 0 || frameTime > MAX_FRAME_NANOS) {
+            mReportTime = now;
+        } else {
+            mFrames++;
+            mTotalFrameTime += frameTime;
+            mMaxFrameTime = Math.max(mMaxFrameTime, frameTime);
+            mAllocations += allocCount - mLastAllocCount;
+        }
+        mLastFrameTime = now;
+        mLastAllocCount = allocCount;
+
+        if (mFrames > 0 && now - mReportTime >= REPORT_INTERVAL_NANOS) {
+            mText.setText(String.format("%.1f ms/frame (max %.1f)\n%.1f allocs/frame",
+                    mTotalFrameTime / 1e6 / mFrames, mMaxFrameTime / 1e6,
+                    (double) mAllocations / mFrames));
+            mFrames = 0;
+            mTotalFrameTime = mMaxFrameTime = mAllocations = 0;
+            mReportTime = now;
+            // The report itself is not part of any frame.
+            mLastAllocCount = Debug.getThreadAllocCount();
+        }
+    }
+}
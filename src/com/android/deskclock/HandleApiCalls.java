@@ -19,11 +19,9 @@ package com.android.deskclock;
 import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
 import com.android.deskclock.alarms.AlarmStateManager;
@@ -32,6 +30,7 @@ import com.android.deskclock.provider.AlarmInstance;
 import com.android.deskclock.provider.DaysOfWeek;
 import com.android.deskclock.timer.TimerFragment;
 import com.android.deskclock.timer.TimerObj;
+import com.android.deskclock.timer.TimerStore;
 import com.android.deskclock.timer.Timers;
 
 import java.util.ArrayList;
@@ -156,7 +155,7 @@ public class HandleApiCalls extends Activity {
     }
 
     private void handleSetTimer(Intent intent) {
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        final TimerStore store = TimerStore.getInstance(this);
         // If no length is supplied , show the timer setup view
         if (!intent.hasExtra(EXTRA_LENGTH)) {
             startActivity(new Intent(this, DeskClock.class)
@@ -175,7 +174,7 @@ public class HandleApiCalls extends Activity {
         TimerObj timer = null;
         // Find an existing matching time
         final ArrayList<TimerObj> timers = new ArrayList<TimerObj>();
-        TimerObj.getTimersFromSharedPrefs(prefs, timers);
+        store.getTimers(timers);
         for (TimerObj t : timers) {
             if (t.mSetupLength == length && (TextUtils.equals(label, t.mLabel))
                     && t.mState == TimerObj.STATE_RESTART) {
@@ -194,7 +193,9 @@ public class HandleApiCalls extends Activity {
 
         timer.mState = TimerObj.STATE_RUNNING;
         timer.mStartTime = Utils.getTimeNow();
-        timer.writeToSharedPref(prefs);
+        store.save(timer);
+        // The activity finishes right away, do not leave the write behind.
+        store.flush();
 
         // Tell TimerReceiver that the timer was started
         sendBroadcast(new Intent().setAction(Timers.START_TIMER)
@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Process wide catalog of the ringtones alarms can play, and the titles shown for them.
+ *
+ * The system ringtones and their titles are read once in the background, instead of
+ * iterating the RingtoneManager cursor every time the alarm list or a ringtone dialog is
+ * created. Other titles, of media files and the default sounds, are kept in an LRU cache; a
+ * title that is not cached yet is resolved in the background, since that may create a media
+ * player or query the media provider, and the listeners are told once it is known.
+ * Everything is loaded again when the media store changes.
+ *
+ * Public methods must be called from the main thread.
+ */
+public final class RingtoneCatalog {
+    private static final String TAG = "RingtoneCatalog";
+
+    private static final int MAX_TITLES = 64;
+
+    private static final int TYPE_ALARM = 1;
+    private static final int TYPE_RINGTONE = 2;
+    private static final int TYPE_NOTIFICATION = 4;
+
+    /**
+     * Told on the main thread when titles were resolved or the catalog was loaded again.
+     */
+    public interface Listener {
+        void onRingtoneCatalogChanged();
+    }
+
+    private static RingtoneCatalog sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private final LruCache<Uri, String> mTitles = new LruCache<Uri, String>(MAX_TITLES);
+    // Uris of titles being resolved in the background
+    private final HashSet<Uri> mPending = new HashSet<Uri>();
+    private final String mFallbackTitle;
+    private final String mUnknownTitle;
+
+    // Replaced as a whole when the catalog is loaded, guarded by this
+    private HashMap<Uri, Integer> mSystemTones = new HashMap<Uri, Integer>();
+    private HashMap<Uri, String> mSystemTitles = new HashMap<Uri, String>();
+    private List<Uri> mAlarmTones = Collections.emptyList();
+    private List<Uri> mRingtones = Collections.emptyList();
+    private boolean mLoaded;
+    private boolean mStale = true;
+
+    // Guarded by this
+    private int mHits;
+    private int mMisses;
+    private int mCatalogLoads;
+    private int mTitleLoads;
+    private long mTotalTitleLoadTime;
+
+    private final ContentObserver mMediaObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    public static synchronized RingtoneCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RingtoneCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private RingtoneCatalog(Context context) {
+        mContext = context;
+        mFallbackTitle = context.getString(R.string.fallback_ringtone);
+        mUnknownTitle = context.getString(com.android.internal.R.string.ringtone_unknown);
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.INTERNAL_CONTENT_URI, true, mMediaObserver);
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, mMediaObserver);
+        scheduleLoad(null);
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return true once the system ringtones have been read
+     */
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * @return alarm sounds, followed by the default alarm sound
+     */
+    public synchronized List<Uri> getAlarmTones() {
+        return mAlarmTones;
+    }
+
+    /**
+     * @return ringtones, followed by the default ringtone
+     */
+    public synchronized List<Uri> getRingtones() {
+        return mRingtones;
+    }
+
+    public synchronized boolean isAlarmTone(Uri uri) {
+        final Integer type = mSystemTones.get(uri);
+        return type != null && (type & TYPE_ALARM) != 0;
+    }
+
+    public synchronized boolean isRingtone(Uri uri) {
+        final Integer type = mSystemTones.get(uri);
+        return type != null && (type & TYPE_RINGTONE) != 0;
+    }
+
+    /**
+     * @return true for any sound of the system, false for media files and folders
+     */
+    public synchronized boolean isSystemTone(Uri uri) {
+        return mSystemTones.containsKey(uri);
+    }
+
+    /**
+     * Get the title shown for a ringtone, which may be a system ringtone, a media file or a
+     * folder. Ringtones that cannot be found are shown with {@link #getFallbackTitle}.
+     *
+     * @return the title, or null while it is resolved in the background
+     */
+    public String getTitle(Uri uri) {
+        if (uri == null) {
+            // Same as Alarm.isFallbackRingtone() for an alarm without a ringtone
+            return mFallbackTitle;
+        }
+        final String title;
+        synchronized (this) {
+            final String systemTitle = mSystemTitles.get(uri);
+            title = systemTitle != null ? systemTitle : mTitles.get(uri);
+            if (title != null) {
+                mHits++;
+            } else {
+                mMisses++;
+            }
+        }
+        if (title == null && mPending.add(uri)) {
+            scheduleLoad(uri);
+        }
+        return title;
+    }
+
+    public String getFallbackTitle() {
+        return mFallbackTitle;
+    }
+
+    /**
+     * Drop the catalog and every title, used when the media store changes.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            if (mStale) {
+                // A load is already due.
+                return;
+            }
+            mStale = true;
+        }
+        mTitles.evictAll();
+        scheduleLoad(null);
+    }
+
+    /**
+     * @return snapshot of the metrics of the catalog
+     */
+    public Metrics getMetrics() {
+        synchronized (this) {
+            return new Metrics(mHits, mMisses, mTitles.evictionCount(), mCatalogLoads,
+                    mTitleLoads, mTotalTitleLoadTime);
+        }
+    }
+
+    /**
+     * Metrics of the titles. A title that is not known yet is a miss, and is then loaded in
+     * the background. Times are in milliseconds.
+     */
+    public static final class Metrics {
+        public final int hits;
+        public final int misses;
+        public final int evictions;
+        public final int catalogLoads;
+        public final int titleLoads;
+        public final long totalTitleLoadTime;
+
+        private Metrics(int hits, int misses, int evictions, int catalogLoads, int titleLoads,
+                long totalTitleLoadTime) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.catalogLoads = catalogLoads;
+            this.titleLoads = titleLoads;
+            this.totalTitleLoadTime = totalTitleLoadTime;
+        }
+
+        @Override
+        public String toString() {
+            return TAG + "{hits=" + hits
+                    + ", misses=" + misses
+                    + ", evictions=" + evictions
+                    + ", catalogLoads=" + catalogLoads
+                    + ", titleLoads=" + titleLoads
+                    + ", avgTitleLoad=" + (titleLoads == 0 ? 0 : totalTitleLoadTime / titleLoads)
+                    + '}';
+        }
+    }
+
+    /**
+     * Load the catalog if it is stale, then the title of a ringtone if one is given. Runs on
+     * a single lane, so a load never races with another.
+     */
+    private void scheduleLoad(final Uri uri) {
+        AsyncHandler.post(AsyncHandler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                final boolean stale;
+                synchronized (RingtoneCatalog.this) {
+                    stale = mStale;
+                }
+                if (stale) {
+                    loadCatalog();
+                }
+                final String title = uri == null ? null : loadTitle(uri);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (uri != null) {
+                            mPending.remove(uri);
+                            mTitles.put(uri, title);
+                        }
+                        notifyListeners();
+                    }
+                });
+            }
+        });
+    }
+
+    private void notifyListeners() {
+        // Copied, listeners may remove themselves.
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onRingtoneCatalogChanged();
+        }
+    }
+
+    private void loadCatalog() {
+        final HashMap<Uri, Integer> systemTones = new HashMap<Uri, Integer>();
+        final HashMap<Uri, String> systemTitles = new HashMap<Uri, String>();
+        final ArrayList<Uri> alarmTones = new ArrayList<Uri>();
+        final ArrayList<Uri> ringtones = new ArrayList<Uri>();
+        readTones(RingtoneManager.TYPE_ALARM, TYPE_ALARM, systemTones, systemTitles,
+                alarmTones);
+        readTones(RingtoneManager.TYPE_RINGTONE, TYPE_RINGTONE, systemTones, systemTitles,
+                ringtones);
+        readTones(RingtoneManager.TYPE_NOTIFICATION, TYPE_NOTIFICATION, systemTones,
+                systemTitles, null);
+
+        final Uri defaultAlarm = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
+        final Uri defaultRingtone = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE);
+        alarmTones.add(defaultAlarm);
+        addType(systemTones, defaultAlarm, TYPE_ALARM);
+        ringtones.add(defaultRingtone);
+        addType(systemTones, defaultRingtone, TYPE_RINGTONE);
+
+        synchronized (this) {
+            mSystemTones = systemTones;
+            mSystemTitles = systemTitles;
+            mAlarmTones = Collections.unmodifiableList(alarmTones);
+            mRingtones = Collections.unmodifiableList(ringtones);
+            mLoaded = true;
+            mStale = false;
+            mCatalogLoads++;
+        }
+        if (Log.LOGV) {
+            Log.v(TAG + " loaded " + systemTones.size() + " tones, " + getMetrics());
+        }
+    }
+
+    private void readTones(int type, int typeBit, HashMap<Uri, Integer> systemTones,
+            HashMap<Uri, String> systemTitles, List<Uri> list) {
+        final RingtoneManager ringtoneMgr = new RingtoneManager(mContext);
+        ringtoneMgr.setType(type);
+        Cursor cursor = null;
+        try {
+            cursor = ringtoneMgr.getCursor();
+            while (cursor != null && cursor.moveToNext()) {
+                final Uri uri = ContentUris.withAppendedId(
+                        Uri.parse(cursor.getString(RingtoneManager.URI_COLUMN_INDEX)),
+                        cursor.getLong(RingtoneManager.ID_COLUMN_INDEX));
+                addType(systemTones, uri, typeBit);
+                if (list != null) {
+                    list.add(uri);
+                }
+                // The title comes with the catalog, no need to resolve it later.
+                final String title = cursor.getString(RingtoneManager.TITLE_COLUMN_INDEX);
+                if (title != null && !title.contains(mUnknownTitle)) {
+                    systemTitles.put(uri, title);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG + " unable to read ringtones of type " + type, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void addType(HashMap<Uri, Integer> systemTones, Uri uri, int typeBit) {
+        final Integer type = systemTones.get(uri);
+        systemTones.put(uri, type == null ? typeBit : type | typeBit);
+    }
+
+    private String loadTitle(Uri uri) {
+        final long start = SystemClock.elapsedRealtime();
+        String title;
+        if (isSystemTone(uri)) {
+            // This is slow because a media player is created during Ringtone object creation.
+            final Ringtone ringTone = RingtoneManager.getRingtone(mContext, uri);
+            title = ringTone != null ? ringTone.getTitle(mContext) : null;
+            if (title != null && title.contains(mUnknownTitle)) {
+                title = null;
+            }
+        } else {
+            title = getMediaTitle(uri);
+        }
+        synchronized (this) {
+            mTitleLoads++;
+            mTotalTitleLoadTime += SystemClock.elapsedRealtime() - start;
+        }
+        // file no longer found
+        return title != null ? title : mFallbackTitle;
+    }
+
+    private String getMediaTitle(Uri uri) {
+        File f = new File(uri.getPath());
+        if (f.exists() && f.isDirectory()) {
+            return uri.getPath();
+        }
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+            int nameIndex = cursor.getColumnIndexOrThrow(OpenableColumns.DISPLAY_NAME);
+            cursor.moveToFirst();
+            return cursor.getString(nameIndex);
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -65,6 +65,10 @@ public class SettingsActivity extends PreferenceActivity
             "snooze_count";
     public static final String KEY_SHAKE_ACTION =
             "shake_action_setting";
+    public static final String KEY_DOUBLE_TAP_ACTION =
+            "double_tap_action_setting";
+    public static final String KEY_PICK_UP_ACTION =
+            "pick_up_action_setting";
     public static final String KEY_KEEP_SCREEN_ON =
             "keep_screen_on";
     public static final String KEY_VOLUME_INCREASE_SPEED =
@@ -178,6 +182,14 @@ public class SettingsActivity extends PreferenceActivity
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
             listPref.setSummary(listPref.getEntries()[idx]);
+        } else if (KEY_DOUBLE_TAP_ACTION.equals(pref.getKey())) {
+            final ListPreference listPref = (ListPreference) pref;
+            final int idx = listPref.findIndexOfValue((String) newValue);
+            listPref.setSummary(listPref.getEntries()[idx]);
+        } else if (KEY_PICK_UP_ACTION.equals(pref.getKey())) {
+            final ListPreference listPref = (ListPreference) pref;
+            final int idx = listPref.findIndexOfValue((String) newValue);
+            listPref.setSummary(listPref.getEntries()[idx]);
         } else if (KEY_VOLUME_INCREASE_SPEED.equals(pref.getKey())) {
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
@@ -238,6 +250,14 @@ public class SettingsActivity extends PreferenceActivity
         listPref.setSummary(listPref.getEntry());
         listPref.setOnPreferenceChangeListener(this);
 
+        listPref = (ListPreference) findPreference(KEY_DOUBLE_TAP_ACTION);
+        listPref.setSummary(listPref.getEntry());
+        listPref.setOnPreferenceChangeListener(this);
+
+        listPref = (ListPreference) findPreference(KEY_PICK_UP_ACTION);
+        listPref.setSummary(listPref.getEntry());
+        listPref.setOnPreferenceChangeListener(this);
+
         CheckBoxPreference hideStatusbarIcon = (CheckBoxPreference) findPreference(KEY_SHOW_STATUS_BAR_ICON);
         hideStatusbarIcon.setOnPreferenceChangeListener(this);
 
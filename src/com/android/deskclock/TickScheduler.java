@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.text.format.DateUtils;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Drives the ticking clocks, timers and stopwatches of the app from {@link Choreographer}
+ * frame callbacks, instead of each of them reposting its own runnable.
+ *
+ * Every listener returns the time its displayed value can next change, so a view showing
+ * seconds is ticked once a second and a view showing hundredths once a frame. A frame is only
+ * requested when the earliest listener is due, and nothing is scheduled at all when no
+ * listener is subscribed. Listeners subscribe while they are visible and unsubscribe when
+ * they are hidden, detached or paused.
+ *
+ * All times are in {@link Utils#getTimeNow()} milliseconds. Must only be used from the main
+ * thread.
+ */
+public final class TickScheduler {
+    public static final long RESOLUTION_HUNDREDTHS = 10;
+    public static final long RESOLUTION_SECONDS = DateUtils.SECOND_IN_MILLIS;
+    public static final long RESOLUTION_MINUTES = DateUtils.MINUTE_IN_MILLIS;
+
+    // Returned by listeners that have nothing to show until something else changes.
+    public static final long NEVER = Long.MAX_VALUE;
+
+    // Due times closer than this are ticked on the next frame instead of a delayed one.
+    private static final long FRAME_MILLIS = 16;
+
+    public interface Listener {
+        /**
+         * Update the displayed value.
+         *
+         * @param now current time
+         * @return time the displayed value can next change, or {@link #NEVER}
+         */
+        long onTick(long now);
+    }
+
+    private static TickScheduler sInstance;
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private long[] mDueTimes = new long[4];
+    private Listener[] mDispatchList = new Listener[4];
+
+    private boolean mFramePending;
+    private boolean mDispatching;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFramePending = false;
+            dispatchTicks();
+        }
+    };
+
+    public static TickScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TickScheduler();
+        }
+        return sInstance;
+    }
+
+    private TickScheduler() {}
+
+    /**
+     * Start ticking a listener, beginning with the next frame. Subscribing a listener that
+     * is already subscribed ticks it on the next frame, use this when its value changed.
+     */
+    public void subscribe(Listener listener) {
+        int index = mListeners.indexOf(listener);
+        if (index < 0) {
+            index = mListeners.size();
+            mListeners.add(listener);
+            if (mDueTimes.length < mListeners.size()) {
+                final long[] dueTimes = new long[mDueTimes.length * 2];
+                System.arraycopy(mDueTimes, 0, dueTimes, 0, mDueTimes.length);
+                mDueTimes = dueTimes;
+            }
+        }
+        mDueTimes[index] = 0;
+        reschedule();
+    }
+
+    /**
+     * Stop ticking a listener. Once the last listener is gone no frames are requested.
+     */
+    public void unsubscribe(Listener listener) {
+        final int index = mListeners.indexOf(listener);
+        if (index < 0) {
+            return;
+        }
+        mListeners.remove(index);
+        System.arraycopy(mDueTimes, index + 1, mDueTimes, index, mListeners.size() - index);
+        reschedule();
+    }
+
+    /**
+     * @return the first multiple of resolution, counted from origin, that is after now
+     */
+    public static long nextBoundary(long now, long origin, long resolution) {
+        final long elapsed = now - origin;
+        long remainder = elapsed % resolution;
+        if (remainder < 0) {
+            remainder += resolution;
+        }
+        return now + resolution - remainder;
+    }
+
+    private void dispatchTicks() {
+        final long now = Utils.getTimeNow();
+        final int count = mListeners.size();
+        if (mDispatchList.length < count) {
+            mDispatchList = new Listener[mDueTimes.length];
+        }
+        for (int i = 0; i < count; i++) {
+            mDispatchList[i] = mListeners.get(i);
+        }
+
+        // Listeners may subscribe and unsubscribe while being ticked, so look each one up.
+        mDispatching = true;
+        for (int i = 0; i < count; i++) {
+            final Listener listener = mDispatchList[i];
+            mDispatchList[i] = null;
+            int index = mListeners.indexOf(listener);
+            if (index < 0 || mDueTimes[index] > now) {
+                continue;
+            }
+            final long due = listener.onTick(now);
+            index = mListeners.indexOf(listener);
+            if (index >= 0) {
+                // Never tick twice in the same frame.
+                mDueTimes[index] = Math.max(due, now + 1);
+            }
+        }
+        mDispatching = false;
+        reschedule();
+    }
+
+    private void reschedule() {
+        if (mDispatching) {
+            // Rescheduled once every listener has been ticked.
+            return;
+        }
+        if (mFramePending) {
+            mChoreographer.removeFrameCallback(mFrameCallback);
+            mFramePending = false;
+        }
+
+        long nextDue = NEVER;
+        for (int i = 0; i < mListeners.size(); i++) {
+            nextDue = Math.min(nextDue, mDueTimes[i]);
+        }
+        if (nextDue == NEVER) {
+            return;
+        }
+
+        final long delay = nextDue - Utils.getTimeNow();
+        if (delay < FRAME_MILLIS) {
+            mChoreographer.postFrameCallback(mFrameCallback);
+        } else {
+            mChoreographer.postFrameCallbackDelayed(mFrameCallback, delay);
+        }
+        mFramePending = true;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * Feeds the accelerometer to a {@link GesturePipeline} through a single listener. The listener
+ * is registered at the slow normal rate, and registered again at the game rate while the
+ * pipeline sees the device move. With a gesture needing fast samples all along, like the
+ * double tap, it is registered at the game rate from the start.
+ */
+final class AccelerometerGestures implements SensorEventListener, GesturePipeline.Callback {
+    private final SensorManager mSensorManager;
+    private final Sensor mAccelerometer;
+    private final GesturePipeline mPipeline = new GesturePipeline(this);
+    private boolean mListening;
+
+    AccelerometerGestures(Context context) {
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mAccelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+    }
+
+    void addGesture(MotionGesture gesture) {
+        mPipeline.addGesture(gesture);
+    }
+
+    /**
+     * Start listening, with every gesture detectable again. Does nothing without gestures.
+     */
+    void start() {
+        if (mListening || mAccelerometer == null || !mPipeline.hasGestures()) {
+            return;
+        }
+        mPipeline.reset();
+        mSensorManager.registerListener(this, mAccelerometer, getDelay(mPipeline.isFast()));
+        mListening = true;
+    }
+
+    void stop() {
+        if (mListening) {
+            mSensorManager.unregisterListener(this);
+            mListening = false;
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        mPipeline.onSample(event.timestamp, event.values[0], event.values[1], event.values[2]);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void onSamplingRateChanged(boolean fast) {
+        if (!mListening) {
+            return;
+        }
+        mSensorManager.unregisterListener(this);
+        mSensorManager.registerListener(this, mAccelerometer, getDelay(fast));
+    }
+
+    private static int getDelay(boolean fast) {
+        return fast ? SensorManager.SENSOR_DELAY_GAME : SensorManager.SENSOR_DELAY_NORMAL;
+    }
+}
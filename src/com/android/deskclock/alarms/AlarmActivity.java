@@ -24,8 +24,6 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
-import android.hardware.Sensor;
-import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -115,11 +113,11 @@ public class AlarmActivity extends Activity {
     }
 
     private AlarmInstance mInstance;
-    private SensorManager mSensorManager;
     private int mFlipAction;
     private int mShakeAction;
-    private FlipSensorListener mFlipListener;
-    private ShakeSensorListener mShakeListener;
+    private int mDoubleTapAction;
+    private int mPickUpAction;
+    private AccelerometerGestures mGestures;
     private int mVolumeBehavior;
     private GlowPadView mGlowPadView;
     private GlowPadController glowPadController = new GlowPadController();
@@ -174,20 +172,6 @@ public class AlarmActivity extends Activity {
         mPreAlarmMode = mInstance.mAlarmState == AlarmInstance.PRE_ALARM_STATE;
         Log.v("Pre-alarm mode: " + mPreAlarmMode);
 
-        mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        mFlipListener = new FlipSensorListener(new Runnable(){
-            @Override
-            public void run() {
-                handleAction(mFlipAction);
-            }
-        });
-
-        mShakeListener = new ShakeSensorListener(new Runnable(){
-            @Override
-            public void run() {
-                handleAction(mShakeAction);
-            }
-        });
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
         // Get the volume/camera button behavior setting
@@ -203,8 +187,17 @@ public class AlarmActivity extends Activity {
                 SettingsActivity.DEFAULT_ALARM_ACTION);
         mShakeAction = Integer.parseInt(shake);
 
+        final String doubleTap = prefs.getString(SettingsActivity.KEY_DOUBLE_TAP_ACTION,
+                SettingsActivity.DEFAULT_ALARM_ACTION);
+        mDoubleTapAction = Integer.parseInt(doubleTap);
+
+        final String pickUp = prefs.getString(SettingsActivity.KEY_PICK_UP_ACTION,
+                SettingsActivity.DEFAULT_ALARM_ACTION);
+        mPickUpAction = Integer.parseInt(pickUp);
+
+        createGestures();
+
         final boolean keepScreenOn = prefs.getBoolean(SettingsActivity.KEY_KEEP_SCREEN_ON, true);
-        mShakeAction = Integer.parseInt(shake);
 
         final Window win = getWindow();
         win.addFlags(WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED |
@@ -335,27 +328,51 @@ public class AlarmActivity extends Activity {
         return super.dispatchKeyEvent(event);
     }
 
-    private void attachListeners() {
+    private void createGestures() {
+        // All gestures share one accelerometer listener, only those with an action are added.
+        mGestures = new AccelerometerGestures(this);
         if (mFlipAction != SettingsActivity.ALARM_NO_ACTION) {
-            mFlipListener.reset();
-            mSensorManager.registerListener(mFlipListener,
-                    mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                    SensorManager.SENSOR_DELAY_NORMAL);
+            mGestures.addGesture(new FlipGesture(new Runnable() {
+                @Override
+                public void run() {
+                    handleAction(mFlipAction);
+                }
+            }));
         }
         if (mShakeAction != SettingsActivity.ALARM_NO_ACTION) {
-            mShakeListener.reset();
-            mSensorManager.registerListener(mShakeListener,
-                    mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                    SensorManager.SENSOR_DELAY_NORMAL);
+            mGestures.addGesture(new ShakeGesture(new Runnable() {
+                @Override
+                public void run() {
+                    handleAction(mShakeAction);
+                }
+            }));
+        }
+        if (mDoubleTapAction != SettingsActivity.ALARM_NO_ACTION) {
+            mGestures.addGesture(new DoubleTapGesture(new Runnable() {
+                @Override
+                public void run() {
+                    handleAction(mDoubleTapAction);
+                }
+            }));
+        }
+        if (mPickUpAction != SettingsActivity.ALARM_NO_ACTION) {
+            mGestures.addGesture(new PickUpGesture(new Runnable() {
+                @Override
+                public void run() {
+                    handleAction(mPickUpAction);
+                }
+            }));
         }
     }
 
+    private void attachListeners() {
+        mGestures.start();
+    }
+
     private void detachListeners() {
-        if (mFlipAction != SettingsActivity.ALARM_NO_ACTION) {
-            mSensorManager.unregisterListener(mFlipListener);
-        }
-        if (mShakeAction != SettingsActivity.ALARM_NO_ACTION) {
-            mSensorManager.unregisterListener(mShakeListener);
+        // Not created when the activity finishes early in onCreate
+        if (mGestures != null) {
+            mGestures.stop();
         }
     }
 
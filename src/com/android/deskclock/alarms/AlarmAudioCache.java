@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.provider.Settings;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+
+import com.android.deskclock.AsyncHandler;
+import com.android.deskclock.Log;
+import com.android.deskclock.provider.AlarmInstance;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ringtones of alarms about to fire, checked and copied to internal storage ahead of time.
+ * When an alarm instance reaches the HIGH_NOTIFICATION_STATE, {@link #prearm} resolves its
+ * ringtones in the background: the song a folder starts with is picked, the file is copied to
+ * the cache directory, and the copy is prepared once to check that it plays. When the alarm
+ * fires, {@link AlarmKlaxon} plays the copy without waiting on the storage holding the
+ * ringtone, which may be a slow or busy sd card. Ringtones too large to copy are only checked.
+ *
+ * What was armed is written next to the copies, so it survives the process being killed
+ * before the alarm fires. Entries older than a day are ignored and removed. So are entries
+ * whose source changed since: a file replaced or touched, or another sound picked as the
+ * default alarm sound when the ringtone is the default one. Firing does not look at the
+ * source for that, {@link #verify} checks it in the background once the alarm is playing.
+ */
+public final class AlarmAudioCache {
+    static final String DIRECTORY = "alarm_audio";
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String AUDIO_SUFFIX = ".audio";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long MAX_COPY_BYTES = 16 * 1024 * 1024;
+    private static final long MAX_AGE = DateUtils.DAY_IN_MILLIS;
+    // Songs of a folder tried before giving up on it
+    private static final int MAX_FOLDER_ATTEMPTS = 3;
+
+    /**
+     * A ringtone checked to play. Its source is the ringtone itself, or the song of a folder
+     * to start with.
+     */
+    public static final class ArmedRingtone {
+        private final Uri mRingtone;
+        private final Uri mSource;
+        private final boolean mFolder;
+        private final File mCopy;
+        private final String mIdentity;
+
+        private ArmedRingtone(Uri ringtone, Uri source, boolean folder, File copy,
+                String identity) {
+            mRingtone = ringtone;
+            mSource = source;
+            mFolder = folder;
+            mCopy = copy;
+            mIdentity = identity;
+        }
+
+        public Uri getSource() {
+            return mSource;
+        }
+
+        public boolean isFolder() {
+            return mFolder;
+        }
+
+        /**
+         * @return whether the source is played from a copy in internal storage
+         */
+        public boolean isCopied() {
+            return mCopy != null;
+        }
+
+        void setDataSource(Context context, MediaPlayer player) throws IOException {
+            if (mCopy == null) {
+                player.setDataSource(context, mSource);
+                return;
+            }
+            // The media server can not open files private to the app, hand it a descriptor.
+            final FileInputStream in = new FileInputStream(mCopy);
+            try {
+                player.setDataSource(in.getFD());
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Check and copy the ringtone, and the pre-alarm ringtone if used, of an alarm instance
+     * in the background.
+     */
+    public static void prearm(Context context, AlarmInstance instance) {
+        final Context appContext = context.getApplicationContext();
+        final Uri ringtone = instance.mRingtone;
+        final boolean random = instance.getRandomMode(false);
+        final Uri preAlarmRingtone = instance.mPreAlarm ? instance.mPreAlarmRingtone : null;
+        final boolean preAlarmRandom = instance.getRandomMode(true);
+        AsyncHandler.post(AsyncHandler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                final File directory = getDirectory(appContext);
+                if (directory == null) {
+                    return;
+                }
+                removeStale(directory);
+                arm(appContext, ringtone, random, MAX_COPY_BYTES);
+                if (preAlarmRingtone != null) {
+                    arm(appContext, preAlarmRingtone, preAlarmRandom, MAX_COPY_BYTES);
+                }
+            }
+        });
+    }
+
+    /**
+     * Check in the background whether the source of an armed ringtone changed since arming,
+     * and drop it if it did so the next alarm plays the new one.
+     */
+    public static void verify(Context context, final ArmedRingtone armed) {
+        final Context appContext = context.getApplicationContext();
+        AsyncHandler.post(AsyncHandler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                checkSource(appContext, armed);
+            }
+        });
+    }
+
+    /**
+     * @return the ringtone as armed within the last day, or null if it was not. Only the
+     *     entry and copy in internal storage are read, not the source.
+     */
+    static ArmedRingtone get(Context context, Uri ringtone) {
+        final File directory = new File(context.getCacheDir(), DIRECTORY);
+        final String name = getName(ringtone);
+        final File entryFile = new File(directory, name + ENTRY_SUFFIX);
+        if (isStale(entryFile)) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new AtomicFile(entryFile).openRead()));
+            if (!ringtone.toString().equals(in.readUTF())) {
+                return null;
+            }
+            final Uri source = Uri.parse(in.readUTF());
+            final boolean folder = in.readBoolean();
+            final boolean copied = in.readBoolean();
+            final String identity = in.readUTF();
+            File copy = null;
+            if (copied) {
+                copy = new File(directory, name + AUDIO_SUFFIX);
+                if (!copy.isFile()) {
+                    return null;
+                }
+            }
+            return new ArmedRingtone(ringtone, source, folder, copy, identity);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (EOFException e) {
+            // Written before the entries had all their fields
+            return null;
+        } catch (IOException e) {
+            Log.e("Unable to read armed ringtone " + ringtone, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Check on the calling thread whether the source of an armed ringtone changed since
+     * arming, and remove its entry and copy if it did.
+     *
+     * @return whether the source is the one armed
+     */
+    static boolean checkSource(Context context, ArmedRingtone armed) {
+        if (getIdentity(context, armed.mRingtone, armed.mSource).equals(armed.mIdentity)) {
+            return true;
+        }
+        Log.v("Armed ringtone " + armed.mRingtone + " changed since");
+        final File directory = new File(context.getCacheDir(), DIRECTORY);
+        final String name = getName(armed.mRingtone);
+        // A player already handed the copy keeps playing it
+        new File(directory, name + ENTRY_SUFFIX).delete();
+        new File(directory, name + AUDIO_SUFFIX).delete();
+        return false;
+    }
+
+    /**
+     * Check and copy a ringtone on the calling thread. Sources larger than maxCopyBytes are
+     * only checked.
+     */
+    static void arm(Context context, Uri ringtone, boolean random, long maxCopyBytes) {
+        if (ringtone == null || AlarmInstance.NO_RINGTONE_URI.equals(ringtone)) {
+            return;
+        }
+        final File directory = getDirectory(context);
+        if (directory == null) {
+            return;
+        }
+
+        // Same resolution as AlarmKlaxon: a file path that is a folder plays its songs.
+        final List<Uri> sources = new ArrayList<Uri>();
+        final File folder = new File(ringtone.getPath());
+        final boolean isFolder = folder.isDirectory();
+        if (isFolder) {
+            final File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.isDirectory()) {
+                        sources.add(Uri.fromFile(file));
+                    }
+                }
+            }
+            if (random) {
+                Collections.shuffle(sources);
+            }
+        } else {
+            sources.add(ringtone);
+        }
+
+        final String name = getName(ringtone);
+        final File entryFile = new File(directory, name + ENTRY_SUFFIX);
+        final File copy = new File(directory, name + AUDIO_SUFFIX);
+        for (int i = 0; i < sources.size() && i < MAX_FOLDER_ATTEMPTS; i++) {
+            final Uri source = sources.get(i);
+            // Before copying, so a change made while copying is seen below
+            final String identity = getIdentity(context, ringtone, source);
+            final boolean copied = copy(context, source, copy, maxCopyBytes);
+            if (!copied) {
+                copy.delete();
+            }
+            final ArmedRingtone armed = new ArmedRingtone(ringtone, source, isFolder,
+                    copied ? copy : null, identity);
+            if (!check(context, armed)) {
+                continue;
+            }
+            if (!identity.equals(getIdentity(context, ringtone, source))) {
+                Log.w("Ringtone " + source + " changed while arming");
+                continue;
+            }
+            writeEntry(entryFile, armed);
+            Log.v("Armed ringtone " + ringtone + " from " + source
+                    + (copied ? ", copied" : ", not copied"));
+            return;
+        }
+
+        Log.w("Unable to arm ringtone " + ringtone);
+        entryFile.delete();
+        copy.delete();
+    }
+
+    // Copy a source up to maxCopyBytes, returns whether it was copied whole.
+    private static boolean copy(Context context, Uri source, File copy, long maxCopyBytes) {
+        final File temp = new File(copy.getPath() + TEMP_SUFFIX);
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = context.getContentResolver().openInputStream(source);
+            if (in == null) {
+                return false;
+            }
+            out = new FileOutputStream(temp);
+            final byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                total += count;
+                if (total > maxCopyBytes) {
+                    return false;
+                }
+                out.write(buffer, 0, count);
+            }
+            out.close();
+            out = null;
+            return temp.renameTo(copy);
+        } catch (Exception e) {
+            Log.e("Unable to copy ringtone " + source, e);
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+    // Prepare the ringtone once, as AlarmKlaxon will.
+    private static boolean check(Context context, ArmedRingtone armed) {
+        final MediaPlayer player = new MediaPlayer();
+        try {
+            armed.setDataSource(context, player);
+            player.prepare();
+            return true;
+        } catch (Exception e) {
+            Log.e("Unable to play ringtone " + armed.getSource(), e);
+            return false;
+        } finally {
+            player.release();
+        }
+    }
+
+    private static void writeEntry(File entryFile, ArmedRingtone armed) {
+        final AtomicFile file = new AtomicFile(entryFile);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(stream);
+            out.writeUTF(armed.mRingtone.toString());
+            out.writeUTF(armed.getSource().toString());
+            out.writeBoolean(armed.isFolder());
+            out.writeBoolean(armed.isCopied());
+            out.writeUTF(armed.mIdentity);
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e("Unable to write armed ringtone " + armed.mRingtone, e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    /**
+     * What a ringtone and its source resolve to, to tell when they changed since arming: the
+     * sound picked as the default alarm sound when the ringtone is the default one, and the
+     * length and modification time of the source when it is a file.
+     */
+    private static String getIdentity(Context context, Uri ringtone, Uri source) {
+        final StringBuilder identity = new StringBuilder();
+        if (Settings.AUTHORITY.equals(ringtone.getAuthority())) {
+            identity.append(RingtoneManager.getActualDefaultRingtoneUri(context,
+                    RingtoneManager.TYPE_ALARM));
+        }
+        final String scheme = source.getScheme();
+        if (scheme == null || "file".equals(scheme)) {
+            final File file = new File(source.getPath());
+            identity.append(':').append(file.length()).append(':').append(file.lastModified());
+        }
+        return identity.toString();
+    }
+
+    // Directory of the entries and copies, created if needed. Null if it can not be.
+    private static File getDirectory(Context context) {
+        final File directory = new File(context.getCacheDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w("Unable to create " + directory);
+            return null;
+        }
+        return directory;
+    }
+
+    private static void removeStale(File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String path = file.getPath();
+            if (path.endsWith(ENTRY_SUFFIX) && isStale(file)) {
+                final String name = path.substring(0, path.length() - ENTRY_SUFFIX.length());
+                file.delete();
+                new File(name + AUDIO_SUFFIX).delete();
+            }
+        }
+    }
+
+    private static boolean isStale(File entryFile) {
+        final long age = System.currentTimeMillis() - entryFile.lastModified();
+        return age < 0 || age > MAX_AGE;
+    }
+
+    private static String getName(Uri ringtone) {
+        return Integer.toHexString(ringtone.toString().hashCode());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    private AlarmAudioCache() {}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.deskclock.alarms;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+
+import com.android.deskclock.Log;
+import com.android.deskclock.provider.AlarmInstance;
+import com.android.deskclock.provider.ClockContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Re-registers all alarm instances in one pass. This follows the same rules as
+ * {@link AlarmStateManager#registerInstance}, but computes every target state in memory
+ * first and writes all instance rows through a single provider batch, instead of one
+ * provider round-trip per instance.
+ *
+ * The decisions only read the id, state and time columns through
+ * {@link AlarmInstance.TimeStateReader}. Instances moved to a state without a visible
+ * notification are scheduled by id; full instances are only loaded for the ones that show a
+ * notification with their label.
+ *
+ * Instances whose transition has side effects beyond a state change (firing, missing,
+ * dismissing or starting the pre-alarm) are rare during a time change, and are handed
+ * back to {@link AlarmStateManager#registerInstance} after the batch is written.
+ */
+final class AlarmInstanceBatchRegistrar {
+    // Marks an instance that can not be registered as part of the batch.
+    private static final int NOT_BATCHED = -1;
+
+    private final Context mContext;
+    private final long mCurrentTime = System.currentTimeMillis();
+
+    // Batched instances without a notification, with their next state change
+    private final List<Long> mSilentIds = new ArrayList<Long>();
+    private final List<Long> mSilentChangeTimes = new ArrayList<Long>();
+    private final List<Integer> mSilentChangeStates = new ArrayList<Integer>();
+
+    // Batched instances showing a notification, with their new state
+    private final List<Long> mNotifiedIds = new ArrayList<Long>();
+    private final List<Integer> mNotifiedStates = new ArrayList<Integer>();
+
+    private final List<Long> mNotBatchedIds = new ArrayList<Long>();
+
+    AlarmInstanceBatchRegistrar(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Register all instances. The caller is responsible for calling
+     * {@link AlarmStateManager#updateNextAlarm} afterwards.
+     *
+     * @param contentResolver to read and write the instances with
+     */
+    void registerAll(ContentResolver contentResolver) {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        final AlarmInstance.TimeStateReader reader =
+                AlarmInstance.readTimeStates(contentResolver, null);
+        try {
+            while (reader.moveToNext()) {
+                final long id = reader.getId();
+                final int nextState = computeNextState(reader);
+                if (nextState == NOT_BATCHED) {
+                    mNotBatchedIds.add(id);
+                    continue;
+                }
+                operations.add(AlarmInstance.createStateUpdateOperation(id, nextState,
+                        reader.getAlarmTimeInMillis()));
+                if (nextState == AlarmInstance.SILENT_STATE) {
+                    mSilentIds.add(id);
+                    mSilentChangeTimes.add(reader.getLowNotificationTimeInMillis());
+                    mSilentChangeStates.add(AlarmInstance.LOW_NOTIFICATION_STATE);
+                } else if (nextState == AlarmInstance.HIDE_NOTIFICATION_STATE) {
+                    mSilentIds.add(id);
+                    mSilentChangeTimes.add(reader.getHighNotificationTimeInMillis());
+                    mSilentChangeStates.add(AlarmInstance.HIGH_NOTIFICATION_STATE);
+                } else {
+                    mNotifiedIds.add(id);
+                    mNotifiedStates.add(nextState);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Log.v("Batch registering " + operations.size() + " instances, "
+                + mNotBatchedIds.size() + " registered individually");
+        writeBatch(operations);
+
+        for (int i = 0; i < mSilentIds.size(); i++) {
+            final long id = mSilentIds.get(i);
+            AlarmNotifications.clearNotification(mContext, id);
+            AlarmStateManager.scheduleInstanceStateChange(mContext, mSilentChangeTimes.get(i),
+                    id, mSilentChangeStates.get(i));
+        }
+
+        if (mNotifiedIds.isEmpty() && mNotBatchedIds.isEmpty()) {
+            return;
+        }
+        final Map<Long, AlarmInstance> instances = loadInstances(contentResolver);
+        for (int i = 0; i < mNotifiedIds.size(); i++) {
+            final AlarmInstance instance = instances.get(mNotifiedIds.get(i));
+            if (instance != null) {
+                showAndSchedule(instance, mNotifiedStates.get(i));
+            }
+        }
+        for (Long id : mNotBatchedIds) {
+            final AlarmInstance instance = instances.get(id);
+            if (instance != null) {
+                AlarmStateManager.registerInstance(mContext, instance, false);
+            }
+        }
+    }
+
+    /**
+     * Mirrors the decision tree of {@link AlarmStateManager#registerInstance}.
+     *
+     * @return the state the instance should be in, or NOT_BATCHED
+     */
+    private int computeNextState(AlarmInstance.TimeStateReader reader) {
+        final int state = reader.getAlarmState();
+        if (state == AlarmInstance.DISMISSED_STATE
+                || state == AlarmInstance.FIRED_STATE
+                || state == AlarmInstance.PRE_ALARM_DISMISS_STATE) {
+            return NOT_BATCHED;
+        }
+        final long alarmTime = reader.getAlarmTimeInMillis();
+        if (state == AlarmInstance.MISSED_STATE && mCurrentTime < alarmTime) {
+            // Parent alarm has to be re-enabled
+            return NOT_BATCHED;
+        }
+
+        if (mCurrentTime > alarmTime) {
+            // Fired, missed or dismissed
+            return NOT_BATCHED;
+        } else if (state == AlarmInstance.SNOOZE_STATE) {
+            return AlarmInstance.SNOOZE_STATE;
+        } else if (mCurrentTime > reader.getHighNotificationTimeInMillis()) {
+            return AlarmInstance.HIGH_NOTIFICATION_STATE;
+        } else if (mCurrentTime > reader.getLowNotificationTimeInMillis()) {
+            return state == AlarmInstance.HIDE_NOTIFICATION_STATE
+                    ? AlarmInstance.HIDE_NOTIFICATION_STATE
+                    : AlarmInstance.LOW_NOTIFICATION_STATE;
+        } else if (reader.hasPreAlarm() && mCurrentTime > reader.getPreAlarmTimeInMillis()) {
+            return NOT_BATCHED;
+        }
+        return AlarmInstance.SILENT_STATE;
+    }
+
+    /**
+     * Load the instances that need more than their time and state, after the batch is written.
+     */
+    private Map<Long, AlarmInstance> loadInstances(ContentResolver contentResolver) {
+        final StringBuilder selection = new StringBuilder(AlarmInstance._ID).append(" IN (");
+        appendIds(selection, mNotifiedIds);
+        if (!mNotifiedIds.isEmpty() && !mNotBatchedIds.isEmpty()) {
+            selection.append(',');
+        }
+        appendIds(selection, mNotBatchedIds);
+        selection.append(')');
+
+        final Map<Long, AlarmInstance> instances = new HashMap<Long, AlarmInstance>();
+        for (AlarmInstance instance :
+                AlarmInstance.getInstances(contentResolver, selection.toString())) {
+            instances.put(instance.mId, instance);
+        }
+        return instances;
+    }
+
+    private static void appendIds(StringBuilder selection, List<Long> ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(ids.get(i));
+        }
+    }
+
+    private void writeBatch(ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            mContext.getContentResolver().applyBatch(ClockContract.AUTHORITY, operations);
+        } catch (RemoteException e) {
+            Log.e("Unable to write alarm instance batch", e);
+        } catch (OperationApplicationException e) {
+            Log.e("Unable to write alarm instance batch", e);
+        }
+    }
+
+    /**
+     * Post the notification for the new state and schedule the next state change. This is
+     * the non database part of the matching AlarmStateManager.setXxxState() method.
+     */
+    private void showAndSchedule(AlarmInstance instance, int state) {
+        switch (state) {
+            case AlarmInstance.LOW_NOTIFICATION_STATE:
+                AlarmNotifications.showLowPriorityNotification(mContext, instance);
+                AlarmStateManager.scheduleInstanceStateChange(mContext,
+                        instance.getHighNotificationTime(), instance,
+                        AlarmInstance.HIGH_NOTIFICATION_STATE);
+                break;
+            case AlarmInstance.HIGH_NOTIFICATION_STATE:
+                AlarmNotifications.showHighPriorityNotification(mContext, instance);
+                AlarmAudioCache.prearm(mContext, instance);
+                if (instance.mPreAlarm) {
+                    AlarmStateManager.scheduleInstanceStateChange(mContext,
+                            instance.getPreAlarmTime(), instance,
+                            AlarmInstance.PRE_ALARM_STATE);
+                } else {
+                    AlarmStateManager.scheduleInstanceStateChange(mContext,
+                            instance.getAlarmTime(), instance, AlarmInstance.FIRED_STATE);
+                }
+                break;
+            case AlarmInstance.SNOOZE_STATE:
+                AlarmNotifications.showSnoozeNotification(mContext, instance,
+                        instance.getAlarmTime());
+                AlarmStateManager.scheduleInstanceStateChange(mContext,
+                        instance.getAlarmTime(), instance, AlarmInstance.FIRED_STATE);
+                break;
+            default:
+                Log.wtf("Unexpected batched alarm state: " + state);
+        }
+    }
+}
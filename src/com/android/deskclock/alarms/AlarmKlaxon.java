@@ -32,6 +32,7 @@ import android.media.IAudioService;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnCompletionListener;
 import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnPreparedListener;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Handler;
@@ -60,6 +61,12 @@ public class AlarmKlaxon {
     private static final int INCREASING_VOLUME_START = 1;
     private static final int INCREASING_VOLUME_DELTA = 1;
 
+    // Longest wait for a ringtone that was not armed ahead of time to be prepared, before
+    // giving up on it.
+    private static final long PREPARE_TIMEOUT = 3000;
+    private static final long FIRST_AUDIO_POLL_INTERVAL = 10;
+    private static final long FIRST_AUDIO_TIMEOUT = 10000;
+
     private static boolean sStarted = false;
     private static AudioManager sAudioManager = null;
     private static MediaPlayer sMediaPlayer = null;
@@ -78,6 +85,28 @@ public class AlarmKlaxon {
     private static boolean sIncreasingVolumeDone;
     private static boolean sFirstFile;
 
+    // Ringtone checked and copied by AlarmAudioCache, played first
+    private static AlarmAudioCache.ArmedRingtone sArmed;
+    // Folder of an armed ringtone, its songs are only listed once the armed one is done
+    private static Uri sFolder;
+    private static boolean sSongsCollected;
+    private static boolean sPlayerPrepared;
+    private static Runnable sPrepareTimeout;
+
+    // Time from starting to the first audio played
+    private static long sStartTime;
+    private static boolean sFirstAudioPending;
+    private static boolean sStartArmed;
+    private static boolean sStartFallback;
+
+    // Guarded by AlarmKlaxon.class
+    private static int sStarts;
+    private static int sArmedStarts;
+    private static int sFallbackStarts;
+    private static long sLastStartLatency;
+    private static long sMaxStartLatency;
+    private static long sTotalStartLatency;
+
     // Internal messages
     private static final int INCREASING_VOLUME = 1001;
 
@@ -101,21 +130,41 @@ public class AlarmKlaxon {
         }
     };
 
+    // Polls the position of the player until audio is played.
+    private static final Runnable sFirstAudioCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (!sFirstAudioPending || sMediaPlayer == null || !sPlayerPrepared) {
+                return;
+            }
+            final long latency = SystemClock.elapsedRealtime() - sStartTime;
+            if (sMediaPlayer.getCurrentPosition() > 0) {
+                sFirstAudioPending = false;
+                recordStart(latency);
+            } else if (latency < FIRST_AUDIO_TIMEOUT) {
+                sHandler.postDelayed(this, FIRST_AUDIO_POLL_INTERVAL);
+            } else {
+                sFirstAudioPending = false;
+                Log.w("No alarm audio played " + latency + "ms after starting");
+            }
+        }
+    };
+
     public static void stop(Context context) {
         if (sStarted) {
             Log.v("AlarmKlaxon.stop()");
 
             sStarted = false;
             sHandler.removeMessages(INCREASING_VOLUME);
+            sHandler.removeCallbacks(sFirstAudioCheck);
+            sFirstAudioPending = false;
             // reset to default from before
             sAudioManager.setStreamVolume(AudioManager.STREAM_MUSIC,
                         sSavedVolume, 0);
 
             // Stop audio playing
             if (sMediaPlayer != null) {
-                sMediaPlayer.stop();
-                sMediaPlayer.release();
-                sMediaPlayer = null;
+                releasePlayer();
                 sAudioManager.abandonAudioFocus(null);
                 sAudioManager = null;
             }
@@ -141,6 +190,10 @@ public class AlarmKlaxon {
         stop(context);
 
         Log.v("AlarmKlaxon.start() " + instance);
+        sStartTime = SystemClock.elapsedRealtime();
+        sFirstAudioPending = true;
+        sStartArmed = false;
+        sStartFallback = false;
 
         sPreAlarmMode = false;
         if (instance.mAlarmState == AlarmInstance.PRE_ALARM_STATE) {
@@ -179,23 +232,41 @@ public class AlarmKlaxon {
             alarmNoise = instance.mRingtone;
         }
 
-        File folder = new File(alarmNoise.getPath());
-        if (folder.exists() && folder.isDirectory()) {
-            sMultiFileMode = true;
+        sArmed = null;
+        if (!inTelephoneCall && alarmNoise != null
+                && !AlarmInstance.NO_RINGTONE_URI.equals(alarmNoise)) {
+            sArmed = AlarmAudioCache.get(context, alarmNoise);
         }
 
-        if (inTelephoneCall) {
-            sMultiFileMode = false;
-        }
+        if (sArmed != null) {
+            // Checked ahead of time, start without looking at the storage holding it. Whether
+            // it changed since is checked in the background once playing.
+            Log.v("Using armed ringtone " + sArmed.getSource());
+            sMultiFileMode = sArmed.isFolder();
+            sFolder = alarmNoise;
+            sSongsCollected = false;
+            mSongs.clear();
+            alarmNoise = sArmed.getSource();
+        } else {
+            File folder = new File(alarmNoise.getPath());
+            if (folder.exists() && folder.isDirectory()) {
+                sMultiFileMode = true;
+            }
 
-        if (sMultiFileMode) {
-            collectFiles(context, alarmNoise);
-            if (mSongs.size() != 0) {
-                alarmNoise = mSongs.get(0);
-            } else {
-                alarmNoise = null;
+            if (inTelephoneCall) {
                 sMultiFileMode = false;
             }
+
+            if (sMultiFileMode) {
+                collectFiles(context, alarmNoise);
+                if (mSongs.size() != 0) {
+                    alarmNoise = mSongs.get(0);
+                } else {
+                    alarmNoise = null;
+                    sMultiFileMode = false;
+                }
+            }
+            sSongsCollected = true;
         }
         if (alarmNoise == null) {
             // no ringtone == default
@@ -207,6 +278,11 @@ public class AlarmKlaxon {
 
         if (alarmNoise != null) {
             playAlarm(context, instance, inTelephoneCall, alarmNoise);
+        } else {
+            sFirstAudioPending = false;
+        }
+        if (sArmed != null) {
+            AlarmAudioCache.verify(appContext, sArmed);
         }
 
         if (instance.mVibrate) {
@@ -219,26 +295,46 @@ public class AlarmKlaxon {
 
     private static void playAlarm(final Context context,
             final AlarmInstance instance, final boolean inTelephoneCall, final Uri alarmNoise) {
+        // Replaces the player of the previous song, or of a ringtone that failed
+        releasePlayer();
+        final MediaPlayer player = new MediaPlayer();
+        sMediaPlayer = player;
 
-        sMediaPlayer = new MediaPlayer();
-        sMediaPlayer.setOnErrorListener(new OnErrorListener() {
+        // Errors and prepare timeouts skip to the next song, or fall back to the default alarm
+        final Runnable onFailure = new Runnable() {
             @Override
-            public boolean onError(MediaPlayer mp, int what, int extra) {
+            public void run() {
+                if (sMediaPlayer != player) {
+                    // Stopped, or already replaced
+                    return;
+                }
                 Log.e("Error playing " + alarmNoise);
                 if (sMultiFileMode) {
                     Log.e("Skipping file");
+                    collectSongs(context);
                     mSongs.remove(alarmNoise);
                     nextSong(context, instance, inTelephoneCall);
                 } else {
-                    Log.e("Using the fallback ringtone");
-                    playAlarm(context, instance, inTelephoneCall, getDefaultAlarm(context));
+                    final Uri defaultAlarm = getDefaultAlarm(context);
+                    if (alarmNoise.equals(defaultAlarm)) {
+                        playFallback(context, instance);
+                    } else {
+                        Log.e("Using the fallback ringtone");
+                        playAlarm(context, instance, inTelephoneCall, defaultAlarm);
+                    }
                 }
+            }
+        };
+        player.setOnErrorListener(new OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                onFailure.run();
                 return true;
             }
         });
 
         if (sMultiFileMode) {
-            sMediaPlayer.setOnCompletionListener(new OnCompletionListener() {
+            player.setOnCompletionListener(new OnCompletionListener() {
                 @Override
                 public void onCompletion(MediaPlayer mp) {
                     nextSong(context, instance, inTelephoneCall);
@@ -249,44 +345,74 @@ public class AlarmKlaxon {
         try {
             // Check if we are in a call. If we are, use the in-call alarm
             // resource at a low volume to not disrupt the call.
+            boolean local = true;
             if (inTelephoneCall) {
                 Log.v("Using the in-call alarm");
                 sIncreasingVolume = false;
-                sMediaPlayer.setVolume(IN_CALL_VOLUME, IN_CALL_VOLUME);
-                setDataSourceFromResource(context, sMediaPlayer,
+                player.setVolume(IN_CALL_VOLUME, IN_CALL_VOLUME);
+                setDataSourceFromResource(context, player,
                         R.raw.in_call_alarm);
+            } else if (sArmed != null && alarmNoise.equals(sArmed.getSource())) {
+                sArmed.setDataSource(context, player);
+                local = sArmed.isCopied();
+                sStartArmed |= sFirstAudioPending;
+                mCurrentTone = alarmNoise;
+                Log.v("next song:" + mCurrentTone);
             } else {
-                sMediaPlayer.setDataSource(context, alarmNoise);
+                player.setDataSource(context, alarmNoise);
+                local = false;
                 mCurrentTone = alarmNoise;
                 Log.v("next song:" + mCurrentTone);
             }
-            startAlarm(context, sMediaPlayer, instance);
+            startAlarm(context, player, instance, local ? null : onFailure);
         } catch (Exception ex) {
             Log.e("Error playing " + alarmNoise);
             if (sMultiFileMode) {
                 Log.e("Skipping file");
+                collectSongs(context);
                 mSongs.remove(alarmNoise);
                 nextSong(context, instance, inTelephoneCall);
             } else {
-                Log.e("Using the fallback ringtone");
                 // The alarmNoise may be on the sd card which could be busy right
                 // now. Use the fallback ringtone.
-                try {
-                    // Must reset the media player to clear the error state.
-                    sMediaPlayer.reset();
-                    setDataSourceFromResource(context, sMediaPlayer, R.raw.fallbackring);
-                    startAlarm(context, sMediaPlayer, instance);
-                } catch (Exception ex2) {
-                    // At this point we just don't play anything.
-                    Log.e("Failed to play fallback ringtone", ex2);
-                }
+                playFallback(context, instance);
             }
         }
     }
 
-    // Do the common stuff when starting the alarm.
+    private static void playFallback(Context context, AlarmInstance instance) {
+        Log.e("Using the fallback ringtone");
+        releasePlayer();
+        sMediaPlayer = new MediaPlayer();
+        sStartFallback |= sFirstAudioPending;
+        try {
+            setDataSourceFromResource(context, sMediaPlayer, R.raw.fallbackring);
+            startAlarm(context, sMediaPlayer, instance, null);
+        } catch (Exception ex2) {
+            // At this point we just don't play anything.
+            Log.e("Failed to play fallback ringtone", ex2);
+        }
+    }
+
+    private static void releasePlayer() {
+        if (sPrepareTimeout != null) {
+            sHandler.removeCallbacks(sPrepareTimeout);
+            sPrepareTimeout = null;
+        }
+        if (sMediaPlayer != null) {
+            if (sPlayerPrepared) {
+                sMediaPlayer.stop();
+            }
+            sMediaPlayer.release();
+            sMediaPlayer = null;
+        }
+        sPlayerPrepared = false;
+    }
+
+    // Do the common stuff when starting the alarm. Players of sources that may be slow to
+    // prepare are prepared asynchronously, and onPrepareTimeout runs if they take too long.
     private static void startAlarm(Context context, MediaPlayer player,
-            AlarmInstance instance) throws IOException {
+            AlarmInstance instance, Runnable onPrepareTimeout) throws IOException {
         // do not play alarms if alarm volume is 0
         // this can only happen if "use system alarm volume" is used
         if (sMaxVolume != 0) {
@@ -315,10 +441,94 @@ public class AlarmKlaxon {
             if (!sMultiFileMode) {
                 player.setLooping(true);
             }
-            player.prepare();
-            sAudioManager.requestAudioFocus(null, AudioManager.STREAM_MUSIC,
-                    AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-            player.start();
+            if (onPrepareTimeout == null) {
+                player.prepare();
+                startPlayer(player);
+            } else {
+                player.setOnPreparedListener(new OnPreparedListener() {
+                    @Override
+                    public void onPrepared(MediaPlayer mp) {
+                        if (sMediaPlayer == mp) {
+                            sHandler.removeCallbacks(sPrepareTimeout);
+                            sPrepareTimeout = null;
+                            startPlayer(mp);
+                        }
+                    }
+                });
+                sPrepareTimeout = onPrepareTimeout;
+                sHandler.postDelayed(onPrepareTimeout, PREPARE_TIMEOUT);
+                player.prepareAsync();
+            }
+        } else {
+            sFirstAudioPending = false;
+        }
+    }
+
+    private static void startPlayer(MediaPlayer player) {
+        sPlayerPrepared = true;
+        sAudioManager.requestAudioFocus(null, AudioManager.STREAM_MUSIC,
+                AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+        player.start();
+        if (sFirstAudioPending) {
+            sHandler.removeCallbacks(sFirstAudioCheck);
+            sHandler.post(sFirstAudioCheck);
+        }
+    }
+
+    private static synchronized void recordStart(long latency) {
+        sStarts++;
+        if (sStartArmed) {
+            sArmedStarts++;
+        }
+        if (sStartFallback) {
+            sFallbackStarts++;
+        }
+        sLastStartLatency = latency;
+        sMaxStartLatency = Math.max(sMaxStartLatency, latency);
+        sTotalStartLatency += latency;
+        Log.i("Alarm audio played " + latency + "ms after starting"
+                + (sStartArmed ? ", armed ringtone" : "")
+                + (sStartFallback ? ", fallback ringtone" : ""));
+    }
+
+    /**
+     * @return snapshot of the metrics of the time from an alarm starting to its audio playing
+     */
+    public static synchronized Metrics getMetrics() {
+        return new Metrics(sStarts, sArmedStarts, sFallbackStarts, sLastStartLatency,
+                sMaxStartLatency, sTotalStartLatency);
+    }
+
+    /**
+     * Metrics of the time from an alarm starting to its first audio played. Times are in
+     * milliseconds.
+     */
+    public static final class Metrics {
+        public final int starts;
+        public final int armedStarts;
+        public final int fallbackStarts;
+        public final long lastLatency;
+        public final long maxLatency;
+        public final long totalLatency;
+
+        private Metrics(int starts, int armedStarts, int fallbackStarts, long lastLatency,
+                long maxLatency, long totalLatency) {
+            this.starts = starts;
+            this.armedStarts = armedStarts;
+            this.fallbackStarts = fallbackStarts;
+            this.lastLatency = lastLatency;
+            this.maxLatency = maxLatency;
+            this.totalLatency = totalLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "AlarmKlaxon{starts=" + starts
+                    + ", armed=" + armedStarts
+                    + ", fallback=" + fallbackStarts
+                    + ", lastLatency=" + lastLatency
+                    + ", avgLatency=" + (starts == 0 ? 0 : totalLatency / starts)
+                    + ", maxLatency=" + maxLatency + '}';
         }
     }
 
@@ -377,6 +587,7 @@ public class AlarmKlaxon {
 
     private static void nextSong(final Context context,
             AlarmInstance instance, boolean inTelephoneCall) {
+        collectSongs(context);
         if (mSongs.size() == 0) {
             sMultiFileMode = false;
             // something bad happend to our play list
@@ -397,6 +608,16 @@ public class AlarmKlaxon {
         playAlarm(context, instance, inTelephoneCall, song);
     }
 
+    // Songs of an armed folder are listed once its armed song is done or failed.
+    private static void collectSongs(Context context) {
+        if (sSongsCollected) {
+            return;
+        }
+        sSongsCollected = true;
+        collectFiles(context, sFolder);
+        sCurrentIndex = mSongs.indexOf(sArmed.getSource());
+    }
+
     private static void collectFiles(Context context, Uri folderUri) {
         mSongs.clear();
 
@@ -41,13 +41,13 @@ public final class AlarmNotifications {
     // System intent action to notify that we change the alarm text.
     public static final String SYSTEM_ALARM_CHANGE_ACTION = "android.intent.action.ALARM_CHANGED";
 
-    public static void broadcastNextAlarm(Context context, AlarmInstance instance)  {
+    public static void broadcastNextAlarm(Context context, Calendar nextAlarmTime)  {
         String timeString = "";
         // Read the icon state preference before showing the icon, default to visible
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         boolean showStatusIcon = false;
-        if (instance != null) {
-            timeString = AlarmUtils.getFormattedTime(context, instance.getAlarmTime());
+        if (nextAlarmTime != null) {
+            timeString = AlarmUtils.getFormattedTime(context, nextAlarmTime);
             showStatusIcon = prefs.getBoolean(SettingsActivity.KEY_SHOW_STATUS_BAR_ICON, true);
         }
 
@@ -267,10 +267,15 @@ public final class AlarmNotifications {
     }
 
     public static void clearNotification(Context context, AlarmInstance instance) {
-        Log.v("Clearing notifications for alarm instance: " + instance.mId);
+        clearNotification(context, instance.mId);
+    }
+
+    public static void clearNotification(Context context, long instanceId) {
+        Log.v("Clearing notifications for alarm instance: " + instanceId);
         NotificationManager nm = (NotificationManager)
                 context.getSystemService(Context.NOTIFICATION_SERVICE);
-        nm.cancel(instance.hashCode());
+        // Same as AlarmInstance.hashCode()
+        nm.cancel(Long.valueOf(instanceId).hashCode());
     }
 
     public static void updateStatusBarIcon(Context context, boolean showStatusIcon) {
@@ -24,9 +24,13 @@ import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 
 import com.android.deskclock.AlarmAlertWakeLock;
+import com.android.deskclock.AsyncHandler;
 import com.android.deskclock.Log;
 import com.android.deskclock.provider.AlarmInstance;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * This service is in charge of starting/stoping the alarm. It will bring up and manage the
  * {@link AlarmActivity} as well as {@link AlarmKlaxon}.
@@ -215,4 +219,11 @@ public class AlarmService extends Service {
     public IBinder onBind(Intent intent) {
         return null;
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Current alarm: " + (mCurrentAlarm == null ? "none" : mCurrentAlarm.mId));
+        writer.println(AlarmKlaxon.getMetrics());
+        AsyncHandler.dump(writer);
+    }
 }
@@ -15,15 +15,16 @@
  */
 package com.android.deskclock.alarms;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.PowerManager;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.widget.Toast;
 
@@ -35,10 +36,11 @@ import com.android.deskclock.DeskClock;
 import com.android.deskclock.Log;
 import com.android.deskclock.R;
 import com.android.deskclock.SettingsActivity;
-import com.android.deskclock.Utils;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.provider.AlarmInstance;
+import com.android.deskclock.provider.ClockContract;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -117,9 +119,6 @@ public final class AlarmStateManager extends BroadcastReceiver {
     // Extra key to set the global broadcast id.
     private static final String ALARM_GLOBAL_ID_EXTRA = "intent.extra.alarm.global.id";
 
-    // Intent category tag used when schedule state change intents in alarm manager.
-    public static final String ALARM_MANAGER_TAG = "ALARM_MANAGER";
-
     // Buffer time in seconds to fire alarm instead of marking it missed.
     public static final int ALARM_FIRE_BUFFER = 15;
 
@@ -146,15 +145,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
      * @param context application context
      */
     public static void updateNextAlarm(Context context) {
-        AlarmInstance nextAlarm = null;
-        ContentResolver cr = context.getContentResolver();
-        String activeAlarmQuery = AlarmInstance.ALARM_STATE + "<" + AlarmInstance.PRE_ALARM_STATE;
-        for (AlarmInstance instance : AlarmInstance.getInstances(cr, activeAlarmQuery)) {
-            if (nextAlarm == null || instance.getAlarmTime().before(nextAlarm.getAlarmTime())) {
-                nextAlarm = instance;
-            }
-        }
-        AlarmNotifications.broadcastNextAlarm(context, nextAlarm);
+        Calendar nextAlarmTime = AlarmInstance.getNextAlarmTime(context.getContentResolver());
+        AlarmNotifications.broadcastNextAlarm(context, nextAlarmTime);
     }
 
     /**
@@ -172,7 +164,9 @@ public final class AlarmStateManager extends BroadcastReceiver {
             return;
         }
 
-        if (!alarm.daysOfWeek.isRepeating()) {
+        final AlarmInstance nextRepeatedInstance =
+                createNextRepeatedInstance(alarm, instance, Calendar.getInstance());
+        if (nextRepeatedInstance == null) {
             if (alarm.deleteAfterUse) {
                 Log.i("Deleting parent alarm: " + alarm.id);
                 Alarm.deleteAlarm(cr, alarm.id);
@@ -182,14 +176,6 @@ public final class AlarmStateManager extends BroadcastReceiver {
                 Alarm.updateAlarm(cr, alarm);
             }
         } else {
-            // This is a optimization for really old alarm instances. This prevent us
-            // from scheduling and dismissing alarms up to current time.
-            Calendar currentTime = Calendar.getInstance();
-            Calendar alarmTime = instance.getAlarmTime();
-            if (currentTime.after(alarmTime)) {
-                alarmTime = currentTime;
-            }
-            AlarmInstance nextRepeatedInstance = alarm.createInstanceAfter(alarmTime);
             Log.i("Creating new instance for repeating alarm " + alarm.id + " at "  +
                     AlarmUtils.getFormattedTime(context, nextRepeatedInstance.getAlarmTime()));
             AlarmInstance.addInstance(cr, nextRepeatedInstance);
@@ -197,6 +183,29 @@ public final class AlarmStateManager extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Create the instance following a dismissed or missed one of a repeating alarm, on its
+     * days of the week or following its recurrence rule.
+     *
+     * @param alarm parent alarm of the instance
+     * @param instance dismissed or missed instance
+     * @param currentTime current time
+     * @return next instance, or null if the alarm does not repeat
+     */
+    static AlarmInstance createNextRepeatedInstance(Alarm alarm, AlarmInstance instance,
+            Calendar currentTime) {
+        if (!alarm.isRepeating()) {
+            return null;
+        }
+        // This is a optimization for really old alarm instances. This prevent us
+        // from scheduling and dismissing alarms up to current time.
+        Calendar alarmTime = instance.getAlarmTime();
+        if (currentTime.after(alarmTime)) {
+            alarmTime = currentTime;
+        }
+        return alarm.createInstanceAfter(alarmTime);
+    }
+
     /**
      * Utility method to create a proper change state intent.
      *
@@ -219,47 +228,37 @@ public final class AlarmStateManager extends BroadcastReceiver {
     }
 
     /**
-     * Schedule alarm instance state changes with {@link AlarmManager}.
+     * Schedule alarm instance state changes with {@link AlarmTransitionScheduler}.
      *
      * @param context application context
      * @param time to trigger state change
      * @param instance to change state to
      * @param newState to change to
      */
-    private static void scheduleInstanceStateChange(Context context, Calendar time,
+    static void scheduleInstanceStateChange(Context context, Calendar time,
             AlarmInstance instance, int newState) {
         long timeInMillis = time.getTimeInMillis();
         Log.v("Scheduling state change " + newState + " to instance " + instance.mId +
                 " at " + AlarmUtils.getFormattedTime(context, time) + " (" + timeInMillis + ")");
-        Intent stateChangeIntent = createStateChangeIntent(context, ALARM_MANAGER_TAG, instance,
-                newState);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, instance.hashCode(),
-                stateChangeIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-
-        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        if (Utils.isKitKatOrLater()) {
-            am.setExact(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
-        } else {
-            am.set(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
-        }
+        AlarmTransitionScheduler.schedule(context, instance.mId, timeInMillis, newState);
+    }
+
+    static void scheduleInstanceStateChange(Context context, long timeInMillis, long instanceId,
+            int newState) {
+        Log.v("Scheduling state change " + newState + " to instance " + instanceId +
+                " at " + timeInMillis);
+        AlarmTransitionScheduler.schedule(context, instanceId, timeInMillis, newState);
     }
 
     /**
-     * Cancel all {@link AlarmManager} timers for instance.
+     * Cancel all scheduled state changes for instance.
      *
      * @param context application context
-     * @param instance to disable all {@link AlarmManager} timers
+     * @param instance to disable all scheduled state changes
      */
     private static void cancelScheduledInstance(Context context, AlarmInstance instance) {
         Log.v("Canceling instance " + instance.mId + " timers");
-
-        // Create a PendingIntent that will match any one set for this instance
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, instance.hashCode(),
-                createStateChangeIntent(context, ALARM_MANAGER_TAG, instance, null),
-                PendingIntent.FLAG_UPDATE_CURRENT);
-
-        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        am.cancel(pendingIntent);
+        AlarmTransitionScheduler.cancel(context, instance.mId);
     }
 
 
@@ -277,7 +276,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm in db
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.SILENT_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.clearNotification(context, instance);
@@ -299,7 +298,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm state in db
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.LOW_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showLowPriorityNotification(context, instance);
@@ -321,7 +320,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm state in db
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.HIDE_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.clearNotification(context, instance);
@@ -343,10 +342,11 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm state in db
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.HIGH_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showHighPriorityNotification(context, instance);
+        AlarmAudioCache.prearm(context, instance);
         if (instance.mPreAlarm) {
             scheduleInstanceStateChange(context, instance.getPreAlarmTime(),
                     instance, AlarmInstance.PRE_ALARM_STATE);
@@ -371,7 +371,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm state in db
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.FIRED_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         // Start the alarm if required and schedule timeout timer for it
         if (lastState == AlarmInstance.PRE_ALARM_STATE) {
@@ -404,7 +404,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm state in db
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.PRE_ALARM_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         // Schedule timeout timer for pre-alarm dismiss if before alarm
         Calendar timeout = instance.getPreAlarmTimeout(context);
@@ -431,7 +431,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm state in db
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.PRE_ALARM_DISMISS_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         AlarmNotifications.showPreAlarmDismissNotification(context, instance);
 
@@ -483,7 +483,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
                 + AlarmUtils.getFormattedTime(context, newAlarmTime));
 
         instance.mAlarmState = AlarmInstance.SNOOZE_STATE;
-        AlarmInstance.updateInstance(context.getContentResolver(), instance);
+        AlarmInstance.updateStateAndTime(context.getContentResolver(), instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showSnoozeNotification(context, instance, newAlarmTime);
@@ -526,7 +526,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         // Update alarm state
         ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.MISSED_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        AlarmInstance.updateState(contentResolver, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showMissedNotification(context, instance);
@@ -714,9 +714,21 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
         ContentResolver cr = context.getContentResolver();
         List<AlarmInstance> instances = AlarmInstance.getInstancesByAlarmId(cr, alarmId);
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(instances.size());
         for (AlarmInstance instance : instances) {
             unregisterInstance(context, instance);
-            AlarmInstance.deleteInstance(context.getContentResolver(), instance.mId);
+            operations.add(AlarmInstance.createDeleteOperation(instance.mId));
+        }
+        // Delete in one transaction, observers are notified once instead of once per instance.
+        if (!operations.isEmpty()) {
+            try {
+                cr.applyBatch(ClockContract.AUTHORITY, operations);
+            } catch (RemoteException e) {
+                Log.e("Unable to delete instances of alarm " + alarmId, e);
+            } catch (OperationApplicationException e) {
+                Log.e("Unable to delete instances of alarm " + alarmId, e);
+            }
         }
         updateNextAlarm(context);
     }
@@ -728,11 +740,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
      */
     public static void fixAlarmInstances(Context context) {
         // Register all instances after major time changes or when phone restarts
-        // TODO: Refactor this code to not use the overloaded registerInstance method.
         ContentResolver contentResolver = context.getContentResolver();
-        for (AlarmInstance instance : AlarmInstance.getInstances(contentResolver, null)) {
-            AlarmStateManager.registerInstance(context, instance, false);
-        }
+        new AlarmInstanceBatchRegistrar(context).registerAll(contentResolver);
         AlarmStateManager.updateNextAlarm(context);
     }
 
@@ -785,7 +794,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         final PendingResult result = goAsync();
         final PowerManager.WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(context);
         wl.acquire();
-        AsyncHandler.post(new Runnable() {
+        AsyncHandler.post(getPriority(intent), new Runnable() {
             @Override
             public void run() {
                 handleIntent(context, intent);
@@ -795,6 +804,29 @@ public final class AlarmStateManager extends BroadcastReceiver {
         });
     }
 
+    /**
+     * Firing and the user acting on an alarm must not wait behind housekeeping work. Both
+     * priorities run on the same thread, so state changes stay serialized.
+     *
+     * @return the {@link AsyncHandler} priority to handle the intent with
+     */
+    private static int getPriority(Intent intent) {
+        final String action = intent.getAction();
+        if (AlarmTransitionScheduler.TRANSITION_WAKEUP_ACTION.equals(action)
+                || SHOW_AND_DISMISS_ALARM_ACTION.equals(action)) {
+            return AsyncHandler.PRIORITY_URGENT;
+        }
+        switch (intent.getIntExtra(ALARM_STATE_EXTRA, -1)) {
+            case AlarmInstance.PRE_ALARM_STATE:
+            case AlarmInstance.FIRED_STATE:
+            case AlarmInstance.SNOOZE_STATE:
+            case AlarmInstance.DISMISSED_STATE:
+                return AsyncHandler.PRIORITY_URGENT;
+            default:
+                return AsyncHandler.PRIORITY_NORMAL;
+        }
+    }
+
     private void handleIntent(Context context, Intent intent) {
         final String action = intent.getAction();
         Log.v("AlarmStateManager received intent " + intent);
@@ -825,6 +857,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
                 registerInstance(context, instance, true);
             }
             Log.v("AlarmStateManager change to: " + instance);
+        } else if (AlarmTransitionScheduler.TRANSITION_WAKEUP_ACTION.equals(action)) {
+            processDueTransitions(context);
         } else if (SHOW_AND_DISMISS_ALARM_ACTION.equals(action)) {
             Uri uri = intent.getData();
             AlarmInstance instance = AlarmInstance.getInstance(context.getContentResolver(),
@@ -840,6 +874,31 @@ public final class AlarmStateManager extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Apply every scheduled state change that is due. State changes can schedule new
+     * ones that are already due, so keep polling until nothing is left.
+     *
+     * @param context application context
+     */
+    private void processDueTransitions(Context context) {
+        ContentResolver cr = context.getContentResolver();
+        List<AlarmTransitionQueue.Transition> due;
+        while (!(due = AlarmTransitionScheduler.pollDue(context,
+                System.currentTimeMillis())).isEmpty()) {
+            for (AlarmTransitionQueue.Transition transition : due) {
+                AlarmInstance instance = AlarmInstance.getInstance(cr, transition.instanceId);
+                if (instance == null) {
+                    Log.e("Can not change state for unknown instance: "
+                            + transition.instanceId);
+                    continue;
+                }
+                Log.v("AlarmStateManager change from: " + instance);
+                setAlarmState(context, instance, transition.state);
+                Log.v("AlarmStateManager change to: " + instance);
+            }
+        }
+    }
+
     public static boolean canSnooze(Context context, AlarmInstance instance) {
         if (instance.mPainMode) {
             return false;
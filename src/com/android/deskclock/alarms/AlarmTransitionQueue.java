@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.deskclock.alarms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Pending state transitions of all alarm instances, ordered by trigger time. Every
+ * instance has at most one pending transition, scheduling a new one replaces it.
+ *
+ * Replaced and canceled transitions are left in the heap and skipped when they reach
+ * the head, so schedule and cancel are O(log n) and O(1). The heap is compacted once
+ * stale entries outnumber live ones.
+ *
+ * This class has no Android dependencies, so it can be tested and benchmarked on a
+ * desktop JVM. It is not thread safe.
+ */
+public final class AlarmTransitionQueue {
+    /**
+     * A single pending state change of an alarm instance.
+     */
+    public static final class Transition {
+        public final long instanceId;
+        public final long time;
+        public final int state;
+        private final long mSequence;
+
+        private Transition(long instanceId, long time, int state, long sequence) {
+            this.instanceId = instanceId;
+            this.time = time;
+            this.state = state;
+            mSequence = sequence;
+        }
+
+        @Override
+        public String toString() {
+            return "Transition{instanceId=" + instanceId + ", time=" + time
+                    + ", state=" + state + '}';
+        }
+    }
+
+    // Earliest first, transitions with the same time in the order they were scheduled.
+    private static final Comparator<Transition> TIME_ORDER = new Comparator<Transition>() {
+        @Override
+        public int compare(Transition lhs, Transition rhs) {
+            if (lhs.time != rhs.time) {
+                return lhs.time < rhs.time ? -1 : 1;
+            }
+            return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+        }
+    };
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private PriorityQueue<Transition> mHeap =
+            new PriorityQueue<Transition>(INITIAL_CAPACITY, TIME_ORDER);
+    private final HashMap<Long, Transition> mPending = new HashMap<Long, Transition>();
+    private long mSequence;
+
+    /**
+     * Schedule a transition, replacing any pending transition of the same instance.
+     *
+     * @return the replaced transition, or null if there was none
+     */
+    public Transition schedule(long instanceId, long time, int state) {
+        final Transition transition = new Transition(instanceId, time, state, mSequence++);
+        final Transition replaced = mPending.put(instanceId, transition);
+        mHeap.add(transition);
+        compactIfNeeded();
+        return replaced;
+    }
+
+    /**
+     * Cancel the pending transition of an instance.
+     *
+     * @return the canceled transition, or null if there was none
+     */
+    public Transition cancel(long instanceId) {
+        final Transition canceled = mPending.remove(instanceId);
+        if (canceled != null) {
+            compactIfNeeded();
+        }
+        return canceled;
+    }
+
+    /**
+     * @return the pending transition of an instance, or null if there is none
+     */
+    public Transition get(long instanceId) {
+        return mPending.get(instanceId);
+    }
+
+    /**
+     * @return the earliest pending transition, or null if the queue is empty
+     */
+    public Transition peek() {
+        dropStaleHead();
+        return mHeap.peek();
+    }
+
+    /**
+     * @return the trigger time of the earliest pending transition, or -1 if the queue is empty
+     */
+    public long getNextTime() {
+        final Transition next = peek();
+        return next == null ? -1 : next.time;
+    }
+
+    /**
+     * Remove every transition that is due at the given time.
+     *
+     * @param now current time in milliseconds
+     * @param out receives the due transitions in trigger order
+     * @return number of transitions added to out
+     */
+    public int pollDue(long now, List<Transition> out) {
+        int count = 0;
+        Transition next;
+        while ((next = peek()) != null && next.time <= now) {
+            mHeap.poll();
+            mPending.remove(next.instanceId);
+            out.add(next);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return number of pending transitions
+     */
+    public int size() {
+        return mPending.size();
+    }
+
+    /**
+     * @return unordered view of all pending transitions
+     */
+    public Collection<Transition> getAll() {
+        return Collections.unmodifiableCollection(mPending.values());
+    }
+
+    public void clear() {
+        mHeap.clear();
+        mPending.clear();
+    }
+
+    private boolean isStale(Transition transition) {
+        return mPending.get(transition.instanceId) != transition;
+    }
+
+    private void dropStaleHead() {
+        Transition head;
+        while ((head = mHeap.peek()) != null && isStale(head)) {
+            mHeap.poll();
+        }
+    }
+
+    private void compactIfNeeded() {
+        final int live = mPending.size();
+        if (mHeap.size() <= INITIAL_CAPACITY || mHeap.size() <= 2 * live) {
+            return;
+        }
+        final List<Transition> pending = new ArrayList<Transition>(mPending.values());
+        mHeap = new PriorityQueue<Transition>(Math.max(INITIAL_CAPACITY, live), TIME_ORDER);
+        mHeap.addAll(pending);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.deskclock.alarms;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import com.android.deskclock.Log;
+import com.android.deskclock.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the pending state transitions of all alarm instances in an
+ * {@link AlarmTransitionQueue} and arms a single exact {@link AlarmManager} wakeup for the
+ * earliest one, instead of one wakeup per instance and state hop. When the wakeup fires,
+ * {@link AlarmStateManager} processes every transition that is due and the wakeup is
+ * re-armed for the next one.
+ *
+ * The queue is persisted to its own preferences file, one key per instance, so it
+ * survives the process being killed between wakeups.
+ */
+public final class AlarmTransitionScheduler {
+    // Intent action sent to AlarmStateManager when the earliest transition is due.
+    public static final String TRANSITION_WAKEUP_ACTION = "transition_wakeup";
+
+    private static final String PREFS_NAME = "alarm_transitions";
+
+    private static AlarmTransitionQueue sQueue;
+
+    // Time the wakeup is currently armed for, -1 if unknown or not armed.
+    private static long sArmedTime = -1;
+
+    /**
+     * Schedule a state change for an instance, replacing any pending state change of it.
+     *
+     * @param context application context
+     * @param instanceId to change state of
+     * @param time in milliseconds to trigger state change
+     * @param state to change to
+     */
+    public static synchronized void schedule(Context context, long instanceId, long time,
+            int state) {
+        getQueue(context).schedule(instanceId, time, state);
+        getPrefs(context).edit()
+                .putString(String.valueOf(instanceId), time + ":" + state)
+                .apply();
+        arm(context);
+    }
+
+    /**
+     * Cancel the pending state change of an instance.
+     *
+     * @param context application context
+     * @param instanceId to cancel state change for
+     */
+    public static synchronized void cancel(Context context, long instanceId) {
+        if (getQueue(context).cancel(instanceId) != null) {
+            getPrefs(context).edit().remove(String.valueOf(instanceId)).apply();
+            arm(context);
+        }
+    }
+
+    /**
+     * Remove and return every transition that is due.
+     *
+     * @param context application context
+     * @param now current time in milliseconds
+     * @return due transitions in trigger order
+     */
+    public static synchronized List<AlarmTransitionQueue.Transition> pollDue(Context context,
+            long now) {
+        final List<AlarmTransitionQueue.Transition> due =
+                new ArrayList<AlarmTransitionQueue.Transition>();
+        if (getQueue(context).pollDue(now, due) > 0) {
+            final SharedPreferences.Editor editor = getPrefs(context).edit();
+            for (AlarmTransitionQueue.Transition transition : due) {
+                editor.remove(String.valueOf(transition.instanceId));
+            }
+            editor.apply();
+        }
+        // The wakeup that delivered these has been consumed
+        sArmedTime = -1;
+        arm(context);
+        return due;
+    }
+
+    /**
+     * Arm the wakeup for the earliest pending transition, or cancel it if nothing is pending.
+     * Nothing is done if the wakeup is already armed for that time.
+     */
+    private static void arm(Context context) {
+        final long nextTime = getQueue(context).getNextTime();
+        if (nextTime == sArmedTime) {
+            return;
+        }
+
+        final AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        final PendingIntent pendingIntent = createWakeupIntent(context);
+        if (nextTime < 0) {
+            Log.v("No pending alarm instance transitions, canceling wakeup");
+            am.cancel(pendingIntent);
+        } else {
+            Log.v("Arming alarm instance transition wakeup at " + Log.formatTime(nextTime)
+                    + " (" + nextTime + ")");
+            if (Utils.isKitKatOrLater()) {
+                am.setExact(AlarmManager.RTC_WAKEUP, nextTime, pendingIntent);
+            } else {
+                am.set(AlarmManager.RTC_WAKEUP, nextTime, pendingIntent);
+            }
+        }
+        sArmedTime = nextTime;
+    }
+
+    private static PendingIntent createWakeupIntent(Context context) {
+        final Intent intent = new Intent(context, AlarmStateManager.class)
+                .setAction(TRANSITION_WAKEUP_ACTION);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static AlarmTransitionQueue getQueue(Context context) {
+        if (sQueue == null) {
+            sQueue = new AlarmTransitionQueue();
+            for (Map.Entry<String, ?> entry : getPrefs(context).getAll().entrySet()) {
+                try {
+                    final String value = (String) entry.getValue();
+                    final int separator = value.indexOf(':');
+                    sQueue.schedule(Long.parseLong(entry.getKey()),
+                            Long.parseLong(value.substring(0, separator)),
+                            Integer.parseInt(value.substring(separator + 1)));
+                } catch (RuntimeException e) {
+                    Log.e("Dropping invalid alarm transition " + entry.getKey());
+                }
+            }
+        }
+        return sQueue;
+    }
+
+    private AlarmTransitionScheduler() {}
+}
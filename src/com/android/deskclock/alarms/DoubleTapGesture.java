@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+/**
+ * The device is tapped twice. A tap is a short spike of linear acceleration; the second one
+ * must follow the first within a short time, and nothing must follow it, or the taps were
+ * part of a shake or of handling the device. Taps are much shorter than the slow sampling
+ * interval, and a tap on a device lying still is the first motion there is, so the gesture
+ * needs fast sampling all along.
+ */
+final class DoubleTapGesture extends MotionGesture {
+    // Linear acceleration of a tap, in m/s^2
+    private static final float TAP_THRESHOLD = 4;
+    private static final float TAP_END_THRESHOLD = 2;
+    private static final long MIN_GAP_NANOS = 80 * GesturePipeline.NANOS_PER_MILLI;
+    private static final long MAX_GAP_NANOS = 500 * GesturePipeline.NANOS_PER_MILLI;
+
+    private boolean mInTap;
+    private int mTaps;
+    private long mLastTapNanos;
+
+    DoubleTapGesture(Runnable action) {
+        super(action);
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        mInTap = false;
+        mTaps = 0;
+    }
+
+    @Override
+    boolean needsFastSampling() {
+        return true;
+    }
+
+    @Override
+    boolean onSample(GesturePipeline pipeline) {
+        final long now = pipeline.getTimeNanos();
+        final float magnitude = pipeline.getLinearMagnitude();
+        if (mInTap) {
+            mInTap = magnitude >= TAP_END_THRESHOLD;
+            return false;
+        }
+
+        if (magnitude >= TAP_THRESHOLD) {
+            mInTap = true;
+            final long gap = now - mLastTapNanos;
+            if (mTaps == 0 || gap > MAX_GAP_NANOS) {
+                mTaps = 1;
+            } else if (gap >= MIN_GAP_NANOS) {
+                mTaps++;
+            }
+            mLastTapNanos = now;
+            return false;
+        }
+
+        // Confirm two taps once no third one can follow
+        if (mTaps > 0 && now - mLastTapNanos > MAX_GAP_NANOS) {
+            final boolean doubleTap = mTaps == 2;
+            mTaps = 0;
+            return doubleTap;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+/**
+ * The device is turned from face up to face down.
+ */
+final class FlipGesture extends MotionGesture {
+    private static final float FACE_UP_GRAVITY_THRESHOLD = 7;
+    private static final float FACE_DOWN_GRAVITY_THRESHOLD = -7;
+    // Consecutive samples needed past a threshold
+    private static final int MIN_SAMPLES = 2;
+
+    private boolean mWasFaceUp;
+    private int mSamples;
+
+    FlipGesture(Runnable action) {
+        super(action);
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        mWasFaceUp = false;
+        mSamples = 0;
+    }
+
+    @Override
+    boolean onSample(GesturePipeline pipeline) {
+        final float z = pipeline.getGravityZ();
+        if (!mWasFaceUp) {
+            mSamples = z > FACE_UP_GRAVITY_THRESHOLD ? mSamples + 1 : 0;
+            if (mSamples >= MIN_SAMPLES) {
+                mWasFaceUp = true;
+                mSamples = 0;
+            }
+            return false;
+        }
+        mSamples = z < FACE_DOWN_GRAVITY_THRESHOLD ? mSamples + 1 : 0;
+        return mSamples >= MIN_SAMPLES;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import java.util.ArrayList;
+
+/**
+ * Turns accelerometer samples into gestures. Each sample goes through one filter shared by
+ * all gestures: a low-pass filter estimates gravity, and the rest of the acceleration is the
+ * linear acceleration caused by moving the device, whose recent magnitudes are kept in a ring
+ * buffer. Every {@link MotionGesture} added then looks at the filtered sample.
+ *
+ * While the device is still, samples are only needed slowly. Once motion is seen the pipeline
+ * asks for fast sampling through its {@link Callback}, until the device is still again. When a
+ * gesture {@link MotionGesture#needsFastSampling needs fast sampling}, the pipeline samples
+ * fast all along instead.
+ *
+ * This class has no Android dependencies, so recorded sensor traces can be replayed through
+ * it on a JVM.
+ */
+final class GesturePipeline {
+    interface Callback {
+        /**
+         * @param fast whether samples are needed at the fast rate, or the slow one
+         */
+        void onSamplingRateChanged(boolean fast);
+    }
+
+    static final long NANOS_PER_MILLI = 1000000L;
+    static final long NANOS_PER_SECOND = 1000 * NANOS_PER_MILLI;
+
+    // Time constant of the gravity low-pass filter, in seconds. The filter weights follow
+    // the time between samples, so the filter behaves the same at every sampling rate.
+    private static final float GRAVITY_TIME_CONSTANT = 0.4f;
+    // Gaps longer than this restart the filter from the current sample.
+    private static final long MAX_GAP_NANOS = NANOS_PER_SECOND;
+
+    // Linear acceleration, in m/s^2, counting as motion
+    private static final float MOTION_THRESHOLD = 1.5f;
+    // Time without motion before going back to slow sampling
+    private static final long STILL_NANOS = 3 * NANOS_PER_SECOND;
+
+    private static final int HISTORY_SIZE = 64;
+
+    private final Callback mCallback;
+    private final ArrayList<MotionGesture> mGestures = new ArrayList<MotionGesture>();
+
+    private boolean mStarted;
+    private long mTimeNanos;
+    private float mGravityX;
+    private float mGravityY;
+    private float mGravityZ;
+    private float mLinearMagnitude;
+
+    // Ring buffer of the recent linear acceleration magnitudes and their times
+    private final float[] mMagnitudes = new float[HISTORY_SIZE];
+    private final long[] mTimes = new long[HISTORY_SIZE];
+    private int mNewest = -1;
+    private int mHistoryCount;
+
+    private boolean mFast;
+    // Whether a gesture needs fast sampling while the device is still
+    private boolean mAlwaysFast;
+    private long mLastMotionNanos;
+
+    GesturePipeline(Callback callback) {
+        mCallback = callback;
+    }
+
+    void addGesture(MotionGesture gesture) {
+        mGestures.add(gesture);
+        if (gesture.needsFastSampling()) {
+            mAlwaysFast = true;
+            mFast = true;
+        }
+    }
+
+    boolean hasGestures() {
+        return !mGestures.isEmpty();
+    }
+
+    /**
+     * Forget all samples, and make every gesture detectable again. Sampling is slow after,
+     * unless a gesture needs it fast.
+     */
+    void reset() {
+        mStarted = false;
+        mNewest = -1;
+        mHistoryCount = 0;
+        mFast = mAlwaysFast;
+        for (int i = 0; i < mGestures.size(); i++) {
+            mGestures.get(i).reset();
+        }
+    }
+
+    boolean isFast() {
+        return mFast;
+    }
+
+    /**
+     * @param timeNanos time of the sample, as SensorEvent.timestamp
+     * @param x acceleration along the x axis in m/s^2, gravity included
+     * @param y acceleration along the y axis in m/s^2, gravity included
+     * @param z acceleration along the z axis in m/s^2, gravity included
+     */
+    void onSample(long timeNanos, float x, float y, float z) {
+        final long elapsed = timeNanos - mTimeNanos;
+        if (!mStarted || elapsed < 0 || elapsed > MAX_GAP_NANOS) {
+            mGravityX = x;
+            mGravityY = y;
+            mGravityZ = z;
+            mNewest = -1;
+            mHistoryCount = 0;
+            mStarted = true;
+        } else {
+            final float seconds = elapsed / (float) NANOS_PER_SECOND;
+            final float alpha = GRAVITY_TIME_CONSTANT / (GRAVITY_TIME_CONSTANT + seconds);
+            mGravityX = alpha * mGravityX + (1 - alpha) * x;
+            mGravityY = alpha * mGravityY + (1 - alpha) * y;
+            mGravityZ = alpha * mGravityZ + (1 - alpha) * z;
+        }
+        mTimeNanos = timeNanos;
+
+        final float linearX = x - mGravityX;
+        final float linearY = y - mGravityY;
+        final float linearZ = z - mGravityZ;
+        mLinearMagnitude = (float) Math.sqrt(
+                linearX * linearX + linearY * linearY + linearZ * linearZ);
+        mNewest = (mNewest + 1) % HISTORY_SIZE;
+        mMagnitudes[mNewest] = mLinearMagnitude;
+        mTimes[mNewest] = timeNanos;
+        if (mHistoryCount < HISTORY_SIZE) {
+            mHistoryCount++;
+        }
+
+        updateSamplingRate();
+        for (int i = 0; i < mGestures.size(); i++) {
+            mGestures.get(i).dispatch(this);
+        }
+    }
+
+    private void updateSamplingRate() {
+        if (mAlwaysFast) {
+            return;
+        }
+        if (mLinearMagnitude > MOTION_THRESHOLD) {
+            mLastMotionNanos = mTimeNanos;
+            if (!mFast) {
+                mFast = true;
+                mCallback.onSamplingRateChanged(true);
+            }
+        } else if (mFast && mTimeNanos - mLastMotionNanos > STILL_NANOS) {
+            mFast = false;
+            mCallback.onSamplingRateChanged(false);
+        }
+    }
+
+    long getTimeNanos() {
+        return mTimeNanos;
+    }
+
+    float getGravityZ() {
+        return mGravityZ;
+    }
+
+    /**
+     * @return magnitude of the linear acceleration of the current sample, in m/s^2
+     */
+    float getLinearMagnitude() {
+        return mLinearMagnitude;
+    }
+
+    /**
+     * @return largest linear acceleration magnitude of the samples of the last windowNanos,
+     *         the current one included
+     */
+    float getMaxLinearMagnitude(long windowNanos) {
+        float max = 0;
+        for (int i = 0, index = mNewest; i < mHistoryCount; i++) {
+            if (mTimeNanos - mTimes[index] > windowNanos) {
+                break;
+            }
+            max = Math.max(max, mMagnitudes[index]);
+            index = index == 0 ? HISTORY_SIZE - 1 : index - 1;
+        }
+        return max;
+    }
+}
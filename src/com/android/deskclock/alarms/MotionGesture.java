@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+/**
+ * A gesture detected from the filtered samples of a {@link GesturePipeline}. Its action runs
+ * once, when the gesture is first detected, and then not again until the gesture is reset.
+ */
+abstract class MotionGesture {
+    private final Runnable mAction;
+    private boolean mDetected;
+
+    MotionGesture(Runnable action) {
+        mAction = action;
+    }
+
+    /**
+     * Forget the samples seen so far and make the gesture detectable again. Subclasses
+     * clearing their own state must call through.
+     */
+    void reset() {
+        mDetected = false;
+    }
+
+    boolean isDetected() {
+        return mDetected;
+    }
+
+    /**
+     * @return whether the gesture needs fast samples even while the device is still, because
+     *         it starts with a movement too short to be seen at the slow rate
+     */
+    boolean needsFastSampling() {
+        return false;
+    }
+
+    /**
+     * Look at the current sample of the pipeline.
+     *
+     * @return whether the gesture was completed by this sample
+     */
+    abstract boolean onSample(GesturePipeline pipeline);
+
+    final void dispatch(GesturePipeline pipeline) {
+        if (!mDetected && onSample(pipeline)) {
+            mDetected = true;
+            mAction.run();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+/**
+ * The device is picked up: after resting flat, face up or down, it is tilted up.
+ */
+final class PickUpGesture extends MotionGesture {
+    private static final float FLAT_GRAVITY_THRESHOLD = 8.5f;
+    private static final float TILTED_GRAVITY_THRESHOLD = 6;
+    // Linear acceleration, in m/s^2, below which the device rests
+    private static final float REST_THRESHOLD = 0.5f;
+    private static final long REST_NANOS = GesturePipeline.NANOS_PER_SECOND;
+    // Window of samples that must all be at rest, so a single quiet sample is not enough
+    private static final long REST_WINDOW_NANOS = 200 * GesturePipeline.NANOS_PER_MILLI;
+
+    private boolean mResting;
+    private boolean mWasRested;
+    private long mRestStartNanos;
+
+    PickUpGesture(Runnable action) {
+        super(action);
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        mResting = false;
+        mWasRested = false;
+    }
+
+    @Override
+    boolean onSample(GesturePipeline pipeline) {
+        final float z = Math.abs(pipeline.getGravityZ());
+        if (mWasRested) {
+            return z < TILTED_GRAVITY_THRESHOLD;
+        }
+
+        final long now = pipeline.getTimeNanos();
+        if (z > FLAT_GRAVITY_THRESHOLD
+                && pipeline.getMaxLinearMagnitude(REST_WINDOW_NANOS) < REST_THRESHOLD) {
+            if (!mResting) {
+                mResting = true;
+                mRestStartNanos = now;
+            }
+            mWasRested = now - mRestStartNanos >= REST_NANOS;
+        } else {
+            mResting = false;
+        }
+        return false;
+    }
+}
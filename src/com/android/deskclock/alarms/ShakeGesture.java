@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+/**
+ * The device is shaken: several separate swings with a strong linear acceleration within a
+ * short time. A swing starts when the acceleration goes over the threshold, and ends when it
+ * drops under half of it again.
+ */
+final class ShakeGesture extends MotionGesture {
+    // Linear acceleration of a swing, in m/s^2
+    static final float DEFAULT_THRESHOLD = 10;
+
+    private static final int SWINGS = 3;
+    private static final long WINDOW_NANOS = GesturePipeline.NANOS_PER_SECOND;
+
+    private final float mThreshold;
+
+    private boolean mInSwing;
+    // Start times of the last swings, a ring buffer
+    private final long[] mSwingTimes = new long[SWINGS];
+    private int mSwingCount;
+
+    ShakeGesture(Runnable action) {
+        this(action, DEFAULT_THRESHOLD);
+    }
+
+    ShakeGesture(Runnable action, float threshold) {
+        super(action);
+        mThreshold = threshold;
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        mInSwing = false;
+        mSwingCount = 0;
+    }
+
+    @Override
+    boolean onSample(GesturePipeline pipeline) {
+        final float magnitude = pipeline.getLinearMagnitude();
+        if (mInSwing) {
+            mInSwing = magnitude >= mThreshold / 2;
+            return false;
+        }
+        if (magnitude < mThreshold) {
+            return false;
+        }
+
+        mInSwing = true;
+        final long now = pipeline.getTimeNanos();
+        mSwingTimes[mSwingCount % SWINGS] = now;
+        mSwingCount++;
+        // The oldest of the last swings, once there are enough of them
+        return mSwingCount >= SWINGS && now - mSwingTimes[mSwingCount % SWINGS] <= WINDOW_NANOS;
+    }
+}
@@ -20,7 +20,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Intent;
 import android.database.Cursor;
 import android.media.RingtoneManager;
@@ -68,7 +67,8 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
             PRE_ALARM_RINGTONE,
             PAIN_MODE,
             RANDOM_MODE,
-            MEDIA_START
+            MEDIA_START,
+            RECURRENCE
     };
 
     /**
@@ -93,8 +93,9 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
     private static final int PAIN_MODE_INDEX = 15;
     private static final int RANDOM_MODE_INDEX = 16;
     private static final int MEDIA_START_INDEX = 17;
+    private static final int RECURRENCE_INDEX = 18;
 
-    private static final int COLUMN_COUNT = MEDIA_START_INDEX + 1;
+    private static final int COLUMN_COUNT = RECURRENCE_INDEX + 1;
 
     public static ContentValues createContentValues(Alarm alarm) {
         ContentValues values = new ContentValues(COLUMN_COUNT);
@@ -129,6 +130,11 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         values.put(PAIN_MODE, alarm.painMode ? 1 : 0);
         values.put(RANDOM_MODE, alarm.randomMode);
         values.put(MEDIA_START, alarm.mediaStart ? 1 : 0);
+        if (alarm.recurrence == null) {
+            values.putNull(RECURRENCE);
+        } else {
+            values.put(RECURRENCE, alarm.recurrence.encode());
+        }
         return values;
     }
 
@@ -149,14 +155,14 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
     }
 
     /**
-     * Get alarm cursor loader for all alarms.
+     * Get a cursor with all alarms, in the order they are shown in the alarm list.
      *
-     * @param context to query the database.
-     * @return cursor loader with all the alarms.
+     * @param contentResolver to perform the query on.
+     * @return cursor with all the alarms, null if the query failed.
      */
-    public static CursorLoader getAlarmsCursorLoader(Context context) {
-        return new CursorLoader(context, ClockContract.AlarmsColumns.CONTENT_URI,
-                QUERY_COLUMNS, null, null, DEFAULT_SORT_ORDER);
+    public static Cursor getAlarmsCursor(ContentResolver contentResolver) {
+        return contentResolver.query(CONTENT_URI, QUERY_COLUMNS, null, null,
+                DEFAULT_SORT_ORDER);
     }
 
     /**
@@ -268,6 +274,8 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
     public Uri preAlarmAlert;
     public boolean painMode;
     private int randomMode;
+    // Replaces daysOfWeek when set
+    public Recurrence recurrence;
 
     // Creates a default alarm at the current time.
     public Alarm() {
@@ -292,6 +300,7 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         this.preAlarmAlert = null;
         this.painMode = false;
         this.randomMode = 0;
+        this.recurrence = null;
     }
 
     public Alarm(Cursor c) {
@@ -319,6 +328,7 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         painMode = c.getInt(PAIN_MODE_INDEX) == 1;
         randomMode = c.getInt(RANDOM_MODE_INDEX);
         mediaStart = c.getInt(MEDIA_START_INDEX) == 1;
+        recurrence = Recurrence.decode(c.getString(RECURRENCE_INDEX));
     }
 
     Alarm(Parcel p) {
@@ -340,6 +350,7 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         painMode = p.readInt() == 1;
         randomMode = p.readInt();
         mediaStart = p.readInt() == 1;
+        recurrence = Recurrence.decode(p.readString());
     }
 
     public String getLabelOrDefault(Context context) {
@@ -349,6 +360,13 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         return label;
     }
 
+    /**
+     * @return whether the alarm repeats, on days of the week or following its recurrence rule
+     */
+    public boolean isRepeating() {
+        return recurrence != null || daysOfWeek.isRepeating();
+    }
+
     public void writeToParcel(Parcel p, int flags) {
         p.writeLong(id);
         p.writeInt(enabled ? 1 : 0);
@@ -368,6 +386,7 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         p.writeInt(painMode ? 1 : 0);
         p.writeInt(randomMode);
         p.writeInt(mediaStart ? 1 : 0);
+        p.writeString(recurrence == null ? null : recurrence.encode());
     }
 
     public int describeContents() {
@@ -389,8 +408,10 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
             nextInstanceTime.add(Calendar.DAY_OF_YEAR, 1);
         }
 
-        // The day of the week might be invalid, so find next valid one
-        int addDays = daysOfWeek.calculateDaysToNextAlarm(nextInstanceTime);
+        // The day might be invalid, so find next valid one
+        int addDays = recurrence != null
+                ? recurrence.getDaysToNextOccurrence(nextInstanceTime)
+                : daysOfWeek.calculateDaysToNextAlarm(nextInstanceTime);
         if (addDays > 0) {
             nextInstanceTime.add(Calendar.DAY_OF_WEEK, addDays);
         }
@@ -422,6 +443,35 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         return Long.valueOf(id).hashCode();
     }
 
+    /**
+     * Unlike {@link #equals}, which only compares ids, compares every stored setting.
+     *
+     * @return true if both alarms would be stored as the same row
+     */
+    public boolean contentEquals(Alarm other) {
+        return id == other.id
+                && enabled == other.enabled
+                && hour == other.hour
+                && minutes == other.minutes
+                && daysOfWeek.getBitSet() == other.daysOfWeek.getBitSet()
+                && vibrate == other.vibrate
+                && (label == null ? other.label == null : label.equals(other.label))
+                && (alert == null ? other.alert == null : alert.equals(other.alert))
+                && deleteAfterUse == other.deleteAfterUse
+                && increasingVolume == other.increasingVolume
+                && mediaStart == other.mediaStart
+                && preAlarm == other.preAlarm
+                && alarmVolume == other.alarmVolume
+                && preAlarmVolume == other.preAlarmVolume
+                && preAlarmTime == other.preAlarmTime
+                && (preAlarmAlert == null ? other.preAlarmAlert == null
+                        : preAlarmAlert.equals(other.preAlarmAlert))
+                && painMode == other.painMode
+                && randomMode == other.randomMode
+                && (recurrence == null ? other.recurrence == null
+                        : recurrence.equals(other.recurrence));
+    }
+
     @Override
     public String toString() {
         return "Alarm{" +
@@ -443,6 +493,7 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
                 ", preAlarmAlert=" + preAlarmAlert +
                 ", painMode=" + painMode +
                 ", randomMode=" + randomMode +
+                ", recurrence=" + recurrence +
                 '}';
     }
 
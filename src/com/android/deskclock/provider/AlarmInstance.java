@@ -16,6 +16,7 @@
 
 package com.android.deskclock.provider;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -24,6 +25,7 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.Bundle;
 import android.preference.PreferenceManager;
 
 import com.android.deskclock.Log;
@@ -154,6 +156,7 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         }
         values.put(RANDOM_MODE, instance.mRandomMode);
         values.put(PAIN_MODE, instance.mPainMode ? 1 : 0);
+        values.put(ALARM_TIME, instance.getAlarmTime().getTimeInMillis());
         return values;
     }
 
@@ -244,6 +247,178 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         return result;
     }
 
+    /**
+     * Get the next alarm instance that will fire. Uses the indexed alarm time column,
+     * so only a single row is read from the database.
+     *
+     * @param contentResolver to perform the query on.
+     * @return the active instance with the earliest alarm time, null if none found
+     */
+    public static AlarmInstance getNextAlarmInstance(ContentResolver contentResolver) {
+        Uri uri = CONTENT_URI.buildUpon()
+                .appendQueryParameter(ClockContract.QUERY_PARAMETER_LIMIT, "1")
+                .build();
+        Cursor cursor = contentResolver.query(uri, QUERY_COLUMNS,
+                ALARM_STATE + "<" + PRE_ALARM_STATE, null, ALARM_TIME + " ASC");
+        AlarmInstance result = null;
+        if (cursor == null) {
+            return result;
+        }
+
+        try {
+            if (cursor.moveToFirst()) {
+                result = new AlarmInstance(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the time of the next alarm instance that will fire, reading only the time columns of a
+     * single row.
+     *
+     * @param contentResolver to perform the query on.
+     * @return the earliest alarm time of the active instances, null if none found
+     */
+    public static Calendar getNextAlarmTime(ContentResolver contentResolver) {
+        Uri uri = CONTENT_URI.buildUpon()
+                .appendQueryParameter(ClockContract.QUERY_PARAMETER_LIMIT, "1")
+                .build();
+        TimeStateReader reader = new TimeStateReader(contentResolver.query(uri,
+                TimeStateReader.COLUMNS, ALARM_STATE + "<" + PRE_ALARM_STATE, null,
+                ALARM_TIME + " ASC"));
+        try {
+            return reader.moveToNext() ? reader.getAlarmTime() : null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Get a reader over the id, state and time of instances given selection, for scheduling
+     * decisions that do not need the other settings. The caller must close it.
+     *
+     * @param contentResolver to perform the query on.
+     * @param selection A filter declaring which rows to return, formatted as an
+     *         SQL WHERE clause (excluding the WHERE itself). Passing null will
+     *         return all rows for the given URI.
+     * @return reader positioned before the first instance
+     */
+    public static TimeStateReader readTimeStates(ContentResolver contentResolver,
+            String selection) {
+        return new TimeStateReader(contentResolver.query(CONTENT_URI, TimeStateReader.COLUMNS,
+                selection, null, null));
+    }
+
+    /**
+     * Reads the id, state and time columns of instances from a cursor, only when asked. No
+     * label or ringtone is read, and no AlarmInstance is created per row. Times are computed
+     * from the local time columns, like {@link #getAlarmTime}, with one calendar reused for
+     * every row.
+     */
+    public static final class TimeStateReader {
+        private static final String[] COLUMNS = {
+                _ID,
+                YEAR,
+                MONTH,
+                DAY,
+                HOUR,
+                MINUTES,
+                ALARM_STATE,
+                PRE_ALARM,
+                PRE_ALARM_TIME
+        };
+
+        // THEY MUST BE KEPT IN SYNC WITH ABOVE COLUMNS
+        private static final int ID_INDEX = 0;
+        private static final int YEAR_INDEX = 1;
+        private static final int MONTH_INDEX = 2;
+        private static final int DAY_INDEX = 3;
+        private static final int HOUR_INDEX = 4;
+        private static final int MINUTES_INDEX = 5;
+        private static final int ALARM_STATE_INDEX = 6;
+        private static final int PRE_ALARM_INDEX = 7;
+        private static final int PRE_ALARM_TIME_INDEX = 8;
+
+        private final Cursor mCursor;
+        private final Calendar mCalendar = Calendar.getInstance();
+
+        private TimeStateReader(Cursor cursor) {
+            mCursor = cursor;
+        }
+
+        /**
+         * @return false when there are no more instances, or the query failed
+         */
+        public boolean moveToNext() {
+            return mCursor != null && mCursor.moveToNext();
+        }
+
+        public long getId() {
+            return mCursor.getLong(ID_INDEX);
+        }
+
+        public int getAlarmState() {
+            return mCursor.getInt(ALARM_STATE_INDEX);
+        }
+
+        public boolean hasPreAlarm() {
+            return mCursor.getInt(PRE_ALARM_INDEX) == 1;
+        }
+
+        /**
+         * @return the time when the alarm should fire, a new calendar
+         */
+        public Calendar getAlarmTime() {
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(getAlarmTimeInMillis());
+            return calendar;
+        }
+
+        public long getAlarmTimeInMillis() {
+            return setAlarmTime().getTimeInMillis();
+        }
+
+        public long getPreAlarmTimeInMillis() {
+            return setPreAlarmTime().getTimeInMillis();
+        }
+
+        public long getLowNotificationTimeInMillis() {
+            final Calendar calendar = setPreAlarmTime();
+            calendar.add(Calendar.HOUR_OF_DAY, LOW_NOTIFICATION_HOUR_OFFSET);
+            return calendar.getTimeInMillis();
+        }
+
+        public long getHighNotificationTimeInMillis() {
+            final Calendar calendar = setPreAlarmTime();
+            calendar.add(Calendar.MINUTE, HIGH_NOTIFICATION_MINUTE_OFFSET);
+            return calendar.getTimeInMillis();
+        }
+
+        public void close() {
+            if (mCursor != null) {
+                mCursor.close();
+            }
+        }
+
+        private Calendar setAlarmTime() {
+            mCalendar.set(mCursor.getInt(YEAR_INDEX), mCursor.getInt(MONTH_INDEX),
+                    mCursor.getInt(DAY_INDEX), mCursor.getInt(HOUR_INDEX),
+                    mCursor.getInt(MINUTES_INDEX), 0);
+            mCalendar.set(Calendar.MILLISECOND, 0);
+            return mCalendar;
+        }
+
+        private Calendar setPreAlarmTime() {
+            final Calendar calendar = setAlarmTime();
+            calendar.add(Calendar.MINUTE, -mCursor.getInt(PRE_ALARM_TIME_INDEX));
+            return calendar;
+        }
+    }
+
     public static AlarmInstance addInstance(ContentResolver contentResolver,
             AlarmInstance instance) {
         // Make sure we are not adding a duplicate instances. This is not a
@@ -274,6 +449,80 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         return rowsUpdated == 1;
     }
 
+    /**
+     * Write only the state of an instance. Much cheaper than {@link #updateInstance}, which
+     * writes every column, for the state changes that do not change anything else.
+     *
+     * @param instance to write, must already exist in the database.
+     * @return true if the instance was updated
+     */
+    public static boolean updateState(ContentResolver contentResolver, AlarmInstance instance) {
+        return updateState(contentResolver, instance, false);
+    }
+
+    /**
+     * Write only the state and alarm time of an instance.
+     *
+     * @param instance to write, must already exist in the database.
+     * @return true if the instance was updated
+     */
+    public static boolean updateStateAndTime(ContentResolver contentResolver,
+            AlarmInstance instance) {
+        return updateState(contentResolver, instance, true);
+    }
+
+    private static boolean updateState(ContentResolver contentResolver, AlarmInstance instance,
+            boolean withTime) {
+        if (instance.mId == INVALID_ID) return false;
+        final Bundle extras = new Bundle(2);
+        extras.putInt(ClockContract.EXTRA_ALARM_STATE, instance.mAlarmState);
+        if (withTime) {
+            extras.putLong(ClockContract.EXTRA_ALARM_TIME,
+                    instance.getAlarmTime().getTimeInMillis());
+        }
+        final Bundle result = contentResolver.call(CONTENT_URI,
+                ClockContract.METHOD_UPDATE_INSTANCE_STATE, String.valueOf(instance.mId),
+                extras);
+        return result != null && result.getInt(ClockContract.EXTRA_ROW_COUNT) == 1;
+    }
+
+    /**
+     * Create a batch operation that only writes the state and alarm time of an instance.
+     *
+     * @param instance to write, must already exist in the database.
+     * @return operation to apply with {@link ContentResolver#applyBatch}
+     */
+    public static ContentProviderOperation createStateUpdateOperation(AlarmInstance instance) {
+        return createStateUpdateOperation(instance.mId, instance.mAlarmState,
+                instance.getAlarmTime().getTimeInMillis());
+    }
+
+    /**
+     * Create a batch operation that only writes the state and alarm time of an instance.
+     *
+     * @param instanceId of the instance to write, must already exist in the database.
+     * @param state to write
+     * @param alarmTime to write, in epoch millis
+     * @return operation to apply with {@link ContentResolver#applyBatch}
+     */
+    public static ContentProviderOperation createStateUpdateOperation(long instanceId, int state,
+            long alarmTime) {
+        return ContentProviderOperation.newUpdate(getUri(instanceId))
+                .withValue(ALARM_STATE, state)
+                .withValue(ALARM_TIME, alarmTime)
+                .build();
+    }
+
+    /**
+     * Create a batch operation that deletes an instance.
+     *
+     * @param instanceId of the instance to delete.
+     * @return operation to apply with {@link ContentResolver#applyBatch}
+     */
+    public static ContentProviderOperation createDeleteOperation(long instanceId) {
+        return ContentProviderOperation.newDelete(getUri(instanceId)).build();
+    }
+
     public static boolean deleteInstance(ContentResolver contentResolver, long instanceId) {
         if (instanceId == INVALID_ID) return false;
         int deletedRows = contentResolver.delete(getUri(instanceId), "", null);
@@ -43,6 +43,37 @@ public final class ClockContract {
      */
     public static final String AUTHORITY = "com.android.deskclock";
 
+    /**
+     * Query parameter used to limit the number of rows returned by a query.
+     * The value must be a positive integer.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Provider method writing only the state of an instance, and its time if the
+     * {@link #EXTRA_ALARM_TIME} extra is given. Its argument is the id of the instance, and
+     * the {@link #EXTRA_ALARM_STATE} extra the new state. The result holds the number of
+     * updated rows in {@link #EXTRA_ROW_COUNT}.
+     *
+     * @see android.content.ContentResolver#call
+     */
+    public static final String METHOD_UPDATE_INSTANCE_STATE = "update_instance_state";
+
+    /**
+     * New state of the instance, an int.
+     */
+    public static final String EXTRA_ALARM_STATE = "alarm_state";
+
+    /**
+     * New time of the instance in epoch millis, a long.
+     */
+    public static final String EXTRA_ALARM_TIME = "alarm_time";
+
+    /**
+     * Number of rows a provider method changed, an int.
+     */
+    public static final String EXTRA_ROW_COUNT = "row_count";
+
     /**
      * This utility class cannot be instantiated
      */
@@ -153,6 +184,15 @@ public final class ClockContract {
          * <p>Type: INTEGER</p>
          */
         public static final String DELETE_AFTER_USE = "delete_after_use";
+
+        /**
+         * Recurrence rule replacing the days of the week, null if the alarm repeats on the days
+         * of the week or does not repeat.
+         * <p>Type: TEXT</p>
+         *
+         * {@link Recurrence}
+         */
+        public static final String RECURRENCE = "recurrence";
     }
 
     /**
@@ -294,6 +334,14 @@ public final class ClockContract {
          * <p>Type: INTEGER</p>
          */
         public static final String ALARM_STATE = "alarm_state";
+
+        /**
+         * Alarm time in milliseconds since epoch. This is derived from the
+         * local time columns above and indexed, so the next instance to fire
+         * can be found without parsing every row.
+         * <p>Type: INTEGER (long)</p>
+         */
+        public static final String ALARM_TIME = "alarm_time";
     }
 
     /**
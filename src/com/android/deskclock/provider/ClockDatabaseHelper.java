@@ -24,6 +24,7 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 
@@ -62,6 +63,16 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
      */
     private static final int VERSION_9 = 11;
 
+    /**
+     * Added indexed alarm_time column to instance table
+     */
+    private static final int VERSION_10 = 12;
+
+    /**
+     * Added recurrence column to alarms table
+     */
+    private static final int VERSION_11 = 13;
+
     // This creates a default alarm at 8:30 for every Mon,Tue,Wed,Thu,Fri
 //    private static final String DEFAULT_ALARM_1 = "(8, 30, 31, 0, 0, '', 'content://settings/system/alarm_alert', 0, 0, 0, -1, -1, 2, NULL, 0);";
 
@@ -74,6 +85,7 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
     static final String ALARMS_TABLE_NAME = "alarm_templates";
     static final String INSTANCES_TABLE_NAME = "alarm_instances";
     static final String CITIES_TABLE_NAME = "selected_cities";
+    static final String INSTANCES_ALARM_TIME_INDEX_NAME = "alarm_instances_alarm_time_index";
 
     private static void createAlarmsTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + ALARMS_TABLE_NAME + " (" +
@@ -94,7 +106,8 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
                 ClockContract.AlarmsColumns.PRE_ALARM_RINGTONE + " TEXT, " +
                 ClockContract.AlarmsColumns.PAIN_MODE + " INTEGER NOT NULL DEFAULT 0, " +
                 ClockContract.AlarmsColumns.RANDOM_MODE + " INTEGER NOT NULL DEFAULT 0, " +
-                ClockContract.AlarmsColumns.MEDIA_START + " INTEGER NOT NULL DEFAULT 0);");
+                ClockContract.AlarmsColumns.MEDIA_START + " INTEGER NOT NULL DEFAULT 0, " +
+                ClockContract.AlarmsColumns.RECURRENCE + " TEXT);");
         Log.i("Alarms Table created");
     }
 
@@ -121,10 +134,43 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
                 ClockContract.InstancesColumns.PRE_ALARM_RINGTONE + " TEXT, " +
                 ClockContract.InstancesColumns.PAIN_MODE + " INTEGER NOT NULL DEFAULT 0, " +
                 ClockContract.InstancesColumns.RANDOM_MODE + " INTEGER NOT NULL DEFAULT 0, " +
-                ClockContract.InstancesColumns.MEDIA_START + " INTEGER NOT NULL DEFAULT 0);");
+                ClockContract.InstancesColumns.MEDIA_START + " INTEGER NOT NULL DEFAULT 0, " +
+                ClockContract.InstancesColumns.ALARM_TIME + " INTEGER NOT NULL DEFAULT 0);");
+        createInstanceAlarmTimeIndex(db);
         Log.i("Instance table created");
     }
 
+    private static void createInstanceAlarmTimeIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_ALARM_TIME_INDEX_NAME + " ON " +
+                INSTANCES_TABLE_NAME + " (" + ClockContract.InstancesColumns.ALARM_TIME + ");");
+    }
+
+    /**
+     * Fill in the alarm_time column of existing instances from their local time columns.
+     */
+    private static void backfillInstanceAlarmTimes(SQLiteDatabase db) {
+        String[] columns = {
+                ClockContract.InstancesColumns._ID,
+                ClockContract.InstancesColumns.YEAR,
+                ClockContract.InstancesColumns.MONTH,
+                ClockContract.InstancesColumns.DAY,
+                ClockContract.InstancesColumns.HOUR,
+                ClockContract.InstancesColumns.MINUTES
+        };
+        Cursor cursor = db.query(INSTANCES_TABLE_NAME, columns, null, null, null, null, null);
+        ContentValues values = new ContentValues(1);
+        Calendar calendar = Calendar.getInstance();
+        while (cursor.moveToNext()) {
+            calendar.clear();
+            calendar.set(cursor.getInt(1), cursor.getInt(2), cursor.getInt(3),
+                    cursor.getInt(4), cursor.getInt(5), 0);
+            values.put(ClockContract.InstancesColumns.ALARM_TIME, calendar.getTimeInMillis());
+            db.update(INSTANCES_TABLE_NAME, values,
+                    ClockContract.InstancesColumns._ID + "=" + cursor.getLong(0), null);
+        }
+        cursor.close();
+    }
+
     private static void createCitiesTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + CITIES_TABLE_NAME + " (" +
                 ClockContract.CitiesColumns.CITY_ID + " TEXT PRIMARY KEY," +
@@ -136,8 +182,12 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
 
     private Context mContext;
 
+    // Compiled once, guarded by this
+    private SQLiteStatement mUpdateInstanceState;
+    private SQLiteStatement mUpdateInstanceStateAndTime;
+
     public ClockDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, VERSION_9);
+        super(context, DATABASE_NAME, null, VERSION_11);
         mContext = context;
     }
 
@@ -288,6 +338,21 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
                     + " ADD COLUMN " + ClockContract.InstancesColumns.RANDOM_MODE
                     + " INTEGER NOT NULL DEFAULT 0;");
         }
+
+        // Instance tables recreated above already have the indexed alarm_time column.
+        if (oldVersion > VERSION_6 && oldVersion < VERSION_10) {
+            db.execSQL("ALTER TABLE " + INSTANCES_TABLE_NAME
+                    + " ADD COLUMN " + ClockContract.InstancesColumns.ALARM_TIME
+                    + " INTEGER NOT NULL DEFAULT 0;");
+            backfillInstanceAlarmTimes(db);
+            createInstanceAlarmTimeIndex(db);
+        }
+
+        // Alarm tables recreated above already have the recurrence column.
+        if (oldVersion > VERSION_6 && oldVersion < VERSION_11) {
+            db.execSQL("ALTER TABLE " + ALARMS_TABLE_NAME
+                    + " ADD COLUMN " + ClockContract.AlarmsColumns.RECURRENCE + " TEXT;");
+        }
     }
 
     long fixAlarmInsert(ContentValues values) {
@@ -325,4 +390,65 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
 
         return rowId;
     }
+
+    /**
+     * Write only the state of an instance, with a statement compiled once.
+     *
+     * @return number of updated rows
+     */
+    synchronized int updateInstanceState(long instanceId, int state) {
+        if (mUpdateInstanceState == null) {
+            mUpdateInstanceState = getWritableDatabase().compileStatement(
+                    "UPDATE " + INSTANCES_TABLE_NAME + " SET " +
+                    ClockContract.InstancesColumns.ALARM_STATE + "=? WHERE " +
+                    ClockContract.InstancesColumns._ID + "=?");
+        }
+        mUpdateInstanceState.bindLong(1, state);
+        mUpdateInstanceState.bindLong(2, instanceId);
+        return mUpdateInstanceState.executeUpdateDelete();
+    }
+
+    /**
+     * Write only the state and the time of an instance, with a statement compiled once.
+     *
+     * @return number of updated rows
+     */
+    synchronized int updateInstanceStateAndTime(long instanceId, int state, long alarmTime) {
+        if (mUpdateInstanceStateAndTime == null) {
+            mUpdateInstanceStateAndTime = getWritableDatabase().compileStatement(
+                    "UPDATE " + INSTANCES_TABLE_NAME + " SET " +
+                    ClockContract.InstancesColumns.ALARM_STATE + "=?, " +
+                    ClockContract.InstancesColumns.YEAR + "=?, " +
+                    ClockContract.InstancesColumns.MONTH + "=?, " +
+                    ClockContract.InstancesColumns.DAY + "=?, " +
+                    ClockContract.InstancesColumns.HOUR + "=?, " +
+                    ClockContract.InstancesColumns.MINUTES + "=?, " +
+                    ClockContract.InstancesColumns.ALARM_TIME + "=? WHERE " +
+                    ClockContract.InstancesColumns._ID + "=?");
+        }
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(alarmTime);
+        mUpdateInstanceStateAndTime.bindLong(1, state);
+        mUpdateInstanceStateAndTime.bindLong(2, calendar.get(Calendar.YEAR));
+        mUpdateInstanceStateAndTime.bindLong(3, calendar.get(Calendar.MONTH));
+        mUpdateInstanceStateAndTime.bindLong(4, calendar.get(Calendar.DAY_OF_MONTH));
+        mUpdateInstanceStateAndTime.bindLong(5, calendar.get(Calendar.HOUR_OF_DAY));
+        mUpdateInstanceStateAndTime.bindLong(6, calendar.get(Calendar.MINUTE));
+        mUpdateInstanceStateAndTime.bindLong(7, alarmTime);
+        mUpdateInstanceStateAndTime.bindLong(8, instanceId);
+        return mUpdateInstanceStateAndTime.executeUpdateDelete();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mUpdateInstanceState != null) {
+            mUpdateInstanceState.close();
+            mUpdateInstanceState = null;
+        }
+        if (mUpdateInstanceStateAndTime != null) {
+            mUpdateInstanceStateAndTime.close();
+            mUpdateInstanceStateAndTime = null;
+        }
+        super.close();
+    }
 }
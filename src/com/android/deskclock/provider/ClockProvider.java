@@ -17,20 +17,31 @@
 package com.android.deskclock.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 
 import com.android.deskclock.Log;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 public class ClockProvider extends ContentProvider {
     private ClockDatabaseHelper mOpenHelper;
 
+    // Table uris changed by the batch the calling thread is applying, null outside of batches.
+    private final ThreadLocal<HashSet<Uri>> mBatchChanges = new ThreadLocal<HashSet<Uri>>();
+
     private static final int ALARMS = 1;
     private static final int ALARMS_ID = 2;
     private static final int INSTANCES = 3;
@@ -87,15 +98,16 @@ public class ClockProvider extends ContentProvider {
             case CITIES_ID:
                 qb.setTables(ClockDatabaseHelper.CITIES_TABLE_NAME);
                 qb.appendWhere(ClockContract.CitiesColumns.CITY_ID + "=");
-                qb.appendWhere(uri.getLastPathSegment());
+                qb.appendWhereEscapeString(uri.getLastPathSegment());
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URL " + uri);
         }
 
+        String limit = uri.getQueryParameter(ClockContract.QUERY_PARAMETER_LIMIT);
         SQLiteDatabase db = mOpenHelper.getReadableDatabase();
         Cursor ret = qb.query(db, projectionIn, selection, selectionArgs,
-                              null, null, sort);
+                              null, null, sort, limit);
 
         if (ret == null) {
             Log.e("Alarms.query: failed");
@@ -148,7 +160,8 @@ public class ClockProvider extends ContentProvider {
             case CITIES_ID:
                 alarmId = uri.getLastPathSegment();
                 count = db.update(ClockDatabaseHelper.CITIES_TABLE_NAME, values,
-                        ClockContract.CitiesColumns.CITY_ID + "=" + alarmId,
+                        ClockContract.CitiesColumns.CITY_ID + "="
+                                + DatabaseUtils.sqlEscapeString(alarmId),
                         null);
                 break;
             default: {
@@ -157,7 +170,7 @@ public class ClockProvider extends ContentProvider {
             }
         }
         if (Log.LOGV) Log.v("*** notifyChange() id: " + alarmId + " url " + uri);
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri, uri);
         return count;
     }
 
@@ -173,17 +186,91 @@ public class ClockProvider extends ContentProvider {
                 rowId = db.insert(ClockDatabaseHelper.INSTANCES_TABLE_NAME, null, initialValues);
                 break;
             case CITIES:
-                rowId = db.insert(ClockDatabaseHelper.CITIES_TABLE_NAME, null, initialValues);
-                break;
+                // Selecting a city again replaces its row.
+                db.insertWithOnConflict(ClockDatabaseHelper.CITIES_TABLE_NAME, null,
+                        initialValues, SQLiteDatabase.CONFLICT_REPLACE);
+                final Uri cityUri = ClockContract.CitiesColumns.CONTENT_URI.buildUpon()
+                        .appendEncodedPath(initialValues.getAsString(
+                                ClockContract.CitiesColumns.CITY_ID))
+                        .build();
+                notifyChange(cityUri, uri);
+                return cityUri;
             default:
                 throw new IllegalArgumentException("Cannot insert from URL: " + uri);
         }
 
         Uri uriResult = ContentUris.withAppendedId(ClockContract.AlarmsColumns.CONTENT_URI, rowId);
-        getContext().getContentResolver().notifyChange(uriResult, null);
+        notifyChange(uriResult, uri);
         return uriResult;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!ClockContract.METHOD_UPDATE_INSTANCE_STATE.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        // State changes go through compiled statements instead of building a query for a
+        // ContentValues of every column.
+        final long instanceId = Long.parseLong(arg);
+        final int state = extras.getInt(ClockContract.EXTRA_ALARM_STATE);
+        final int count;
+        if (extras.containsKey(ClockContract.EXTRA_ALARM_TIME)) {
+            count = mOpenHelper.updateInstanceStateAndTime(instanceId, state,
+                    extras.getLong(ClockContract.EXTRA_ALARM_TIME));
+        } else {
+            count = mOpenHelper.updateInstanceState(instanceId, state);
+        }
+
+        final Uri uri = ContentUris.withAppendedId(
+                ClockContract.InstancesColumns.CONTENT_URI, instanceId);
+        if (Log.LOGV) Log.v("*** notifyChange() id: " + instanceId + " url " + uri);
+        notifyChange(uri, uri);
+
+        final Bundle result = new Bundle(1);
+        result.putInt(ClockContract.EXTRA_ROW_COUNT, count);
+        return result;
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        // Insert all rows in a single transaction, and notify the table once.
+        final HashSet<Uri> batchChanges = beginBatch();
+        boolean successful = false;
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues rowValues : values) {
+                insert(uri, rowValues);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+            return values.length;
+        } finally {
+            db.endTransaction();
+            endBatch(batchChanges, successful);
+        }
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Apply all operations in a single transaction, so a batch costs one commit
+        // instead of one per row, and one notification per table instead of one per row.
+        final HashSet<Uri> batchChanges = beginBatch();
+        boolean successful = false;
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            endBatch(batchChanges, successful);
+        }
+    }
+
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
         int count;
@@ -220,7 +307,8 @@ public class ClockProvider extends ContentProvider {
                 count = db.delete(ClockDatabaseHelper.CITIES_TABLE_NAME, where, whereArgs);
                 break;
             case CITIES_ID:
-                primaryKey = uri.getLastPathSegment();
+                // City ids are text
+                primaryKey = DatabaseUtils.sqlEscapeString(uri.getLastPathSegment());
                 if (TextUtils.isEmpty(where)) {
                     where = ClockContract.CitiesColumns.CITY_ID + "=" + primaryKey;
                 } else {
@@ -233,7 +321,71 @@ public class ClockProvider extends ContentProvider {
                 throw new IllegalArgumentException("Cannot delete from URL: " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri, uri);
         return count;
     }
+
+    /**
+     * Notify observers of a change, or only remember which table changed while the calling
+     * thread applies a batch.
+     *
+     * @param changedUri uri to notify
+     * @param requestUri uri of the insert, update or delete, identifying the table
+     */
+    private void notifyChange(Uri changedUri, Uri requestUri) {
+        final HashSet<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(getTableUri(requestUri));
+        } else {
+            getContext().getContentResolver().notifyChange(changedUri, null);
+        }
+    }
+
+    private static Uri getTableUri(Uri uri) {
+        switch (sURLMatcher.match(uri)) {
+            case ALARMS:
+            case ALARMS_ID:
+                return ClockContract.AlarmsColumns.CONTENT_URI;
+            case INSTANCES:
+            case INSTANCES_ID:
+                return ClockContract.InstancesColumns.CONTENT_URI;
+            default:
+                return ClockContract.CitiesColumns.CONTENT_URI;
+        }
+    }
+
+    /**
+     * Start collecting the changes of a batch on the calling thread.
+     *
+     * @return the changes to pass to {@link #endBatch}, null if a batch is already running, in
+     *         which case its changes are notified when the outer batch ends.
+     */
+    private HashSet<Uri> beginBatch() {
+        if (mBatchChanges.get() != null) {
+            return null;
+        }
+        final HashSet<Uri> batchChanges = new HashSet<Uri>();
+        mBatchChanges.set(batchChanges);
+        return batchChanges;
+    }
+
+    /**
+     * Stop collecting the changes of a batch, and notify each changed table once.
+     *
+     * @param batchChanges changes returned by {@link #beginBatch}
+     * @param successful false if the transaction was rolled back and nothing changed
+     */
+    private void endBatch(HashSet<Uri> batchChanges, boolean successful) {
+        if (batchChanges == null) {
+            return;
+        }
+        mBatchChanges.remove();
+        if (!successful) {
+            return;
+        }
+        for (Uri uri : batchChanges) {
+            if (Log.LOGV) Log.v("*** notifyChange() batch url " + uri);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
 }
@@ -23,6 +23,7 @@ import com.android.deskclock.R;
 import java.text.DateFormatSymbols;
 import java.util.Calendar;
 import java.util.HashSet;
+import java.util.TimeZone;
 
 /*
  * Days of week code as a single int.
@@ -90,12 +91,7 @@ public final class DaysOfWeek {
         }
 
         // count selected days
-        int dayCount = 0;
-        int bitSet = mBitSet;
-        while (bitSet > 0) {
-            if ((bitSet & 1) == 1) dayCount++;
-            bitSet >>= 1;
-        }
+        int dayCount = getSetDayCount();
 
         // short or long form?
         DateFormatSymbols dfs = new DateFormatSymbols();
@@ -147,14 +143,104 @@ public final class DaysOfWeek {
 
     public HashSet<Integer> getSetDays() {
         final HashSet<Integer> result = new HashSet<Integer>();
-        for (int bitIndex = 0; bitIndex < DAYS_IN_A_WEEK; bitIndex++) {
-            if (isBitEnabled(bitIndex)) {
-                result.add(convertBitIndexToDay(bitIndex));
-            }
+        for (int bits = mBitSet & ALL_DAYS_SET; bits != 0; bits &= bits - 1) {
+            result.add(convertBitIndexToDay(Integer.numberOfTrailingZeros(bits)));
         }
         return result;
     }
 
+    /**
+     * Fills an array with the set days, without boxing them. Callers iterating often can reuse
+     * the same array.
+     *
+     * @param days array of at least {@link #DAYS_IN_A_WEEK} entries, receives Calendar.SUNDAY,
+     *             Calendar.MONDAY, etc. starting from Monday
+     * @return number of set days written to the array
+     */
+    public int getSetDays(int[] days) {
+        int count = 0;
+        for (int bits = mBitSet & ALL_DAYS_SET; bits != 0; bits &= bits - 1) {
+            days[count++] = convertBitIndexToDay(Integer.numberOfTrailingZeros(bits));
+        }
+        return count;
+    }
+
+    /**
+     * @return number of set days
+     */
+    public int getSetDayCount() {
+        return Integer.bitCount(mBitSet & ALL_DAYS_SET);
+    }
+
+    /**
+     * @param day Calendar.SUNDAY, Calendar.MONDAY, Calendar.TUESDAY, etc.
+     */
+    public boolean isDaySet(int day) {
+        return isBitEnabled(convertDayToBitIndex(day));
+    }
+
+    /**
+     * Returns number of days from a day of the week until the next set day, 0 if the day
+     * itself is set.
+     *
+     * @param day Calendar.SUNDAY, Calendar.MONDAY, Calendar.TUESDAY, etc.
+     * @return 0 to 6, or -1 if no days are set
+     */
+    public int getDaysToNextSetDay(int day) {
+        final int bitSet = mBitSet & ALL_DAYS_SET;
+        if (bitSet == NO_DAYS_SET) {
+            return -1;
+        }
+        // Rotate the week so the day is the lowest bit, the next set day is then the lowest set
+        // bit of the result.
+        final int bitIndex = convertDayToBitIndex(day);
+        final int rotated = (bitSet >>> bitIndex | bitSet << (DAYS_IN_A_WEEK - bitIndex))
+                & ALL_DAYS_SET;
+        return Integer.numberOfTrailingZeros(rotated);
+    }
+
+    /**
+     * Computes the next times an alarm at a time of day fires, on the set days, or once if no
+     * days are set.
+     *
+     * @param fromMillis occurrences are after this time
+     * @param hour hour of day the alarm fires at
+     * @param minutes minutes of the hour the alarm fires at
+     * @param timeZone time zone the time of day is in
+     * @param occurrences receives the occurrences in epoch millis, in chronological order
+     * @return number of occurrences written, the array length or 1 for a non-repeating alarm
+     */
+    public int getNextOccurrences(long fromMillis, int hour, int minutes, TimeZone timeZone,
+            long[] occurrences) {
+        if (occurrences.length == 0) {
+            return 0;
+        }
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(fromMillis);
+        calendar.set(Calendar.HOUR_OF_DAY, hour);
+        calendar.set(Calendar.MINUTE, minutes);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (calendar.getTimeInMillis() <= fromMillis) {
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        if (getSetDayCount() == 0) {
+            occurrences[0] = calendar.getTimeInMillis();
+            return 1;
+        }
+
+        for (int i = 0; i < occurrences.length; i++) {
+            calendar.add(Calendar.DAY_OF_YEAR,
+                    getDaysToNextSetDay(calendar.get(Calendar.DAY_OF_WEEK)));
+            // Setting the time of day again keeps it across daylight saving changes.
+            calendar.set(Calendar.HOUR_OF_DAY, hour);
+            calendar.set(Calendar.MINUTE, minutes);
+            occurrences[i] = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return occurrences.length;
+    }
+
     public boolean isRepeating() {
         return mBitSet != NO_DAYS_SET;
     }
@@ -165,19 +251,7 @@ public final class DaysOfWeek {
      * @param current must be set to today
      */
     public int calculateDaysToNextAlarm(Calendar current) {
-        if (!isRepeating()) {
-            return -1;
-        }
-
-        int dayCount = 0;
-        int currentDayBit = convertDayToBitIndex(current.get(Calendar.DAY_OF_WEEK));
-        for (; dayCount < DAYS_IN_A_WEEK; dayCount++) {
-            int nextAlarmBit = (currentDayBit + dayCount) % DAYS_IN_A_WEEK;
-            if (isBitEnabled(nextAlarmBit)) {
-                break;
-            }
-        }
-        return dayCount;
+        return getDaysToNextSetDay(current.get(Calendar.DAY_OF_WEEK));
     }
 
     public void clearAllDays() {
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.provider;
+
+import android.text.TextUtils;
+
+import com.android.deskclock.Log;
+
+import java.util.Calendar;
+
+/*
+ * Recurrence rules that the weekly days of DaysOfWeek cannot express, encoded as text.
+ * "interval:N:A"     every N days, starting on day A
+ * "rotation:N:M:A"   N days on followed by M days off, the first cycle starting on day A
+ * "monthly:W:D"      the Wth Calendar.DAY_OF_WEEK D of every month, W -1 being the last one
+ * Days are local days since January 1st 1970, see getEpochDay(). Interval and rotation rules
+ * have no occurrence before day A.
+ */
+public final class Recurrence {
+    public static final int TYPE_INTERVAL = 1;
+    public static final int TYPE_ROTATION = 2;
+    public static final int TYPE_MONTHLY = 3;
+
+    // Week of the month for the last day of the week in the month
+    public static final int LAST_WEEK = -1;
+
+    private static final String INTERVAL = "interval";
+    private static final String ROTATION = "rotation";
+    private static final String MONTHLY = "monthly";
+
+    private static final int DAYS_IN_A_WEEK = DaysOfWeek.DAYS_IN_A_WEEK;
+
+    // Days from 0000-03-01 to 1970-01-01
+    private static final int DAYS_0000_TO_1970 = 719468;
+    // Days in 400 years
+    private static final int DAYS_PER_ERA = 146097;
+
+    private final int mType;
+    // Interval, or days on, or week of the month
+    private final int mFirst;
+    // Days off, or day of the week
+    private final int mSecond;
+    // Day the rule starts on, unused for monthly rules
+    private final long mAnchor;
+
+    private Recurrence(int type, int first, int second, long anchor) {
+        mType = type;
+        mFirst = first;
+        mSecond = second;
+        mAnchor = anchor;
+    }
+
+    /**
+     * @param days number of days between occurrences, at least 1
+     * @param start day of the first occurrence
+     */
+    public static Recurrence everyNDays(int days, Calendar start) {
+        if (days < 1) {
+            throw new IllegalArgumentException("Invalid interval: " + days);
+        }
+        return new Recurrence(TYPE_INTERVAL, days, 0, getEpochDay(start));
+    }
+
+    /**
+     * @param onDays consecutive days with an occurrence, at least 1
+     * @param offDays consecutive days without an occurrence following them
+     * @param start first day on
+     */
+    public static Recurrence rotation(int onDays, int offDays, Calendar start) {
+        if (onDays < 1 || offDays < 0) {
+            throw new IllegalArgumentException("Invalid rotation: " + onDays + "/" + offDays);
+        }
+        return new Recurrence(TYPE_ROTATION, onDays, offDays, getEpochDay(start));
+    }
+
+    /**
+     * @param week 1 to 4, or {@link #LAST_WEEK}
+     * @param dayOfWeek Calendar.SUNDAY, Calendar.MONDAY, Calendar.TUESDAY, etc.
+     */
+    public static Recurrence monthly(int week, int dayOfWeek) {
+        if (week != LAST_WEEK && (week < 1 || week > 4)) {
+            throw new IllegalArgumentException("Invalid week: " + week);
+        }
+        if (dayOfWeek < Calendar.SUNDAY || dayOfWeek > Calendar.SATURDAY) {
+            throw new IllegalArgumentException("Invalid day of week: " + dayOfWeek);
+        }
+        return new Recurrence(TYPE_MONTHLY, week, dayOfWeek, 0);
+    }
+
+    /**
+     * @return rule encoded by {@link #encode}, or null if there is none or it is invalid
+     */
+    public static Recurrence decode(String encoded) {
+        if (TextUtils.isEmpty(encoded)) {
+            return null;
+        }
+        final String[] parts = encoded.split(":");
+        try {
+            if (INTERVAL.equals(parts[0]) && parts.length == 3) {
+                final int days = Integer.parseInt(parts[1]);
+                if (days >= 1) {
+                    return new Recurrence(TYPE_INTERVAL, days, 0, Long.parseLong(parts[2]));
+                }
+            } else if (ROTATION.equals(parts[0]) && parts.length == 4) {
+                final int onDays = Integer.parseInt(parts[1]);
+                final int offDays = Integer.parseInt(parts[2]);
+                if (onDays >= 1 && offDays >= 0) {
+                    return new Recurrence(TYPE_ROTATION, onDays, offDays,
+                            Long.parseLong(parts[3]));
+                }
+            } else if (MONTHLY.equals(parts[0]) && parts.length == 3) {
+                return monthly(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            }
+        } catch (IllegalArgumentException e) {
+            // Handled below, NumberFormatException is an IllegalArgumentException.
+        }
+        Log.e("Ignoring invalid recurrence: " + encoded);
+        return null;
+    }
+
+    public String encode() {
+        switch (mType) {
+            case TYPE_INTERVAL:
+                return INTERVAL + ":" + mFirst + ":" + mAnchor;
+            case TYPE_ROTATION:
+                return ROTATION + ":" + mFirst + ":" + mSecond + ":" + mAnchor;
+            default:
+                return MONTHLY + ":" + mFirst + ":" + mSecond;
+        }
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return whether the rule has an occurrence on the day of the calendar
+     */
+    public boolean occursOn(Calendar day) {
+        return getDaysToNextOccurrence(day) == 0;
+    }
+
+    /**
+     * Returns number of days from the day of the calendar until the next occurrence, 0 if there
+     * is one on that day. The result is computed directly, without stepping through days.
+     */
+    public int getDaysToNextOccurrence(Calendar day) {
+        final long epochDay = getEpochDay(day);
+        if (mType != TYPE_MONTHLY && epochDay < mAnchor) {
+            return (int) (mAnchor - epochDay);
+        }
+        switch (mType) {
+            case TYPE_INTERVAL: {
+                return (int) floorMod(mAnchor - epochDay, mFirst);
+            }
+            case TYPE_ROTATION: {
+                final int period = mFirst + mSecond;
+                final int dayInPeriod = (int) floorMod(epochDay - mAnchor, period);
+                return dayInPeriod < mFirst ? 0 : period - dayInPeriod;
+            }
+            default: {
+                final int year = day.get(Calendar.YEAR);
+                final int month = day.get(Calendar.MONTH) + 1;
+                final int dayOfMonth = day.get(Calendar.DAY_OF_MONTH);
+                final int occurrence = getDayOfMonthOfOccurrence(year, month);
+                if (occurrence >= dayOfMonth) {
+                    return occurrence - dayOfMonth;
+                }
+                // Every month has a first to fourth and a last of each day of the week, so the
+                // next one is in the next month.
+                final int daysLeft = getDaysInMonth(year, month) - dayOfMonth;
+                return month == 12
+                        ? daysLeft + getDayOfMonthOfOccurrence(year + 1, 1)
+                        : daysLeft + getDayOfMonthOfOccurrence(year, month + 1);
+            }
+        }
+    }
+
+    // Day of the month, from 1, of the occurrence in a month, from 1
+    private int getDayOfMonthOfOccurrence(int year, int month) {
+        if (mFirst == LAST_WEEK) {
+            final int lastDay = getDaysInMonth(year, month);
+            final int lastDayOfWeek = getDayOfWeek(getEpochDay(year, month, lastDay));
+            return lastDay - (int) floorMod(lastDayOfWeek - mSecond, DAYS_IN_A_WEEK);
+        }
+        final int firstDayOfWeek = getDayOfWeek(getEpochDay(year, month, 1));
+        return 1 + (int) floorMod(mSecond - firstDayOfWeek, DAYS_IN_A_WEEK)
+                + (mFirst - 1) * DAYS_IN_A_WEEK;
+    }
+
+    /**
+     * @return local days since January 1st 1970 of the day of the calendar
+     */
+    public static long getEpochDay(Calendar day) {
+        return getEpochDay(day.get(Calendar.YEAR), day.get(Calendar.MONTH) + 1,
+                day.get(Calendar.DAY_OF_MONTH));
+    }
+
+    // Days since 1970-01-01 of a date in the proleptic Gregorian calendar, month from 1
+    private static long getEpochDay(int year, int month, int day) {
+        // Count from March, so the leap day is the last day of the year.
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - DAYS_0000_TO_1970;
+    }
+
+    // Calendar.DAY_OF_WEEK of a day since 1970-01-01, which was a Thursday
+    private static int getDayOfWeek(long epochDay) {
+        return (int) floorMod(epochDay + Calendar.THURSDAY - 1, DAYS_IN_A_WEEK) + 1;
+    }
+
+    private static int getDaysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                final boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static long floorMod(long x, long y) {
+        final long mod = x % y;
+        return mod < 0 ? mod + y : mod;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Recurrence)) return false;
+        final Recurrence other = (Recurrence) o;
+        return mType == other.mType && mFirst == other.mFirst && mSecond == other.mSecond
+                && mAnchor == other.mAnchor;
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Recurrence{" + encode() + '}';
+    }
+}
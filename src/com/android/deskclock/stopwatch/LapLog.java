@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.stopwatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.android.deskclock.AsyncHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Process wide, append-only log of the completed laps of the stopwatch. There is no limit on
+ * the number of laps.
+ *
+ * Each lap is stored as the total stopwatch time at the moment it was completed, in a
+ * primitive array that grows by doubling, so recording a lap costs O(1). The lap statistics
+ * are updated as every lap is added instead of being computed from all laps. The log is
+ * persisted to a binary file that new laps are appended to in the background.
+ *
+ * Laps used to be stored as one "sw_lap_time_N" preference per lap, which are migrated the
+ * first time the log is loaded.
+ */
+public final class LapLog {
+    private static final String TAG = "LapLog";
+
+    private static final String FILE_NAME = "laps.dat";
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_SIZE = 8;
+
+    // Legacy preference keys, only used for migration.
+    private static final String PREF_LAP_NUM = "sw_lap_num";
+    private static final String PREF_LAP_TIME = "sw_lap_time_";
+
+    private static LapLog sInstance;
+
+    private final File mFile;
+
+    // Guarded by this
+    private long[] mTotals = new long[16];
+    private int mCount;
+    private int mWrittenCount;
+    private boolean mWritePending;
+    private boolean mRewritePending;
+
+    // Running statistics of the lap times, guarded by this
+    private long mMinLap;
+    private long mMaxLap;
+    private int mBestLap;
+    private int mWorstLap;
+    private double mMean;
+    private double mSquaredDeviations;
+
+    public static synchronized LapLog getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new LapLog(appContext, new File(appContext.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    // Visible for tests
+    LapLog(Context context, File file) {
+        mFile = file;
+        if (file.exists()) {
+            load();
+        } else {
+            migrateFromSharedPrefs(context);
+        }
+    }
+
+    /**
+     * @return number of completed laps
+     */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * @return total stopwatch time when the lap was completed, lap 0 is the first lap
+     */
+    public synchronized long getTotalTime(int lap) {
+        checkLap(lap);
+        return mTotals[lap];
+    }
+
+    /**
+     * @return length of a lap, lap 0 is the first lap
+     */
+    public synchronized long getLapTime(int lap) {
+        checkLap(lap);
+        return lap == 0 ? mTotals[0] : mTotals[lap] - mTotals[lap - 1];
+    }
+
+    /**
+     * @return total stopwatch time when the last lap was completed, or 0 without laps
+     */
+    public synchronized long getLastTotalTime() {
+        return mCount == 0 ? 0 : mTotals[mCount - 1];
+    }
+
+    /**
+     * Record a completed lap.
+     *
+     * @param totalTime total stopwatch time at the end of the lap
+     */
+    public synchronized void addLap(long totalTime) {
+        append(totalTime);
+        scheduleWrite();
+    }
+
+    /**
+     * Remove every lap, used when the stopwatch is reset.
+     */
+    public synchronized void clear() {
+        if (mCount == 0 && mWrittenCount == 0) {
+            return;
+        }
+        mCount = 0;
+        mWrittenCount = 0;
+        resetStatistics();
+        mRewritePending = true;
+        scheduleWrite();
+    }
+
+    public synchronized long getMinLapTime() {
+        return mMinLap;
+    }
+
+    public synchronized long getMaxLapTime() {
+        return mMaxLap;
+    }
+
+    /**
+     * @return index of the shortest lap, or -1 without laps
+     */
+    public synchronized int getBestLap() {
+        return mBestLap;
+    }
+
+    /**
+     * @return index of the longest lap, or -1 without laps
+     */
+    public synchronized int getWorstLap() {
+        return mWorstLap;
+    }
+
+    public synchronized long getMeanLapTime() {
+        return Math.round(mMean);
+    }
+
+    /**
+     * @return standard deviation of the lap times
+     */
+    public synchronized long getLapTimeDeviation() {
+        return mCount == 0 ? 0 : Math.round(Math.sqrt(mSquaredDeviations / mCount));
+    }
+
+    private void checkLap(int lap) {
+        if (lap < 0 || lap >= mCount) {
+            throw new IndexOutOfBoundsException("lap " + lap + " of " + mCount);
+        }
+    }
+
+    private void append(long totalTime) {
+        if (mCount == mTotals.length) {
+            mTotals = Arrays.copyOf(mTotals, mCount * 2);
+        }
+        final long lapTime = mCount == 0 ? totalTime : totalTime - mTotals[mCount - 1];
+        final int lap = mCount;
+        mTotals[mCount++] = totalTime;
+
+        if (lap == 0 || lapTime < mMinLap) {
+            mMinLap = lapTime;
+            mBestLap = lap;
+        }
+        if (lap == 0 || lapTime > mMaxLap) {
+            mMaxLap = lapTime;
+            mWorstLap = lap;
+        }
+        // Welford's method, which stays accurate over many laps
+        final double delta = lapTime - mMean;
+        mMean += delta / mCount;
+        mSquaredDeviations += delta * (lapTime - mMean);
+    }
+
+    private void resetStatistics() {
+        mMinLap = mMaxLap = 0;
+        mBestLap = mWorstLap = -1;
+        mMean = mSquaredDeviations = 0;
+    }
+
+    private void scheduleWrite() {
+        if (mWritePending) {
+            // The pending write will pick up this change too.
+            return;
+        }
+        mWritePending = true;
+        AsyncHandler.post(AsyncHandler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    /**
+     * Append the laps added since the last write to the file, or rewrite the whole file after
+     * the log was cleared.
+     */
+    // Visible for tests
+    void write() {
+        final boolean rewrite;
+        final long[] laps;
+        synchronized (this) {
+            mWritePending = false;
+            rewrite = mRewritePending || !mFile.exists();
+            mRewritePending = false;
+            final int start = rewrite ? 0 : mWrittenCount;
+            laps = Arrays.copyOfRange(mTotals, start, mCount);
+            mWrittenCount = mCount;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mFile, !rewrite)));
+            if (rewrite) {
+                out.writeInt(FILE_VERSION);
+            }
+            for (long lap : laps) {
+                out.writeLong(lap);
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write laps", e);
+            synchronized (this) {
+                // Start over with a complete file next time.
+                mRewritePending = true;
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private void load() {
+        resetStatistics();
+        if (mFile.length() < HEADER_SIZE) {
+            // Created but never written
+            mRewritePending = true;
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            final int version = in.readInt();
+            if (version != FILE_VERSION) {
+                Log.w(TAG, "Ignoring laps file with unknown version " + version);
+                mRewritePending = true;
+                return;
+            }
+            // A lap that was only partly written when the process died is dropped. Its bytes
+            // stay in the file, so the next write must not append after them.
+            final long records = mFile.length() - HEADER_SIZE;
+            final long count = records / RECORD_SIZE;
+            for (long i = 0; i < count; i++) {
+                append(in.readLong());
+            }
+            mWrittenCount = mCount;
+            if (records % RECORD_SIZE != 0) {
+                mRewritePending = true;
+            }
+        } catch (FileNotFoundException e) {
+            // No laps yet
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read laps", e);
+            mRewritePending = true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Read laps stored with the legacy per lap preferences, then remove those keys. The last
+     * of those preferences was the lap in progress, which is not a completed lap.
+     */
+    private void migrateFromSharedPrefs(Context context) {
+        resetStatistics();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final int numLaps = prefs.getInt(PREF_LAP_NUM, 0);
+        final SharedPreferences.Editor editor = prefs.edit();
+        for (int i = 1; i <= numLaps; i++) {
+            final String key = PREF_LAP_TIME + Integer.toString(i);
+            if (i < numLaps) {
+                append(prefs.getLong(key, 0));
+            }
+            editor.remove(key);
+        }
+        editor.remove(PREF_LAP_NUM);
+
+        // Write the log before dropping the legacy keys, so laps are never lost.
+        write();
+        editor.apply();
+        if (numLaps > 0) {
+            Log.i(TAG, "Migrated " + mCount + " laps from shared preferences");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.stopwatch;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+
+/**
+ * Formats lap times into reusable char arrays, producing the same text as
+ * {@link Stopwatches#formatTimeText} without allocating. The laps list updates the lap in
+ * progress on every stopwatch tick, where String.format would create garbage each frame.
+ *
+ * The formats of R.array.stopwatch_format_set are parsed once. They may use the arguments
+ * %1$d hours, %2$d minutes, %3$d seconds, %4$d hundredths and %5$c the decimal separator,
+ * each with an optional zero flag and width, in any order.
+ */
+class LapTimeFormatter {
+    private static final int ARG_HOURS = 1;
+    private static final int ARG_MINUTES = 2;
+    private static final int ARG_SECONDS = 3;
+    private static final int ARG_HUNDREDTHS = 4;
+    private static final int ARG_DECIMAL_SEPARATOR = 5;
+
+    // Digits of the largest number of hours a long of milliseconds holds
+    private static final int MAX_DIGITS = 16;
+
+    // Each format is a sequence of parts: a literal character when the argument is 0,
+    // otherwise an argument with its width and padding.
+    private final char[][] mLiterals;
+    private final byte[][] mArgs;
+    private final byte[][] mWidths;
+    private final boolean[][] mZeroPadded;
+    private final int mMaxLength;
+
+    // The ten digits of the default locale, indexed by value
+    private final char[] mDigits;
+    private final char mDecimalSeparator;
+
+    /**
+     * @param formats format strings, as used with {@link Stopwatches#formatTimeText}
+     * @throws IllegalArgumentException if a format uses an unsupported conversion
+     */
+    LapTimeFormatter(String[] formats) {
+        final int count = formats.length;
+        mLiterals = new char[count][];
+        mArgs = new byte[count][];
+        mWidths = new byte[count][];
+        mZeroPadded = new boolean[count][];
+        int maxLength = 0;
+        for (int i = 0; i < count; i++) {
+            maxLength = Math.max(maxLength, compile(i, formats[i]));
+        }
+        mMaxLength = maxLength;
+
+        final String allDigits = String.format("%010d", 123456789);
+        mDigits = allDigits.length() == 10 ? allDigits.toCharArray()
+                : "0123456789".toCharArray();
+        mDecimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+    }
+
+    /**
+     * @return a buffer large enough for any time in any of the formats
+     */
+    char[] newBuffer() {
+        return new char[mMaxLength];
+    }
+
+    /**
+     * Format a time into a buffer from {@link #newBuffer}.
+     *
+     * @param time in milliseconds, negative times are shown as zero
+     * @param format index of the format to use
+     * @param buffer to write the text into, from the start
+     * @return the length of the text
+     */
+    int format(long time, int format, char[] buffer) {
+        if (time < 0) {
+            time = 0;
+        }
+        long seconds = time / 1000;
+        final long hundredths = (time - seconds * 1000) / 10;
+        long minutes = seconds / 60;
+        seconds = seconds - minutes * 60;
+        final long hours = minutes / 60;
+        minutes = minutes - hours * 60;
+
+        final char[] literals = mLiterals[format];
+        final byte[] args = mArgs[format];
+        final byte[] widths = mWidths[format];
+        final boolean[] zeroPadded = mZeroPadded[format];
+        int length = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case 0:
+                    buffer[length++] = literals[i];
+                    break;
+                case ARG_DECIMAL_SEPARATOR:
+                    length = pad(buffer, length, 1, widths[i], ' ');
+                    buffer[length++] = mDecimalSeparator;
+                    break;
+                default:
+                    final long value = args[i] == ARG_HOURS ? hours
+                            : args[i] == ARG_MINUTES ? minutes
+                            : args[i] == ARG_SECONDS ? seconds : hundredths;
+                    length = appendNumber(buffer, length, value, widths[i], zeroPadded[i]);
+                    break;
+            }
+        }
+        return length;
+    }
+
+    private int appendNumber(char[] buffer, int start, long value, int width,
+            boolean zeroPadded) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        int length = pad(buffer, start, digits, width, zeroPadded ? mDigits[0] : ' ');
+        length += digits;
+        for (int i = length - 1; i >= length - digits; i--) {
+            buffer[i] = mDigits[(int) (value % 10)];
+            value /= 10;
+        }
+        return length;
+    }
+
+    private static int pad(char[] buffer, int start, int length, int width, char padding) {
+        while (length < width) {
+            buffer[start++] = padding;
+            length++;
+        }
+        return start;
+    }
+
+    /**
+     * Parse a format into parts.
+     *
+     * @return the longest text the format can produce
+     */
+    private int compile(int index, String format) {
+        final int length = format.length();
+        final char[] literals = new char[length];
+        final byte[] args = new byte[length];
+        final byte[] widths = new byte[length];
+        final boolean[] zeroPadded = new boolean[length];
+        int parts = 0;
+        int maxLength = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = format.charAt(i++);
+            if (c != '%') {
+                literals[parts++] = c;
+                maxLength++;
+                continue;
+            }
+            if (i < length && format.charAt(i) == '%') {
+                literals[parts++] = '%';
+                maxLength++;
+                i++;
+                continue;
+            }
+
+            // %<argument>$[0][width]<conversion>
+            final int dollar = format.indexOf('$', i);
+            if (dollar < 0) {
+                throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+            final int arg = Integer.parseInt(format.substring(i, dollar));
+            i = dollar + 1;
+            boolean zero = false;
+            if (i < length && format.charAt(i) == '0') {
+                zero = true;
+                i++;
+            }
+            int width = 0;
+            while (i < length && Character.isDigit(format.charAt(i))) {
+                width = width * 10 + format.charAt(i++) - '0';
+            }
+            final char conversion = i < length ? format.charAt(i++) : 0;
+            final boolean valid = conversion == 'c' ? arg == ARG_DECIMAL_SEPARATOR
+                    : conversion == 'd' && arg >= ARG_HOURS && arg <= ARG_HUNDREDTHS;
+            if (!valid) {
+                throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+            args[parts] = (byte) arg;
+            widths[parts] = (byte) width;
+            zeroPadded[parts] = zero;
+            parts++;
+            maxLength += Math.max(width, conversion == 'c' ? 1 : MAX_DIGITS);
+        }
+
+        mLiterals[index] = Arrays.copyOf(literals, parts);
+        mArgs[index] = Arrays.copyOf(args, parts);
+        mWidths[index] = Arrays.copyOf(widths, parts);
+        mZeroPadded[index] = Arrays.copyOf(zeroPadded, parts);
+        return maxLength;
+    }
+}
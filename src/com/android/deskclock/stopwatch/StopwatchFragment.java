@@ -35,8 +35,10 @@ import com.android.deskclock.CircleButtonsLayout;
 import com.android.deskclock.CircleTimerView;
 import com.android.deskclock.DeskClock;
 import com.android.deskclock.DeskClockFragment;
+import com.android.deskclock.FrameStatsOverlay;
 import com.android.deskclock.Log;
 import com.android.deskclock.R;
+import com.android.deskclock.TickScheduler;
 import com.android.deskclock.Utils;
 import com.android.deskclock.timer.CountingTimerView;
 
@@ -60,6 +62,8 @@ public class StopwatchFragment extends DeskClockFragment
     private ListPopupWindow mSharePopup;
     private WakeLock mWakeLock;
     private CircleButtonsLayout mCircleLayout;
+    // Only set while debugging frame times
+    private FrameStatsOverlay mFrameStats;
 
     // Animation constants and objects
     private LayoutTransition mLayoutTransition;
@@ -72,31 +76,15 @@ public class StopwatchFragment extends DeskClockFragment
     long mStartTime = 0;
     long mAccumulatedTime = 0;
 
-    // Lap information
-    class Lap {
-
-        Lap (long time, long total) {
-            mLapTime = time;
-            mTotalTime = total;
-        }
-        public long mLapTime;
-        public long mTotalTime;
-
-        public void updateView() {
-            View lapInfo = mLapsList.findViewWithTag(this);
-            if (lapInfo != null) {
-                mLapsAdapter.setTimeText(lapInfo, this);
-            }
-        }
-    }
-
-    // Adapter for the ListView that shows the lap times.
+    // Adapter for the ListView that shows the lap times. The first row is the lap in progress,
+    // followed by the completed laps, newest first. Rows are read from the lap log as they are
+    // shown, so the adapter keeps nothing per lap.
     class LapsListAdapter extends BaseAdapter {
 
-        ArrayList<Lap> mLaps = new ArrayList<Lap>();
+        private final LapLog mLapLog;
         private final LayoutInflater mInflater;
         private final int mBackgroundColor;
-        private final String[] mFormats;
+        private final LapTimeFormatter mFormatter;
         private final String[] mLapFormatSet;
         // Size of this array must match the size of formats
         private final long[] mThresholds = {
@@ -109,11 +97,15 @@ public class StopwatchFragment extends DeskClockFragment
         private int mLapIndex = 0;
         private int mTotalIndex = 0;
         private String mLapFormat;
+        // Total time shown in the row of the lap in progress
+        private long mCurrentTotal;
 
         public LapsListAdapter(Context context) {
+            mLapLog = LapLog.getInstance(context);
             mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             mBackgroundColor = getResources().getColor(R.color.blackish);
-            mFormats = context.getResources().getStringArray(R.array.stopwatch_format_set);
+            mFormatter = new LapTimeFormatter(
+                    context.getResources().getStringArray(R.array.stopwatch_format_set));
             mLapFormatSet = context.getResources().getStringArray(R.array.sw_lap_number_set);
             updateLapFormat();
         }
@@ -125,48 +117,90 @@ public class StopwatchFragment extends DeskClockFragment
 
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
-            if (mLaps.size() == 0 || position >= mLaps.size()) {
+            if (position >= getCount()) {
                 return null;
             }
-            Lap lap = getItem(position);
             View lapInfo;
             if (convertView != null) {
                 lapInfo = convertView;
             } else {
                 lapInfo = mInflater.inflate(R.layout.lap_view, parent, false);
                 lapInfo.setBackgroundColor(mBackgroundColor);
+                lapInfo.setTag(new LapViewHolder(lapInfo, mFormatter));
             }
-            lapInfo.setTag(lap);
-            TextView count = (TextView)lapInfo.findViewById(R.id.lap_number);
-            count.setText(String.format(mLapFormat, mLaps.size() - position).toUpperCase());
-            setTimeText(lapInfo, lap);
+            LapViewHolder holder = (LapViewHolder) lapInfo.getTag();
+            holder.mLapNumber.setText(
+                    String.format(mLapFormat, getCount() - position).toUpperCase());
+            setTimeText(holder, getLapTime(position), getTotalTime(position), false);
 
             return lapInfo;
         }
 
-        protected void setTimeText(View lapInfo, Lap lap) {
-            TextView lapTime = (TextView)lapInfo.findViewById(R.id.lap_time);
-            TextView totalTime = (TextView)lapInfo.findViewById(R.id.lap_total);
-            lapTime.setText(Stopwatches.formatTimeText(lap.mLapTime, mFormats[mLapIndex]));
-            totalTime.setText(Stopwatches.formatTimeText(lap.mTotalTime, mFormats[mTotalIndex]));
+        /**
+         * Print the lap and total time of a row into the row's own buffers.
+         *
+         * @param ticking true when only the digits of the row change, as they do for the lap
+         *                in progress on every tick
+         */
+        private void setTimeText(LapViewHolder holder, long lap, long total, boolean ticking) {
+            int length = mFormatter.format(lap, mLapIndex, holder.mLapChars);
+            setTimeChars(holder.mLapTime, holder.mLapChars, length, ticking);
+            length = mFormatter.format(total, mTotalIndex, holder.mTotalChars);
+            setTimeChars(holder.mTotalTime, holder.mTotalChars, length, ticking);
+        }
+
+        /**
+         * TextView keeps the char array rather than copying it, so each view has its own. A view
+         * sized to its content lays out the whole list again for every new text. While ticking,
+         * the width of the view is held, so that a new text only redraws it. The formats keep
+         * the width of the text constant until the next format change, which binds every row
+         * again and releases the width.
+         */
+        private void setTimeChars(TextView view, char[] chars, int length, boolean ticking) {
+            if (ticking) {
+                final int width = view.getWidth();
+                if (width > 0 && view.getMaxWidth() != width) {
+                    view.setMinWidth(width);
+                    view.setMaxWidth(width);
+                }
+            } else if (view.getMaxWidth() != Integer.MAX_VALUE) {
+                view.setMinWidth(0);
+                view.setMaxWidth(Integer.MAX_VALUE);
+            }
+            view.setText(chars, 0, length);
         }
 
         @Override
         public int getCount() {
-            return mLaps.size();
+            // Once there is a completed lap, there is also a lap in progress
+            int laps = mLapLog.size();
+            return laps == 0 ? 0 : laps + 1;
         }
 
         @Override
-        public Lap getItem(int position) {
-            if (mLaps.size() == 0 || position >= mLaps.size()) {
+        public Long getItem(int position) {
+            if (position >= getCount()) {
                 return null;
             }
-            return mLaps.get(position);
+            return getTotalTime(position);
+        }
+
+        public long getLapTime(int position) {
+            if (position == 0) {
+                return mCurrentTotal - mLapLog.getLastTotalTime();
+            }
+            return mLapLog.getLapTime(mLapLog.size() - position);
+        }
+
+        public long getTotalTime(int position) {
+            if (position == 0) {
+                return mCurrentTotal;
+            }
+            return mLapLog.getTotalTime(mLapLog.size() - position);
         }
 
         private void updateLapFormat() {
-            // Note Stopwatches.MAX_LAPS < 100
-            mLapFormat = mLapFormatSet[mLaps.size() < 10 ? 0 : 1];
+            mLapFormat = mLapFormatSet[getCount() < 10 ? 0 : 1];
         }
 
         private void resetTimeFormats() {
@@ -179,68 +213,101 @@ public class StopwatchFragment extends DeskClockFragment
          * print. As the total or lap time exceed the limit of that format, this code updates
          * the format used for the total and/or lap times.
          *
-         * @param lap to measure
+         * @param lapTime to measure
+         * @param totalTime to measure
          * @return true if this lap exceeded either threshold and a format was updated.
          */
-        public boolean updateTimeFormats(Lap lap) {
+        public boolean updateTimeFormats(long lapTime, long totalTime) {
             boolean formatChanged = false;
-            while (mLapIndex + 1 < mThresholds.length && lap.mLapTime >= mThresholds[mLapIndex]) {
+            while (mLapIndex + 1 < mThresholds.length && lapTime >= mThresholds[mLapIndex]) {
                 mLapIndex++;
                 formatChanged = true;
             }
-            while (mTotalIndex + 1 < mThresholds.length && 
-                lap.mTotalTime >= mThresholds[mTotalIndex]) {
+            while (mTotalIndex + 1 < mThresholds.length &&
+                totalTime >= mThresholds[mTotalIndex]) {
                 mTotalIndex++;
                 formatChanged = true;
             }
             return formatChanged;
         }
 
-        public void addLap(Lap l) {
-            mLaps.add(0, l);
+        /**
+         * Complete the lap in progress and start a new one.
+         *
+         * @param totalTime total time at the end of the lap
+         * @return the time of the completed lap
+         */
+        public long addLap(long totalTime) {
+            final long lapTime = totalTime - mLapLog.getLastTotalTime();
+            mLapLog.addLap(totalTime);
+            mCurrentTotal = totalTime;
+            updateLapFormat();
+            updateTimeFormats(lapTime, totalTime);
             // for efficiency caller also calls notifyDataSetChanged()
+            return lapTime;
+        }
+
+        /**
+         * Update the total time of the lap in progress.
+         *
+         * @return true if the lap caused a format change, and every row needs a fresh print
+         */
+        public boolean setCurrentTotal(long totalTime) {
+            mCurrentTotal = totalTime;
+            return updateTimeFormats(totalTime - mLapLog.getLastTotalTime(), totalTime);
+        }
+
+        /**
+         * Print the row of the lap in progress, if it is shown.
+         */
+        public void updateCurrentLapView() {
+            if (mLapsList.getFirstVisiblePosition() == 0) {
+                View lapInfo = mLapsList.getChildAt(0);
+                if (lapInfo != null) {
+                    setTimeText((LapViewHolder) lapInfo.getTag(), getLapTime(0), mCurrentTotal,
+                            true);
+                }
+            }
         }
 
         public void clearLaps() {
-            mLaps.clear();
+            mLapLog.clear();
+            mCurrentTotal = 0;
             updateLapFormat();
             resetTimeFormats();
             notifyDataSetChanged();
         }
 
-        // Helper function used to get the lap data to be stored in the activity's bundle
-        public long [] getLapTimes() {
-            int size = mLaps.size();
-            if (size == 0) {
-                return null;
-            }
-            long [] laps = new long[size];
-            for (int i = 0; i < size; i ++) {
-                laps[i] = mLaps.get(i).mTotalTime;
+        /**
+         * Pick up laps added or removed outside of this fragment, like laps taken from the
+         * notification. The formats come from the lap statistics, without reading every lap.
+         */
+        public void reloadLaps(long currentTotal) {
+            mCurrentTotal = currentTotal;
+            updateLapFormat();
+            resetTimeFormats();
+            updateTimeFormats(mLapLog.getMaxLapTime(), mLapLog.getLastTotalTime());
+            if (getCount() > 0) {
+                updateTimeFormats(getLapTime(0), currentTotal);
             }
-            return laps;
+            notifyDataSetChanged();
         }
+    }
 
-        // Helper function to restore adapter's data from the activity's bundle
-        public void setLapTimes(long [] laps) {
-            if (laps == null || laps.length == 0) {
-                return;
-            }
-
-            int size = laps.length;
-            mLaps.clear();
-            for (long lap : laps) {
-                mLaps.add(new Lap(lap, 0));
-            }
-            long totalTime = 0;
-            for (int i = size -1; i >= 0; i --) {
-                totalTime += laps[i];
-                mLaps.get(i).mTotalTime = totalTime;
-                updateTimeFormats(mLaps.get(i));
-            }
-            updateLapFormat();
-            showLaps();
-            notifyDataSetChanged();
+    // Views and text buffers of a row of the laps list
+    static class LapViewHolder {
+        final TextView mLapNumber;
+        final TextView mLapTime;
+        final TextView mTotalTime;
+        final char[] mLapChars;
+        final char[] mTotalChars;
+
+        LapViewHolder(View lapInfo, LapTimeFormatter formatter) {
+            mLapNumber = (TextView) lapInfo.findViewById(R.id.lap_number);
+            mLapTime = (TextView) lapInfo.findViewById(R.id.lap_time);
+            mTotalTime = (TextView) lapInfo.findViewById(R.id.lap_total);
+            mLapChars = formatter.newBuffer();
+            mTotalChars = formatter.newBuffer();
         }
     }
 
@@ -473,6 +540,10 @@ public class StopwatchFragment extends DeskClockFragment
             mTimeText.blinkTimeStr(true);
         }
         showLaps();
+        if (FrameStatsOverlay.isEnabled()) {
+            mFrameStats = new FrameStatsOverlay(getActivity());
+            mFrameStats.show();
+        }
         ((DeskClock)getActivity()).registerPageChangedListener(this);
         // View was hidden in onPause, make sure it is visible now.
         View v = getView();
@@ -506,6 +577,10 @@ public class StopwatchFragment extends DeskClockFragment
             mSharePopup.dismiss();
             mSharePopup = null;
         }
+        if (mFrameStats != null) {
+            mFrameStats.hide();
+            mFrameStats = null;
+        }
         ((DeskClock)getActivity()).unregisterPageChangedListener(this);
         releaseWakeLock();
         super.onPause();
@@ -665,30 +740,12 @@ public class StopwatchFragment extends DeskClockFragment
         intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
         intent.putExtra(Intent.EXTRA_SUBJECT,
                 Stopwatches.getShareTitle(getActivity().getApplicationContext()));
-        intent.putExtra(Intent.EXTRA_TEXT, Stopwatches.buildShareResults(
-                getActivity().getApplicationContext(), mTimeText.getTimeString(),
-                getLapShareTimes(mLapsAdapter.getLapTimes())));
+        Context context = getActivity().getApplicationContext();
+        intent.putExtra(Intent.EXTRA_TEXT, Stopwatches.buildShareResults(context,
+                mTimeText.getTimeString(), mAccumulatedTime, LapLog.getInstance(context)));
         return intent;
     }
 
-    /** Turn laps as they would be saved in prefs into format for sharing. **/
-    private long[] getLapShareTimes(long[] input) {
-        if (input == null) {
-            return null;
-        }
-
-        int numLaps = input.length;
-        long[] output = new long[numLaps];
-        long prevLapElapsedTime = 0;
-        for (int lap_i = numLaps - 1; lap_i >= 0; lap_i--) {
-            long lap = input[lap_i];
-            Log.v("lap "+lap_i+": "+lap);
-            output[lap_i] = lap - prevLapElapsedTime;
-            prevLapElapsedTime = lap;
-        }
-        return output;
-    }
-
     /***
      * Update the buttons on the stopwatch according to the watch's state
      */
@@ -701,8 +758,8 @@ public class StopwatchFragment extends DeskClockFragment
                 showShareButton(false);
                 break;
             case Stopwatches.STOPWATCH_RUNNING:
-                setButton(mLeftButton, R.string.sw_lap_button, R.drawable.ic_lap,
-                        !reachedMaxLaps(), View.VISIBLE);
+                setButton(mLeftButton, R.string.sw_lap_button, R.drawable.ic_lap, true,
+                        View.VISIBLE);
                 setStartStopText(mCircleLayout, mCenterButton, R.string.sw_stop_button);
                 showShareButton(false);
                 break;
@@ -716,9 +773,6 @@ public class StopwatchFragment extends DeskClockFragment
                 break;
         }
     }
-    private boolean reachedMaxLaps() {
-        return mLapsAdapter.getCount() >= Stopwatches.MAX_LAPS;
-    }
 
     /***
      * Set a single button with the string and states provided.
@@ -783,50 +837,33 @@ public class StopwatchFragment extends DeskClockFragment
     private void addLapTime(long time) {
         // The total elapsed time
         final long curTime = time - mStartTime + mAccumulatedTime;
-        int size = mLapsAdapter.getCount();
-        if (size == 0) {
-            // Create and add the first lap
-            Lap firstLap = new Lap(curTime, curTime);
-            mLapsAdapter.addLap(firstLap);
-            // Create the first active lap
-            mLapsAdapter.addLap(new Lap(0, curTime));
-            // Update the interval on the clock and check the lap and total time formatting
+        final boolean firstLap = mLapsAdapter.getCount() == 0;
+        final long lapTime = mLapsAdapter.addLap(curTime);
+        if (firstLap) {
+            // Update the interval on the clock
             mTime.setIntervalTime(curTime);
-            mLapsAdapter.updateTimeFormats(firstLap);
         } else {
-            // Finish active lap
-            final long lapTime = curTime - mLapsAdapter.getItem(1).mTotalTime;
-            mLapsAdapter.getItem(0).mLapTime = lapTime;
-            mLapsAdapter.getItem(0).mTotalTime = curTime;
-            // Create a new active lap
-            mLapsAdapter.addLap(new Lap(0, curTime));
-            // Update marker on clock and check that formatting for the lap number
+            // Update marker on clock
             mTime.setMarkerTime(lapTime);
-            mLapsAdapter.updateLapFormat();
         }
         // Repaint the laps list
         mLapsAdapter.notifyDataSetChanged();
 
         // Start lap animation starting from the second lap
         mTime.stopIntervalAnimation();
-        if (!reachedMaxLaps()) {
-            mTime.startIntervalAnimation();
-        }
+        mTime.startIntervalAnimation();
     }
 
     private void updateCurrentLap(long totalTime) {
-        // There are either 0, 2 or more Laps in the list See {@link #addLapTime}
+        // There are either 0, 2 or more rows in the list See {@link #addLapTime}
         if (mLapsAdapter.getCount() > 0) {
-            Lap curLap = mLapsAdapter.getItem(0);
-            curLap.mLapTime = totalTime - mLapsAdapter.getItem(1).mTotalTime;
-            curLap.mTotalTime = totalTime;
             // If this lap has caused a change in the format for total and/or lap time, all of
             // the rows need a fresh print. The simplest way to refresh all of the rows is
             // calling notifyDataSetChanged.
-            if (mLapsAdapter.updateTimeFormats(curLap)) {
+            if (mLapsAdapter.setCurrentTotal(totalTime)) {
                 mLapsAdapter.notifyDataSetChanged();
             } else {
-                curLap.updateView();
+                mLapsAdapter.updateCurrentLapView();
             }
         }
     }
@@ -877,25 +914,31 @@ public class StopwatchFragment extends DeskClockFragment
     }
 
     private void startUpdateThread() {
-        mTime.post(mTimeUpdateThread);
+        if (mFrameStats != null) {
+            mFrameStats.reset();
+        }
+        TickScheduler.getInstance().subscribe(mTimeUpdateThread);
     }
 
     private void stopUpdateThread() {
-        mTime.removeCallbacks(mTimeUpdateThread);
+        TickScheduler.getInstance().unsubscribe(mTimeUpdateThread);
     }
 
-    Runnable mTimeUpdateThread = new Runnable() {
+    private final TickScheduler.Listener mTimeUpdateThread = new TickScheduler.Listener() {
         @Override
-        public void run() {
-            long curTime = Utils.getTimeNow();
-            long totalTime = mAccumulatedTime + (curTime - mStartTime);
+        public long onTick(long now) {
+            if (mFrameStats != null) {
+                mFrameStats.onFrame();
+            }
+            long totalTime = mAccumulatedTime + (now - mStartTime);
             if (mTime != null) {
                 mTimeText.setTime(totalTime, true, true);
             }
             if (mLapsAdapter.getCount() > 0) {
                 updateCurrentLap(totalTime);
             }
-            mTime.postDelayed(mTimeUpdateThread, 10);
+            return TickScheduler.nextBoundary(now, mStartTime,
+                    TickScheduler.RESOLUTION_HUNDREDTHS);
         }
     };
 
@@ -904,16 +947,6 @@ public class StopwatchFragment extends DeskClockFragment
         editor.putLong (Stopwatches.PREF_START_TIME, mStartTime);
         editor.putLong (Stopwatches.PREF_ACCUM_TIME, mAccumulatedTime);
         editor.putInt (Stopwatches.PREF_STATE, mState);
-        if (mLapsAdapter != null) {
-            long [] laps = mLapsAdapter.getLapTimes();
-            if (laps != null) {
-                editor.putInt (Stopwatches.PREF_LAP_NUM, laps.length);
-                for (int i = 0; i < laps.length; i++) {
-                    String key = Stopwatches.PREF_LAP_TIME + Integer.toString(laps.length - i);
-                    editor.putLong (key, laps[i]);
-                }
-            }
-        }
         if (mState == Stopwatches.STOPWATCH_RUNNING) {
             editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, mStartTime-mAccumulatedTime);
             editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
@@ -935,19 +968,15 @@ public class StopwatchFragment extends DeskClockFragment
         mStartTime = prefs.getLong(Stopwatches.PREF_START_TIME, 0);
         mAccumulatedTime = prefs.getLong(Stopwatches.PREF_ACCUM_TIME, 0);
         mState = prefs.getInt(Stopwatches.PREF_STATE, Stopwatches.STOPWATCH_RESET);
-        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, Stopwatches.STOPWATCH_RESET);
         if (mLapsAdapter != null) {
-            long[] oldLaps = mLapsAdapter.getLapTimes();
-            if (oldLaps == null || oldLaps.length < numLaps) {
-                long[] laps = new long[numLaps];
-                long prevLapElapsedTime = 0;
-                for (int lap_i = 0; lap_i < numLaps; lap_i++) {
-                    String key = Stopwatches.PREF_LAP_TIME + Integer.toString(lap_i + 1);
-                    long lap = prefs.getLong(key, 0);
-                    laps[numLaps - lap_i - 1] = lap - prevLapElapsedTime;
-                    prevLapElapsedTime = lap;
-                }
-                mLapsAdapter.setLapTimes(laps);
+            long totalTime = mAccumulatedTime;
+            if (mState == Stopwatches.STOPWATCH_RUNNING) {
+                totalTime += Utils.getTimeNow() - mStartTime;
+            }
+            boolean lapsShown = mLapsAdapter.getCount() > 0;
+            mLapsAdapter.reloadLaps(totalTime);
+            if (lapsShown != mLapsAdapter.getCount() > 0) {
+                showLaps();
             }
         }
         if (prefs.getBoolean(Stopwatches.PREF_UPDATE_CIRCLE, true)) {
@@ -1018,12 +1047,9 @@ public class StopwatchFragment extends DeskClockFragment
     @Override
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
         if (prefs.equals(PreferenceManager.getDefaultSharedPreferences(getActivity()))) {
-            if (! (key.equals(Stopwatches.PREF_LAP_NUM) ||
-                    key.startsWith(Stopwatches.PREF_LAP_TIME))) {
-                readFromSharedPref(prefs);
-                if (prefs.getBoolean(Stopwatches.PREF_UPDATE_CIRCLE, true)) {
-                    mTime.readFromSharedPref(prefs, "sw");
-                }
+            readFromSharedPref(prefs);
+            if (prefs.getBoolean(Stopwatches.PREF_UPDATE_CIRCLE, true)) {
+                mTime.readFromSharedPref(prefs, "sw");
             }
         }
     }
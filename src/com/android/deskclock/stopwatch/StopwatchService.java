@@ -23,7 +23,7 @@ import com.android.deskclock.Utils;
  */
 public class StopwatchService extends Service {
     // Member fields
-    private int mNumLaps;
+    private LapLog mLaps;
     private long mElapsedTime;
     private long mStartTime;
     private boolean mLoadApp;
@@ -41,7 +41,7 @@ public class StopwatchService extends Service {
 
     @Override
     public void onCreate() {
-        mNumLaps = 0;
+        mLaps = LapLog.getInstance(this);
         mElapsedTime = 0;
         mStartTime = 0;
         mLoadApp = false;
@@ -54,7 +54,7 @@ public class StopwatchService extends Service {
             return Service.START_NOT_STICKY;
         }
 
-        if (mStartTime == 0 || mElapsedTime == 0 || mNumLaps == 0) {
+        if (mStartTime == 0 || mElapsedTime == 0) {
             // May not have the most recent values.
             readFromSharedPrefs();
         }
@@ -67,26 +67,29 @@ public class StopwatchService extends Service {
             mStartTime = actionTime;
             writeSharedPrefsStarted(mStartTime, updateCircle);
             if (showNotif) {
-                setNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                setNotification(mStartTime - mElapsedTime, true, getLapNumber());
             } else {
-                saveNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                saveNotification(mStartTime - mElapsedTime, true, getLapNumber());
             }
         } else if (actionType.equals(Stopwatches.LAP_STOPWATCH)) {
-            mNumLaps++;
             long lapTimeElapsed = actionTime - mStartTime + mElapsedTime;
-            writeSharedPrefsLap(lapTimeElapsed, updateCircle);
             if (showNotif) {
-                setNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                // Laps taken in the app are added to the log by the app.
+                mLaps.addLap(lapTimeElapsed);
+            }
+            writeSharedPrefsLap(updateCircle);
+            if (showNotif) {
+                setNotification(mStartTime - mElapsedTime, true, getLapNumber());
             } else {
-                saveNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                saveNotification(mStartTime - mElapsedTime, true, getLapNumber());
             }
         } else if (actionType.equals(Stopwatches.STOP_STOPWATCH)) {
             mElapsedTime = mElapsedTime + (actionTime - mStartTime);
             writeSharedPrefsStopped(mElapsedTime, updateCircle);
             if (showNotif) {
-                setNotification(actionTime - mElapsedTime, false, mNumLaps);
+                setNotification(actionTime - mElapsedTime, false, getLapNumber());
             } else {
-                saveNotification(mElapsedTime, false, mNumLaps);
+                saveNotification(mElapsedTime, false, getLapNumber());
             }
         } else if (actionType.equals(Stopwatches.RESET_STOPWATCH)) {
             mLoadApp = false;
@@ -106,7 +109,7 @@ public class StopwatchService extends Service {
             shareIntent.putExtra(
                     Intent.EXTRA_SUBJECT, Stopwatches.getShareTitle(getApplicationContext()));
             shareIntent.putExtra(Intent.EXTRA_TEXT, Stopwatches.buildShareResults(
-                    getApplicationContext(), mElapsedTime, readLapsFromPrefs()));
+                    getApplicationContext(), mElapsedTime, mLaps));
             Intent chooserIntent = Intent.createChooser(shareIntent, null);
             chooserIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             getApplication().startActivity(chooserIntent);
@@ -129,7 +132,6 @@ public class StopwatchService extends Service {
     public void onDestroy() {
         mNotificationManager.cancel(NOTIFICATION_ID);
         clearSavedNotification();
-        mNumLaps = 0;
         mElapsedTime = 0;
         mStartTime = 0;
         if (mLoadApp) {
@@ -275,7 +277,7 @@ public class StopwatchService extends Service {
         long clockBaseTime = prefs.getLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
         long clockElapsedTime = prefs.getLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
         boolean clockRunning = prefs.getBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
-        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, -1);
+        int numLaps = getLapNumber();
         if (clockBaseTime == -1) {
             if (clockElapsedTime == -1) {
                 return false;
@@ -311,29 +313,18 @@ public class StopwatchService extends Service {
                 getApplicationContext());
         mStartTime = prefs.getLong(Stopwatches.PREF_START_TIME, 0);
         mElapsedTime = prefs.getLong(Stopwatches.PREF_ACCUM_TIME, 0);
-        mNumLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, Stopwatches.STOPWATCH_RESET);
     }
 
-    private long[] readLapsFromPrefs() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getApplicationContext());
-        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, Stopwatches.STOPWATCH_RESET);
-        long[] laps = new long[numLaps];
-        long prevLapElapsedTime = 0;
-        for (int lap_i = 0; lap_i < numLaps; lap_i++) {
-            String key = Stopwatches.PREF_LAP_TIME + Integer.toString(lap_i + 1);
-            long lap = prefs.getLong(key, 0);
-            if (lap == prevLapElapsedTime && lap_i == numLaps - 1) {
-                lap = mElapsedTime;
-            }
-            laps[numLaps - lap_i - 1] = lap - prevLapElapsedTime;
-            prevLapElapsedTime = lap;
-        }
-        return laps;
+    /**
+     * @return number of the lap in progress, or 0 if no lap was taken yet
+     */
+    private int getLapNumber() {
+        int completedLaps = mLaps.size();
+        return completedLaps == 0 ? 0 : completedLaps + 1;
     }
 
-    private void writeToSharedPrefs(Long startTime, Long lapTimeElapsed, Long elapsedTime,
-            Integer state, boolean updateCircle) {
+    private void writeToSharedPrefs(Long startTime, Long elapsedTime, Integer state,
+            boolean updateCircle) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
                 getApplicationContext());
         SharedPreferences.Editor editor = prefs.edit();
@@ -341,17 +332,6 @@ public class StopwatchService extends Service {
             editor.putLong(Stopwatches.PREF_START_TIME, startTime);
             mStartTime = startTime;
         }
-        if (lapTimeElapsed != null) {
-            int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, 0);
-            if (numLaps == 0) {
-                mNumLaps++;
-                numLaps++;
-            }
-            editor.putLong(Stopwatches.PREF_LAP_TIME + Integer.toString(numLaps), lapTimeElapsed);
-            numLaps++;
-            editor.putLong(Stopwatches.PREF_LAP_TIME + Integer.toString(numLaps), lapTimeElapsed);
-            editor.putInt(Stopwatches.PREF_LAP_NUM, numLaps);
-        }
         if (elapsedTime != null) {
             editor.putLong(Stopwatches.PREF_ACCUM_TIME, elapsedTime);
             mElapsedTime = elapsedTime;
@@ -370,7 +350,7 @@ public class StopwatchService extends Service {
     }
 
     private void writeSharedPrefsStarted(long startTime, boolean updateCircle) {
-        writeToSharedPrefs(startTime, null, null, Stopwatches.STOPWATCH_RUNNING, updateCircle);
+        writeToSharedPrefs(startTime, null, Stopwatches.STOPWATCH_RUNNING, updateCircle);
         if (updateCircle) {
             long time = Utils.getTimeNow();
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
@@ -388,34 +368,29 @@ public class StopwatchService extends Service {
         }
     }
 
-    private void writeSharedPrefsLap(long lapTimeElapsed, boolean updateCircle) {
-        writeToSharedPrefs(null, lapTimeElapsed, null, null, updateCircle);
+    private void writeSharedPrefsLap(boolean updateCircle) {
+        writeToSharedPrefs(null, null, null, updateCircle);
         if (updateCircle) {
             long time = Utils.getTimeNow();
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
                     getApplicationContext());
             SharedPreferences.Editor editor = prefs.edit();
-            long laps[] = readLapsFromPrefs();
-            int numLaps = laps.length;
-            long lapTime = laps[1];
-            if (numLaps == 2) { // Have only hit lap once.
+            int numLaps = mLaps.size();
+            long lapTime = mLaps.getLapTime(numLaps - 1);
+            if (numLaps == 1) { // Have only hit lap once.
                 editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL, lapTime);
             } else {
                 editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_MARKER_TIME, lapTime);
             }
             editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_ACCUM_TIME, 0);
-            if (numLaps < Stopwatches.MAX_LAPS) {
-                editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START, time);
-                editor.putBoolean(Stopwatches.KEY + CircleTimerView.PREF_CTV_PAUSED, false);
-            } else {
-                editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START, -1);
-            }
+            editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START, time);
+            editor.putBoolean(Stopwatches.KEY + CircleTimerView.PREF_CTV_PAUSED, false);
             editor.apply();
         }
     }
 
     private void writeSharedPrefsStopped(long elapsedTime, boolean updateCircle) {
-        writeToSharedPrefs(null, null, elapsedTime, Stopwatches.STOPWATCH_STOPPED, updateCircle);
+        writeToSharedPrefs(null, elapsedTime, Stopwatches.STOPWATCH_STOPPED, updateCircle);
         if (updateCircle) {
             long time = Utils.getTimeNow();
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
@@ -435,6 +410,7 @@ public class StopwatchService extends Service {
     }
 
     private void writeSharedPrefsReset(boolean updateCircle) {
-        writeToSharedPrefs(null, null, null, Stopwatches.STOPWATCH_RESET, updateCircle);
+        mLaps.clear();
+        writeToSharedPrefs(null, null, Stopwatches.STOPWATCH_RESET, updateCircle);
     }
 }
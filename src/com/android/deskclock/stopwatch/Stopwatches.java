@@ -40,8 +40,6 @@ public class Stopwatches {
     public static final String PREF_START_TIME  = "sw_start_time";
     public static final String PREF_ACCUM_TIME = "sw_accum_time";
     public static final String PREF_STATE = "sw_state";
-    public static final String PREF_LAP_NUM = "sw_lap_num";
-    public static final String PREF_LAP_TIME = "sw_lap_time_";
     public static final String PREF_UPDATE_CIRCLE = "sw_update_circle";
     public static final String NOTIF_CLOCK_BASE = "notif_clock_base";
     public static final String NOTIF_CLOCK_ELAPSED = "notif_clock_elapsed";
@@ -52,7 +50,6 @@ public class Stopwatches {
     public static final int STOPWATCH_RUNNING = 1;
     public static final int STOPWATCH_STOPPED = 2;
 
-    public static final int MAX_LAPS = 99;
     public static final int NO_LAP_NUMBER = -1;
 
     /**
@@ -66,27 +63,33 @@ public class Stopwatches {
     }
 
     /**
-     * Create a multi-line text with the stopwatch lap data
+     * Create a multi-line text with the stopwatch lap data, read lap by lap from the log
      * @param context context with resources
-     * @param time total elapsed time
-     * @param laps array of times
+     * @param time formatted total elapsed time
+     * @param totalTime total elapsed time, used for the lap in progress
+     * @param laps completed laps
      * @return formatted text
      */
-    public static String buildShareResults(Context context, String time, long[] laps) {
+    public static String buildShareResults(Context context, String time, long totalTime,
+            LapLog laps) {
         StringBuilder b = new StringBuilder (context.getString(R.string.sw_share_main, time));
         b.append("\n");
 
-        int lapsNum = laps == null? 0 : laps.length;
+        int lapsNum = laps.size();
         if (lapsNum == 0) {
             return b.toString();
         }
 
         b.append(context.getString(R.string.sw_share_laps));
         b.append("\n");
-        for (int i = 1; i <= lapsNum; i ++) {
-            b.append(getTimeText(context, laps[lapsNum-i], i));
+        String[] formats = context.getResources().getStringArray(R.array.shared_laps_format_set);
+        for (int i = 0; i < lapsNum; i ++) {
+            b.append(getTimeText(formats, laps.getLapTime(i), i + 1));
             b.append("\n");
         }
+        // The lap in progress when the stopwatch was stopped
+        b.append(getTimeText(formats, totalTime - laps.getLastTotalTime(), lapsNum + 1));
+        b.append("\n");
         return b.toString();
     }
 
@@ -94,11 +97,11 @@ public class Stopwatches {
      * Create a multi-line text with the stopwatch lap data
      * @param context context with resources
      * @param time total elapsed time
-     * @param laps array of times
+     * @param laps completed laps
      * @return formatted text
      */
-    public static String buildShareResults(Context context, long time, long[] laps) {
-        return buildShareResults(context, getTimeText(context, time, NO_LAP_NUMBER), laps);
+    public static String buildShareResults(Context context, long time, LapLog laps) {
+        return buildShareResults(context, getTimeText(context, time, NO_LAP_NUMBER), time, laps);
     }
 
     /***
@@ -109,15 +112,19 @@ public class Stopwatches {
      * @return formatted text
      */
     public static String getTimeText(Context context, long time, int lap) {
-        if (time < 0) {
-            time = 0;
-        }
         String[] formats;
         if (lap != NO_LAP_NUMBER) {
             formats = context.getResources().getStringArray(R.array.shared_laps_format_set);
         } else {
             formats = context.getResources().getStringArray(R.array.stopwatch_format_set);
         }
+        return getTimeText(formats, time, lap);
+    }
+
+    private static String getTimeText(String[] formats, long time, int lap) {
+        if (time < 0) {
+            time = 0;
+        }
         char decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
         int formatIndex;
 
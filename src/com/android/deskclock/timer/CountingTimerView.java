@@ -40,10 +40,6 @@ import com.android.deskclock.Utils;
  * drawing digits (and optional label) of the time set in {@link #setTime(long, boolean, boolean)}
  */
 public class CountingTimerView extends View {
-    private static final String TWO_DIGITS = "%02d";
-    private static final String ONE_DIGIT = "%01d";
-    private static final String NEG_TWO_DIGITS = "-%02d";
-    private static final String NEG_ONE_DIGIT = "-%01d";
     private static final float TEXT_SIZE_TO_WIDTH_RATIO = 0.85f;
     // This is the ratio of the font height needed to vertically offset the font for alignment
     // from the center.
@@ -55,7 +51,20 @@ public class CountingTimerView extends View {
     // Radial offset of the enclosing circle
     private final float mRadiusOffset;
 
-    private String mHours, mMinutes, mSeconds, mHundredths;
+    // Hours may have a sign and up to three digits, minutes a sign and two digits.
+    private final DigitBuffer mHours = new DigitBuffer(4);
+    private final DigitBuffer mMinutes = new DigitBuffer(3);
+    private final DigitBuffer mSeconds = new DigitBuffer(2);
+    private final DigitBuffer mHundredths = new DigitBuffer(2);
+    // The ten digits of the default locale, indexed by value
+    private final char[] mLocaleDigits;
+    // Time last shown, to redraw when it changes and describe it when accessibility gets
+    // turned on
+    private int mShownHours = -1, mShownMinutes = -1, mShownSeconds = -1;
+    private boolean mShownNeg;
+    // Time the content description was last built for, to only rebuild it when it changes
+    private int mDescribedHours = -1, mDescribedMinutes = -1, mDescribedSeconds = -1;
+    private boolean mDescribedNeg;
 
     private boolean mShowTimeStr = true;
     private final Paint mPaintBigThin = new Paint();
@@ -76,6 +85,14 @@ public class CountingTimerView extends View {
     private final int mRedColor;
     private TextView mStopStartTextView;
     private final AccessibilityManager mAccessibilityManager;
+    private final AccessibilityManager.AccessibilityStateChangeListener mAccessibilityListener =
+            new AccessibilityManager.AccessibilityStateChangeListener() {
+                @Override
+                public void onAccessibilityStateChanged(boolean enabled) {
+                    // The description was not kept up to date while accessibility was off.
+                    updateContentDescription();
+                }
+            };
 
     // Fields for the text serving as a virtual button.
     private boolean mVirtualButtonEnabled = false;
@@ -92,6 +109,60 @@ public class CountingTimerView extends View {
 
     };
 
+    /**
+     * Reusable characters of one segment of the time, so that formatting the time on every
+     * tick does not allocate. A segment with no characters is not shown.
+     */
+    static class DigitBuffer {
+        final char[] mChars;
+        int mLength;
+        boolean mNegative;
+
+        DigitBuffer(int capacity) {
+            mChars = new char[capacity];
+        }
+
+        void clear() {
+            mLength = 0;
+            mNegative = false;
+        }
+
+        boolean isEmpty() {
+            return mLength == 0;
+        }
+
+        /**
+         * Equivalent to String.format("%0nd", value), with an optional leading minus sign.
+         *
+         * @param value to format, must not be negative
+         * @param minDigits number of digits to zero pad to
+         * @param negative to prepend a minus sign
+         * @param digits the ten locale digits, indexed by value
+         */
+        void set(long value, int minDigits, boolean negative, char[] digits) {
+            int count = 1;
+            for (long v = value / 10; v > 0; v /= 10) {
+                count++;
+            }
+            count = Math.max(count, minDigits);
+
+            int start = 0;
+            if (negative) {
+                mChars[start++] = '-';
+            }
+            mLength = start + count;
+            for (int ii = mLength - 1; ii >= start; ii--) {
+                mChars[ii] = digits[(int) (value % 10)];
+                value /= 10;
+            }
+            mNegative = negative;
+        }
+
+        void appendTo(StringBuilder sb) {
+            sb.append(mChars, 0, mLength);
+        }
+    }
+
     /**
      * Class to measure and draw the digit pairs of hours, minutes, seconds or hundredths. Digits
      * may have an optional label. for hours, minutes and seconds, this label trails the digits
@@ -135,18 +206,18 @@ public class CountingTimerView extends View {
             this.mSpacingRatio = spacingRatio;
         }
 
-        protected void updateWidth(final String time) {
+        protected void updateWidth(final DigitBuffer time) {
             mEm = mPaint.measureText(mWidest);
             mLabelWidth = mSpacingRatio * mEm;
-            mWidth = time.length() * mEm;
+            mWidth = time.mLength * mEm;
         }
 
         protected void resetWidth() {
             mWidth = mLabelWidth = 0;
         }
 
-        public float calcTotalWidth(final String time) {
-            if (time != null) {
+        public float calcTotalWidth(final DigitBuffer time) {
+            if (!time.isEmpty()) {
                 updateWidth(time);
                 return mWidth + mLabelWidth;
             } else {
@@ -168,11 +239,12 @@ public class CountingTimerView extends View {
          * @param y offset
          * @return X location for the next segment
          */
-        protected float drawTime(Canvas canvas, final String time, int ii, float x, float y) {
+        protected float drawTime(Canvas canvas, final DigitBuffer time, int ii, float x,
+                float y) {
             float textEm  = mEm / 2f;
-            while (ii < time.length()) {
+            while (ii < time.mLength) {
                 x += textEm;
-                canvas.drawText(time.substring(ii, ii + 1), x, y, mPaint);
+                canvas.drawText(time.mChars, ii, 1, x, y, mPaint);
                 x += textEm;
                 ii++;
             }
@@ -187,7 +259,7 @@ public class CountingTimerView extends View {
          * @param y offset
          * @return X location for the next segment
          */
-        public float draw(Canvas canvas, final String time, float x, float y) {
+        public float draw(Canvas canvas, final DigitBuffer time, float x, float y) {
             return drawTime(canvas, time, 0, x, y) + getLabelWidth();
         }
     }
@@ -202,10 +274,10 @@ public class CountingTimerView extends View {
 
         /**
          * Draw this time segment after prepending the intra-segment spacing to the x location.
-         * {@link UnsignedTime#draw(android.graphics.Canvas, String, float, float)}
+         * {@link UnsignedTime#draw(android.graphics.Canvas, DigitBuffer, float, float)}
          */
         @Override
-        public float draw(Canvas canvas, final String time, float x, float y) {
+        public float draw(Canvas canvas, final DigitBuffer time, float x, float y) {
             return drawTime(canvas, time, 0, x + getLabelWidth(), y);
         }
     }
@@ -221,9 +293,9 @@ public class CountingTimerView extends View {
         }
 
         @Override
-        protected void updateWidth(final String time) {
+        protected void updateWidth(final DigitBuffer time) {
             super.updateWidth(time);
-            if (time.contains("-")) {
+            if (time.mNegative) {
                 mMinusWidth = mPaint.measureText("-");
                 mWidth += (mMinusWidth - mEm);
             } else {
@@ -240,16 +312,16 @@ public class CountingTimerView extends View {
         /**
          * Draws each character with a fixed spacing from time, handling the special negative
          * number case.
-         * {@link UnsignedTime#draw(android.graphics.Canvas, String, float, float)}
+         * {@link UnsignedTime#draw(android.graphics.Canvas, DigitBuffer, float, float)}
          */
         @Override
-        public float draw(Canvas canvas, final String time, float x, float y) {
+        public float draw(Canvas canvas, final DigitBuffer time, float x, float y) {
             int ii = 0;
             if (mMinusWidth != 0f) {
                 float minusWidth = mMinusWidth / 2;
                 x += minusWidth;
                 //TODO:hyphen is too thick when painted
-                canvas.drawText(time.substring(0, 1), x, y, mPaint);
+                canvas.drawText(time.mChars, 0, 1, x, y, mPaint);
                 x += minusWidth;
                 ii++;
             }
@@ -293,6 +365,8 @@ public class CountingTimerView extends View {
 
         // allDigits will contain ten digits: "0123456789" in the default locale
         final String allDigits = String.format("%010d", 123456789);
+        mLocaleDigits = allDigits.length() == 10 ? allDigits.toCharArray()
+                : "0123456789".toCharArray();
         mBigSeconds = new UnsignedTime(mPaintBigThin, 0.f, allDigits);
         mBigHours = new SignedTime(mBigSeconds, HOURS_MINUTES_SPACING);
         mBigMinutes = new SignedTime(mBigSeconds, HOURS_MINUTES_SPACING);
@@ -318,14 +392,13 @@ public class CountingTimerView extends View {
      *
      * @param time new time to display - in milliseconds
      * @param showHundredths flag to show hundredths resolution
-     * @param update to invalidate the view - otherwise the time is examined to see if it is within
-     *               100 milliseconds of zero seconds and when so, invalidate the view.
+     * @param update to invalidate the view - otherwise the view is only invalidated when the
+     *               shown time differs from the one last drawn.
      */
     // TODO:showHundredths S/B attribute or setter - i.e. unchanging over object life
     public void setTime(long time, boolean showHundredths, boolean update) {
         int oldLength = getDigitsLength();
         boolean neg = false, showNeg = false;
-        String format;
         if (time < 0) {
             time = -time;
             neg = showNeg = true;
@@ -348,7 +421,7 @@ public class CountingTimerView extends View {
             showNeg = false;
         }
 
-        // Normalize and check if it is 'time' to invalidate
+        // Normalize to the shown seconds
         if (!showHundredths) {
             if (!neg && hundreds != 0) {
                 seconds++;
@@ -361,39 +434,34 @@ public class CountingTimerView extends View {
                     }
                 }
             }
-            if (hundreds < 10 || hundreds > 90) {
-                update = true;
-            }
+        }
+        // Ticks may land anywhere within a second, redraw as soon as the shown time changes.
+        if (hours != mShownHours || minutes != mShownMinutes || seconds != mShownSeconds
+                || showNeg != mShownNeg) {
+            update = true;
         }
 
         // Hours may be empty
         if (hours >= 10) {
-            format = showNeg ? NEG_TWO_DIGITS : TWO_DIGITS;
-            mHours = String.format(format, hours);
+            mHours.set(hours, 2, showNeg, mLocaleDigits);
         } else if (hours > 0) {
-            format = showNeg ? NEG_ONE_DIGIT : ONE_DIGIT;
-            mHours = String.format(format, hours);
+            mHours.set(hours, 1, showNeg, mLocaleDigits);
         } else {
-            mHours = null;
+            mHours.clear();
         }
 
         // Minutes are never empty and when hours are non-empty, must be two digits
-        if (minutes >= 10 || hours > 0) {
-            format = (showNeg && hours == 0) ? NEG_TWO_DIGITS : TWO_DIGITS;
-            mMinutes = String.format(format, minutes);
-        } else {
-            format = (showNeg && hours == 0) ? NEG_ONE_DIGIT : ONE_DIGIT;
-            mMinutes = String.format(format, minutes);
-        }
+        mMinutes.set(minutes, (minutes >= 10 || hours > 0) ? 2 : 1, showNeg && hours == 0,
+                mLocaleDigits);
 
         // Seconds are always two digits
-        mSeconds = String.format(TWO_DIGITS, seconds);
+        mSeconds.set(seconds, 2, false, mLocaleDigits);
 
         // Hundredths are optional and then two digits
         if (showHundredths) {
-            mHundredths = String.format(TWO_DIGITS, hundreds);
+            mHundredths.set(hundreds, 2, false, mLocaleDigits);
         } else {
-            mHundredths = null;
+            mHundredths.clear();
         }
 
         int newLength = getDigitsLength();
@@ -405,17 +473,52 @@ public class CountingTimerView extends View {
         }
 
         if (update) {
-            setContentDescription(getTimeStringForAccessibility((int) hours, (int) minutes,
-                    (int) seconds, showNeg, getResources()));
+            mShownHours = (int) hours;
+            mShownMinutes = (int) minutes;
+            mShownSeconds = (int) seconds;
+            mShownNeg = showNeg;
+            updateContentDescription();
             invalidate();
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAccessibilityManager.addAccessibilityStateChangeListener(mAccessibilityListener);
+        // Accessibility may have been turned on while detached.
+        updateContentDescription();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mAccessibilityManager.removeAccessibilityStateChangeListener(mAccessibilityListener);
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Only rebuild the content description when the spoken time changes, which is at most
+     * once per second, and when accessibility is on, instead of on every tick. The listener
+     * on the accessibility state catches up on the time shown while it was off.
+     */
+    private void updateContentDescription() {
+        if (!mAccessibilityManager.isEnabled()) {
+            return;
+        }
+        if (mShownHours == mDescribedHours && mShownMinutes == mDescribedMinutes
+                && mShownSeconds == mDescribedSeconds && mShownNeg == mDescribedNeg) {
+            return;
+        }
+        mDescribedHours = mShownHours;
+        mDescribedMinutes = mShownMinutes;
+        mDescribedSeconds = mShownSeconds;
+        mDescribedNeg = mShownNeg;
+        setContentDescription(getTimeStringForAccessibility(mShownHours, mShownMinutes,
+                mShownSeconds, mShownNeg, getResources()));
+    }
+
     private int getDigitsLength() {
-        return ((mHours == null) ? 0 : mHours.length())
-                + ((mMinutes == null) ? 0 : mMinutes.length())
-                + ((mSeconds == null) ? 0 : mSeconds.length())
-                + ((mHundredths == null) ? 0 : mHundredths.length());
+        return mHours.mLength + mMinutes.mLength + mSeconds.mLength + mHundredths.mLength;
     }
 
     private void calcTotalTextWidth() {
@@ -491,17 +594,21 @@ public class CountingTimerView extends View {
     }
 
     public String getTimeString() {
-        // Though only called from Stopwatch Share, so hundredth are never null,
-        // protect the future and check for null mHundredths
-        if (mHundredths == null) {
-            if (mHours == null) {
-                return String.format("%s:%s", mMinutes, mSeconds);
-            }
-            return String.format("%s:%s:%s", mHours, mMinutes, mSeconds);
-        } else if (mHours == null) {
-            return String.format("%s:%s.%s", mMinutes, mSeconds, mHundredths);
-        }
-        return String.format("%s:%s:%s.%s", mHours, mMinutes, mSeconds, mHundredths);
+        // Though only called from Stopwatch Share, so hundredth are never empty,
+        // protect the future and check for empty mHundredths
+        final StringBuilder sb = new StringBuilder();
+        if (!mHours.isEmpty()) {
+            mHours.appendTo(sb);
+            sb.append(':');
+        }
+        mMinutes.appendTo(sb);
+        sb.append(':');
+        mSeconds.appendTo(sb);
+        if (!mHundredths.isEmpty()) {
+            sb.append('.');
+            mHundredths.appendTo(sb);
+        }
+        return sb.toString();
     }
 
     private static String getTimeStringForAccessibility(int hours, int minutes, int seconds,
@@ -637,16 +744,16 @@ public class CountingTimerView extends View {
         mPaintBigThin.setColor(textColor);
         mPaintMed.setColor(textColor);
 
-        if (mHours != null) {
+        if (!mHours.isEmpty()) {
             xTextStart = mBigHours.draw(canvas, mHours, xTextStart, yTextStart);
         }
-        if (mMinutes != null) {
+        if (!mMinutes.isEmpty()) {
             xTextStart = mBigMinutes.draw(canvas, mMinutes, xTextStart, yTextStart);
         }
-        if (mSeconds != null) {
+        if (!mSeconds.isEmpty()) {
             xTextStart = mBigSeconds.draw(canvas, mSeconds, xTextStart, yTextStart);
         }
-        if (mHundredths != null) {
+        if (!mHundredths.isEmpty()) {
             mMedHundredths.draw(canvas, mHundredths, xTextStart, yTextStart);
         }
     }
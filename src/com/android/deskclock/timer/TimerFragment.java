@@ -50,6 +50,7 @@ import com.android.deskclock.DeskClock.OnTapListener;
 import com.android.deskclock.DeskClockFragment;
 import com.android.deskclock.LabelDialogFragment;
 import com.android.deskclock.R;
+import com.android.deskclock.TickScheduler;
 import com.android.deskclock.TimerSetupView;
 import com.android.deskclock.Utils;
 
@@ -110,11 +111,11 @@ public class TimerFragment extends DeskClockFragment
         public void onListChanged();
     }
 
-    TimersListAdapter createAdapter(Context context, SharedPreferences prefs) {
+    TimersListAdapter createAdapter(Context context) {
         if (mOnEmptyListListener == null) {
-            return new TimersListAdapter(context, prefs);
+            return new TimersListAdapter(context);
         } else {
-            return new TimesUpListAdapter(context, prefs);
+            return new TimesUpListAdapter(context);
         }
     }
 
@@ -122,11 +123,11 @@ public class TimerFragment extends DeskClockFragment
 
         ArrayList<TimerObj> mTimers = new ArrayList<TimerObj> ();
         Context mContext;
-        SharedPreferences mmPrefs;
+        TimerStore mStore;
 
-        public TimersListAdapter(Context context, SharedPreferences prefs) {
+        public TimersListAdapter(Context context) {
             mContext = context;
-            mmPrefs = prefs;
+            mStore = TimerStore.getInstance(context);
         }
 
         @Override
@@ -160,7 +161,7 @@ public class TimerFragment extends DeskClockFragment
                     if (t.mView != null) {
                         ((TimerListItem) t.mView).stop();
                     }
-                    t.deleteFromSharedPref(mmPrefs);
+                    mStore.delete(t);
                     mTimers.remove(i);
                     if (mTimers.size() == 1 && mColumnCount > 1) {
                         // If we're going from two timers to one (in the same row), we don't want to
@@ -291,16 +292,16 @@ public class TimerFragment extends DeskClockFragment
         }
 
         public void onSaveInstanceState(Bundle outState) {
-            TimerObj.putTimersInSharedPrefs(mmPrefs, mTimers);
+            mStore.saveAll(mTimers);
         }
 
         public void onRestoreInstanceState(Bundle outState) {
-            TimerObj.getTimersFromSharedPrefs(mmPrefs, mTimers);
+            mStore.getTimers(mTimers);
             sort();
         }
 
         public void saveGlobalState() {
-            TimerObj.putTimersInSharedPrefs(mmPrefs, mTimers);
+            mStore.saveAll(mTimers);
         }
 
         public void sort() {
@@ -344,8 +345,8 @@ public class TimerFragment extends DeskClockFragment
 
     class TimesUpListAdapter extends TimersListAdapter {
 
-        public TimesUpListAdapter(Context context, SharedPreferences prefs) {
-            super(context, prefs);
+        public TimesUpListAdapter(Context context) {
+            super(context);
         }
 
         @Override
@@ -363,7 +364,7 @@ public class TimerFragment extends DeskClockFragment
         @Override
         public void onRestoreInstanceState(Bundle outState) {
             // This adapter loads a subset
-            TimerObj.getTimersFromSharedPrefs(mmPrefs, mTimers, TimerObj.STATE_TIMESUP);
+            mStore.getTimers(mTimers, TimerObj.STATE_TIMESUP);
 
             if (getCount() == 0) {
                 mOnEmptyListListener.onEmptyList();
@@ -378,21 +379,28 @@ public class TimerFragment extends DeskClockFragment
         }
     }
 
-    private final Runnable mClockTick = new Runnable() {
+    private final TickScheduler.Listener mClockTick = new TickScheduler.Listener() {
         boolean mVisible = true;
         final static int TIME_PERIOD_MS = 1000;
         final static int SPLIT = TIME_PERIOD_MS / 2;
 
         @Override
-        public void run() {
+        public long onTick(long now) {
             // Setup for blinking
-            boolean visible = Utils.getTimeNow() % TIME_PERIOD_MS < SPLIT;
+            boolean visible = now % TIME_PERIOD_MS < SPLIT;
             boolean toggle = mVisible != visible;
             mVisible = visible;
+            boolean blinking = false;
+            long nextTick = TickScheduler.NEVER;
             for (int i = 0; i < mAdapter.getCount(); i ++) {
                 TimerObj t = mAdapter.getItem(i);
                 if (t.mState == TimerObj.STATE_RUNNING || t.mState == TimerObj.STATE_TIMESUP) {
                     long timeLeft = t.updateTimeLeft(false);
+                    // The shown time changes whenever a whole second has passed
+                    nextTick = Math.min(nextTick, TickScheduler.nextBoundary(now,
+                            now + timeLeft, TickScheduler.RESOLUTION_SECONDS));
+                    // The plus one button is enabled and disabled on the blink too
+                    blinking = true;
                     if (t.mView != null) {
                         ((TimerListItem)(t.mView)).setTime(timeLeft, false);
                         // Update button every 1/2 second
@@ -413,6 +421,9 @@ public class TimerFragment extends DeskClockFragment
                 }
 
                 // The blinking
+                if (t.mState == TimerObj.STATE_STOPPED) {
+                    blinking = true;
+                }
                 if (toggle && t.mView != null) {
                     if (t.mState == TimerObj.STATE_TIMESUP) {
                         ((TimerListItem)(t.mView)).setCircleBlink(mVisible);
@@ -422,7 +433,12 @@ public class TimerFragment extends DeskClockFragment
                     }
                 }
             }
-            mTimersList.postDelayed(mClockTick, 20);
+            if (blinking) {
+                nextTick = Math.min(nextTick, TickScheduler.nextBoundary(now, 0, SPLIT));
+            }
+            // With no running, stopped or expired timers nothing changes until one is
+            // started, which ticks again through updateTimersState().
+            return nextTick;
         }
     };
 
@@ -546,7 +562,7 @@ public class TimerFragment extends DeskClockFragment
         super.onResume();
         mPrefs.registerOnSharedPreferenceChangeListener(this);
 
-        mAdapter = createAdapter(getActivity(), mPrefs);
+        mAdapter = createAdapter(getActivity());
         mAdapter.onRestoreInstanceState(null);
 
         LayoutParams params;
@@ -980,18 +996,25 @@ public class TimerFragment extends DeskClockFragment
 
     // Starts the ticks that animate the timers.
     private void startClockTicks() {
-        mTimersList.postDelayed(mClockTick, 20);
+        TickScheduler.getInstance().subscribe(mClockTick);
         mTicking = true;
     }
 
     // Stops the ticks that animate the timers.
     private void stopClockTicks() {
         if (mTicking) {
-            mTimersList.removeCallbacks(mClockTick);
+            TickScheduler.getInstance().unsubscribe(mClockTick);
             mTicking = false;
         }
     }
 
+    // Ticks the timers on the next frame, after one of them changed state.
+    private void requestClockTick() {
+        if (mTicking) {
+            TickScheduler.getInstance().subscribe(mClockTick);
+        }
+    }
+
     private boolean canAddMinute(TimerObj t) {
         return TimerObj.MAX_TIMER_LENGTH - t.mTimeLeft > TimerObj.MINUTE_IN_MILLIS ? true : false;
     }
@@ -1000,8 +1023,9 @@ public class TimerFragment extends DeskClockFragment
         if (Timers.DELETE_TIMER.equals(action)) {
             deleteTimer(t);
         } else {
-            t.writeToSharedPref(mPrefs);
+            TimerStore.getInstance(getActivity()).save(t);
         }
+        requestClockTick();
         Intent i = new Intent();
         i.setAction(action);
         i.putExtra(Timers.TIMER_INTENT_EXTRA, t.mTimerId);
@@ -1026,7 +1050,7 @@ public class TimerFragment extends DeskClockFragment
     }
 
     public void restartAdapter() {
-        mAdapter = createAdapter(getActivity(), mPrefs);
+        mAdapter = createAdapter(getActivity());
         mAdapter.onRestoreInstanceState(null);
     }
 
@@ -1050,9 +1074,10 @@ public class TimerFragment extends DeskClockFragment
                 SharedPreferences.Editor editor = mPrefs.edit();
                 editor.putBoolean(key, false);
                 editor.apply();
-                mAdapter = createAdapter(getActivity(), mPrefs);
+                mAdapter = createAdapter(getActivity());
                 mAdapter.onRestoreInstanceState(null);
                 mTimersList.setAdapter(mAdapter);
+                requestClockTick();
             }
         }
     }
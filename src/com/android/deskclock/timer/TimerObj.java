@@ -17,25 +17,15 @@
 package com.android.deskclock.timer;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.util.Log;
 import android.view.View;
 
 import com.android.deskclock.R;
 import com.android.deskclock.Utils;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-
 public class TimerObj implements Parcelable {
 
-    private static final String TAG = "TimerObj";
     // Max timer length is 9 hours + 99 minutes + 9 seconds
     public static final long MAX_TIMER_LENGTH = (9 * 3600 + 99 * 60  + 99) * 1000;
     public static final long MINUTE_IN_MILLIS = 60 * 1000;
@@ -57,17 +47,6 @@ public class TimerObj implements Parcelable {
     public static final int STATE_RESTART = 5;
     public static final int STATE_DELETED = 6;
 
-    private static final String PREF_TIMER_ID = "timer_id_";
-    private static final String PREF_START_TIME  = "timer_start_time_";
-    private static final String PREF_TIME_LEFT = "timer_time_left_";
-    private static final String PREF_ORIGINAL_TIME = "timer_original_timet_";
-    private static final String PREF_SETUP_TIME = "timer_setup_timet_";
-    private static final String PREF_STATE = "timer_state_";
-    private static final String PREF_LABEL = "timer_label_";
-    private static final String PREF_DELETE_AFTER_USE = "delete_after_use_";
-
-    private static final String PREF_TIMERS_LIST = "timers_list";
-
     public static final Parcelable.Creator<TimerObj> CREATOR = new Parcelable.Creator<TimerObj>() {
         @Override
         public TimerObj createFromParcel(Parcel p) {
@@ -80,77 +59,6 @@ public class TimerObj implements Parcelable {
         }
     };
 
-    public void writeToSharedPref(SharedPreferences prefs) {
-        SharedPreferences.Editor editor = prefs.edit();
-        String key = PREF_TIMER_ID + Integer.toString(mTimerId);
-        String id = Integer.toString(mTimerId);
-        editor.putInt (key, mTimerId);
-        key = PREF_START_TIME + id;
-        editor.putLong (key, mStartTime);
-        key = PREF_TIME_LEFT + id;
-        editor.putLong (key, mTimeLeft);
-        key = PREF_ORIGINAL_TIME + id;
-        editor.putLong (key, mOriginalLength);
-        key = PREF_SETUP_TIME + id;
-        editor.putLong (key, mSetupLength);
-        key = PREF_STATE + id;
-        editor.putInt (key, mState);
-        Set <String> timersList = prefs.getStringSet(PREF_TIMERS_LIST, new HashSet<String>());
-        timersList.add(id);
-        editor.putStringSet(PREF_TIMERS_LIST, timersList);
-        key = PREF_LABEL + id;
-        editor.putString(key, mLabel);
-        key = PREF_DELETE_AFTER_USE + id;
-        editor.putBoolean(key, mDeleteAfterUse);
-        editor.apply();
-    }
-
-
-    public void readFromSharedPref(SharedPreferences prefs) {
-        String id = Integer.toString(mTimerId);
-        String key = PREF_START_TIME + id;
-        mStartTime = prefs.getLong(key, 0);
-        key = PREF_TIME_LEFT + id;
-        mTimeLeft = prefs.getLong(key, 0);
-        key = PREF_ORIGINAL_TIME + id;
-        mOriginalLength = prefs.getLong(key, 0);
-        key = PREF_SETUP_TIME + id;
-        mSetupLength = prefs.getLong(key, 0);
-        key = PREF_STATE + id;
-        mState = prefs.getInt(key, 0);
-        key = PREF_LABEL + id;
-        mLabel = prefs.getString(key, "");
-        key = PREF_DELETE_AFTER_USE + id;
-        mDeleteAfterUse = prefs.getBoolean(key, false);
-    }
-
-    public void deleteFromSharedPref(SharedPreferences prefs) {
-        SharedPreferences.Editor editor = prefs.edit();
-        String key = PREF_TIMER_ID + Integer.toString(mTimerId);
-        String id = Integer.toString(mTimerId);
-        editor.remove (key);
-        key = PREF_START_TIME + id;
-        editor.remove (key);
-        key = PREF_TIME_LEFT + id;
-        editor.remove (key);
-        key = PREF_ORIGINAL_TIME + id;
-        editor.remove (key);
-        key = PREF_SETUP_TIME + id;
-        editor.remove (key);
-        key = PREF_STATE + id;
-        editor.remove (key);
-        Set <String> timersList = prefs.getStringSet(PREF_TIMERS_LIST, new HashSet<String>());
-        timersList.remove(id);
-        editor.putStringSet(PREF_TIMERS_LIST, timersList);
-        key = PREF_LABEL + id;
-        editor.remove(key);
-        key = PREF_DELETE_AFTER_USE + id;
-        editor.remove(key);
-        editor.commit();
-        //dumpTimersFromSharedPrefs(prefs);
-    }
-
-
     @Override
     public int describeContents() {
         return 0;
@@ -236,77 +144,4 @@ public class TimerObj implements Parcelable {
     public long getTimesupTime() {
         return mStartTime + mOriginalLength;
     }
-
-
-    public static void getTimersFromSharedPrefs(
-            SharedPreferences prefs, ArrayList<TimerObj> timers) {
-        Object[] timerStrings =
-                prefs.getStringSet(PREF_TIMERS_LIST, new HashSet<String>()).toArray();
-        if (timerStrings.length > 0) {
-            for (int i = 0; i < timerStrings.length; i++) {
-                TimerObj t = new TimerObj();
-                t.mTimerId = Integer.parseInt((String)timerStrings[i]);
-                t.readFromSharedPref(prefs);
-                timers.add(t);
-            }
-            Collections.sort(timers, new Comparator<TimerObj>() {
-                @Override
-                public int compare(TimerObj timerObj1, TimerObj timerObj2) {
-                   return timerObj2.mTimerId - timerObj1.mTimerId;
-                }
-            });
-        }
-    }
-
-    public static void getTimersFromSharedPrefs(
-            SharedPreferences prefs, ArrayList<TimerObj> timers, int match) {
-        Object[] timerStrings = prefs.getStringSet(PREF_TIMERS_LIST, new HashSet<String>())
-                .toArray();
-        if (timerStrings.length > 0) {
-            for (int i = 0; i < timerStrings.length; i++) {
-                TimerObj t = new TimerObj();
-                t.mTimerId = Integer.parseInt((String) timerStrings[i]);
-                t.readFromSharedPref(prefs);
-                if (t.mState == match) {
-                    timers.add(t);
-                }
-            }
-        }
-    }
-
-    public static void putTimersInSharedPrefs(
-            SharedPreferences prefs, ArrayList<TimerObj> timers) {
-        if (timers.size() > 0) {
-            for (int i = 0; i < timers.size(); i++) {
-                TimerObj t = timers.get(i);
-                timers.get(i).writeToSharedPref(prefs);
-            }
-        }
-    }
-
-    public static void dumpTimersFromSharedPrefs(
-            SharedPreferences prefs) {
-        Object[] timerStrings =
-                prefs.getStringSet(PREF_TIMERS_LIST, new HashSet<String>()).toArray();
-        Log.v(TAG,"--------------------- timers list in shared prefs");
-        if (timerStrings.length > 0) {
-            for (int i = 0; i < timerStrings.length; i++) {
-                int id = Integer.parseInt((String)timerStrings[i]);
-                Log.v(TAG,"---------------------timer  " + (i + 1) + ": id - " + id);
-            }
-        }
-    }
-
-    public static void resetTimersInSharedPrefs(SharedPreferences prefs) {
-        ArrayList<TimerObj> timers = new  ArrayList<TimerObj>();
-        getTimersFromSharedPrefs(prefs, timers);
-        Iterator<TimerObj> i = timers.iterator();
-        while(i.hasNext()) {
-            TimerObj t = i.next();
-            t.mState = TimerObj.STATE_RESTART;
-            t.mTimeLeft = t. mOriginalLength = t.mSetupLength;
-            t.writeToSharedPref(prefs);
-        }
-    }
-
 }
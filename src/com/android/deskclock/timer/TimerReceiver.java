@@ -61,7 +61,8 @@ public class TimerReceiver extends BroadcastReceiver {
             mTimers = new ArrayList<TimerObj> ();
         }
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        TimerObj.getTimersFromSharedPrefs(prefs, mTimers);
+        final TimerStore store = TimerStore.getInstance(context);
+        store.getTimers(mTimers);
 
         // These actions do not provide a timer ID, but do use the timers data
         if (Timers.NOTIF_IN_USE_SHOW.equals(actionType)) {
@@ -98,7 +99,7 @@ public class TimerReceiver extends BroadcastReceiver {
             }
 
             t.mState = TimerObj.STATE_TIMESUP;
-            t.writeToSharedPref(prefs);
+            store.save(t);
             // Play ringtone by using TimerRingService service with a default alarm.
             Log.d(TAG, "playing ringtone");
             Intent si = new Intent();
@@ -136,7 +137,7 @@ public class TimerReceiver extends BroadcastReceiver {
             // Update timer state
             t.mState = t.getDeleteAfterUse() ? TimerObj.STATE_DELETED : TimerObj.STATE_DONE;
             t.mTimeLeft = t.mOriginalLength - (Utils.getTimeNow() - t.mStartTime);
-            t.writeToSharedPref(prefs);
+            store.save(t);
 
             // Flag to tell DeskClock to re-sync with the database
             prefs.edit().putBoolean(Timers.FROM_NOTIFICATION, true).apply();
@@ -145,7 +146,7 @@ public class TimerReceiver extends BroadcastReceiver {
 
             // Done with timer - delete from data base
             if (t.getDeleteAfterUse()) {
-                t.deleteFromSharedPref(prefs);
+                store.delete(t);
             }
 
             // Stop Ringtone if no timers are in times-up status
@@ -164,7 +165,7 @@ public class TimerReceiver extends BroadcastReceiver {
             t.mState = TimerObj.STATE_RUNNING;
             t.mStartTime = Utils.getTimeNow();
             t.mTimeLeft = t. mOriginalLength = TimerObj.MINUTE_IN_MILLIS;
-            t.writeToSharedPref(prefs);
+            store.save(t);
 
             // Flag to tell DeskClock to re-sync with the database
             prefs.edit().putBoolean(Timers.FROM_NOTIFICATION, true).apply();
@@ -186,6 +187,8 @@ public class TimerReceiver extends BroadcastReceiver {
                 showTimesUpNotification(context, t);
             }
         }
+        // The process may be killed once this returns, write timer changes now.
+        store.flush();
         // Update the next "Times up" alarm
         updateNextTimesup(context);
     }
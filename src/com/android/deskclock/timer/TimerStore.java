@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.timer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.deskclock.AsyncHandler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Process wide store of all timers. The in-memory copy is authoritative, callers get and
+ * save copies of it. Changes are written to a single binary file in the background, and
+ * saves made before a pending write runs are coalesced into that write. Callers that may
+ * let the process die right after saving, like broadcast receivers, must {@link #flush}.
+ *
+ * Timers used to be stored as eight preferences per timer plus a "timers_list" string set,
+ * which are migrated the first time the store is loaded.
+ */
+public final class TimerStore {
+    private static final String TAG = "TimerStore";
+
+    private static final String FILE_NAME = "timers.dat";
+    private static final int FILE_VERSION = 1;
+
+    // Legacy preference keys, only used for migration.
+    private static final String PREF_TIMER_ID = "timer_id_";
+    private static final String PREF_START_TIME  = "timer_start_time_";
+    private static final String PREF_TIME_LEFT = "timer_time_left_";
+    private static final String PREF_ORIGINAL_TIME = "timer_original_timet_";
+    private static final String PREF_SETUP_TIME = "timer_setup_timet_";
+    private static final String PREF_STATE = "timer_state_";
+    private static final String PREF_LABEL = "timer_label_";
+    private static final String PREF_DELETE_AFTER_USE = "delete_after_use_";
+    private static final String PREF_TIMERS_LIST = "timers_list";
+
+    // Newest timer first, same as the order timers are shown in.
+    private static final Comparator<TimerObj> ID_DESCENDING = new Comparator<TimerObj>() {
+        @Override
+        public int compare(TimerObj timerObj1, TimerObj timerObj2) {
+            return timerObj2.mTimerId - timerObj1.mTimerId;
+        }
+    };
+
+    private static TimerStore sInstance;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    // Held while writing the file, so a flush and the background write never overlap
+    private final Object mWriteLock = new Object();
+
+    // Guarded by this
+    private final SparseArray<TimerObj> mTimers = new SparseArray<TimerObj>();
+    private boolean mWritePending;
+
+    public static synchronized TimerStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TimerStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TimerStore(Context context) {
+        mContext = context;
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        mFile = new AtomicFile(file);
+        if (file.exists() || new File(file.getPath() + ".bak").exists()) {
+            load();
+        } else {
+            migrateFromSharedPrefs();
+        }
+    }
+
+    /**
+     * Add copies of all timers to a list, newest first.
+     */
+    public synchronized void getTimers(ArrayList<TimerObj> timers) {
+        final int start = timers.size();
+        for (int i = 0; i < mTimers.size(); i++) {
+            timers.add(copyOf(mTimers.valueAt(i)));
+        }
+        Collections.sort(timers.subList(start, timers.size()), ID_DESCENDING);
+    }
+
+    /**
+     * Add copies of all timers in the given state to a list.
+     */
+    public synchronized void getTimers(ArrayList<TimerObj> timers, int state) {
+        for (int i = 0; i < mTimers.size(); i++) {
+            final TimerObj t = mTimers.valueAt(i);
+            if (t.mState == state) {
+                timers.add(copyOf(t));
+            }
+        }
+    }
+
+    /**
+     * Add or update a timer.
+     */
+    public synchronized void save(TimerObj timer) {
+        mTimers.put(timer.mTimerId, copyOf(timer));
+        scheduleWrite();
+    }
+
+    /**
+     * Add or update several timers with a single write.
+     */
+    public synchronized void saveAll(ArrayList<TimerObj> timers) {
+        for (int i = 0; i < timers.size(); i++) {
+            final TimerObj t = timers.get(i);
+            mTimers.put(t.mTimerId, copyOf(t));
+        }
+        if (!timers.isEmpty()) {
+            scheduleWrite();
+        }
+    }
+
+    public synchronized void delete(TimerObj timer) {
+        if (mTimers.get(timer.mTimerId) != null) {
+            mTimers.remove(timer.mTimerId);
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Put every timer back into its initial, restartable state. Used after boot.
+     */
+    public synchronized void resetAll() {
+        for (int i = 0; i < mTimers.size(); i++) {
+            final TimerObj t = mTimers.valueAt(i);
+            t.mState = TimerObj.STATE_RESTART;
+            t.mTimeLeft = t.mOriginalLength = t.mSetupLength;
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Write pending changes now, on the calling thread. The process may be killed as soon as
+     * a broadcast receiver returns, before the background write ran.
+     */
+    public void flush() {
+        write();
+    }
+
+    private static TimerObj copyOf(TimerObj timer) {
+        final TimerObj copy = new TimerObj();
+        copy.mTimerId = timer.mTimerId;
+        copy.mStartTime = timer.mStartTime;
+        copy.mTimeLeft = timer.mTimeLeft;
+        copy.mOriginalLength = timer.mOriginalLength;
+        copy.mSetupLength = timer.mSetupLength;
+        copy.mState = timer.mState;
+        copy.mLabel = timer.mLabel != null ? timer.mLabel : "";
+        copy.mDeleteAfterUse = timer.mDeleteAfterUse;
+        return copy;
+    }
+
+    private void scheduleWrite() {
+        if (mWritePending) {
+            // The pending write will pick up this change too.
+            return;
+        }
+        mWritePending = true;
+        AsyncHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    private void write() {
+        synchronized (mWriteLock) {
+            final ArrayList<TimerObj> snapshot = new ArrayList<TimerObj>();
+            synchronized (this) {
+                if (!mWritePending) {
+                    // Already written by a flush
+                    return;
+                }
+                mWritePending = false;
+                for (int i = 0; i < mTimers.size(); i++) {
+                    snapshot.add(copyOf(mTimers.valueAt(i)));
+                }
+            }
+            write(snapshot);
+        }
+    }
+
+    private void write(ArrayList<TimerObj> snapshot) {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+            for (TimerObj t : snapshot) {
+                out.writeInt(t.mTimerId);
+                out.writeLong(t.mStartTime);
+                out.writeLong(t.mTimeLeft);
+                out.writeLong(t.mOriginalLength);
+                out.writeLong(t.mSetupLength);
+                out.writeInt(t.mState);
+                out.writeUTF(t.mLabel);
+                out.writeBoolean(t.mDeleteAfterUse);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write timers", e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            final int version = in.readInt();
+            if (version != FILE_VERSION) {
+                Log.w(TAG, "Ignoring timers file with unknown version " + version);
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final TimerObj t = new TimerObj();
+                t.mTimerId = in.readInt();
+                t.mStartTime = in.readLong();
+                t.mTimeLeft = in.readLong();
+                t.mOriginalLength = in.readLong();
+                t.mSetupLength = in.readLong();
+                t.mState = in.readInt();
+                t.mLabel = in.readUTF();
+                t.mDeleteAfterUse = in.readBoolean();
+                mTimers.put(t.mTimerId, t);
+            }
+        } catch (FileNotFoundException e) {
+            // No timers yet
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read timers", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Read timers stored with the legacy per field preferences, then remove those keys.
+     */
+    private void migrateFromSharedPrefs() {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final Set<String> ids = prefs.getStringSet(PREF_TIMERS_LIST, new HashSet<String>());
+        final SharedPreferences.Editor editor = prefs.edit();
+        for (String id : ids) {
+            final TimerObj t = new TimerObj();
+            t.mTimerId = Integer.parseInt(id);
+            t.mStartTime = prefs.getLong(PREF_START_TIME + id, 0);
+            t.mTimeLeft = prefs.getLong(PREF_TIME_LEFT + id, 0);
+            t.mOriginalLength = prefs.getLong(PREF_ORIGINAL_TIME + id, 0);
+            t.mSetupLength = prefs.getLong(PREF_SETUP_TIME + id, 0);
+            t.mState = prefs.getInt(PREF_STATE + id, 0);
+            t.mLabel = prefs.getString(PREF_LABEL + id, "");
+            t.mDeleteAfterUse = prefs.getBoolean(PREF_DELETE_AFTER_USE + id, false);
+            mTimers.put(t.mTimerId, t);
+
+            editor.remove(PREF_TIMER_ID + id);
+            editor.remove(PREF_START_TIME + id);
+            editor.remove(PREF_TIME_LEFT + id);
+            editor.remove(PREF_ORIGINAL_TIME + id);
+            editor.remove(PREF_SETUP_TIME + id);
+            editor.remove(PREF_STATE + id);
+            editor.remove(PREF_LABEL + id);
+            editor.remove(PREF_DELETE_AFTER_USE + id);
+        }
+        editor.remove(PREF_TIMERS_LIST);
+
+        // Write the store before dropping the legacy keys, so timers are never lost.
+        write();
+        editor.apply();
+        Log.i(TAG, "Migrated " + ids.size() + " timers from shared preferences");
+    }
+}
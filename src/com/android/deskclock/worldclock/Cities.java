@@ -16,59 +16,245 @@
 
 package com.android.deskclock.worldclock;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.deskclock.AsyncHandler;
+import com.android.deskclock.provider.City;
+import com.android.deskclock.provider.ClockContract;
+
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.TimeZone;
 
-public class Cities {
+/**
+ * Process wide store of the cities selected for the world clock, backed by the selected
+ * cities table of the clock provider with one row per city. The selected cities are kept in
+ * memory, so readers do not query the provider again until the table changes. Changes are
+ * applied in memory at once and written in the background, touching only the rows of the
+ * cities added or removed.
+ *
+ * Cities used to be stored as three preferences per city, all rewritten on every change,
+ * which are migrated the first time the store is loaded.
+ */
+public final class Cities {
+    private static final String TAG = "Cities";
 
     public static final String WORLDCLOCK_UPDATE_INTENT = "com.android.deskclock.worldclock.update";
-    private static final String NUMBER_OF_CITIES = "number_of_cities";
-
-    public static void saveCitiesToSharedPrefs(
-            SharedPreferences prefs, HashMap<String, CityObj> cities) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putInt(NUMBER_OF_CITIES, cities.size());
-        Collection<CityObj> col = cities.values();
-        Iterator<CityObj> i = col.iterator();
-        int count = 0;
-        while (i.hasNext()) {
-            CityObj c = i.next();
-            c.saveCityToSharedPrefs(editor, count);
-            count++;
+
+    // Legacy preference keys, only used for migration.
+    private static final String PREF_NUMBER_OF_CITIES = "number_of_cities";
+    private static final String PREF_CITY_NAME = "city_name_";
+    private static final String PREF_CITY_TIME_ZONE = "city_tz_";
+    private static final String PREF_CITY_ID = "city_id_";
+
+    private static Cities sInstance;
+
+    private final Context mContext;
+
+    // Guarded by this
+    // Selected cities by id, null until loaded and after the table was changed elsewhere
+    private HashMap<String, CityObj> mCities;
+    private CityObj[] mSnapshot;
+    private int mPendingWrites;
+
+    public static synchronized Cities getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new Cities(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private Cities(Context context) {
+        mContext = context;
+        context.getContentResolver().registerContentObserver(City.CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                });
+    }
+
+    /**
+     * @return the selected cities, in no particular order. The array may be sorted, but the
+     *         cities must not be modified.
+     */
+    public synchronized CityObj[] getSelectedCities() {
+        if (mSnapshot == null) {
+            mSnapshot = getCities().values().toArray(new CityObj[0]);
+        }
+        return mSnapshot.clone();
+    }
+
+    /**
+     * Select a city, or update the name and time zone of a selected one.
+     */
+    public void addCity(CityObj city) {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(1);
+        synchronized (this) {
+            getCities().put(city.mCityId, city);
+            mSnapshot = null;
+            operations.add(createInsertOperation(city));
+        }
+        scheduleWrite(operations);
+    }
+
+    public void removeCity(String cityId) {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(1);
+        synchronized (this) {
+            if (getCities().remove(cityId) == null) {
+                return;
+            }
+            mSnapshot = null;
+            operations.add(createDeleteOperation(cityId));
         }
-        editor.apply();
+        scheduleWrite(operations);
     }
 
-    public static  HashMap<String, CityObj> readCitiesFromSharedPrefs(SharedPreferences prefs) {
-        int size = prefs.getInt(NUMBER_OF_CITIES, -1);
-        HashMap<String, CityObj> c = new HashMap<String, CityObj>();
-        if (size > 0) {
-            for (int i = 0; i < size; i++) {
-                CityObj o = new CityObj(prefs, i);
-                if (o.mCityName != null && o.mTimeZone != null) {
-                    c.put(o.mCityId, o);
+    /**
+     * Replace the selected cities. Only the rows of the cities added, removed or renamed are
+     * written, a city name changes with the language.
+     */
+    public void setSelectedCities(Collection<CityObj> cities) {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        synchronized (this) {
+            final HashMap<String, CityObj> current = getCities();
+            final HashMap<String, CityObj> selected = new HashMap<String, CityObj>();
+            for (CityObj city : cities) {
+                selected.put(city.mCityId, city);
+                final CityObj old = current.get(city.mCityId);
+                if (old == null || !TextUtils.equals(old.mCityName, city.mCityName)) {
+                    operations.add(createInsertOperation(city));
+                }
+            }
+            for (String cityId : current.keySet()) {
+                if (!selected.containsKey(cityId)) {
+                    operations.add(createDeleteOperation(cityId));
                 }
             }
+            if (operations.isEmpty()) {
+                return;
+            }
+            mCities = selected;
+            mSnapshot = null;
         }
-        return c;
+        scheduleWrite(operations);
     }
 
-    private static void dumpCities(SharedPreferences prefs, String title) {
-        int size = prefs.getInt(NUMBER_OF_CITIES, -1);
-        Log.d("Cities", "Selected Cities List " + title);
-        Log.d("Cities", "Number of cities " + size);
-        HashMap<String, CityObj> c = new HashMap<String, CityObj>();
-        if (size > 0) {
-            for (int i = 0; i < size; i++) {
-                CityObj o = new CityObj(prefs, i);
-                if (o.mCityName != null && o.mTimeZone != null) {
-                    Log.d("Cities", "Name " + o.mCityName + " tz " + o.mTimeZone);
+    private synchronized void invalidate() {
+        if (mPendingWrites == 0) {
+            // Changed elsewhere, read again when next needed. While our own writes are
+            // pending the in-memory cities are newer than the table.
+            mCities = null;
+            mSnapshot = null;
+        }
+    }
+
+    private HashMap<String, CityObj> getCities() {
+        if (mCities == null) {
+            mCities = load();
+        }
+        return mCities;
+    }
+
+    private HashMap<String, CityObj> load() {
+        final ContentResolver cr = mContext.getContentResolver();
+        final HashMap<String, CityObj> cities = new HashMap<String, CityObj>();
+        for (City city : City.getCities(cr, null)) {
+            cities.put(city.mCityId, new CityObj(city.mCityName, city.mTimezoneName,
+                    city.mCityId));
+        }
+        migrateFromSharedPrefs(cities);
+        return cities;
+    }
+
+    /**
+     * Add the cities stored with the legacy per index preferences to the table and to the
+     * loaded cities, then remove those keys.
+     */
+    private void migrateFromSharedPrefs(HashMap<String, CityObj> cities) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        if (!prefs.contains(PREF_NUMBER_OF_CITIES)) {
+            return;
+        }
+        final int size = prefs.getInt(PREF_NUMBER_OF_CITIES, -1);
+        final SharedPreferences.Editor editor = prefs.edit();
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < size; i++) {
+            final String name = prefs.getString(PREF_CITY_NAME + i, null);
+            final String timeZone = prefs.getString(PREF_CITY_TIME_ZONE + i, null);
+            final String id = prefs.getString(PREF_CITY_ID + i, null);
+            if (name != null && timeZone != null && id != null && !cities.containsKey(id)) {
+                final CityObj city = new CityObj(name, timeZone, id);
+                cities.put(id, city);
+                operations.add(createInsertOperation(city));
+            }
+            editor.remove(PREF_CITY_NAME + i);
+            editor.remove(PREF_CITY_TIME_ZONE + i);
+            editor.remove(PREF_CITY_ID + i);
+        }
+        editor.remove(PREF_NUMBER_OF_CITIES);
+
+        // Write the table before dropping the legacy keys, so cities are never lost.
+        if (write(operations)) {
+            editor.apply();
+            Log.i(TAG, "Migrated " + operations.size() + " cities from shared preferences");
+        }
+    }
+
+    private void scheduleWrite(final ArrayList<ContentProviderOperation> operations) {
+        synchronized (this) {
+            mPendingWrites++;
+        }
+        AsyncHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                write(operations);
+                synchronized (Cities.this) {
+                    mPendingWrites--;
                 }
             }
+        });
+    }
+
+    private boolean write(ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return true;
         }
+        try {
+            mContext.getContentResolver().applyBatch(ClockContract.AUTHORITY, operations);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Unable to write selected cities", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Unable to write selected cities", e);
+        }
+        return false;
+    }
+
+    private static ContentProviderOperation createInsertOperation(CityObj city) {
+        final City row = new City(city.mCityId, city.mCityName, city.mTimeZone,
+                TimeZone.getTimeZone(city.mTimeZone).getRawOffset());
+        return ContentProviderOperation.newInsert(City.CONTENT_URI)
+                .withValues(City.createContentValues(row))
+                .build();
+    }
+
+    private static ContentProviderOperation createDeleteOperation(String cityId) {
+        return ContentProviderOperation.newDelete(City.getContentUriForId(cityId)).build();
     }
 }
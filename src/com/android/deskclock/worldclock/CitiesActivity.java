@@ -58,6 +58,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -106,17 +107,24 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         private static final int VIEW_TYPE_CITY = 0;
         private static final int VIEW_TYPE_HEADER = 1;
 
-        private static final String DELETED_ENTRY = "C0";
-
         private List<CityObj> mDisplayedCitiesList;
 
+        private final CityDatabase mCitiesDb;
         private CityObj[] mCities;
         private CityObj[] mSelectedCities;
+        // Section headers of mCities and where they start
+        private String[] mCitySectionLabels;
+        private int[] mCitySectionPositions;
+
+        // Search index over mCities in their current order, and the cities it indexes.
+        // Built by the filter on its background thread, and dropped when the sort changes.
+        private CitySearchIndex mSearchIndex;
+        private CityObj[] mIndexedCities;
 
         private final int mLayoutDirection;
 
         // A map that caches names of cities in local memory.  The names in this map are
-        // preferred over the names of the selected cities stored in SharedPreferences, which could
+        // preferred over the names stored with the selected cities, which could
         // be in a different language.  This map gets reloaded on a locale change, when the new
         // language's city strings are read from the xml file.
         private HashMap<String, String> mCityNameMap = new HashMap<String, String>();
@@ -125,7 +133,6 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         private Integer[] mSectionPositions;
 
         private CityNameComparator mSortByNameComparator = new CityNameComparator();
-        private CityGmtOffsetComparator mSortByTimeComparator = new CityGmtOffsetComparator();
 
         private final LayoutInflater mInflater;
         private boolean mIs24HoursMode; // AM/PM or 24 hours mode
@@ -162,51 +169,35 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
 
                 mSelectedEndPosition = filteredList.size();
 
-                long currentTime = System.currentTimeMillis();
-                String val = null;
-                int offset = -100000; //some value that cannot be a real offset
-                for (CityObj city : mCities) {
-
-                    // If the city is a deleted entry, ignore it.
-                    if (city.mCityId.equals(DELETED_ENTRY)) {
-                        continue;
+                if (!TextUtils.isEmpty(modifiedQuery)) {
+                    // No section headers in search results, so only the matches are needed.
+                    final CityObj[] cities = getIndexedCities();
+                    final int[] matches = mSearchIndex.search(modifiedQuery);
+                    filteredList.ensureCapacity(matches.length);
+                    for (int index : matches) {
+                        filteredList.add(cities[index]);
                     }
+                    mSectionHeaders = new String[0];
+                    mSectionPositions = new Integer[0];
 
-                    // If the search query is empty, add section headers.
-                    if (TextUtils.isEmpty(modifiedQuery)) {
-
-
-                        // If the list is sorted by name, and the city begins with a letter
-                        // different than the previous city's letter, insert a section header.
-                        if (mSortType == SORT_BY_NAME
-                                && !city.mCityName.substring(0, 1).equals(val)) {
-                                val = city.mCityName.substring(0, 1).toUpperCase();
-                                sectionHeaders.add(val);
-                                sectionPositions.add(filteredList.size());
-                                filteredList.add(new CityObj(val, null, null));
-                        }
-
-                        // If the list is sorted by time, and the gmt offset is different than
-                        // the previous city's gmt offset, insert a section header.
-                        if (mSortType == SORT_BY_GMT_OFFSET) {
-                            TimeZone timezone = TimeZone.getTimeZone(city.mTimeZone);
-                            int newOffset = timezone.getOffset(currentTime);
-                            if (offset != newOffset) {
-                                offset = newOffset;
-                                String offsetString = Utils.getGMTHourOffset(timezone, true);
-                                sectionHeaders.add(offsetString);
-                                sectionPositions.add(filteredList.size());
-                                filteredList.add(new CityObj(null, offsetString, null));
-                            }
-                        }
-                    }
+                    results.values = filteredList;
+                    results.count = filteredList.size();
+                    return results;
+                }
 
-                    // If the city name begins with the query, add the city into the list.
-                    // If the query is empty, the city will automatically be added to the list.
-                    String cityName = city.mCityName.trim().toUpperCase();
-                    if (city.mCityId != null && cityName.startsWith(modifiedQuery)) {
-                        filteredList.add(city);
+                // Add every city, with a header where each of its sections starts.
+                final String[] labels = mCitySectionLabels;
+                final int[] positions = mCitySectionPositions;
+                int section = 0;
+                for (int i = 0; i < mCities.length; i++) {
+                    if (section < positions.length && positions[section] == i) {
+                        final String label = labels[section++];
+                        sectionHeaders.add(label);
+                        sectionPositions.add(filteredList.size());
+                        filteredList.add(mSortType == SORT_BY_NAME
+                                ? new CityObj(label, null, null) : new CityObj(null, label, null));
                     }
+                    filteredList.add(mCities[i]);
                 }
 
                 mSectionHeaders = sectionHeaders.toArray(new String[sectionHeaders.size()]);
@@ -217,6 +208,22 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
                 return results;
             }
 
+            /**
+             * @return the cities the search index was built over, building it if needed
+             */
+            private CityObj[] getIndexedCities() {
+                if (mSearchIndex == null) {
+                    final CityObj[] cities = mCities.clone();
+                    final String[] names = new String[cities.length];
+                    for (int i = 0; i < cities.length; i++) {
+                        names[i] = cities[i].mCityName;
+                    }
+                    mIndexedCities = cities;
+                    mSearchIndex = new CitySearchIndex(names);
+                }
+                return mIndexedCities;
+            }
+
             @Override
             protected void publishResults(CharSequence constraint, FilterResults results) {
                 mDisplayedCitiesList = (ArrayList<CityObj>) results.values;
@@ -236,8 +243,9 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
             mLayoutDirection = TextUtils.getLayoutDirectionFromLocale(Locale.getDefault());
             mInflater = factory;
 
-            // Load the cities from xml.
-            mCities = Utils.loadCitiesFromXml(context);
+            // Load the cities, they are sorted in sortCities().
+            mCitiesDb = CityDatabase.getInstance(context);
+            mCities = mCitiesDb.getCitiesByName();
 
             // Reload the city name map with the recently parsed city names of the currently
             // selected language for use with selected cities.
@@ -246,20 +254,22 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
                 mCityNameMap.put(city.mCityId, city.mCityName);
             }
 
-            // Re-organize the selected cities into an array.
-            Collection<CityObj> selectedCities = mUserSelectedCities.values();
-            mSelectedCities = selectedCities.toArray(new CityObj[selectedCities.size()]);
-
-            // Override the selected city names in the shared preferences with the
-            // city names in the updated city name map, which will always reflect the
-            // current language.
-            for (CityObj city : mSelectedCities) {
+            // Override the selected city names with the city names in the updated city name
+            // map, which will always reflect the current language. The selected cities come
+            // from Cities and must not be modified, so renamed ones are copied. They are
+            // saved with the new names in onPause().
+            for (Map.Entry<String, CityObj> entry : mUserSelectedCities.entrySet()) {
+                final CityObj city = entry.getValue();
                 String newCityName = mCityNameMap.get(city.mCityId);
-                if (newCityName != null) {
-                    city.mCityName = newCityName;
+                if (newCityName != null && !newCityName.equals(city.mCityName)) {
+                    entry.setValue(new CityObj(newCityName, city.mTimeZone, city.mCityId));
                 }
             }
 
+            // Re-organize the selected cities into an array.
+            Collection<CityObj> selectedCities = mUserSelectedCities.values();
+            mSelectedCities = selectedCities.toArray(new CityObj[selectedCities.size()]);
+
             mPattern24 = DateFormat.getBestDateTimePattern(Locale.getDefault(), "Hm");
 
             // There's an RTL layout bug that causes jank when fast-scrolling through
@@ -290,12 +300,30 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         }
 
         private void sortCities(final int sortType) {
+            final boolean orderChanged = sortType != mSortType;
             mSortType = sortType;
-            Arrays.sort(mCities, sortType == SORT_BY_NAME ? mSortByNameComparator
-                    : mSortByTimeComparator);
+            synchronized (mFilter) {
+                // The database has the cities and their sections in both orders already.
+                if (sortType == SORT_BY_NAME) {
+                    mCities = mCitiesDb.getCitiesByName();
+                    mCitySectionLabels = mCitiesDb.getNameSectionLabels();
+                    mCitySectionPositions = mCitiesDb.getNameSectionPositions();
+                } else {
+                    mCities = mCitiesDb.getCitiesByOffset();
+                    mCitySectionLabels = mCitiesDb.getOffsetSectionLabels();
+                    mCitySectionPositions = mCitiesDb.getOffsetSectionPositions();
+                }
+                if (orderChanged) {
+                    // Search results are listed in the index order, so index the new order.
+                    mSearchIndex = null;
+                }
+            }
             if (mSelectedCities != null) {
-                Arrays.sort(mSelectedCities, sortType == SORT_BY_NAME ? mSortByNameComparator
-                        : mSortByTimeComparator);
+                if (sortType == SORT_BY_NAME) {
+                    Arrays.sort(mSelectedCities, mSortByNameComparator);
+                } else {
+                    TimeZoneOffsets.sortByOffset(mSelectedCities, System.currentTimeMillis());
+                }
             }
             mPrefs.edit().putInt(PREF_SORT, sortType).commit();
             mFilter.filter(mQueryTextBuffer.toString());
@@ -482,8 +510,10 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
         setFastScroll(TextUtils.isEmpty(mQueryTextBuffer.toString().trim()));
         mCitiesList.setScrollBarStyle(View.SCROLLBARS_INSIDE_INSET);
         mCitiesList.setFastScrollEnabled(true);
-        mUserSelectedCities = Cities.readCitiesFromSharedPrefs(
-                PreferenceManager.getDefaultSharedPreferences(this));
+        mUserSelectedCities = new HashMap<String, CityObj>();
+        for (CityObj city : Cities.getInstance(this).getSelectedCities()) {
+            mUserSelectedCities.put(city.mCityId, city);
+        }
         mAdapter = new CityAdapter(this, mFactory);
         mCitiesList.setAdapter(mAdapter);
         ActionBar actionBar = getActionBar();
@@ -510,8 +540,7 @@ public class CitiesActivity extends Activity implements OnCheckedChangeListener,
     @Override
     public void onPause() {
         super.onPause();
-        Cities.saveCitiesToSharedPrefs(PreferenceManager.getDefaultSharedPreferences(this),
-                mUserSelectedCities);
+        Cities.getInstance(this).setSelectedCities(mUserSelectedCities.values());
         Intent i = new Intent(Cities.WORLDCLOCK_UPDATE_INTENT);
         sendBroadcast(i);
     }
@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.util.AtomicFile;
+
+import com.android.deskclock.AsyncHandler;
+import com.android.deskclock.Log;
+import com.android.deskclock.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Process wide, read only database of the cities that can be shown in the world clock.
+ *
+ * The cities come from three string arrays in the resources, which are slow to read and
+ * sort. They are compiled once per locale and app install into a compact file, holding the
+ * names and ids as UTF-8 in a single byte array, each time zone id once, the cities sorted by
+ * name and by id, and the section headers of the sorted list. Later loads read that file in
+ * one go. {@link CityObj} instances and their strings are only made for the cities that are
+ * asked for.
+ *
+ * Cities whose id is "C0" are placeholders for removed cities, and are left out.
+ */
+public final class CityDatabase {
+    private static final String FILE_NAME = "cities.dat";
+    private static final int FILE_VERSION = 1;
+    private static final String DELETED_ENTRY = "C0";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static CityDatabase sInstance;
+
+    // What the database was compiled from
+    private final String mLocale;
+    private final long mInstallTime;
+
+    private final String[] mTimeZones;
+    // Names and ids of all cities, UTF-8 encoded
+    private final byte[] mStrings;
+    private final int[] mNameStarts;
+    private final int[] mIdStarts;
+    // Each string ends where the next one starts
+    private final int[] mStringEnds;
+    private final short[] mTimeZoneIndexes;
+
+    private final int[] mNameOrder;
+    private final int[] mIdOrder;
+    private final String[] mNameSectionLabels;
+    private final int[] mNameSectionPositions;
+
+    // Guarded by this
+    private final CityObj[] mCities;
+    private int[] mOffsetOrder;
+    private String[] mOffsetSectionLabels;
+    private int[] mOffsetSectionPositions;
+    // The offset order holds from mOffsetOrderFrom, inclusive, to mOffsetOrderUntil, exclusive,
+    // for the TimeZoneOffsets generation it was worked out under.
+    private int mOffsetOrderGeneration = -1;
+    private long mOffsetOrderFrom;
+    private long mOffsetOrderUntil;
+
+    /**
+     * @return the database of the current locale, compiled if needed
+     */
+    public static synchronized CityDatabase getInstance(Context context) {
+        final String locale = Locale.getDefault().toString();
+        final long installTime = getInstallTime(context);
+        if (sInstance == null || !sInstance.mLocale.equals(locale)
+                || sInstance.mInstallTime != installTime) {
+            final AtomicFile file = new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+            CityDatabase db = read(file, locale, installTime);
+            if (db == null) {
+                db = compile(Utils.loadCitiesFromXml(context), locale, installTime);
+                db.scheduleWrite(file);
+            }
+            sInstance = db;
+        }
+        return sInstance;
+    }
+
+    private CityDatabase(String locale, long installTime, String[] timeZones, byte[] strings,
+            int[] nameStarts, int[] idStarts, int[] stringEnds, short[] timeZoneIndexes,
+            int[] nameOrder, int[] idOrder, String[] nameSectionLabels,
+            int[] nameSectionPositions) {
+        mLocale = locale;
+        mInstallTime = installTime;
+        mTimeZones = timeZones;
+        mStrings = strings;
+        mNameStarts = nameStarts;
+        mIdStarts = idStarts;
+        mStringEnds = stringEnds;
+        mTimeZoneIndexes = timeZoneIndexes;
+        mNameOrder = nameOrder;
+        mIdOrder = idOrder;
+        mNameSectionLabels = nameSectionLabels;
+        mNameSectionPositions = nameSectionPositions;
+        mCities = new CityObj[nameStarts.length];
+    }
+
+    public int size() {
+        return mCities.length;
+    }
+
+    /**
+     * @return the city with the given id, or null if there is no such city
+     */
+    public CityObj get(String id) {
+        if (id == null) {
+            return null;
+        }
+        final byte[] key = id.getBytes(UTF_8);
+        int low = 0;
+        int high = mIdOrder.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int city = mIdOrder[mid];
+            final int cmp = compareBytes(mStrings, mIdStarts[city], mStringEnds[2 * city + 1],
+                    key, 0, key.length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return getCity(city);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all cities, sorted by name
+     */
+    public CityObj[] getCitiesByName() {
+        return getCities(mNameOrder);
+    }
+
+    /**
+     * @return labels of the first letter sections of {@link #getCitiesByName()}
+     */
+    public String[] getNameSectionLabels() {
+        return mNameSectionLabels.clone();
+    }
+
+    /**
+     * @return where each section of {@link #getNameSectionLabels()} starts
+     */
+    public int[] getNameSectionPositions() {
+        return mNameSectionPositions.clone();
+    }
+
+    /**
+     * @return all cities, sorted by their current offset from GMT and then by name
+     */
+    public synchronized CityObj[] getCitiesByOffset() {
+        updateOffsetOrder();
+        return getCities(mOffsetOrder);
+    }
+
+    /**
+     * @return labels of the GMT offset sections of {@link #getCitiesByOffset()}
+     */
+    public synchronized String[] getOffsetSectionLabels() {
+        updateOffsetOrder();
+        return mOffsetSectionLabels.clone();
+    }
+
+    /**
+     * @return where each section of {@link #getOffsetSectionLabels()} starts
+     */
+    public synchronized int[] getOffsetSectionPositions() {
+        updateOffsetOrder();
+        return mOffsetSectionPositions.clone();
+    }
+
+    private synchronized CityObj[] getCities(int[] order) {
+        final CityObj[] cities = new CityObj[order.length];
+        for (int i = 0; i < order.length; i++) {
+            cities[i] = getCity(order[i]);
+        }
+        return cities;
+    }
+
+    private synchronized CityObj getCity(int city) {
+        if (mCities[city] == null) {
+            final String name = new String(mStrings, mNameStarts[city],
+                    mStringEnds[2 * city] - mNameStarts[city], UTF_8);
+            final String id = new String(mStrings, mIdStarts[city],
+                    mStringEnds[2 * city + 1] - mIdStarts[city], UTF_8);
+            mCities[city] = new CityObj(name, mTimeZones[mTimeZoneIndexes[city]], id);
+        }
+        return mCities[city];
+    }
+
+    /**
+     * Offsets change with daylight savings time, so the offset order is worked out again once
+     * any time zone reaches its next offset transition, or after the time or the time zone of
+     * the device changed and {@link TimeZoneOffsets#clear()} was called. It is worked out from
+     * the offset of each time zone rather than of each city.
+     */
+    private void updateOffsetOrder() {
+        final long now = System.currentTimeMillis();
+        // Read before the offsets, so a clear while working them out is not missed.
+        final int generation = TimeZoneOffsets.getGeneration();
+        if (generation == mOffsetOrderGeneration && now >= mOffsetOrderFrom
+                && now < mOffsetOrderUntil) {
+            return;
+        }
+
+        final int[] offsets = new int[mTimeZones.length];
+        long until = Long.MAX_VALUE;
+        for (int i = 0; i < mTimeZones.length; i++) {
+            offsets[i] = TimeZoneOffsets.getOffset(mTimeZones[i], now);
+            until = Math.min(until, TimeZoneOffsets.getValidUntil(mTimeZones[i], now));
+        }
+
+        // Sort by offset, then by position in the name order
+        final int count = mNameOrder.length;
+        final long[] keys = new long[count];
+        for (int rank = 0; rank < count; rank++) {
+            final int city = mNameOrder[rank];
+            keys[rank] = ((long) offsets[mTimeZoneIndexes[city]] << 32) | rank;
+        }
+        Arrays.sort(keys);
+
+        final int[] order = new int[count];
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<Integer> positions = new ArrayList<Integer>();
+        int lastOffset = 0;
+        for (int i = 0; i < count; i++) {
+            final int city = mNameOrder[(int) keys[i]];
+            order[i] = city;
+            final int offset = (int) (keys[i] >> 32);
+            if (i == 0 || offset != lastOffset) {
+                labels.add(Utils.getGMTHourOffset(
+                        TimeZone.getTimeZone(mTimeZones[mTimeZoneIndexes[city]]), true));
+                positions.add(i);
+                lastOffset = offset;
+            }
+        }
+
+        mOffsetOrder = order;
+        mOffsetSectionLabels = labels.toArray(new String[labels.size()]);
+        mOffsetSectionPositions = toIntArray(positions);
+        mOffsetOrderGeneration = generation;
+        mOffsetOrderFrom = now;
+        mOffsetOrderUntil = until;
+    }
+
+    /**
+     * Build the database from cities read from the resources.
+     */
+    private static CityDatabase compile(CityObj[] allCities, String locale, long installTime) {
+        final ArrayList<CityObj> cities = new ArrayList<CityObj>(allCities.length);
+        for (CityObj city : allCities) {
+            if (city != null && city.mCityId != null && !DELETED_ENTRY.equals(city.mCityId)) {
+                cities.add(city);
+            }
+        }
+        final int count = cities.size();
+
+        final HashMap<String, Integer> timeZoneIndexes = new HashMap<String, Integer>();
+        final ArrayList<String> timeZones = new ArrayList<String>();
+        final short[] cityTimeZones = new short[count];
+        final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        final int[] nameStarts = new int[count];
+        final int[] idStarts = new int[count];
+        final int[] stringEnds = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            final CityObj city = cities.get(i);
+            Integer timeZone = timeZoneIndexes.get(city.mTimeZone);
+            if (timeZone == null) {
+                timeZone = timeZones.size();
+                timeZones.add(city.mTimeZone);
+                timeZoneIndexes.put(city.mTimeZone, timeZone);
+            }
+            cityTimeZones[i] = timeZone.shortValue();
+
+            final byte[] name = city.mCityName.getBytes(UTF_8);
+            final byte[] id = city.mCityId.getBytes(UTF_8);
+            nameStarts[i] = strings.size();
+            strings.write(name, 0, name.length);
+            stringEnds[2 * i] = strings.size();
+            idStarts[i] = strings.size();
+            strings.write(id, 0, id.length);
+            stringEnds[2 * i + 1] = strings.size();
+        }
+
+        final Collator collator = Collator.getInstance();
+        final int[] nameOrder = sortedOrder(count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return collator.compare(cities.get(lhs).mCityName, cities.get(rhs).mCityName);
+            }
+        });
+        final byte[] bytes = strings.toByteArray();
+        final int[] idOrder = sortedOrder(count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return compareBytes(bytes, idStarts[lhs], stringEnds[2 * lhs + 1],
+                        bytes, idStarts[rhs], stringEnds[2 * rhs + 1]);
+            }
+        });
+
+        // A section for each first letter
+        final ArrayList<String> labels = new ArrayList<String>();
+        final ArrayList<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            final String name = cities.get(nameOrder[i]).mCityName;
+            final String label = name.substring(0, 1).toUpperCase();
+            if (labels.isEmpty() || !labels.get(labels.size() - 1).equals(label)) {
+                labels.add(label);
+                positions.add(i);
+            }
+        }
+
+        return new CityDatabase(locale, installTime,
+                timeZones.toArray(new String[timeZones.size()]), bytes, nameStarts, idStarts,
+                stringEnds, cityTimeZones, nameOrder, idOrder,
+                labels.toArray(new String[labels.size()]), toIntArray(positions));
+    }
+
+    private static int[] sortedOrder(int count, Comparator<Integer> comparator) {
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, comparator);
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private static int[] toIntArray(ArrayList<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static int compareBytes(byte[] a, int aStart, int aEnd,
+            byte[] b, int bStart, int bEnd) {
+        while (aStart < aEnd && bStart < bEnd) {
+            final int cmp = (a[aStart++] & 0xff) - (b[bStart++] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    private static long getInstallTime(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (NameNotFoundException e) {
+            Log.wtf("Invalid package name for context " + e);
+            return 0;
+        }
+    }
+
+    private void scheduleWrite(final AtomicFile file) {
+        AsyncHandler.post(AsyncHandler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                write(file);
+            }
+        });
+    }
+
+    private void write(AtomicFile file) {
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(mLocale);
+            out.writeLong(mInstallTime);
+            out.writeInt(mTimeZones.length);
+            for (String timeZone : mTimeZones) {
+                out.writeUTF(timeZone);
+            }
+            out.writeInt(mStrings.length);
+            out.write(mStrings);
+            final int count = mNameStarts.length;
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(mNameStarts[i]);
+                out.writeInt(mStringEnds[2 * i]);
+                out.writeInt(mIdStarts[i]);
+                out.writeInt(mStringEnds[2 * i + 1]);
+                out.writeShort(mTimeZoneIndexes[i]);
+                out.writeInt(mNameOrder[i]);
+                out.writeInt(mIdOrder[i]);
+            }
+            out.writeInt(mNameSectionLabels.length);
+            for (int i = 0; i < mNameSectionLabels.length; i++) {
+                out.writeUTF(mNameSectionLabels[i]);
+                out.writeInt(mNameSectionPositions[i]);
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e("Unable to write cities", e);
+            file.failWrite(fos);
+        }
+    }
+
+    /**
+     * @return the database in the file, or null if there is none for this locale and install
+     */
+    private static CityDatabase read(AtomicFile file, String locale, long installTime) {
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(file.readFully()));
+            if (in.readInt() != FILE_VERSION || !in.readUTF().equals(locale)
+                    || in.readLong() != installTime) {
+                return null;
+            }
+            final String[] timeZones = new String[in.readInt()];
+            for (int i = 0; i < timeZones.length; i++) {
+                timeZones[i] = in.readUTF();
+            }
+            final byte[] strings = new byte[in.readInt()];
+            in.readFully(strings);
+            final int count = in.readInt();
+            final int[] nameStarts = new int[count];
+            final int[] idStarts = new int[count];
+            final int[] stringEnds = new int[count * 2];
+            final short[] timeZoneIndexes = new short[count];
+            final int[] nameOrder = new int[count];
+            final int[] idOrder = new int[count];
+            for (int i = 0; i < count; i++) {
+                nameStarts[i] = in.readInt();
+                stringEnds[2 * i] = in.readInt();
+                idStarts[i] = in.readInt();
+                stringEnds[2 * i + 1] = in.readInt();
+                timeZoneIndexes[i] = in.readShort();
+                nameOrder[i] = in.readInt();
+                idOrder[i] = in.readInt();
+            }
+            final int sections = in.readInt();
+            final String[] labels = new String[sections];
+            final int[] positions = new int[sections];
+            for (int i = 0; i < sections; i++) {
+                labels[i] = in.readUTF();
+                positions[i] = in.readInt();
+            }
+            return new CityDatabase(locale, installTime, timeZones, strings, nameStarts,
+                    idStarts, stringEnds, timeZoneIndexes, nameOrder, idOrder, labels, positions);
+        } catch (FileNotFoundException e) {
+            // Not compiled yet
+            return null;
+        } catch (IOException e) {
+            Log.e("Unable to read cities", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix search over city names. Every word of a name is indexed, so "york" finds
+ * "New York", and names are compared with accents folded and case ignored, so "sao" finds
+ * "São Paulo".
+ *
+ * The index is a trie whose nodes list every city below them, in the order the names were
+ * given, so a search costs the length of the query plus the number of results. A query that
+ * extends the previous one continues from where that one ended, which is how the query
+ * grows while the user types.
+ *
+ * Building the index walks every name, so do it off the main thread. Searching is
+ * synchronized and may be done from any thread.
+ */
+public class CitySearchIndex {
+    private static final int[] NO_RESULTS = new int[0];
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final Node mRoot = new Node();
+
+    // The last search, continued from when the next query extends it
+    private String mLastQuery;
+    private Node mLastNode;
+
+    /**
+     * @param names names to index, entries that are null are left out
+     */
+    public CitySearchIndex(String[] names) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                insert(normalize(names[i]), i);
+            }
+        }
+        mRoot.trim();
+    }
+
+    /**
+     * @return name with accents removed, in upper case and without surrounding white space
+     */
+    public static String normalize(String name) {
+        final String decomposed = Normalizer.normalize(name.trim(), Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Find the names with a word that starts with the query.
+     *
+     * @param query text the user typed
+     * @return indexes of the matching names, in ascending order. Must not be modified.
+     */
+    public synchronized int[] search(String query) {
+        final String key = normalize(query);
+        Node node = mRoot;
+        int start = 0;
+        if (mLastQuery != null && key.startsWith(mLastQuery)) {
+            if (mLastNode == null) {
+                // Nothing matched a shorter query either
+                mLastQuery = key;
+                return NO_RESULTS;
+            }
+            node = mLastNode;
+            start = mLastQuery.length();
+        }
+        for (int i = start; i < key.length() && node != null; i++) {
+            node = node.getChild(key.charAt(i));
+        }
+        mLastQuery = key;
+        mLastNode = node;
+        return node != null ? node.mPostings : NO_RESULTS;
+    }
+
+    private void insert(String name, int index) {
+        for (int start = 0; start < name.length(); start++) {
+            if (start == 0 || isWordStart(name, start)) {
+                Node node = mRoot;
+                for (int i = start; i < name.length(); i++) {
+                    node = node.getOrAddChild(name.charAt(i));
+                    node.addPosting(index);
+                }
+            }
+        }
+    }
+
+    private static boolean isWordStart(String name, int i) {
+        return Character.isLetterOrDigit(name.charAt(i))
+                && !Character.isLetterOrDigit(name.charAt(i - 1));
+    }
+
+    private static final class Node {
+        // Children sorted by their character
+        private char[] mKeys = new char[0];
+        private Node[] mChildren = new Node[0];
+        private int[] mPostings = new int[2];
+        private int mPostingCount;
+
+        Node getChild(char c) {
+            final int i = Arrays.binarySearch(mKeys, c);
+            return i >= 0 ? mChildren[i] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int i = Arrays.binarySearch(mKeys, c);
+            if (i >= 0) {
+                return mChildren[i];
+            }
+            i = -i - 1;
+            final int count = mKeys.length;
+            final char[] keys = new char[count + 1];
+            final Node[] children = new Node[count + 1];
+            System.arraycopy(mKeys, 0, keys, 0, i);
+            System.arraycopy(mChildren, 0, children, 0, i);
+            System.arraycopy(mKeys, i, keys, i + 1, count - i);
+            System.arraycopy(mChildren, i, children, i + 1, count - i);
+            keys[i] = c;
+            children[i] = new Node();
+            mKeys = keys;
+            mChildren = children;
+            return children[i];
+        }
+
+        void addPosting(int index) {
+            // Names are inserted in order, so a repeat can only be the last posting. It
+            // happens when two words of one name share a prefix.
+            if (mPostingCount > 0 && mPostings[mPostingCount - 1] == index) {
+                return;
+            }
+            if (mPostingCount == mPostings.length) {
+                mPostings = Arrays.copyOf(mPostings, mPostingCount * 2);
+            }
+            mPostings[mPostingCount++] = index;
+        }
+
+        void trim() {
+            if (mPostings.length != mPostingCount) {
+                mPostings = Arrays.copyOf(mPostings, mPostingCount);
+            }
+            for (Node child : mChildren) {
+                child.trim();
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.text.format.DateUtils;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * Process wide cache of the offsets from GMT of time zones, by time zone id. An entry stays
+ * valid until the next offset transition of its zone, so the zone rules are only looked at
+ * again once daylight savings time starts or ends, or after {@link #clear()}.
+ */
+public final class TimeZoneOffsets {
+    // How far ahead transitions are looked for. Entries without one are checked again after.
+    private static final long HORIZON = 366 * DateUtils.DAY_IN_MILLIS;
+
+    // Guarded by TimeZoneOffsets.class
+    private static final HashMap<String, Entry> sEntries = new HashMap<String, Entry>();
+    // Counts the calls to clear(), for callers keeping offsets of their own
+    private static int sGeneration;
+
+    private static final class Entry {
+        final TimeZone timeZone;
+        int offset;
+        // The offset applies from validFrom, inclusive, to validUntil, exclusive.
+        long validFrom;
+        long validUntil;
+
+        Entry(TimeZone timeZone) {
+            this.timeZone = timeZone;
+        }
+    }
+
+    private TimeZoneOffsets() {
+    }
+
+    /**
+     * @return offset from GMT in milliseconds of a time zone at a time, daylight savings
+     *         time included
+     */
+    public static synchronized int getOffset(String timeZoneId, long time) {
+        return getEntry(timeZoneId, time).offset;
+    }
+
+    /**
+     * @return time until which the offset of a time zone at a time stays the same, exclusive.
+     *         This is the next offset transition, or a time far enough ahead when there is none.
+     */
+    public static synchronized long getValidUntil(String timeZoneId, long time) {
+        return getEntry(timeZoneId, time).validUntil;
+    }
+
+    /**
+     * Forget all offsets, after the time or the time zone of the device was changed.
+     */
+    public static synchronized void clear() {
+        sEntries.clear();
+        sGeneration++;
+    }
+
+    /**
+     * @return a number that changes every time the offsets are cleared. Offsets worked out
+     *         from this class under another generation must be worked out again.
+     */
+    public static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    // Must be called while holding TimeZoneOffsets.class
+    private static Entry getEntry(String timeZoneId, long time) {
+        Entry entry = sEntries.get(timeZoneId);
+        if (entry == null) {
+            entry = new Entry(TimeZone.getTimeZone(timeZoneId));
+            update(entry, time);
+            sEntries.put(timeZoneId, entry);
+        } else if (time < entry.validFrom || time >= entry.validUntil) {
+            update(entry, time);
+        }
+        return entry;
+    }
+
+    /**
+     * Sort cities by their offset from GMT at a time, and then by name. Cities without a time
+     * zone come first, and then cities without a name within an offset. The offset and the
+     * collation key of the name of each city are worked out once, instead of for every
+     * comparison.
+     *
+     * @param cities {@link CityObj} instances to sort
+     * @param time to compare the offsets at
+     */
+    public static void sortByOffset(Object[] cities, long time) {
+        final Collator collator = Collator.getInstance();
+        final SortKey[] keys = new SortKey[cities.length];
+        for (int i = 0; i < cities.length; i++) {
+            keys[i] = new SortKey((CityObj) cities[i], time, collator);
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < cities.length; i++) {
+            cities[i] = keys[i].city;
+        }
+    }
+
+    private static void update(Entry entry, long time) {
+        final TimeZone timeZone = entry.timeZone;
+        final int offset = timeZone.getOffset(time);
+        entry.offset = offset;
+        entry.validFrom = time;
+        entry.validUntil = time + HORIZON;
+        if (!timeZone.useDaylightTime()) {
+            return;
+        }
+
+        // Find the first day the offset is different, then the exact transition in that day.
+        long low = time;
+        for (long high = time + DateUtils.DAY_IN_MILLIS; high <= time + HORIZON;
+                high += DateUtils.DAY_IN_MILLIS) {
+            if (timeZone.getOffset(high) != offset) {
+                while (high - low > 1) {
+                    final long middle = low + (high - low) / 2;
+                    if (timeZone.getOffset(middle) == offset) {
+                        low = middle;
+                    } else {
+                        high = middle;
+                    }
+                }
+                entry.validUntil = high;
+                return;
+            }
+            low = high;
+        }
+    }
+
+    private static final class SortKey implements Comparable<SortKey> {
+        final CityObj city;
+        final boolean hasTimeZone;
+        final int offset;
+        final CollationKey name;
+
+        SortKey(CityObj city, long time, Collator collator) {
+            this.city = city;
+            hasTimeZone = city.mTimeZone != null;
+            offset = hasTimeZone ? getOffset(city.mTimeZone, time) : 0;
+            name = city.mCityName != null ? collator.getCollationKey(city.mCityName) : null;
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            if (hasTimeZone != other.hasTimeZone) {
+                return hasTimeZone ? 1 : -1;
+            }
+            if (offset != other.offset) {
+                return offset < other.offset ? -1 : 1;
+            }
+            if (name == null || other.name == null) {
+                return name == other.name ? 0 : name == null ? -1 : 1;
+            }
+            return name.compareTo(other.name);
+        }
+    }
+}
@@ -31,12 +31,7 @@ import com.android.deskclock.R;
 import com.android.deskclock.SettingsActivity;
 import com.android.deskclock.Utils;
 
-import java.text.Collator;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.TimeZone;
 
@@ -45,8 +40,7 @@ public class WorldClockAdapter extends BaseAdapter {
     private final LayoutInflater mInflater;
     private final Context mContext;
     private String mClockStyle;
-    private final Collator mCollator = Collator.getInstance();
-    protected HashMap<String, CityObj> mCitiesDb = new HashMap<String, CityObj>();
+    protected CityDatabase mCitiesDb;
     private int mClocksPerRow;
 
     public WorldClockAdapter(Context context) {
@@ -67,22 +61,16 @@ public class WorldClockAdapter extends BaseAdapter {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
         mClockStyle = prefs.getString(SettingsActivity.KEY_CLOCK_STYLE,
                 mContext.getResources().getString(R.string.default_clock_style));
-        mCitiesList = Cities.readCitiesFromSharedPrefs(prefs).values().toArray();
+        mCitiesList = Cities.getInstance(context).getSelectedCities();
         sortList();
         mCitiesList = addHomeCity();
     }
 
     public void loadCitiesDb(Context context) {
-        mCitiesDb.clear();
         // Read the cities DB so that the names and timezones will be taken from the DB
         // and not from the selected list so that change of locale or changes in the DB will
         // be reflected.
-        CityObj[] cities = Utils.loadCitiesFromXml(context);
-        if (cities != null) {
-            for (int i = 0; i < cities.length; i ++) {
-                mCitiesDb.put(cities[i].mCityId, cities [i]);
-            }
-        }
+        mCitiesDb = CityDatabase.getInstance(context);
     }
 
     /***
@@ -120,9 +108,9 @@ public class WorldClockAdapter extends BaseAdapter {
         if (sharedPref.getBoolean(SettingsActivity.KEY_AUTO_HOME_CLOCK, false)) {
             String homeTZ = sharedPref.getString(
                     SettingsActivity.KEY_HOME_TZ, TimeZone.getDefault().getID());
-            final Date now = new Date();
-            return TimeZone.getTimeZone(homeTZ).getOffset(now.getTime())
-                    != TimeZone.getDefault().getOffset(now.getTime());
+            final long now = System.currentTimeMillis();
+            return TimeZoneOffsets.getOffset(homeTZ, now)
+                    != TimeZoneOffsets.getOffset(TimeZone.getDefault().getID(), now);
         } else {
             return false;
         }
@@ -134,44 +122,9 @@ public class WorldClockAdapter extends BaseAdapter {
     }
 
     private void sortList() {
-        final Date now = new Date();
-
         // Sort by the Offset from GMT taking DST into account
         // and if the same sort by City Name
-        Arrays.sort(mCitiesList, new Comparator<Object>() {
-            private int safeCityNameCompare(CityObj city1, CityObj city2) {
-                if (city1.mCityName == null && city2.mCityName == null) {
-                    return 0;
-                } else if (city1.mCityName == null) {
-                    return -1;
-                } else if (city2.mCityName == null) {
-                    return 1;
-                } else {
-                    return mCollator.compare(city1.mCityName, city2.mCityName);
-                }
-            }
-
-            @Override
-            public int compare(Object object1, Object object2) {
-                CityObj city1 = (CityObj) object1;
-                CityObj city2 = (CityObj) object2;
-                if (city1.mTimeZone == null && city2.mTimeZone == null) {
-                    return safeCityNameCompare(city1, city2);
-                } else if (city1.mTimeZone == null) {
-                    return -1;
-                } else if (city2.mTimeZone == null) {
-                    return 1;
-                }
-
-                int gmOffset1 = TimeZone.getTimeZone(city1.mTimeZone).getOffset(now.getTime());
-                int gmOffset2 = TimeZone.getTimeZone(city2.mTimeZone).getOffset(now.getTime());
-                if (gmOffset1 == gmOffset2) {
-                    return safeCityNameCompare(city1, city2);
-                } else {
-                    return gmOffset1 - gmOffset2;
-                }
-            }
-        });
+        TimeZoneOffsets.sortByOffset(mCitiesList, System.currentTimeMillis());
     }
 
     @Override
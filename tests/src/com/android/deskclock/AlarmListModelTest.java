@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.test.AndroidTestCase;
+
+import com.android.deskclock.provider.Alarm;
+
+/**
+ * Tests for the diff between two {@link AlarmListModel} snapshots.
+ */
+public class AlarmListModelTest extends AndroidTestCase {
+
+    public void testIndexOf() {
+        AlarmListModel model = model(alarm(7, 6), alarm(3, 7), alarm(12, 8));
+        assertEquals(0, model.indexOf(7));
+        assertEquals(1, model.indexOf(3));
+        assertEquals(2, model.indexOf(12));
+        assertEquals(-1, model.indexOf(4));
+        assertEquals(-1, AlarmListModel.EMPTY.indexOf(4));
+    }
+
+    public void testUnchangedAlarmsAreKept() {
+        AlarmListModel old = model(alarm(1, 6), alarm(2, 7));
+        AlarmListModel.Diff diff = AlarmListModel.diff(old, model(alarm(1, 6), alarm(2, 7)));
+        assertFalse(diff.isStructural());
+        assertEquals(0, diff.changedIds.length);
+        assertSame(old.get(0), diff.model.get(0));
+        assertSame(old.get(1), diff.model.get(1));
+    }
+
+    public void testChangedAlarm() {
+        AlarmListModel old = model(alarm(1, 6), alarm(2, 7), alarm(3, 8));
+        Alarm toggled = alarm(2, 7);
+        toggled.enabled = !toggled.enabled;
+        AlarmListModel loaded = model(alarm(1, 6), toggled, alarm(3, 8));
+
+        AlarmListModel.Diff diff = AlarmListModel.diff(old, loaded);
+        assertFalse(diff.isStructural());
+        assertEquals(1, diff.changedIds.length);
+        assertEquals(2, diff.changedIds[0]);
+        assertSame(old.get(0), diff.model.get(0));
+        assertSame(loaded.get(1), diff.model.get(1));
+        assertSame(old.get(2), diff.model.get(2));
+    }
+
+    public void testEditedAlarmIsComparedWithStoredCopy() {
+        AlarmListModel old = model(alarm(1, 6));
+        // A row edits its alarm before the change is written to the database.
+        old.get(0).label = "Edited";
+        Alarm stored = alarm(1, 6);
+        stored.label = "Edited";
+
+        AlarmListModel.Diff diff = AlarmListModel.diff(old, model(stored));
+        assertEquals(1, diff.changedIds.length);
+    }
+
+    public void testInsertAndRemove() {
+        AlarmListModel old = model(alarm(1, 6), alarm(2, 7), alarm(3, 8));
+        AlarmListModel.Diff diff = AlarmListModel.diff(old,
+                model(alarm(1, 6), alarm(4, 7), alarm(3, 8), alarm(5, 9)));
+        assertTrue(diff.isStructural());
+        assertEquals(2, diff.inserted);
+        assertEquals(1, diff.removed);
+        assertFalse(diff.moved);
+        assertSame(old.get(2), diff.model.get(2));
+        assertEquals(3, diff.model.indexOf(5));
+    }
+
+    public void testMove() {
+        AlarmListModel old = model(alarm(1, 6), alarm(2, 7), alarm(3, 8));
+        Alarm later = alarm(1, 9);
+        AlarmListModel.Diff diff = AlarmListModel.diff(old,
+                model(alarm(2, 7), alarm(3, 8), later));
+        assertTrue(diff.isStructural());
+        assertTrue(diff.moved);
+        assertEquals(0, diff.inserted);
+        assertEquals(0, diff.removed);
+        assertEquals(1, diff.changedIds.length);
+        assertEquals(2, diff.model.indexOf(1));
+    }
+
+    public void testFirstLoad() {
+        AlarmListModel loaded = model(alarm(1, 6));
+        AlarmListModel.Diff diff = AlarmListModel.diff(null, loaded);
+        assertSame(loaded, diff.model);
+        assertEquals(1, diff.inserted);
+    }
+
+    private static Alarm alarm(long id, int hour) {
+        Alarm alarm = new Alarm(hour, 0);
+        alarm.id = id;
+        return alarm;
+    }
+
+    private static AlarmListModel model(Alarm... alarms) {
+        Alarm[] stored = new Alarm[alarms.length];
+        for (int i = 0; i < alarms.length; i++) {
+            stored[i] = alarm(alarms[i].id, alarms[i].hour);
+            stored[i].enabled = alarms[i].enabled;
+            stored[i].label = alarms[i].label;
+        }
+        return new AlarmListModel(alarms, stored);
+    }
+}
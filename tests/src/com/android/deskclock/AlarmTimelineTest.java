@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests for the incremental updates of {@link AlarmTimeline}.
+ */
+public class AlarmTimelineTest extends AndroidTestCase {
+
+    public void testNodesAreSorted() {
+        AlarmTimeline timeline = new AlarmTimeline();
+        timeline.setAlarm(2, times(300, 100), labels("C", "A"), true);
+        timeline.setAlarm(1, times(200), labels("B"), false);
+        assertEquals(3, timeline.size());
+        assertEquals(100, timeline.getTime(0));
+        assertEquals(200, timeline.getTime(1));
+        assertEquals(300, timeline.getTime(2));
+        assertEquals("A", timeline.getLabel(0));
+        assertEquals("B", timeline.getLabel(1));
+        assertTrue(timeline.isRepeating(0));
+        assertFalse(timeline.isRepeating(1));
+    }
+
+    public void testSharedNode() {
+        AlarmTimeline timeline = new AlarmTimeline();
+        timeline.setAlarm(1, times(100), labels("A"), false);
+        timeline.setAlarm(2, times(100, 200), labels("A", "B"), true);
+        assertEquals(2, timeline.size());
+        assertTrue(timeline.isRepeating(0));
+
+        // The node stays as long as an alarm fires at that time.
+        timeline.removeAlarm(2);
+        assertEquals(1, timeline.size());
+        assertEquals(100, timeline.getTime(0));
+        assertFalse(timeline.isRepeating(0));
+
+        timeline.removeAlarm(1);
+        assertEquals(0, timeline.size());
+    }
+
+    public void testSetReplacesTimes() {
+        AlarmTimeline timeline = new AlarmTimeline();
+        timeline.setAlarm(1, times(100, 200), labels("A", "B"), true);
+        timeline.setAlarm(2, times(150), labels("C"), false);
+        timeline.setAlarm(1, times(300), labels("D"), false);
+        assertEquals(2, timeline.size());
+        assertEquals(150, timeline.getTime(0));
+        assertEquals(300, timeline.getTime(1));
+        assertFalse(timeline.isRepeating(1));
+
+        timeline.setAlarm(2, times(), labels(), false);
+        assertEquals(1, timeline.size());
+    }
+
+    public void testGrowAndClear() {
+        AlarmTimeline timeline = new AlarmTimeline();
+        for (int id = 40; id > 0; id--) {
+            timeline.setAlarm(id, times(id * 10, id * 10 + 5), labels("A", "B"), true);
+        }
+        assertEquals(80, timeline.size());
+        for (int i = 1; i < timeline.size(); i++) {
+            assertTrue(timeline.getTime(i - 1) < timeline.getTime(i));
+        }
+        for (int id = 1; id <= 40; id += 2) {
+            timeline.removeAlarm(id);
+        }
+        assertEquals(40, timeline.size());
+        assertEquals(20, timeline.getTime(0));
+
+        timeline.clear();
+        assertEquals(0, timeline.size());
+        timeline.removeAlarm(2);
+        assertEquals(0, timeline.size());
+    }
+
+    private static long[] times(long... times) {
+        return times;
+    }
+
+    private static String[] labels(String... labels) {
+        return labels;
+    }
+}
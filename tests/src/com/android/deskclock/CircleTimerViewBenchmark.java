@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Compares the cost of redrawing every {@link CircleTimerView} in full each frame with
+ * redrawing only the part of the circle that changed, for 1, 10 and 50 running timers.
+ */
+public class CircleTimerViewBenchmark extends AndroidTestCase {
+    private static final String TAG = "CircleTimerViewBenchmark";
+
+    private static final int SIZE = 400;
+    private static final long FRAME_MILLIS = 16;
+    // Ten seconds of frames
+    private static final int FRAMES = 625;
+    private static final long TIMER_LENGTH = 5 * 60 * 1000;
+
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testOneTimer() {
+        compare(1);
+    }
+
+    public void testTenTimers() {
+        compare(10);
+    }
+
+    public void testFiftyTimers() {
+        compare(50);
+    }
+
+    private void compare(int timers) {
+        final Result full = run(timers, false);
+        final Result incremental = run(timers, true);
+        Log.i(TAG, timers + " timers, full: " + full + ", incremental: " + incremental);
+        assertEquals(0, full.partialRedraws);
+        // After the first full draw, every frame only redraws what the arc swept.
+        assertEquals(incremental.redraws, incremental.partialRedraws);
+        assertTrue(incremental.redrawnPixels < full.redrawnPixels);
+    }
+
+    private Result run(int timers, boolean incremental) {
+        final CircleTimerView[] views = new CircleTimerView[timers];
+        final long[] nextFrames = new long[timers];
+        final long start = Utils.getTimeNow();
+        final Rect dirty = new Rect(0, 0, SIZE, SIZE);
+        for (int i = 0; i < timers; i++) {
+            final CircleTimerView view = new CircleTimerView(getContext());
+            view.layout(0, 0, SIZE, SIZE);
+            view.setTimerMode(true);
+            view.setIncrementalDraw(incremental);
+            // Stagger the timers so they do not all move on the same frame.
+            view.setIntervalTime(TIMER_LENGTH + i * 1000);
+            view.startIntervalAnimation();
+            view.drawAtTime(mCanvas, start, dirty);
+            views[i] = view;
+        }
+
+        final Result result = new Result();
+        final long startNanos = System.nanoTime();
+        for (int frame = 1; frame <= FRAMES; frame++) {
+            final long now = start + frame * FRAME_MILLIS;
+            for (int i = 0; i < timers; i++) {
+                if (now < nextFrames[i]) {
+                    continue;
+                }
+                nextFrames[i] = views[i].updateDirtyRegion(now, dirty);
+                if (dirty.isEmpty()) {
+                    continue;
+                }
+                mCanvas.save();
+                mCanvas.clipRect(dirty);
+                final float drawnPercent = views[i].getDrawnPercent();
+                views[i].drawAtTime(mCanvas, now, dirty);
+                mCanvas.restore();
+                // Each draw covers the region swept since the last one, and so moves it on.
+                assertTrue(views[i].getDrawnPercent() > drawnPercent);
+                result.redraws++;
+                result.redrawnPixels += (long) dirty.width() * dirty.height();
+                if (dirty.width() < SIZE || dirty.height() < SIZE) {
+                    result.partialRedraws++;
+                }
+            }
+        }
+        result.nanosPerFrame = (System.nanoTime() - startNanos) / FRAMES;
+        return result;
+    }
+
+    private static class Result {
+        int redraws;
+        int partialRedraws;
+        long redrawnPixels;
+        long nanosPerFrame;
+
+        @Override
+        public String toString() {
+            return nanosPerFrame / 1000 + "us/frame, " + redraws + " redraws ("
+                    + partialRedraws + " partial), " + redrawnPixels + " pixels";
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.android.deskclock.R;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Tests for {@link AlarmAudioCache}, arming ringtones copied from the fallback ringtone.
+ */
+public class AlarmAudioCacheTest extends AndroidTestCase {
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+    private static final long TWO_DAYS = 2 * 24 * 60 * 60 * 1000L;
+
+    private File mRingtones;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRingtones = new File(getContext().getCacheDir(), "alarm_audio_test");
+        deleteDirectory(mRingtones);
+        deleteDirectory(new File(getContext().getCacheDir(), AlarmAudioCache.DIRECTORY));
+        assertTrue(mRingtones.mkdirs());
+        // Ringtones not copied are opened by the media server, by path.
+        mRingtones.setExecutable(true, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory(mRingtones);
+        deleteDirectory(new File(getContext().getCacheDir(), AlarmAudioCache.DIRECTORY));
+        super.tearDown();
+    }
+
+    public void testNotArmed() throws Exception {
+        final Uri ringtone = Uri.fromFile(writeRingtone("ring.ogg"));
+        assertNull(AlarmAudioCache.get(getContext(), ringtone));
+    }
+
+    public void testArmCopies() throws Exception {
+        final Uri ringtone = Uri.fromFile(writeRingtone("ring.ogg"));
+        AlarmAudioCache.arm(getContext(), ringtone, false, NO_LIMIT);
+
+        final AlarmAudioCache.ArmedRingtone armed = AlarmAudioCache.get(getContext(), ringtone);
+        assertNotNull(armed);
+        assertEquals(ringtone, armed.getSource());
+        assertFalse(armed.isFolder());
+        assertTrue(armed.isCopied());
+    }
+
+    public void testTooLargeIsCheckedNotCopied() throws Exception {
+        final File file = writeRingtone("ring.ogg");
+        final Uri ringtone = Uri.fromFile(file);
+        AlarmAudioCache.arm(getContext(), ringtone, false, file.length() - 1);
+
+        final AlarmAudioCache.ArmedRingtone armed = AlarmAudioCache.get(getContext(), ringtone);
+        assertNotNull(armed);
+        assertEquals(ringtone, armed.getSource());
+        assertFalse(armed.isCopied());
+    }
+
+    public void testUnplayableNotArmed() throws Exception {
+        final Uri ringtone = Uri.fromFile(writeGarbage("ring.ogg"));
+        AlarmAudioCache.arm(getContext(), ringtone, false, NO_LIMIT);
+        assertNull(AlarmAudioCache.get(getContext(), ringtone));
+    }
+
+    public void testStaleEntryIgnored() throws Exception {
+        final Uri ringtone = Uri.fromFile(writeRingtone("ring.ogg"));
+        AlarmAudioCache.arm(getContext(), ringtone, false, NO_LIMIT);
+
+        final File[] files =
+                new File(getContext().getCacheDir(), AlarmAudioCache.DIRECTORY).listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertTrue(file.setLastModified(System.currentTimeMillis() - TWO_DAYS));
+        }
+        assertNull(AlarmAudioCache.get(getContext(), ringtone));
+    }
+
+    public void testReplacedSourceIgnored() throws Exception {
+        final File file = writeRingtone("ring.ogg");
+        final Uri ringtone = Uri.fromFile(file);
+        AlarmAudioCache.arm(getContext(), ringtone, false, NO_LIMIT);
+        assertNotNull(AlarmAudioCache.get(getContext(), ringtone));
+
+        // Same length, another modification time
+        assertTrue(file.setLastModified(file.lastModified() - TWO_DAYS));
+        // Firing does not look at the source, the check once playing does.
+        final AlarmAudioCache.ArmedRingtone armed = AlarmAudioCache.get(getContext(), ringtone);
+        assertNotNull(armed);
+        assertFalse(AlarmAudioCache.checkSource(getContext(), armed));
+        assertNull(AlarmAudioCache.get(getContext(), ringtone));
+    }
+
+    public void testUnchangedSourceKept() throws Exception {
+        final Uri ringtone = Uri.fromFile(writeRingtone("ring.ogg"));
+        AlarmAudioCache.arm(getContext(), ringtone, false, NO_LIMIT);
+
+        final AlarmAudioCache.ArmedRingtone armed = AlarmAudioCache.get(getContext(), ringtone);
+        assertNotNull(armed);
+        assertTrue(AlarmAudioCache.checkSource(getContext(), armed));
+        assertNotNull(AlarmAudioCache.get(getContext(), ringtone));
+    }
+
+    public void testFolderFallsBackToPlayableSong() throws Exception {
+        final File folder = new File(mRingtones, "folder");
+        assertTrue(folder.mkdirs());
+        folder.setExecutable(true, false);
+        writeGarbage("folder/a.ogg");
+        writeGarbage("folder/b.ogg");
+        final File song = writeRingtone("folder/c.ogg");
+
+        // Whatever order the songs are listed in, the playable one is within the attempts.
+        final Uri ringtone = Uri.fromFile(folder);
+        AlarmAudioCache.arm(getContext(), ringtone, true, NO_LIMIT);
+
+        final AlarmAudioCache.ArmedRingtone armed = AlarmAudioCache.get(getContext(), ringtone);
+        assertNotNull(armed);
+        assertEquals(Uri.fromFile(song), armed.getSource());
+        assertTrue(armed.isFolder());
+    }
+
+    private File writeRingtone(String name) throws IOException {
+        final File file = new File(mRingtones, name);
+        final InputStream in = getContext().getResources().openRawResource(R.raw.fallbackring);
+        try {
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                final byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        file.setReadable(true, false);
+        return file;
+    }
+
+    private File writeGarbage(String name) throws IOException {
+        final File file = new File(mRingtones, name);
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < 4096; i++) {
+                out.write(i * 31);
+            }
+        } finally {
+            out.close();
+        }
+        file.setReadable(true, false);
+        return file;
+    }
+
+    private static void deleteDirectory(File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.test.AndroidTestCase;
+
+import com.android.deskclock.provider.Alarm;
+import com.android.deskclock.provider.AlarmInstance;
+import com.android.deskclock.provider.Recurrence;
+
+import java.util.Calendar;
+
+/**
+ * Tests how {@link AlarmStateManager} reschedules the parent alarm of a dismissed or missed
+ * instance.
+ */
+public class AlarmStateManagerTest extends AndroidTestCase {
+
+    public void testNotRepeatingIsNotRescheduled() {
+        final Alarm alarm = new Alarm(7, 0);
+        final AlarmInstance instance = alarm.createInstanceAfter(time(2014, 1, 6, 0));
+        assertNull(AlarmStateManager.createNextRepeatedInstance(alarm, instance,
+                time(2014, 1, 7, 5)));
+    }
+
+    public void testRescheduledOnDaysOfWeek() {
+        final Alarm alarm = new Alarm(7, 0);
+        // January 1st 2014 was a Wednesday.
+        alarm.daysOfWeek.setDaysOfWeek(true, Calendar.WEDNESDAY);
+        final AlarmInstance instance = alarm.createInstanceAfter(time(2014, 1, 6, 0));
+        assertDay(8, instance);
+        assertDay(15, AlarmStateManager.createNextRepeatedInstance(alarm, instance,
+                time(2014, 8, 7, 5)));
+    }
+
+    public void testRescheduledFromRecurrence() {
+        final Alarm alarm = new Alarm(7, 0);
+        // Two days on from January 1st, then two days off
+        alarm.recurrence = Recurrence.rotation(2, 2, time(2014, 1, 0, 0));
+
+        final AlarmInstance first = alarm.createInstanceAfter(time(2014, 1, 0, 0));
+        assertDay(1, first);
+        // Dismissed a few minutes after firing
+        final AlarmInstance second = AlarmStateManager.createNextRepeatedInstance(alarm, first,
+                time(2014, 1, 7, 5));
+        assertDay(2, second);
+        assertDay(5, AlarmStateManager.createNextRepeatedInstance(alarm, second,
+                time(2014, 2, 7, 5)));
+    }
+
+    public void testMissedLongAgoRescheduledFromNow() {
+        final Alarm alarm = new Alarm(7, 0);
+        alarm.recurrence = Recurrence.everyNDays(1, time(2014, 1, 0, 0));
+        final AlarmInstance instance = alarm.createInstanceAfter(time(2014, 6, 0, 0));
+        assertDay(20, AlarmStateManager.createNextRepeatedInstance(alarm, instance,
+                time(2014, 20, 6, 0)));
+    }
+
+    private static void assertDay(int dayOfMonth, AlarmInstance instance) {
+        assertNotNull(instance);
+        final Calendar time = instance.getAlarmTime();
+        assertEquals(Calendar.JANUARY, time.get(Calendar.MONTH));
+        assertEquals(dayOfMonth, time.get(Calendar.DAY_OF_MONTH));
+        assertEquals(7, time.get(Calendar.HOUR_OF_DAY));
+        assertEquals(0, time.get(Calendar.MINUTE));
+    }
+
+    // A time in January
+    private static Calendar time(int year, int dayOfMonth, int hour, int minute) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, Calendar.JANUARY, dayOfMonth, hour, minute);
+        return calendar;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link AlarmTransitionQueue}. Apart from logging, this only depends on the JDK,
+ * so it also runs on a desktop JVM.
+ */
+public class AlarmTransitionQueueTest extends TestCase {
+    private static final String TAG = "AlarmTransitionQueueTest";
+
+    public void testEmptyQueue() {
+        AlarmTransitionQueue queue = new AlarmTransitionQueue();
+        assertNull(queue.peek());
+        assertEquals(-1, queue.getNextTime());
+        List<AlarmTransitionQueue.Transition> due = new ArrayList<AlarmTransitionQueue.Transition>();
+        assertEquals(0, queue.pollDue(Long.MAX_VALUE, due));
+    }
+
+    public void testEarliestTransitionIsNext() {
+        AlarmTransitionQueue queue = new AlarmTransitionQueue();
+        queue.schedule(1, 3000, 1);
+        queue.schedule(2, 1000, 3);
+        queue.schedule(3, 2000, 7);
+        assertEquals(1000, queue.getNextTime());
+        assertEquals(2, queue.peek().instanceId);
+    }
+
+    public void testScheduleReplacesPendingTransition() {
+        AlarmTransitionQueue queue = new AlarmTransitionQueue();
+        queue.schedule(1, 1000, 1);
+        assertNotNull(queue.schedule(1, 5000, 3));
+        assertEquals(1, queue.size());
+        assertEquals(5000, queue.getNextTime());
+        assertEquals(3, queue.get(1).state);
+    }
+
+    public void testCancel() {
+        AlarmTransitionQueue queue = new AlarmTransitionQueue();
+        queue.schedule(1, 1000, 1);
+        queue.schedule(2, 2000, 1);
+        assertNotNull(queue.cancel(1));
+        assertNull(queue.cancel(1));
+        assertEquals(2000, queue.getNextTime());
+    }
+
+    public void testPollDueReturnsAllDueInOrder() {
+        AlarmTransitionQueue queue = new AlarmTransitionQueue();
+        queue.schedule(1, 3000, 1);
+        queue.schedule(2, 1000, 1);
+        queue.schedule(3, 1000, 1);
+        queue.schedule(4, 9000, 1);
+        List<AlarmTransitionQueue.Transition> due = new ArrayList<AlarmTransitionQueue.Transition>();
+        assertEquals(3, queue.pollDue(3000, due));
+        assertEquals(2, due.get(0).instanceId);
+        assertEquals(3, due.get(1).instanceId);
+        assertEquals(1, due.get(2).instanceId);
+        assertEquals(1, queue.size());
+        assertEquals(9000, queue.getNextTime());
+    }
+
+    public void testManyReplacementsKeepOrdering() {
+        AlarmTransitionQueue queue = new AlarmTransitionQueue();
+        Random random = new Random(42);
+        long[] expected = new long[100];
+        for (int i = 0; i < 10000; i++) {
+            int id = random.nextInt(expected.length);
+            long time = random.nextInt(1000000);
+            queue.schedule(id, time, 0);
+            expected[id] = time;
+        }
+        List<AlarmTransitionQueue.Transition> due = new ArrayList<AlarmTransitionQueue.Transition>();
+        queue.pollDue(Long.MAX_VALUE, due);
+        assertEquals(expected.length, due.size());
+        for (int i = 1; i < due.size(); i++) {
+            assertTrue(due.get(i - 1).time <= due.get(i).time);
+        }
+        for (AlarmTransitionQueue.Transition transition : due) {
+            assertEquals(expected[(int) transition.instanceId], transition.time);
+        }
+    }
+
+    /**
+     * Rough benchmark: one schedule per instance and state hop, like a day of alarms.
+     */
+    public void testScheduleAndPollBenchmark() {
+        final int instances = 1000;
+        final int hops = 5;
+        AlarmTransitionQueue queue = new AlarmTransitionQueue();
+        List<AlarmTransitionQueue.Transition> due = new ArrayList<AlarmTransitionQueue.Transition>();
+        long start = System.nanoTime();
+        for (int hop = 0; hop < hops; hop++) {
+            for (int id = 0; id < instances; id++) {
+                queue.schedule(id, hop * 100000L + id, hop);
+            }
+            queue.pollDue(hop * 100000L + instances / 2, due);
+        }
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+        Log.i(TAG, instances * hops + " schedules in "
+                + elapsedMicros + "us");
+        // Each poll consumed the first half of the instances, ids 0 to instances / 2.
+        assertEquals(instances - instances / 2 - 1, queue.size());
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Replays sensor traces through {@link GesturePipeline} with every gesture, and checks which
+ * gestures are detected. Apart from logging, this only depends on the JDK, so it also runs on
+ * a desktop JVM.
+ */
+public class GesturePipelineTest extends TestCase {
+    private static final String TAG = "GesturePipelineTest";
+
+    private static class Counter implements Runnable {
+        int count;
+
+        @Override
+        public void run() {
+            count++;
+        }
+    }
+
+    private static class RateCounter implements GesturePipeline.Callback {
+        int fast;
+        int slow;
+
+        @Override
+        public void onSamplingRateChanged(boolean isFast) {
+            if (isFast) {
+                fast++;
+            } else {
+                slow++;
+            }
+        }
+    }
+
+    private RateCounter mRates;
+    private Counter mFlips;
+    private Counter mShakes;
+    private Counter mDoubleTaps;
+    private Counter mPickUps;
+    private GesturePipeline mPipeline;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRates = new RateCounter();
+        mFlips = new Counter();
+        mShakes = new Counter();
+        mDoubleTaps = new Counter();
+        mPickUps = new Counter();
+        mPipeline = new GesturePipeline(mRates);
+        mPipeline.addGesture(new FlipGesture(mFlips));
+        mPipeline.addGesture(new ShakeGesture(mShakes));
+        mPipeline.addGesture(new DoubleTapGesture(mDoubleTaps));
+        mPipeline.addGesture(new PickUpGesture(mPickUps));
+    }
+
+    // Every gesture but the double tap, which keeps sampling fast
+    private GesturePipeline createAdaptivePipeline() {
+        final GesturePipeline pipeline = new GesturePipeline(mRates);
+        pipeline.addGesture(new FlipGesture(mFlips));
+        pipeline.addGesture(new ShakeGesture(mShakes));
+        pipeline.addGesture(new PickUpGesture(mPickUps));
+        return pipeline;
+    }
+
+    private void assertDetected(int flips, int shakes, int doubleTaps, int pickUps) {
+        assertEquals("flips", flips, mFlips.count);
+        assertEquals("shakes", shakes, mShakes.count);
+        assertEquals("double taps", doubleTaps, mDoubleTaps.count);
+        assertEquals("pick ups", pickUps, mPickUps.count);
+    }
+
+    public void testStillDeviceStaysSlow() {
+        final SensorTrace trace = new SensorTrace().hold(10, 0);
+        final GesturePipeline pipeline = createAdaptivePipeline();
+        final int delivered = trace.replay(pipeline);
+        assertDetected(0, 0, 0, 0);
+        assertEquals(0, mRates.fast);
+        assertTrue(delivered <= trace.size() / 10);
+    }
+
+    public void testDoubleTapKeepsSamplingFast() {
+        assertTrue(mPipeline.isFast());
+        final SensorTrace trace = new SensorTrace().hold(10, 0);
+        // Recorded every 10ms, delivered every 20ms at the fast rate
+        assertEquals(trace.size() / 2, trace.replay(mPipeline));
+        assertTrue(mPipeline.isFast());
+        assertEquals(0, mRates.slow);
+
+        mPipeline.reset();
+        assertTrue(mPipeline.isFast());
+    }
+
+    public void testFlip() {
+        new SensorTrace().hold(2, 0).rotate(0.6f, 180).hold(2, 180).replay(mPipeline);
+        assertEquals(1, mFlips.count);
+        assertEquals(0, mShakes.count);
+        assertEquals(0, mDoubleTaps.count);
+    }
+
+    public void testFlipAtSlowRate() {
+        // A slow turn may never raise the sampling rate
+        new SensorTrace().hold(2, 0).rotate(3, 180).hold(2, 180)
+                .replay(createAdaptivePipeline());
+        assertEquals(1, mFlips.count);
+        assertEquals(0, mShakes.count);
+    }
+
+    public void testShake() {
+        new SensorTrace().hold(1, 30).shake(1.5f, 4, 18).hold(1, 30).replay(mPipeline);
+        assertDetected(0, 1, 0, 0);
+    }
+
+    public void testGentleShakeIgnored() {
+        new SensorTrace().hold(1, 30).shake(2, 2, 6).hold(1, 30).replay(mPipeline);
+        assertEquals(0, mShakes.count);
+    }
+
+    public void testShakeSensitivity() {
+        final Counter shakes = new Counter();
+        final GesturePipeline pipeline = new GesturePipeline(mRates);
+        pipeline.addGesture(new ShakeGesture(shakes, 5));
+        new SensorTrace().hold(1, 30).shake(2, 2, 6).hold(1, 30).replay(pipeline);
+        assertEquals(1, shakes.count);
+    }
+
+    public void testDoubleTap() {
+        // On a device lying still, the taps are the first motion there is
+        new SensorTrace().hold(1, 0).tap(8).hold(0.25f, 0).tap(8).hold(1, 0)
+                .replay(mPipeline);
+        assertDetected(0, 0, 1, 0);
+    }
+
+    public void testSingleAndTripleTapsIgnored() {
+        new SensorTrace().hold(1, 0)
+                .tap(8).hold(1, 0)
+                .tap(8).hold(0.2f, 0).tap(8).hold(0.2f, 0).tap(8).hold(1, 0)
+                .replay(mPipeline);
+        assertEquals(0, mDoubleTaps.count);
+    }
+
+    public void testPickUp() {
+        new SensorTrace().hold(2, 180).rotate(1, 120).hold(1, 120).replay(mPipeline);
+        assertDetected(0, 0, 0, 1);
+    }
+
+    public void testPickUpNeedsRest() {
+        new SensorTrace().hold(0.5f, 0).rotate(1, 60).hold(1, 60).replay(mPipeline);
+        assertEquals(0, mPickUps.count);
+    }
+
+    public void testWalkingIgnored() {
+        new SensorTrace().hold(1, 80).walk(10, 3).hold(1, 80).replay(mPipeline);
+        assertDetected(0, 0, 0, 0);
+    }
+
+    public void testRateFollowsMotion() {
+        final SensorTrace trace = new SensorTrace().hold(2, 30).shake(1, 4, 18).hold(5, 30);
+        final GesturePipeline pipeline = createAdaptivePipeline();
+        trace.replay(pipeline);
+        assertEquals(1, mRates.fast);
+        assertEquals(1, mRates.slow);
+        assertFalse(pipeline.isFast());
+    }
+
+    public void testGestureFiresOnceUntilReset() {
+        final SensorTrace trace = new SensorTrace().hold(1, 30).shake(1.5f, 4, 18)
+                .hold(1, 30).shake(1.5f, 4, 18);
+        trace.replay(mPipeline);
+        assertEquals(1, mShakes.count);
+
+        mPipeline.reset();
+        new SensorTrace().hold(1, 30).shake(1.5f, 4, 18).replay(mPipeline);
+        assertEquals(2, mShakes.count);
+    }
+
+    public void testRecordedTrace() throws Exception {
+        final SensorTrace recorded = new SensorTrace().hold(2, 0).rotate(0.6f, 180).hold(2, 180);
+        final SensorTrace parsed = SensorTrace.parse("# timestamp_nanos x y z\n"
+                + recorded.format());
+        assertEquals(recorded.size(), parsed.size());
+        parsed.replay(mPipeline);
+        assertEquals(1, mFlips.count);
+    }
+
+    public void testBenchmarkCpuCost() {
+        final SensorTrace trace = new SensorTrace();
+        for (int i = 0; i < 20; i++) {
+            trace.hold(1, 0).shake(1, 4, 18).walk(1, 3).tap(8).hold(0.25f, 0).tap(8)
+                    .rotate(0.5f, 180).rotate(0.5f, 0);
+        }
+        // Warm up, then feed every sample as if always sampling fast
+        for (int i = 0; i < 5; i++) {
+            mPipeline.reset();
+            trace.replayAll(mPipeline);
+        }
+        final int runs = 20;
+        final long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            mPipeline.reset();
+            trace.replayAll(mPipeline);
+        }
+        final long elapsed = System.nanoTime() - start;
+        Log.i(TAG, elapsed / ((long) runs * trace.size()) + "ns per sample with 4 gestures");
+
+        // Without the double tap, which keeps sampling fast
+        final int delivered = trace.replay(createAdaptivePipeline());
+        Log.i(TAG, delivered + " of " + trace.size()
+                + " samples delivered at the adaptive rate");
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Accelerometer samples recorded at a high rate, replayed into a {@link GesturePipeline} at the
+ * rate the pipeline asks for, like the sensor would deliver them.
+ *
+ * A recorded trace is read from text with one "timestamp_nanos x y z" sample per line, as
+ * logged from SensorEvent. Synthetic traces are built from motions of a device held at an angle
+ * around its x axis: 0 degrees is face up, 180 face down.
+ */
+public class SensorTrace {
+    static final float GRAVITY = 9.81f;
+
+    // Recording rate of synthetic traces
+    private static final long RECORD_INTERVAL_NANOS = 10 * GesturePipeline.NANOS_PER_MILLI;
+    // Delivery intervals of SENSOR_DELAY_NORMAL and SENSOR_DELAY_GAME
+    static final long SLOW_INTERVAL_NANOS = 200 * GesturePipeline.NANOS_PER_MILLI;
+    static final long FAST_INTERVAL_NANOS = 20 * GesturePipeline.NANOS_PER_MILLI;
+
+    private static final float NOISE = 0.1f;
+
+    private long[] mTimes = new long[256];
+    private float[] mValues = new float[3 * 256];
+    private int mSize;
+
+    private final Random mRandom = new Random(0);
+    private long mNextTimeNanos = 1000 * GesturePipeline.NANOS_PER_SECOND;
+    private float mAngle;
+
+    public int size() {
+        return mSize;
+    }
+
+    public void add(long timeNanos, float x, float y, float z) {
+        if (mSize == mTimes.length) {
+            final long[] times = new long[mSize * 2];
+            System.arraycopy(mTimes, 0, times, 0, mSize);
+            mTimes = times;
+            final float[] values = new float[mSize * 6];
+            System.arraycopy(mValues, 0, values, 0, mSize * 3);
+            mValues = values;
+        }
+        mTimes[mSize] = timeNanos;
+        mValues[mSize * 3] = x;
+        mValues[mSize * 3 + 1] = y;
+        mValues[mSize * 3 + 2] = z;
+        mSize++;
+        mNextTimeNanos = timeNanos + RECORD_INTERVAL_NANOS;
+    }
+
+    public static SensorTrace parse(Reader in) throws IOException {
+        final SensorTrace trace = new SensorTrace();
+        final BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split("\\s+");
+            trace.add(Long.parseLong(fields[0]), Float.parseFloat(fields[1]),
+                    Float.parseFloat(fields[2]), Float.parseFloat(fields[3]));
+        }
+        return trace;
+    }
+
+    public static SensorTrace parse(String text) throws IOException {
+        return parse(new StringReader(text));
+    }
+
+    public String format() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mSize; i++) {
+            sb.append(mTimes[i]).append(' ').append(mValues[i * 3]).append(' ')
+                    .append(mValues[i * 3 + 1]).append(' ').append(mValues[i * 3 + 2])
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Feed the samples to the pipeline at the interval it asks for: slow, or fast when
+     * {@link GesturePipeline#isFast}.
+     *
+     * @return number of samples delivered
+     */
+    public int replay(GesturePipeline pipeline) {
+        int delivered = 0;
+        long next = Long.MIN_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            if (mTimes[i] < next) {
+                continue;
+            }
+            pipeline.onSample(mTimes[i], mValues[i * 3], mValues[i * 3 + 1], mValues[i * 3 + 2]);
+            delivered++;
+            next = mTimes[i] + (pipeline.isFast() ? FAST_INTERVAL_NANOS : SLOW_INTERVAL_NANOS);
+        }
+        return delivered;
+    }
+
+    /**
+     * Feed every sample to the pipeline, whatever rate it asks for.
+     */
+    public void replayAll(GesturePipeline pipeline) {
+        for (int i = 0; i < mSize; i++) {
+            pipeline.onSample(mTimes[i], mValues[i * 3], mValues[i * 3 + 1], mValues[i * 3 + 2]);
+        }
+    }
+
+    /**
+     * Hold the device still at an angle.
+     */
+    public SensorTrace hold(float seconds, float angle) {
+        mAngle = angle;
+        for (int i = 0; i < samples(seconds); i++) {
+            record(0, 0, 0);
+        }
+        return this;
+    }
+
+    /**
+     * Turn the device smoothly to an angle.
+     */
+    public SensorTrace rotate(float seconds, float angle) {
+        final float from = mAngle;
+        final int samples = samples(seconds);
+        for (int i = 1; i <= samples; i++) {
+            final float progress = (float) i / samples;
+            mAngle = from + (angle - from) * (1 - (float) Math.cos(Math.PI * progress)) / 2;
+            record(0, 0, 0);
+        }
+        return this;
+    }
+
+    /**
+     * Shake the device back and forth along its x axis.
+     */
+    public SensorTrace shake(float seconds, float hertz, float amplitude) {
+        final int samples = samples(seconds);
+        for (int i = 0; i < samples; i++) {
+            final double t = i * RECORD_INTERVAL_NANOS / 1e9;
+            record((float) (amplitude * Math.sin(2 * Math.PI * hertz * t)), 0, 0);
+        }
+        return this;
+    }
+
+    /**
+     * Bounce the device along its z axis, like it does in a hand or a pocket while walking.
+     */
+    public SensorTrace walk(float seconds, float amplitude) {
+        final int samples = samples(seconds);
+        for (int i = 0; i < samples; i++) {
+            final double t = i * RECORD_INTERVAL_NANOS / 1e9;
+            record(0, 0, (float) (amplitude * Math.sin(2 * Math.PI * 2 * t)));
+        }
+        return this;
+    }
+
+    /**
+     * Tap the device: a 20ms spike of acceleration along its z axis.
+     */
+    public SensorTrace tap(float amplitude) {
+        record(0, 0, amplitude);
+        record(0, 0, amplitude);
+        return this;
+    }
+
+    private static int samples(float seconds) {
+        return Math.round(seconds * 1e9f / RECORD_INTERVAL_NANOS);
+    }
+
+    // Gravity at the current angle plus linear acceleration and sensor noise
+    private void record(float x, float y, float z) {
+        final double radians = Math.toRadians(mAngle);
+        add(mNextTimeNanos,
+                x + noise(),
+                y + (float) (GRAVITY * Math.sin(radians)) + noise(),
+                z + (float) (GRAVITY * Math.cos(radians)) + noise());
+    }
+
+    private float noise() {
+        return (float) mRandom.nextGaussian() * NOISE;
+    }
+}
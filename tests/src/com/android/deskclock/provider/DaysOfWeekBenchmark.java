@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.provider;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.HashSet;
+
+/**
+ * Compares iterating the set days and finding the next set day with a HashSet and a day by day
+ * Calendar loop, as DaysOfWeek used to, with the bitmask operations. Each case is run for
+ * every combination of days and every day of the week, warmed up before being measured.
+ */
+public class DaysOfWeekBenchmark extends AndroidTestCase {
+    private static final String TAG = "DaysOfWeekBenchmark";
+
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int ROUNDS = 1000;
+    private static final int OPERATIONS_PER_ROUND =
+            (DaysOfWeek.ALL_DAYS_SET + 1) * DaysOfWeek.DAYS_IN_A_WEEK;
+
+    private final DaysOfWeek[] mDaysOfWeek = new DaysOfWeek[DaysOfWeek.ALL_DAYS_SET + 1];
+    private final Calendar[] mCalendars = new Calendar[DaysOfWeek.DAYS_IN_A_WEEK];
+    private final int[] mDays = new int[DaysOfWeek.DAYS_IN_A_WEEK];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int bitSet = 0; bitSet <= DaysOfWeek.ALL_DAYS_SET; bitSet++) {
+            mDaysOfWeek[bitSet] = new DaysOfWeek(bitSet);
+        }
+        for (int i = 0; i < DaysOfWeek.DAYS_IN_A_WEEK; i++) {
+            mCalendars[i] = Calendar.getInstance();
+            mCalendars[i].add(Calendar.DATE, i);
+        }
+    }
+
+    public void testIterateSetDays() {
+        final Benchmark hashSet = new Benchmark() {
+            @Override
+            long round() {
+                long sum = 0;
+                for (DaysOfWeek daysOfWeek : mDaysOfWeek) {
+                    for (int day = 0; day < DaysOfWeek.DAYS_IN_A_WEEK; day++) {
+                        for (int setDay : daysOfWeek.getSetDays()) {
+                            sum += setDay;
+                        }
+                    }
+                }
+                return sum;
+            }
+        };
+        final Benchmark bitmask = new Benchmark() {
+            @Override
+            long round() {
+                long sum = 0;
+                for (DaysOfWeek daysOfWeek : mDaysOfWeek) {
+                    for (int day = 0; day < DaysOfWeek.DAYS_IN_A_WEEK; day++) {
+                        final int count = daysOfWeek.getSetDays(mDays);
+                        for (int i = 0; i < count; i++) {
+                            sum += mDays[i];
+                        }
+                    }
+                }
+                return sum;
+            }
+        };
+        compare("iterate set days", hashSet, bitmask);
+    }
+
+    public void testDaysToNextAlarm() {
+        final Benchmark calendarLoop = new Benchmark() {
+            @Override
+            long round() {
+                long sum = 0;
+                for (DaysOfWeek daysOfWeek : mDaysOfWeek) {
+                    for (Calendar calendar : mCalendars) {
+                        sum += calculateDaysToNextAlarm(daysOfWeek, calendar);
+                    }
+                }
+                return sum;
+            }
+        };
+        final Benchmark bitmask = new Benchmark() {
+            @Override
+            long round() {
+                long sum = 0;
+                for (DaysOfWeek daysOfWeek : mDaysOfWeek) {
+                    for (Calendar calendar : mCalendars) {
+                        sum += daysOfWeek.calculateDaysToNextAlarm(calendar);
+                    }
+                }
+                return sum;
+            }
+        };
+        compare("days to next alarm", calendarLoop, bitmask);
+    }
+
+    private void compare(String name, Benchmark before, Benchmark after) {
+        final long beforeResult = before.run();
+        final long afterResult = after.run();
+        Log.i(TAG, name + ", before: " + before + ", after: " + after);
+        // Both must compute the same thing for the comparison to mean anything.
+        assertEquals(beforeResult, afterResult);
+    }
+
+    // The implementation DaysOfWeek used before the bitmask operations.
+    private static int calculateDaysToNextAlarm(DaysOfWeek daysOfWeek, Calendar current) {
+        if (!daysOfWeek.isRepeating()) {
+            return -1;
+        }
+        final HashSet<Integer> setDays = daysOfWeek.getSetDays();
+        final int currentDay = current.get(Calendar.DAY_OF_WEEK);
+        int dayCount = 0;
+        for (; dayCount < DaysOfWeek.DAYS_IN_A_WEEK; dayCount++) {
+            if (setDays.contains((currentDay - 1 + dayCount) % DaysOfWeek.DAYS_IN_A_WEEK + 1)) {
+                break;
+            }
+        }
+        return dayCount;
+    }
+
+    private abstract static class Benchmark {
+        long nanosPerOperation;
+
+        abstract long round();
+
+        long run() {
+            long result = 0;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                result += round();
+            }
+            final long startNanos = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                result += round();
+            }
+            nanosPerOperation = (System.nanoTime() - startNanos) / ((long) ROUNDS
+                    * OPERATIONS_PER_ROUND);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return nanosPerOperation + "ns/op";
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.provider;
+
+import android.test.AndroidTestCase;
+
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.TimeZone;
+
+/**
+ * Tests for the bitmask operations of {@link DaysOfWeek}.
+ */
+public class DaysOfWeekTest extends AndroidTestCase {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    public void testDaysToNextSetDay() {
+        for (int bitSet = 0; bitSet <= DaysOfWeek.ALL_DAYS_SET; bitSet++) {
+            final DaysOfWeek daysOfWeek = new DaysOfWeek(bitSet);
+            for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+                int expected = -1;
+                for (int i = 0; i < DaysOfWeek.DAYS_IN_A_WEEK; i++) {
+                    if (daysOfWeek.isDaySet((day - 1 + i) % DaysOfWeek.DAYS_IN_A_WEEK + 1)) {
+                        expected = i;
+                        break;
+                    }
+                }
+                assertEquals("bitSet=" + bitSet + " day=" + day, expected,
+                        daysOfWeek.getDaysToNextSetDay(day));
+            }
+        }
+    }
+
+    public void testSetDays() {
+        final DaysOfWeek daysOfWeek = new DaysOfWeek(0);
+        daysOfWeek.setDaysOfWeek(true, Calendar.SUNDAY, Calendar.MONDAY, Calendar.WEDNESDAY);
+        final int[] days = new int[DaysOfWeek.DAYS_IN_A_WEEK];
+        assertEquals(3, daysOfWeek.getSetDays(days));
+        assertEquals(3, daysOfWeek.getSetDayCount());
+        assertEquals(Calendar.MONDAY, days[0]);
+        assertEquals(Calendar.WEDNESDAY, days[1]);
+        assertEquals(Calendar.SUNDAY, days[2]);
+
+        final HashSet<Integer> setDays = daysOfWeek.getSetDays();
+        assertEquals(3, setDays.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(setDays.contains(days[i]));
+        }
+    }
+
+    public void testNextOccurrences() {
+        final DaysOfWeek daysOfWeek = new DaysOfWeek(0);
+        daysOfWeek.setDaysOfWeek(true, Calendar.MONDAY, Calendar.WEDNESDAY);
+        // Monday January 6th 2014, 7:30, after the alarm of the day.
+        final long from = millis(UTC, 2014, Calendar.JANUARY, 6, 7, 30);
+        final long[] occurrences = new long[3];
+        assertEquals(3, daysOfWeek.getNextOccurrences(from, 7, 30, UTC, occurrences));
+        assertEquals(millis(UTC, 2014, Calendar.JANUARY, 8, 7, 30), occurrences[0]);
+        assertEquals(millis(UTC, 2014, Calendar.JANUARY, 13, 7, 30), occurrences[1]);
+        assertEquals(millis(UTC, 2014, Calendar.JANUARY, 15, 7, 30), occurrences[2]);
+    }
+
+    public void testNextOccurrenceNotRepeating() {
+        final DaysOfWeek daysOfWeek = new DaysOfWeek(DaysOfWeek.NO_DAYS_SET);
+        final long from = millis(UTC, 2014, Calendar.JANUARY, 6, 8, 0);
+        final long[] occurrences = new long[3];
+        assertEquals(1, daysOfWeek.getNextOccurrences(from, 9, 0, UTC, occurrences));
+        assertEquals(millis(UTC, 2014, Calendar.JANUARY, 6, 9, 0), occurrences[0]);
+        assertEquals(1, daysOfWeek.getNextOccurrences(from, 7, 0, UTC, occurrences));
+        assertEquals(millis(UTC, 2014, Calendar.JANUARY, 7, 7, 0), occurrences[0]);
+    }
+
+    public void testNextOccurrencesAcrossDaylightSaving() {
+        final TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        final DaysOfWeek daysOfWeek = new DaysOfWeek(DaysOfWeek.ALL_DAYS_SET);
+        // Daylight saving time starts on March 9th 2014.
+        final long from = millis(timeZone, 2014, Calendar.MARCH, 8, 12, 0);
+        final long[] occurrences = new long[3];
+        daysOfWeek.getNextOccurrences(from, 7, 0, timeZone, occurrences);
+        assertEquals(millis(timeZone, 2014, Calendar.MARCH, 9, 7, 0), occurrences[0]);
+        assertEquals(millis(timeZone, 2014, Calendar.MARCH, 10, 7, 0), occurrences[1]);
+        assertEquals(millis(timeZone, 2014, Calendar.MARCH, 11, 7, 0), occurrences[2]);
+    }
+
+    private static long millis(TimeZone timeZone, int year, int month, int day, int hour,
+            int minutes) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minutes);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.provider;
+
+import android.test.AndroidTestCase;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Tests that {@link Recurrence} finds the same next occurrences as stepping through days.
+ */
+public class RecurrenceTest extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    // Days checked, starting on January 1st 2014
+    private static final int DAYS = 3 * 366;
+
+    public void testEpochDay() {
+        final Calendar calendar = day(1900, Calendar.JANUARY, 1);
+        for (int i = 0; i < 200 * 366; i++) {
+            assertEquals(calendar.getTimeInMillis() / DAY_IN_MILLIS
+                    - (calendar.getTimeInMillis() % DAY_IN_MILLIS < 0 ? 1 : 0),
+                    Recurrence.getEpochDay(calendar));
+            calendar.add(Calendar.DATE, 1);
+        }
+    }
+
+    public void testEveryNDays() {
+        final Recurrence recurrence = Recurrence.everyNDays(3,
+                day(2014, Calendar.MARCH, 2));
+        final Calendar calendar = day(2014, Calendar.JANUARY, 1);
+        for (int i = 0; i < DAYS; i++) {
+            final long days = Recurrence.getEpochDay(calendar)
+                    - Recurrence.getEpochDay(day(2014, Calendar.MARCH, 2));
+            // Nothing before the first occurrence on March 2nd
+            assertEquals(days >= 0 && days % 3 == 0, recurrence.occursOn(calendar));
+            calendar.add(Calendar.DATE, 1);
+        }
+        checkAgainstSteps(recurrence);
+    }
+
+    public void testRotation() {
+        final Recurrence recurrence = Recurrence.rotation(4, 4,
+                day(2014, Calendar.JANUARY, 10));
+        assertFalse(recurrence.occursOn(day(2014, Calendar.JANUARY, 6)));
+        assertFalse(recurrence.occursOn(day(2014, Calendar.JANUARY, 9)));
+        assertEquals(4, recurrence.getDaysToNextOccurrence(day(2014, Calendar.JANUARY, 6)));
+        assertTrue(recurrence.occursOn(day(2014, Calendar.JANUARY, 10)));
+        assertTrue(recurrence.occursOn(day(2014, Calendar.JANUARY, 13)));
+        assertFalse(recurrence.occursOn(day(2014, Calendar.JANUARY, 14)));
+        assertFalse(recurrence.occursOn(day(2014, Calendar.JANUARY, 17)));
+        assertTrue(recurrence.occursOn(day(2014, Calendar.JANUARY, 18)));
+        assertEquals(4, recurrence.getDaysToNextOccurrence(day(2014, Calendar.JANUARY, 14)));
+        checkAgainstSteps(recurrence);
+        checkAgainstSteps(Recurrence.rotation(2, 0, day(2014, Calendar.JANUARY, 1)));
+    }
+
+    public void testMonthly() {
+        final Recurrence secondTuesday = Recurrence.monthly(2, Calendar.TUESDAY);
+        assertTrue(secondTuesday.occursOn(day(2014, Calendar.JANUARY, 14)));
+        assertTrue(secondTuesday.occursOn(day(2014, Calendar.APRIL, 8)));
+        assertEquals(27, secondTuesday.getDaysToNextOccurrence(day(2014, Calendar.JANUARY, 15)));
+        checkAgainstSteps(secondTuesday);
+
+        final Recurrence lastFriday = Recurrence.monthly(Recurrence.LAST_WEEK, Calendar.FRIDAY);
+        assertTrue(lastFriday.occursOn(day(2014, Calendar.JANUARY, 31)));
+        assertTrue(lastFriday.occursOn(day(2014, Calendar.FEBRUARY, 28)));
+        assertTrue(lastFriday.occursOn(day(2016, Calendar.FEBRUARY, 26)));
+        checkAgainstSteps(lastFriday);
+    }
+
+    public void testEncode() {
+        final Recurrence[] recurrences = {
+                Recurrence.everyNDays(5, day(2014, Calendar.MAY, 1)),
+                Recurrence.rotation(4, 3, day(1969, Calendar.DECEMBER, 30)),
+                Recurrence.monthly(Recurrence.LAST_WEEK, Calendar.SUNDAY),
+        };
+        for (Recurrence recurrence : recurrences) {
+            assertEquals(recurrence, Recurrence.decode(recurrence.encode()));
+        }
+        assertNull(Recurrence.decode(null));
+        assertNull(Recurrence.decode("interval:0:5"));
+        assertNull(Recurrence.decode("monthly:5:1"));
+        assertNull(Recurrence.decode("weekly"));
+    }
+
+    public void testInstanceAfter() {
+        final Alarm alarm = new Alarm(7, 0);
+        alarm.recurrence = Recurrence.rotation(2, 2, day(2014, Calendar.JANUARY, 1));
+        assertTrue(alarm.isRepeating());
+
+        // After the alarm of the second day on, the next one is on the first day on.
+        final Calendar after = Calendar.getInstance();
+        after.clear();
+        after.set(2014, Calendar.JANUARY, 2, 8, 0);
+        final Calendar next = alarm.createInstanceAfter(after).getAlarmTime();
+        assertEquals(2014, next.get(Calendar.YEAR));
+        assertEquals(Calendar.JANUARY, next.get(Calendar.MONTH));
+        assertEquals(5, next.get(Calendar.DAY_OF_MONTH));
+        assertEquals(7, next.get(Calendar.HOUR_OF_DAY));
+
+        // Nothing before the first day of the rule
+        alarm.recurrence = Recurrence.everyNDays(3, day(2014, Calendar.MARCH, 2));
+        after.set(2014, Calendar.FEBRUARY, 27, 8, 0);
+        final Calendar first = alarm.createInstanceAfter(after).getAlarmTime();
+        assertEquals(Calendar.MARCH, first.get(Calendar.MONTH));
+        assertEquals(2, first.get(Calendar.DAY_OF_MONTH));
+    }
+
+    private static void checkAgainstSteps(Recurrence recurrence) {
+        final Calendar calendar = day(2014, Calendar.JANUARY, 1);
+        final Calendar step = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < DAYS; i++) {
+            int expected = 0;
+            step.setTimeInMillis(calendar.getTimeInMillis());
+            while (!recurrence.occursOn(step)) {
+                step.add(Calendar.DATE, 1);
+                expected++;
+            }
+            assertEquals(recurrence + " from day " + i, expected,
+                    recurrence.getDaysToNextOccurrence(calendar));
+            calendar.add(Calendar.DATE, 1);
+        }
+    }
+
+    private static Calendar day(int year, int month, int day) {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.stopwatch;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Tests for {@link LapLog}: lap times, the running statistics and the append-only file.
+ */
+public class LapLogTest extends AndroidTestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "laps_test.dat");
+        mFile.delete();
+        // An empty file skips the migration of laps from preferences.
+        mFile.createNewFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testLapTimes() {
+        LapLog log = new LapLog(getContext(), mFile);
+        assertEquals(0, log.size());
+        assertEquals(0, log.getLastTotalTime());
+        log.addLap(1000);
+        log.addLap(3500);
+        log.addLap(4000);
+        assertEquals(3, log.size());
+        assertEquals(1000, log.getLapTime(0));
+        assertEquals(2500, log.getLapTime(1));
+        assertEquals(500, log.getLapTime(2));
+        assertEquals(3500, log.getTotalTime(1));
+        assertEquals(4000, log.getLastTotalTime());
+    }
+
+    public void testStatistics() {
+        LapLog log = new LapLog(getContext(), mFile);
+        assertEquals(-1, log.getBestLap());
+        assertEquals(-1, log.getWorstLap());
+
+        // Laps of 400, 1000, 700 and 100
+        log.addLap(400);
+        log.addLap(1400);
+        log.addLap(2100);
+        log.addLap(2200);
+        assertEquals(100, log.getMinLapTime());
+        assertEquals(3, log.getBestLap());
+        assertEquals(1000, log.getMaxLapTime());
+        assertEquals(1, log.getWorstLap());
+        assertEquals(550, log.getMeanLapTime());
+        // Square root of (150^2 + 450^2 + 150^2 + 450^2) / 4
+        assertEquals(335, log.getLapTimeDeviation());
+    }
+
+    public void testStatisticsOfManyLaps() {
+        LapLog log = new LapLog(getContext(), mFile);
+        Random random = new Random(42);
+        final int laps = 10000;
+        long[] lapTimes = new long[laps];
+        long total = 0;
+        for (int i = 0; i < laps; i++) {
+            lapTimes[i] = 1000 + random.nextInt(60000);
+            total += lapTimes[i];
+            log.addLap(total);
+        }
+
+        double sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long lap : lapTimes) {
+            sum += lap;
+            min = Math.min(min, lap);
+            max = Math.max(max, lap);
+        }
+        double mean = sum / laps;
+        double squares = 0;
+        for (long lap : lapTimes) {
+            squares += (lap - mean) * (lap - mean);
+        }
+        assertEquals(laps, log.size());
+        assertEquals(min, log.getMinLapTime());
+        assertEquals(max, log.getMaxLapTime());
+        assertEquals(min, lapTimes[log.getBestLap()]);
+        assertEquals(max, lapTimes[log.getWorstLap()]);
+        assertEquals(Math.round(mean), log.getMeanLapTime());
+        assertEquals(Math.round(Math.sqrt(squares / laps)), log.getLapTimeDeviation());
+    }
+
+    public void testClear() {
+        LapLog log = new LapLog(getContext(), mFile);
+        log.addLap(1000);
+        log.clear();
+        assertEquals(0, log.size());
+        assertEquals(-1, log.getBestLap());
+        log.addLap(300);
+        assertEquals(300, log.getMinLapTime());
+        assertEquals(300, log.getMaxLapTime());
+        assertEquals(0, log.getBestLap());
+    }
+
+    public void testReload() {
+        LapLog log = new LapLog(getContext(), mFile);
+        log.addLap(1000);
+        log.addLap(2500);
+        log.write();
+        // Appended to the file by the second write
+        log.addLap(2700);
+        log.write();
+
+        LapLog reloaded = new LapLog(getContext(), mFile);
+        assertEquals(3, reloaded.size());
+        assertEquals(2700, reloaded.getLastTotalTime());
+        assertEquals(200, reloaded.getMinLapTime());
+        assertEquals(2, reloaded.getBestLap());
+
+        log.clear();
+        log.write();
+        assertEquals(0, new LapLog(getContext(), mFile).size());
+    }
+
+    public void testPartialLapIsDropped() throws IOException {
+        LapLog log = new LapLog(getContext(), mFile);
+        log.addLap(1000);
+        log.write();
+        // A lap interrupted while being written
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        LapLog reloaded = new LapLog(getContext(), mFile);
+        assertEquals(1, reloaded.size());
+        assertEquals(1000, reloaded.getLastTotalTime());
+
+        // Laps added after the partial one must not be written after its bytes.
+        reloaded.addLap(1800);
+        reloaded.addLap(3000);
+        reloaded.write();
+        LapLog again = new LapLog(getContext(), mFile);
+        assertEquals(3, again.size());
+        assertEquals(1000, again.getTotalTime(0));
+        assertEquals(1800, again.getTotalTime(1));
+        assertEquals(3000, again.getTotalTime(2));
+        assertEquals(800, again.getMinLapTime());
+        assertEquals(1, again.getBestLap());
+        assertEquals(4 + 3 * 8, mFile.length());
+    }
+}
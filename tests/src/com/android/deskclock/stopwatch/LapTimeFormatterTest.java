@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.stopwatch;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.android.deskclock.R;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Tests that {@link LapTimeFormatter} prints the same text as
+ * {@link Stopwatches#formatTimeText}, and that it does not allocate while ticking.
+ */
+public class LapTimeFormatterTest extends AndroidTestCase {
+    // An hour of stopwatch ticks
+    private static final int TICKS = 360000;
+    private static final long TICK_MILLIS = 10;
+
+    private static final long[] TIMES = {
+            -5, 0, 9, 10, 999, 1000, 59990, 60000, 599990, 600000, 3599990, 3600000,
+            36000000, 359999990, 360000000, 3599999990L, 3600000000L, 36000000000L
+    };
+
+    private String[] mFormats;
+    private LapTimeFormatter mFormatter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFormats = getContext().getResources().getStringArray(R.array.stopwatch_format_set);
+        mFormatter = new LapTimeFormatter(mFormats);
+    }
+
+    public void testMatchesStringFormat() {
+        final char[] buffer = mFormatter.newBuffer();
+        for (int format = 0; format < mFormats.length; format++) {
+            for (long time : TIMES) {
+                final int length = mFormatter.format(time, format, buffer);
+                assertEquals(mFormats[format] + " " + time,
+                        Stopwatches.formatTimeText(time, mFormats[format]),
+                        new String(buffer, 0, length));
+            }
+        }
+    }
+
+    public void testPadding() {
+        final LapTimeFormatter formatter = new LapTimeFormatter(new String[] {
+                "%1$3d|%2$03d|%5$2c|%%"
+        });
+        final char[] buffer = formatter.newBuffer();
+        final long time = 2 * 3600000 + 7 * 60000;
+        final int length = formatter.format(time, 0, buffer);
+        final char separator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+        assertEquals(String.format("%3d|%03d|%2c|%%", 2, 7, separator),
+                new String(buffer, 0, length));
+    }
+
+    public void testUnsupportedFormat() {
+        try {
+            new LapTimeFormatter(new String[] { "%6$d" });
+            fail("Lap number is not a time argument");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new LapTimeFormatter(new String[] { "%s" });
+            fail("Arguments must be numbered");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testTickDoesNotAllocate() {
+        final char[] lapBuffer = mFormatter.newBuffer();
+        final char[] totalBuffer = mFormatter.newBuffer();
+        // Warm up
+        mFormatter.format(0, 0, lapBuffer);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        try {
+            for (int ii = 0; ii < TICKS; ii++) {
+                final long time = ii * TICK_MILLIS;
+                mFormatter.format(time % 60000, 0, lapBuffer);
+                mFormatter.format(time, time < 600000 ? 0 : 1, totalBuffer);
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.timer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.accessibility.AccessibilityManager;
+
+/**
+ * Counts the allocations made by {@link CountingTimerView} while ticking.
+ */
+public class CountingTimerViewAllocationTest extends AndroidTestCase {
+    private static final int SIZE = 400;
+    // Ten seconds of stopwatch ticks
+    private static final int TICKS = 1000;
+    private static final long TICK_MILLIS = 10;
+
+    private CountingTimerView mView;
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mView = new CountingTimerView(getContext());
+        mView.layout(0, 0, SIZE, SIZE);
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testStopwatchTickDoesNotAllocate() {
+        assertEquals(0, countTickAllocations(0, TICK_MILLIS, true));
+    }
+
+    public void testTimerTickDoesNotAllocate() {
+        // Count down through zero, so the minus sign is drawn too.
+        assertEquals(0, countTickAllocations(5000, -TICK_MILLIS, false));
+    }
+
+    private int countTickAllocations(long startTime, long step, boolean showHundredths) {
+        final AccessibilityManager am = (AccessibilityManager)
+                getContext().getSystemService(Context.ACCESSIBILITY_SERVICE);
+        // The spoken time is rebuilt once per second when accessibility is on.
+        final int ticks = am.isEnabled() ? (int) (1000 / Math.abs(step)) - 1 : TICKS;
+
+        // Warm up, so the text is measured and sized before counting.
+        long time = startTime;
+        mView.setTime(time, showHundredths, true);
+        mView.onDraw(mCanvas);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        try {
+            for (int ii = 0; ii < ticks; ii++) {
+                time += step;
+                mView.setTime(time, showHundredths, true);
+                mView.onDraw(mCanvas);
+            }
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
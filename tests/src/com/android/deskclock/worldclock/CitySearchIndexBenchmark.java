@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.android.deskclock.R;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares {@link CitySearchIndex} with scanning every city name, as the cities list used to,
+ * for the city names and for ten times as many.
+ */
+public class CitySearchIndexBenchmark extends AndroidTestCase {
+    private static final String TAG = "CitySearchIndexBenchmark";
+
+    // Typed one character at a time, like a user searching
+    private static final String[] QUERIES = { "S", "SA", "SAN", "SANT", "N", "NE", "NEW", "P" };
+
+    public void testCities() {
+        benchmark("cities", getContext().getResources().getStringArray(R.array.cities_names));
+    }
+
+    public void testTenTimesCities() {
+        final String[] cities = getContext().getResources().getStringArray(R.array.cities_names);
+        final String[] names = new String[cities.length * 10];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = i < cities.length ? cities[i] : cities[i % cities.length] + " " + i;
+        }
+        benchmark("10x cities", names);
+    }
+
+    private void benchmark(String label, String[] names) {
+        final int rounds = 20;
+
+        long start = System.nanoTime();
+        final CitySearchIndex index = new CitySearchIndex(names);
+        final long buildMicros = (System.nanoTime() - start) / 1000;
+
+        int indexResults = 0;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String query : QUERIES) {
+                indexResults += index.search(query).length;
+            }
+        }
+        final long indexMicros = (System.nanoTime() - start) / 1000;
+
+        int scanResults = 0;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String query : QUERIES) {
+                scanResults += scan(names, query).size();
+            }
+        }
+        final long scanMicros = (System.nanoTime() - start) / 1000;
+
+        Log.i(TAG, label + " (" + names.length + " names): build " + buildMicros + "us, "
+                + rounds * QUERIES.length + " queries indexed " + indexMicros + "us, scanned "
+                + scanMicros + "us");
+        // Every word is indexed, so the index finds at least what a name prefix scan finds.
+        assertTrue(indexResults >= scanResults);
+    }
+
+    // The search the cities list did before the index
+    private static List<String> scan(String[] names, String query) {
+        final String modifiedQuery = query.trim().toUpperCase(Locale.ROOT);
+        final List<String> results = new ArrayList<String>();
+        for (String name : names) {
+            if (name.trim().toUpperCase(Locale.ROOT).startsWith(modifiedQuery)) {
+                results.add(name);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link CitySearchIndex}.
+ */
+public class CitySearchIndexTest extends AndroidTestCase {
+    private static final String[] NAMES = {
+            "Abidjan", "New York", "São Paulo", "Sao Tome", "Port-au-Prince", null, "Newark",
+            "Saint Petersburg"
+    };
+
+    // Typed one character at a time, like a user searching
+    private static final String[] QUERIES = { "S", "SA", "SAN", "SANT", "N", "NE", "NEW", "P" };
+
+    public void testPrefixOfName() {
+        CitySearchIndex index = new CitySearchIndex(NAMES);
+        assertMatches(index.search("new"), 1, 6);
+        assertMatches(index.search("Abi"), 0);
+    }
+
+    public void testPrefixOfLaterWord() {
+        CitySearchIndex index = new CitySearchIndex(NAMES);
+        assertMatches(index.search("york"), 1);
+        assertMatches(index.search("prince"), 4);
+        assertMatches(index.search("p"), 2, 4, 7);
+    }
+
+    public void testAccentsAndCaseAreFolded() {
+        CitySearchIndex index = new CitySearchIndex(NAMES);
+        assertMatches(index.search("sao"), 2, 3);
+        assertMatches(index.search("SÃO P"), 2);
+    }
+
+    public void testNullNamesAreSkipped() {
+        CitySearchIndex index = new CitySearchIndex(NAMES);
+        for (char c = 'a'; c <= 'z'; c++) {
+            for (int match : index.search(String.valueOf(c))) {
+                assertNotNull(NAMES[match]);
+            }
+        }
+    }
+
+    public void testNoMatch() {
+        CitySearchIndex index = new CitySearchIndex(NAMES);
+        assertMatches(index.search("x"));
+        // Narrowing a query without matches, then widening it again
+        assertMatches(index.search("xy"));
+        assertMatches(index.search("s"), 2, 3, 7);
+    }
+
+    public void testNarrowingMatchesFreshSearch() {
+        CitySearchIndex index = new CitySearchIndex(NAMES);
+        for (String query : QUERIES) {
+            int[] narrowed = index.search(query);
+            int[] fresh = new CitySearchIndex(NAMES).search(query);
+            assertEquals(query, toList(fresh), toList(narrowed));
+        }
+    }
+
+    private static void assertMatches(int[] actual, Integer... expected) {
+        List<Integer> expectedList = new ArrayList<Integer>();
+        for (Integer i : expected) {
+            expectedList.add(i);
+        }
+        assertEquals(expectedList, toList(actual));
+    }
+
+    private static List<Integer> toList(int[] array) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i : array) {
+            list.add(i);
+        }
+        return list;
+    }
+}
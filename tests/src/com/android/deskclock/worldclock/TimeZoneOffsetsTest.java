@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.worldclock;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TimeZone;
+
+/**
+ * Tests for {@link TimeZoneOffsets}, and a benchmark against sorting with a comparator that
+ * looks up both time zones for every comparison like the world clock list used to.
+ */
+public class TimeZoneOffsetsTest extends AndroidTestCase {
+    private static final String TAG = "TimeZoneOffsetsTest";
+
+    private static final String[] TIME_ZONES = {
+            "America/New_York", "Europe/London", "Australia/Sydney", "Asia/Kolkata", "UTC"
+    };
+
+    // 2014-03-09 07:00 UTC, when daylight savings time started in New York
+    private static final long NEW_YORK_DST_START = 1394348400000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TimeZoneOffsets.clear();
+    }
+
+    public void testOffsetAcrossTransition() {
+        assertEquals(-5 * HOUR, TimeZoneOffsets.getOffset("America/New_York",
+                NEW_YORK_DST_START - 1));
+        assertEquals(-4 * HOUR, TimeZoneOffsets.getOffset("America/New_York",
+                NEW_YORK_DST_START));
+        // Going back in time, like after the clock was set back
+        assertEquals(-5 * HOUR, TimeZoneOffsets.getOffset("America/New_York",
+                NEW_YORK_DST_START - HOUR));
+    }
+
+    public void testOffsetMatchesTimeZone() {
+        for (String id : TIME_ZONES) {
+            final TimeZone timeZone = TimeZone.getTimeZone(id);
+            // Every 5 hours over 2 years, through each transition
+            for (long time = NEW_YORK_DST_START - 365 * 24 * HOUR;
+                    time < NEW_YORK_DST_START + 365 * 24 * HOUR; time += 5 * HOUR) {
+                assertEquals(id + " at " + time, timeZone.getOffset(time),
+                        TimeZoneOffsets.getOffset(id, time));
+            }
+        }
+    }
+
+    public void testValidUntilNextTransition() {
+        assertEquals(NEW_YORK_DST_START, TimeZoneOffsets.getValidUntil("America/New_York",
+                NEW_YORK_DST_START - 24 * HOUR));
+        // No transitions, checked again after a while
+        assertTrue(TimeZoneOffsets.getValidUntil("UTC", NEW_YORK_DST_START)
+                > NEW_YORK_DST_START + 24 * HOUR);
+    }
+
+    public void testClearChangesGeneration() {
+        final int generation = TimeZoneOffsets.getGeneration();
+        assertEquals(generation, TimeZoneOffsets.getGeneration());
+        TimeZoneOffsets.clear();
+        assertFalse(generation == TimeZoneOffsets.getGeneration());
+    }
+
+    public void testSortByOffset() {
+        final CityObj[] cities = {
+                new CityObj("Sydney", "Australia/Sydney", "C1"),
+                new CityObj("New York", "America/New_York", "C2"),
+                new CityObj("Boston", "America/New_York", "C3"),
+                new CityObj(null, "America/New_York", "C4"),
+                new CityObj("Home", null, null),
+                new CityObj("London", "Europe/London", "C5")
+        };
+        TimeZoneOffsets.sortByOffset(cities, NEW_YORK_DST_START);
+        assertEquals(null, cities[0].mCityId);
+        assertEquals("C4", cities[1].mCityId);
+        assertEquals("C3", cities[2].mCityId);
+        assertEquals("C2", cities[3].mCityId);
+        assertEquals("C5", cities[4].mCityId);
+        assertEquals("C1", cities[5].mCityId);
+    }
+
+    public void testBenchmarkSortAllTimeZones() {
+        final String[] ids = TimeZone.getAvailableIDs();
+        final CityObj[] cities = new CityObj[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            cities[i] = new CityObj(ids[i].substring(ids[i].lastIndexOf('/') + 1), ids[i],
+                    String.valueOf(i));
+        }
+        final long now = System.currentTimeMillis();
+        final int rounds = 10;
+
+        final CityObj[] compared = cities.clone();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            System.arraycopy(cities, 0, compared, 0, cities.length);
+            Arrays.sort(compared, new LookupComparator(now));
+        }
+        final long comparatorMicros = (System.nanoTime() - start) / 1000;
+
+        final CityObj[] decorated = cities.clone();
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            System.arraycopy(cities, 0, decorated, 0, cities.length);
+            TimeZoneOffsets.sortByOffset(decorated, now);
+        }
+        final long decoratedMicros = (System.nanoTime() - start) / 1000;
+
+        Log.i(TAG, "sort " + cities.length + " cities x " + rounds + ": comparator "
+                + comparatorMicros + "us, cached keys " + decoratedMicros + "us");
+        assertEquals(Arrays.asList(compared), Arrays.asList(decorated));
+    }
+
+    // The comparator the world clock list sorted with before the cache
+    private static class LookupComparator implements Comparator<CityObj> {
+        private final Collator mCollator = Collator.getInstance();
+        private final long mTime;
+
+        LookupComparator(long time) {
+            mTime = time;
+        }
+
+        @Override
+        public int compare(CityObj city1, CityObj city2) {
+            int offset1 = TimeZone.getTimeZone(city1.mTimeZone).getOffset(mTime);
+            int offset2 = TimeZone.getTimeZone(city2.mTimeZone).getOffset(mTime);
+            if (offset1 == offset2) {
+                return mCollator.compare(city1.mCityName, city2.mCityName);
+            }
+            return offset1 < offset2 ? -1 : 1;
+        }
+    }
+}